@@ -0,0 +1,23 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * A row of an account import that was not created. Rows are numbered from 1: CSV rows by line,
+ * binary rows by record.
+ */
+@Data
+public class AccountImportError {
+
+  private final long row;
+
+  private final String accountId;
+
+  private final String reason;
+
+  public AccountImportError(long row, String accountId, String reason) {
+    this.row = row;
+    this.accountId = accountId;
+    this.reason = reason;
+  }
+}
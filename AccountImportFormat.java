@@ -0,0 +1,41 @@
+package com.dws.challenge.service;
+
+/**
+ * Input formats of {@link AccountImporter}.
+ * <ul>
+ * <li>{@code CSV}: one {@code accountId,balance} row per line, UTF-8, no quoting. An optional
+ * first line starting with {@code accountId} is a header; blank lines are skipped.</li>
+ * <li>{@code BINARY}: big-endian header {@code int magic ("ACCT") | int scale | long accountCount}
+ * ({@code -1} if unknown), then per account {@code unsigned short idLength | UTF-8 id |
+ * long balanceMinorUnits} at {@code scale} decimal places.</li>
+ * </ul>
+ */
+public enum AccountImportFormat {
+
+  CSV("text/csv"),
+
+  BINARY("application/octet-stream");
+
+  private final String contentType;
+
+  AccountImportFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * The format for a request content type; parameters such as the charset are ignored.
+   */
+  public static AccountImportFormat forContentType(String contentType) {
+    String mediaType = contentType != null ? contentType.split(";", 2)[0].trim() : "";
+    for (AccountImportFormat format : values()) {
+      if (format.contentType.equalsIgnoreCase(mediaType)) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported import content type " + contentType);
+  }
+}
@@ -0,0 +1,35 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of one account import. Only the first errors are listed; {@code omittedErrors}
+ * counts the rejected rows beyond them.
+ */
+@Data
+public class AccountImportReport {
+
+  private final long rowsRead;
+
+  private final long accountsCreated;
+
+  private final long rowsRejected;
+
+  private final List<AccountImportError> errors;
+
+  private final long omittedErrors;
+
+  private final long elapsedMillis;
+
+  public AccountImportReport(long rowsRead, long accountsCreated, long rowsRejected, List<AccountImportError> errors,
+    long omittedErrors, long elapsedMillis) {
+    this.rowsRead = rowsRead;
+    this.accountsCreated = accountsCreated;
+    this.rowsRejected = rowsRejected;
+    this.errors = errors;
+    this.omittedErrors = omittedErrors;
+    this.elapsedMillis = elapsedMillis;
+  }
+}
@@ -0,0 +1,490 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountImportError;
+import com.dws.challenge.domain.AccountImportReport;
+import com.dws.challenge.metrics.TransferMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulk account import. The calling thread cuts the input into chunks at row boundaries, a pool
+ * of {@code accounts.import.parallelism} threads (default: one per core) decodes the chunks into
+ * accounts, and the calling thread hands the decoded chunks to
+ * {@link AccountsService#createAccounts(List)} in input order, so the first occurrence of a
+ * duplicated id is the one created. At most two chunks per parser thread are in flight, which
+ * bounds memory however large the input is. Rows that cannot be created are reported and
+ * skipped; they never stop the import.
+ */
+@Component
+@Slf4j
+public class AccountImporter {
+
+  public static final int BINARY_MAGIC = 0x41434354;
+
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  private static final String NEGATIVE_BALANCE = "Initial balance must be positive.";
+
+  private final AccountsService accountsService;
+
+  private final int parallelism;
+
+  private final int maxReportedErrors;
+
+  private final ExecutorService parsers;
+
+  private final LongAdder importedAccounts = new LongAdder();
+
+  private final LongAdder rejectedRows = new LongAdder();
+
+  public AccountImporter(AccountsService accountsService) {
+    this(accountsService, 0, 1000);
+  }
+
+  @Autowired
+  public AccountImporter(AccountsService accountsService,
+    @Value("${accounts.import.parallelism:0}") int parallelism,
+    @Value("${accounts.import.max-reported-errors:1000}") int maxReportedErrors) {
+    this.accountsService = accountsService;
+    this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    this.maxReportedErrors = maxReportedErrors;
+    AtomicInteger parserCount = new AtomicInteger();
+    this.parsers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+      Thread parser = new Thread(runnable, "account-import-parser-" + parserCount.incrementAndGet());
+      parser.setDaemon(true);
+      return parser;
+    });
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.import.created", importedAccounts::sum);
+    transferMetrics.registerGauge("accounts.import.rejected", rejectedRows::sum);
+  }
+
+  @PreDestroy
+  public void close() {
+    parsers.shutdownNow();
+  }
+
+  /**
+   * Imports every account in the input. {@code expectedAccounts} sizes the repository up front
+   * when positive; a binary header that carries the count is used otherwise.
+   *
+   * @throws IllegalArgumentException if the input is not in the given format at all
+   */
+  public AccountImportReport importAccounts(InputStream input, AccountImportFormat format, long expectedAccounts) throws IOException {
+    long startNanos = System.nanoTime();
+    ChunkReader chunkReader = format == AccountImportFormat.CSV ? new CsvChunkReader(input) : new BinaryChunkReader(input);
+    long expectedTotal = expectedAccounts > 0 ? expectedAccounts : chunkReader.expectedRows();
+    if (expectedTotal > 0) {
+      accountsService.reserveCapacity(expectedTotal);
+    }
+
+    ImportProgress progress = new ImportProgress();
+    Deque<Future<ParsedChunk>> parsedChunks = new ArrayDeque<>();
+    try {
+      RawChunk rawChunk;
+      while ((rawChunk = chunkReader.next()) != null) {
+        if (parsedChunks.size() == 2 * parallelism) {
+          apply(await(parsedChunks.poll()), progress);
+        }
+        parsedChunks.add(parsers.submit(rawChunk::parse));
+      }
+      while (!parsedChunks.isEmpty()) {
+        apply(await(parsedChunks.poll()), progress);
+      }
+    } finally {
+      for (Future<ParsedChunk> parsedChunk : parsedChunks) {
+        parsedChunk.cancel(true);
+      }
+    }
+    long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+    log.info("Imported {} of {} accounts in {} ms", progress.accountsCreated, progress.rowsRead, elapsedMillis);
+    return new AccountImportReport(progress.rowsRead, progress.accountsCreated, progress.rowsRejected,
+      progress.errors, progress.rowsRejected - progress.errors.size(), elapsedMillis);
+  }
+
+  /**
+   * Creates a decoded chunk and merges its decoding errors and rejected accounts into the
+   * report in row order.
+   */
+  private void apply(ParsedChunk parsedChunk, ImportProgress progress) {
+    Map<Integer, String> rejectedAccounts = parsedChunk.accounts.isEmpty()
+      ? Map.of() : accountsService.createAccounts(parsedChunk.accounts);
+    long firstRow = progress.nextRow;
+    Iterator<Map.Entry<Integer, String>> rejections = new TreeMap<>(rejectedAccounts).entrySet().iterator();
+    Map.Entry<Integer, String> rejection = rejections.hasNext() ? rejections.next() : null;
+    int decodingError = 0;
+    while (rejection != null || decodingError < parsedChunk.errors.size()) {
+      RowError nextDecodingError = decodingError < parsedChunk.errors.size() ? parsedChunk.errors.get(decodingError) : null;
+      if (rejection == null || (nextDecodingError != null && nextDecodingError.row < parsedChunk.accountRows[rejection.getKey()])) {
+        progress.reject(firstRow + nextDecodingError.row, nextDecodingError.accountId, nextDecodingError.reason);
+        decodingError++;
+      } else {
+        int account = rejection.getKey();
+        progress.reject(firstRow + parsedChunk.accountRows[account], parsedChunk.accounts.get(account).getAccountId(), rejection.getValue());
+        rejection = rejections.hasNext() ? rejections.next() : null;
+      }
+    }
+    progress.nextRow += parsedChunk.rowCount;
+    progress.rowsRead += parsedChunk.accounts.size() + parsedChunk.errors.size();
+    progress.accountsCreated += parsedChunk.accounts.size() - rejectedAccounts.size();
+    importedAccounts.add(parsedChunk.accounts.size() - rejectedAccounts.size());
+    rejectedRows.add(parsedChunk.errors.size() + rejectedAccounts.size());
+  }
+
+  private static ParsedChunk await(Future<ParsedChunk> parsedChunk) throws IOException {
+    try {
+      return parsedChunk.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while importing accounts", ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ee.getCause();
+      }
+      throw new IOException("Decoding an import chunk failed", ee.getCause());
+    }
+  }
+
+  private final class ImportProgress {
+
+    private final List<AccountImportError> errors = new ArrayList<>();
+
+    private long nextRow = 1;
+
+    private long rowsRead;
+
+    private long accountsCreated;
+
+    private long rowsRejected;
+
+    private void reject(long row, String accountId, String reason) {
+      rowsRejected++;
+      if (errors.size() < maxReportedErrors) {
+        errors.add(new AccountImportError(row, accountId, reason));
+      }
+    }
+  }
+
+  /**
+   * A decoding error, numbered relative to the first row of its chunk.
+   */
+  private static final class RowError {
+
+    private final int row;
+
+    private final String accountId;
+
+    private final String reason;
+
+    private RowError(int row, String accountId, String reason) {
+      this.row = row;
+      this.accountId = accountId;
+      this.reason = reason;
+    }
+  }
+
+  /**
+   * Accounts decoded from one chunk, each with its row relative to the chunk's first row.
+   * {@code rowCount} includes rows that were neither accounts nor errors, such as blank lines.
+   */
+  private static final class ParsedChunk {
+
+    private final List<Account> accounts = new ArrayList<>();
+
+    private int[] accountRows = new int[256];
+
+    private final List<RowError> errors = new ArrayList<>();
+
+    private int rowCount;
+
+    private void addAccount(int row, String accountId, BigDecimal balance) {
+      if (accounts.size() == accountRows.length) {
+        accountRows = Arrays.copyOf(accountRows, accountRows.length * 2);
+      }
+      accountRows[accounts.size()] = row;
+      accounts.add(new Account(accountId, balance));
+    }
+  }
+
+  private interface ChunkReader {
+
+    /**
+     * The next chunk of whole rows, or null at the end of the input.
+     */
+    RawChunk next() throws IOException;
+
+    /**
+     * Number of rows the input announces, or -1 if unknown.
+     */
+    long expectedRows();
+  }
+
+  private interface RawChunk {
+
+    ParsedChunk parse();
+  }
+
+  private static final class CsvChunkReader implements ChunkReader {
+
+    private final InputStream input;
+
+    private byte[] buffer = new byte[CHUNK_BYTES];
+
+    private int filled;
+
+    private boolean firstChunk = true;
+
+    private boolean endOfInput;
+
+    private CsvChunkReader(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    public long expectedRows() {
+      return -1;
+    }
+
+    @Override
+    public RawChunk next() throws IOException {
+      while (true) {
+        if (!endOfInput) {
+          int read;
+          while (filled < buffer.length && (read = input.read(buffer, filled, buffer.length - filled)) > 0) {
+            filled += read;
+          }
+          endOfInput = filled < buffer.length;
+        }
+        if (filled == 0) {
+          return null;
+        }
+        int chunkLength = endOfInput ? filled : lastLineEnd();
+        if (chunkLength > 0) {
+          CsvChunk chunk = new CsvChunk(Arrays.copyOf(buffer, chunkLength), firstChunk);
+          System.arraycopy(buffer, chunkLength, buffer, 0, filled - chunkLength);
+          filled -= chunkLength;
+          firstChunk = false;
+          return chunk;
+        }
+        // A single line longer than the buffer.
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+
+    private int lastLineEnd() {
+      for (int i = filled - 1; i >= 0; i--) {
+        if (buffer[i] == '\n') {
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+  }
+
+  private static final class CsvChunk implements RawChunk {
+
+    private final byte[] data;
+
+    private final boolean firstChunk;
+
+    private CsvChunk(byte[] data, boolean firstChunk) {
+      this.data = data;
+      this.firstChunk = firstChunk;
+    }
+
+    @Override
+    public ParsedChunk parse() {
+      ParsedChunk parsedChunk = new ParsedChunk();
+      int lineStart = 0;
+      int row = 0;
+      while (lineStart < data.length) {
+        int lineEnd = lineStart;
+        while (lineEnd < data.length && data[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        int contentEnd = lineEnd > lineStart && data[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+        String line = new String(data, lineStart, contentEnd - lineStart, StandardCharsets.UTF_8);
+        boolean header = firstChunk && row == 0 && line.regionMatches(true, 0, "accountId", 0, "accountId".length());
+        if (!header && !line.isBlank()) {
+          parseRow(parsedChunk, row, line);
+        }
+        row++;
+        lineStart = lineEnd + 1;
+      }
+      parsedChunk.rowCount = row;
+      return parsedChunk;
+    }
+
+    private static void parseRow(ParsedChunk parsedChunk, int row, String line) {
+      int comma = line.indexOf(',');
+      if (comma < 0 || line.indexOf(',', comma + 1) >= 0) {
+        parsedChunk.errors.add(new RowError(row, null, "Expected accountId,balance"));
+        return;
+      }
+      String accountId = line.substring(0, comma).trim();
+      if (accountId.isEmpty()) {
+        parsedChunk.errors.add(new RowError(row, null, "Account id must not be empty"));
+        return;
+      }
+      BigDecimal balance;
+      try {
+        balance = new BigDecimal(line.substring(comma + 1).trim());
+      } catch (NumberFormatException nfe) {
+        parsedChunk.errors.add(new RowError(row, accountId, "Invalid balance " + line.substring(comma + 1).trim()));
+        return;
+      }
+      if (balance.signum() < 0) {
+        parsedChunk.errors.add(new RowError(row, accountId, NEGATIVE_BALANCE));
+        return;
+      }
+      parsedChunk.addAccount(row, accountId, balance);
+    }
+  }
+
+  private static final class BinaryChunkReader implements ChunkReader {
+
+    private final DataInputStream input;
+
+    private final int scale;
+
+    private final long accountCount;
+
+    private boolean endOfInput;
+
+    private BinaryChunkReader(InputStream input) throws IOException {
+      this.input = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+      try {
+        if (this.input.readInt() != BINARY_MAGIC) {
+          throw new IllegalArgumentException("Not a binary account import file");
+        }
+        this.scale = this.input.readInt();
+        this.accountCount = this.input.readLong();
+        if (accountCount < -1) {
+          throw new IllegalArgumentException("Binary account import file has an invalid account count " + accountCount);
+        }
+      } catch (EOFException eofe) {
+        throw new IllegalArgumentException("Binary account import file has no header", eofe);
+      }
+    }
+
+    @Override
+    public long expectedRows() {
+      return accountCount;
+    }
+
+    /**
+     * Copies whole records into the chunk; only their length prefixes are looked at here.
+     */
+    @Override
+    public RawChunk next() throws IOException {
+      if (endOfInput) {
+        return null;
+      }
+      byte[] data = new byte[CHUNK_BYTES];
+      int length = 0;
+      boolean truncated = false;
+      while (length < CHUNK_BYTES - Short.BYTES) {
+        int idLength;
+        try {
+          idLength = input.readUnsignedShort();
+        } catch (EOFException eofe) {
+          endOfInput = true;
+          break;
+        }
+        int recordLength = Short.BYTES + idLength + Long.BYTES;
+        if (length + recordLength > data.length) {
+          data = Arrays.copyOf(data, Math.max(data.length * 2, length + recordLength));
+        }
+        data[length] = (byte) (idLength >>> 8);
+        data[length + 1] = (byte) idLength;
+        try {
+          input.readFully(data, length + Short.BYTES, idLength + Long.BYTES);
+        } catch (EOFException eofe) {
+          endOfInput = true;
+          truncated = true;
+          break;
+        }
+        length += recordLength;
+      }
+      if (length == 0 && !truncated) {
+        return null;
+      }
+      return new BinaryChunk(data, length, scale, truncated);
+    }
+  }
+
+  private static final class BinaryChunk implements RawChunk {
+
+    private final byte[] data;
+
+    private final int length;
+
+    private final int scale;
+
+    private final boolean truncated;
+
+    private BinaryChunk(byte[] data, int length, int scale, boolean truncated) {
+      this.data = data;
+      this.length = length;
+      this.scale = scale;
+      this.truncated = truncated;
+    }
+
+    @Override
+    public ParsedChunk parse() {
+      ParsedChunk parsedChunk = new ParsedChunk();
+      ByteBuffer records = ByteBuffer.wrap(data, 0, length);
+      int row = 0;
+      while (records.hasRemaining()) {
+        int idLength = records.getShort() & 0xFFFF;
+        String accountId = new String(data, records.position(), idLength, StandardCharsets.UTF_8);
+        records.position(records.position() + idLength);
+        long balanceMinorUnits = records.getLong();
+        if (accountId.isEmpty()) {
+          parsedChunk.errors.add(new RowError(row, null, "Account id must not be empty"));
+        } else if (balanceMinorUnits < 0) {
+          parsedChunk.errors.add(new RowError(row, accountId, NEGATIVE_BALANCE));
+        } else {
+          parsedChunk.addAccount(row, accountId, BigDecimal.valueOf(balanceMinorUnits, scale));
+        }
+        row++;
+      }
+      if (truncated) {
+        parsedChunk.errors.add(new RowError(row, null, "Truncated record"));
+        row++;
+      }
+      parsedChunk.rowCount = row;
+      return parsedChunk;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountImportError;
+import com.dws.challenge.domain.AccountImportReport;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.service.AccountImportFormat;
+import com.dws.challenge.service.AccountImporter;
+import com.dws.challenge.service.AccountsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountImporterTest {
+
+  private AccountsService accountsService;
+
+  private AccountImporter accountImporter;
+
+  @BeforeEach
+  void createImporter() {
+    accountsService = new AccountsService(new AccountsRepositoryInMemory());
+    accountImporter = new AccountImporter(accountsService, 4, 1000);
+  }
+
+  @AfterEach
+  void closeImporter() {
+    accountImporter.close();
+  }
+
+  @Test
+  void importsCsvAndReportsRejectedRows() throws IOException {
+    accountsService.createAccount(new Account("Id-existing", BigDecimal.ONE));
+    String csv = "accountId,balance\r\n"
+      + "Id-1,100.50\r\n"
+      + "\r\n"
+      + "Id-2,abc\r\n"
+      + "Id-3,-1\r\n"
+      + "Id-1,7\r\n"
+      + "Id-existing,5\r\n"
+      + ",5\r\n"
+      + "Id-4\r\n"
+      + "Id-5,0";
+
+    AccountImportReport report = importCsv(csv);
+
+    assertThat(report.getRowsRead()).isEqualTo(8);
+    assertThat(report.getAccountsCreated()).isEqualTo(2);
+    assertThat(report.getRowsRejected()).isEqualTo(6);
+    assertThat(report.getErrors()).hasSize(6);
+    assertError(report.getErrors().get(0), 4, "Id-2", "Invalid balance abc");
+    assertError(report.getErrors().get(1), 5, "Id-3", "Initial balance must be positive.");
+    assertError(report.getErrors().get(2), 6, "Id-1", "Account id Id-1 already exists!");
+    assertError(report.getErrors().get(3), 7, "Id-existing", "Account id Id-existing already exists!");
+    assertError(report.getErrors().get(4), 8, null, "Account id must not be empty");
+    assertError(report.getErrors().get(5), 9, null, "Expected accountId,balance");
+    assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("100.50");
+    assertThat(accountsService.getAccount("Id-5").getBalance()).isEqualByComparingTo("0");
+    assertThat(accountsService.getAccount("Id-existing").getBalance()).isEqualByComparingTo("1");
+  }
+
+  @Test
+  void importsLargeCsvAcrossChunksInOrder() throws IOException {
+    int rowCount = 300_000;
+    StringBuilder csv = new StringBuilder();
+    for (int row = 1; row <= rowCount; row++) {
+      if (row == 250_000) {
+        csv.append("Id-17,1\n");
+      } else {
+        csv.append("Id-").append(row).append(',').append(row).append(".25\n");
+      }
+    }
+
+    AccountImportReport report = accountImporter.importAccounts(
+      new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), AccountImportFormat.CSV, rowCount);
+
+    assertThat(report.getRowsRead()).isEqualTo(rowCount);
+    assertThat(report.getAccountsCreated()).isEqualTo(rowCount - 1);
+    assertThat(report.getErrors()).hasSize(1);
+    assertError(report.getErrors().get(0), 250_000, "Id-17", "Account id Id-17 already exists!");
+    assertThat(accountsService.getAccount("Id-17").getBalance()).isEqualByComparingTo("17.25");
+    assertThat(accountsService.getAccount("Id-" + rowCount).getBalance()).isEqualByComparingTo(rowCount + ".25");
+  }
+
+  @Test
+  void importsBinaryAndReportsTruncatedTail() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(AccountImporter.BINARY_MAGIC);
+    out.writeInt(2);
+    out.writeLong(4);
+    writeRecord(out, "Id-1", 12_345);
+    writeRecord(out, "Id-2", -1);
+    writeRecord(out, "Id-1", 1);
+    out.writeShort(4);
+    out.write("Id-3".getBytes(StandardCharsets.UTF_8));
+    out.writeInt(0);
+
+    AccountImportReport report = accountImporter.importAccounts(new ByteArrayInputStream(bytes.toByteArray()),
+      AccountImportFormat.BINARY, 0);
+
+    assertThat(report.getRowsRead()).isEqualTo(4);
+    assertThat(report.getAccountsCreated()).isEqualTo(1);
+    assertError(report.getErrors().get(0), 2, "Id-2", "Initial balance must be positive.");
+    assertError(report.getErrors().get(1), 3, "Id-1", "Account id Id-1 already exists!");
+    assertError(report.getErrors().get(2), 4, null, "Truncated record");
+    assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("123.45");
+    assertThat(accountsService.getAccount("Id-3")).isNull();
+  }
+
+  @Test
+  void capsReportedErrors() throws IOException {
+    accountImporter.close();
+    accountImporter = new AccountImporter(accountsService, 2, 2);
+
+    AccountImportReport report = importCsv("a\nb\nc\nd\nId-1,1\n");
+
+    assertThat(report.getAccountsCreated()).isEqualTo(1);
+    assertThat(report.getRowsRejected()).isEqualTo(4);
+    assertThat(report.getErrors()).hasSize(2);
+    assertThat(report.getOmittedErrors()).isEqualTo(2);
+  }
+
+  @Test
+  void rejectsInputWithoutBinaryHeader() {
+    assertThrows(IllegalArgumentException.class, () -> accountImporter.importAccounts(
+      new ByteArrayInputStream("Id-1,1\n".getBytes(StandardCharsets.UTF_8)), AccountImportFormat.BINARY, 0));
+  }
+
+  @Test
+  void rejectsBinaryHeaderWithNegativeAccountCount() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(AccountImporter.BINARY_MAGIC);
+    out.writeInt(2);
+    out.writeLong(Long.MIN_VALUE);
+    writeRecord(out, "Id-1", 100);
+
+    assertThrows(IllegalArgumentException.class, () -> accountImporter.importAccounts(
+      new ByteArrayInputStream(bytes.toByteArray()), AccountImportFormat.BINARY, 0));
+  }
+
+  @Test
+  void capsOversizedCapacityHint() throws IOException {
+    AccountImportReport report = accountImporter.importAccounts(
+      new ByteArrayInputStream("Id-1,1\nId-2,2\n".getBytes(StandardCharsets.UTF_8)), AccountImportFormat.CSV, Long.MAX_VALUE);
+
+    assertThat(report.getAccountsCreated()).isEqualTo(2);
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("2");
+  }
+
+  private AccountImportReport importCsv(String csv) throws IOException {
+    return accountImporter.importAccounts(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), AccountImportFormat.CSV, 0);
+  }
+
+  private static void writeRecord(DataOutputStream out, String accountId, long balanceMinorUnits) throws IOException {
+    byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(id.length);
+    out.write(id);
+    out.writeLong(balanceMinorUnits);
+  }
+
+  private static void assertError(AccountImportError error, long row, String accountId, String reason) {
+    assertThat(error.getRow()).isEqualTo(row);
+    assertThat(error.getAccountId()).isEqualTo(accountId);
+    assertThat(error.getReason()).isEqualTo(reason);
+  }
+}
@@ -0,0 +1,168 @@
+package com.dws.challenge.repository;
+
+import java.lang.invoke.VarHandle;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Fixed pool of locks hashed by account id. Two accounts share a lock only when their ids fall
+ * into the same stripe, so transfers between unrelated accounts proceed in parallel. Pairs of
+ * stripes are always acquired in ascending index order, which rules out lock-order deadlocks
+ * between opposite-direction transfers. Stripes are {@link ReentrantLock}s rather than monitors
+ * so that a virtual thread waiting for one unmounts from its carrier instead of pinning it.
+ * <p>
+ * Each stripe also counts the balance writes started and finished on it, for lock-free reads:
+ * a reader that finds both counts equal before reading a balance, and the started count
+ * unchanged afterwards, knows no write overlapped its read.
+ */
+public class AccountLockStripes {
+
+  public static final int DEFAULT_STRIPE_COUNT = 1024;
+
+  /**
+   * Started and finished write counts of a stripe share a cache line; stripes are a line apart
+   * so writers on neighbouring stripes do not invalidate each other's readers.
+   */
+  private static final int SEQUENCE_STRIDE = 8;
+
+  private final ReentrantLock[] stripes;
+
+  private final AtomicLongArray sequences;
+
+  private volatile LongConsumer lockWaitRecorder = waitNanos -> { };
+
+  public AccountLockStripes() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  public AccountLockStripes(int stripeCount) {
+    if (stripeCount < 1) {
+      throw new IllegalArgumentException("Stripe count must be at least 1 but was " + stripeCount);
+    }
+    int size = Integer.highestOneBit(stripeCount);
+    if (size < stripeCount) {
+      size <<= 1;
+    }
+    this.stripes = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+    this.sequences = new AtomicLongArray(size * SEQUENCE_STRIDE);
+  }
+
+  public static int stripeIndex(String accountId, int stripeCount) {
+    int hash = accountId.hashCode();
+    return (hash ^ (hash >>> 16)) & (stripeCount - 1);
+  }
+
+  public int stripeCount() {
+    return stripes.length;
+  }
+
+  public int stripeFor(String accountId) {
+    return stripeIndex(accountId, stripes.length);
+  }
+
+  public ReentrantLock lockAt(int stripe) {
+    return stripes[stripe];
+  }
+
+  /**
+   * Receives the nanoseconds spent blocked whenever a stripe could not be taken at once.
+   * Uncontended acquisitions are not reported.
+   */
+  public void setLockWaitRecorder(LongConsumer lockWaitRecorder) {
+    this.lockWaitRecorder = lockWaitRecorder;
+  }
+
+  public void lock(int stripe) {
+    ReentrantLock stripeLock = stripes[stripe];
+    if (!stripeLock.tryLock()) {
+      long waitStart = System.nanoTime();
+      stripeLock.lock();
+      lockWaitRecorder.accept(System.nanoTime() - waitStart);
+    }
+  }
+
+  public void unlock(int stripe) {
+    stripes[stripe].unlock();
+  }
+
+  public void lockBoth(int firstStripe, int secondStripe) {
+    int lower = Math.min(firstStripe, secondStripe);
+    int upper = Math.max(firstStripe, secondStripe);
+    lock(lower);
+    if (upper != lower) {
+      lock(upper);
+    }
+  }
+
+  public void unlockBoth(int firstStripe, int secondStripe) {
+    int lower = Math.min(firstStripe, secondStripe);
+    int upper = Math.max(firstStripe, secondStripe);
+    if (upper != lower) {
+      stripes[upper].unlock();
+    }
+    stripes[lower].unlock();
+  }
+
+  /**
+   * Starts a change to balances of the stripe. Every call must be followed by
+   * {@link #endWrite(int)}, also when the change fails. Writes need not hold the stripe, so a
+   * credit to a hot account can be bracketed as well.
+   */
+  public void beginWrite(int stripe) {
+    sequences.incrementAndGet(stripe * SEQUENCE_STRIDE);
+    // Keeps the balance stores that follow from becoming visible before the start is counted.
+    VarHandle.storeStoreFence();
+  }
+
+  public void endWrite(int stripe) {
+    sequences.incrementAndGet(stripe * SEQUENCE_STRIDE + 1);
+  }
+
+  /**
+   * The stripe's version to pass to {@link #validateRead(int, long)}, or -1 while a write is
+   * in progress.
+   */
+  public long beginRead(int stripe) {
+    long finishedWrites = sequences.get(stripe * SEQUENCE_STRIDE + 1);
+    long startedWrites = sequences.get(stripe * SEQUENCE_STRIDE);
+    return startedWrites == finishedWrites ? startedWrites : -1;
+  }
+
+  /**
+   * Writes started on the stripe so far. Read with the stripe held, and with no unlocked credit
+   * to the account in flight, it is a version of the account's balance in the sense of
+   * {@link #beginRead(int)}.
+   */
+  public long startedWrites(int stripe) {
+    return sequences.get(stripe * SEQUENCE_STRIDE);
+  }
+
+  /**
+   * True if no write to the stripe started since {@code version} was read, in which case
+   * everything read in between is a consistent snapshot.
+   */
+  public boolean validateRead(int stripe, long version) {
+    VarHandle.loadLoadFence();
+    return version >= 0 && sequences.get(stripe * SEQUENCE_STRIDE) == version;
+  }
+
+  /**
+   * Locks every stripe in the set in ascending order, once each, for batch operations.
+   */
+  public void lockAll(BitSet stripeSet) {
+    for (int stripe = stripeSet.nextSetBit(0); stripe >= 0; stripe = stripeSet.nextSetBit(stripe + 1)) {
+      lock(stripe);
+    }
+  }
+
+  public void unlockAll(BitSet stripeSet) {
+    for (int stripe = stripeSet.previousSetBit(stripes.length - 1); stripe >= 0; stripe = stripeSet.previousSetBit(stripe - 1)) {
+      stripes[stripe].unlock();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferStatus;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One partition of the accounts of an {@link AccountsRepositoryPartitioned}. Every operation is
+ * asynchronous so that a shard can run in this JVM ({@link LocalAccountShard}) or in another
+ * process ({@link RemoteAccountShard}) behind the same interface.
+ * <p>
+ * Transfers between accounts of two shards use two phases keyed by a coordinator-assigned
+ * transfer id: {@link #reserve} takes the amount out of the sender's balance and
+ * {@link #prepareCredit} checks that the receiver exists; then both shards either
+ * {@link #commit} or {@link #abort}. Aborting returns reserved money to the sender. Committing
+ * or aborting an unknown transfer id does nothing, so both calls are safe to repeat.
+ * <p>
+ * A reservation that is neither committed nor aborted within the shard's reservation timeout
+ * expires and its money returns to the sender. The sender's commit is therefore the commit
+ * point: the coordinator commits the sender's shard first and commits the receiver's only if
+ * that commit was accepted.
+ * <p>
+ * Bulk balance adjustments list the shard's accounts with {@link #accountIds} and apply each
+ * adjustment with {@link #adjustBalance}, which only succeeds against the balance the amount
+ * was computed from, so the adjustment itself can be computed by the coordinator.
+ */
+public interface AccountShard {
+
+  /**
+   * Completes exceptionally with a {@link com.dws.challenge.exception.DuplicateAccountIdException}
+   * if the account already exists.
+   */
+  CompletableFuture<Void> createAccount(String accountId, BigDecimal balance);
+
+  /**
+   * Completes with {@code null} if the account does not exist.
+   */
+  CompletableFuture<BigDecimal> getBalance(String accountId);
+
+  /**
+   * Transfer between two accounts of this shard, in one step. The amount has already been
+   * validated by the caller.
+   */
+  CompletableFuture<TransferStatus> transfer(String accountFromId, String accountToId, BigDecimal transferAmountValue);
+
+  CompletableFuture<TransferStatus> reserve(long transferId, String accountFromId, BigDecimal transferAmountValue);
+
+  CompletableFuture<TransferStatus> prepareCredit(long transferId, String accountToId, BigDecimal transferAmountValue);
+
+  /**
+   * Completes with false if the transfer's reservation expired before the commit arrived, in
+   * which case nothing was debited; true otherwise, including for a repeated commit.
+   */
+  CompletableFuture<Boolean> commit(long transferId);
+
+  CompletableFuture<Void> abort(long transferId);
+
+  CompletableFuture<Void> clear();
+
+  /**
+   * Ids of the shard's accounts as of the call.
+   */
+  CompletableFuture<List<String>> accountIds();
+
+  /**
+   * Adds {@code adjustment} to the account's balance if the balance still equals
+   * {@code expectedBalance}. Completes with false, changing nothing, if it does not or the
+   * account no longer exists.
+   */
+  CompletableFuture<Boolean> adjustBalance(String accountId, BigDecimal expectedBalance, BigDecimal adjustment);
+}
@@ -0,0 +1,168 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Serves one {@link LocalAccountShard} to {@link RemoteAccountShard} clients, one thread per
+ * connection. Run {@code AccountShardServer <port>} once per shard, then start the application
+ * with {@code accounts.repository=partitioned} and {@code accounts.partitions.remote-shards}
+ * listing every server as {@code host:port}. Every application instance must list the shards in
+ * the same order, since accounts are placed by their position in that list.
+ */
+@Slf4j
+public class AccountShardServer implements Closeable {
+
+  private final LocalAccountShard shard;
+
+  private final ServerSocket serverSocket;
+
+  public AccountShardServer(LocalAccountShard shard, int port) throws IOException {
+    this.shard = shard;
+    this.serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(port));
+  }
+
+  /**
+   * Arguments: port (default 19090) and reservation timeout in milliseconds (default one
+   * minute).
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 19090;
+    long reservationTimeoutMillis = args.length > 1 ? Long.parseLong(args[1]) : LocalAccountShard.DEFAULT_RESERVATION_TIMEOUT_MILLIS;
+    AccountShardServer server = new AccountShardServer(new LocalAccountShard(port, reservationTimeoutMillis), port);
+    log.info("Serving account shard on port {}", server.getPort());
+    server.serve();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts connections until the server is closed.
+   */
+  public void serve() throws IOException {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException ioe) {
+        if (serverSocket.isClosed()) {
+          return;
+        }
+        throw ioe;
+      }
+      Thread connectionThread = new Thread(() -> handle(socket), "account-shard-connection-" + socket.getPort());
+      connectionThread.setDaemon(true);
+      connectionThread.start();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    shard.close();
+  }
+
+  private void handle(Socket socket) {
+    try (Socket connection = socket) {
+      connection.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+      while (true) {
+        byte operation;
+        try {
+          operation = in.readByte();
+        } catch (EOFException eofe) {
+          return;
+        }
+        dispatch(operation, in, out);
+        out.flush();
+      }
+    } catch (IOException ioe) {
+      log.warn("Account shard connection from {} failed", socket.getRemoteSocketAddress(), ioe);
+    }
+  }
+
+  private void dispatch(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+    switch (operation) {
+      case RemoteAccountShard.CREATE_ACCOUNT: {
+        String accountId = in.readUTF();
+        BigDecimal balance = new BigDecimal(in.readUTF());
+        try {
+          shard.createAccount(accountId, balance).join();
+          out.writeByte(RemoteAccountShard.OK);
+        } catch (CompletionException ce) {
+          if (!(ce.getCause() instanceof DuplicateAccountIdException)) {
+            throw ce;
+          }
+          out.writeByte(RemoteAccountShard.DUPLICATE_ACCOUNT);
+        }
+        break;
+      }
+      case RemoteAccountShard.GET_BALANCE: {
+        BigDecimal balance = shard.getBalance(in.readUTF()).join();
+        out.writeBoolean(balance != null);
+        if (balance != null) {
+          out.writeUTF(balance.toString());
+        }
+        break;
+      }
+      case RemoteAccountShard.TRANSFER:
+        writeStatus(out, shard.transfer(in.readUTF(), in.readUTF(), new BigDecimal(in.readUTF())).join());
+        break;
+      case RemoteAccountShard.RESERVE:
+        writeStatus(out, shard.reserve(in.readLong(), in.readUTF(), new BigDecimal(in.readUTF())).join());
+        break;
+      case RemoteAccountShard.PREPARE_CREDIT:
+        writeStatus(out, shard.prepareCredit(in.readLong(), in.readUTF(), new BigDecimal(in.readUTF())).join());
+        break;
+      case RemoteAccountShard.COMMIT:
+        out.writeByte(shard.commit(in.readLong()).join() ? RemoteAccountShard.OK : RemoteAccountShard.EXPIRED);
+        break;
+      case RemoteAccountShard.ABORT:
+        shard.abort(in.readLong()).join();
+        out.writeByte(RemoteAccountShard.OK);
+        break;
+      case RemoteAccountShard.CLEAR:
+        shard.clear().join();
+        out.writeByte(RemoteAccountShard.OK);
+        break;
+      case RemoteAccountShard.ACCOUNT_IDS: {
+        List<String> accountIds = shard.accountIds().join();
+        out.writeInt(accountIds.size());
+        for (String accountId : accountIds) {
+          out.writeUTF(accountId);
+        }
+        break;
+      }
+      case RemoteAccountShard.ADJUST_BALANCE: {
+        boolean adjusted = shard.adjustBalance(in.readUTF(), new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF())).join();
+        out.writeByte(adjusted ? RemoteAccountShard.OK : RemoteAccountShard.BALANCE_CHANGED);
+        break;
+      }
+      default:
+        throw new IOException("Unknown shard operation " + operation);
+    }
+  }
+
+  private static void writeStatus(DataOutputStream out, TransferStatus status) throws IOException {
+    out.writeUTF(status.name());
+  }
+}
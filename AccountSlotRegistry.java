@@ -0,0 +1,54 @@
+package com.dws.challenge.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense int handles for account ids, handed out on first use and never reused, so binary
+ * clients can name an account without sending its id with every transfer. Resolving a slot
+ * reads a volatile array without locking; only registration is serialised.
+ */
+public class AccountSlotRegistry {
+
+  private final ConcurrentHashMap<String, Integer> slotsByAccountId = new ConcurrentHashMap<>();
+
+  private volatile String[] accountIds = new String[1024];
+
+  private int size;
+
+  public int slotOf(String accountId) {
+    Integer slot = slotsByAccountId.get(accountId);
+    return slot != null ? slot : -1;
+  }
+
+  /**
+   * Returns the account's slot, assigning the next free one if it has none yet.
+   */
+  public synchronized int register(String accountId) {
+    Integer existingSlot = slotsByAccountId.get(accountId);
+    if (existingSlot != null) {
+      return existingSlot;
+    }
+    String[] ids = accountIds;
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    ids[size] = accountId;
+    // The volatile write publishes the id before the slot can be handed to any reader.
+    accountIds = ids;
+    slotsByAccountId.put(accountId, size);
+    return size++;
+  }
+
+  /**
+   * Account id registered under the slot, or null if the slot was never assigned.
+   */
+  public String accountIdOf(int slot) {
+    String[] ids = accountIds;
+    return slot >= 0 && slot < ids.length ? ids[slot] : null;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
@@ -1,11 +1,34 @@
 package com.dws.challenge.web;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountImportReport;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferRecord;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.IdempotencyKeyReusedException;
+import com.dws.challenge.exception.OutcomeInDoubtException;
+import com.dws.challenge.exception.TransferAbortedException;
+import com.dws.challenge.exception.TransferInDoubtException;
+import com.dws.challenge.exception.TransferRejectedException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.metrics.TransferMetrics.Layer;
+import com.dws.challenge.metrics.TransferMetrics.Operation;
+import com.dws.challenge.repository.TransferHistoryStore;
+import com.dws.challenge.service.AccountImportFormat;
+import com.dws.challenge.service.AccountImporter;
 import com.dws.challenge.service.AccountsService;
-import com.dws.challenge.service.EmailNotificationService;
+import com.dws.challenge.service.TransferIdempotencyCache;
+import com.dws.challenge.service.TransferNotificationDispatcher;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -13,83 +36,354 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.security.Principal;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
 
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+  public static final int MAX_TRANSFER_HISTORY_PAGE_SIZE = 10_000;
+
   private final AccountsService accountsService;
 
-  private EmailNotificationService emailNotificationService;
+  private final ObjectMapper objectMapper;
+
+  private final TransferNotificationDispatcher transferNotificationDispatcher;
+
+  private final TransferIdempotencyCache transferIdempotencyCache;
+
+  private final TransferMetrics transferMetrics;
+
+  private final TransferHistoryStore transferHistoryStore;
+
+  private final AccountImporter accountImporter;
 
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, ObjectMapper objectMapper,
+    TransferNotificationDispatcher transferNotificationDispatcher, TransferIdempotencyCache transferIdempotencyCache,
+    TransferMetrics transferMetrics, TransferHistoryStore transferHistoryStore, AccountImporter accountImporter) {
     this.accountsService = accountsService;
-    this.emailNotificationService = emailNotificationService;
+    this.objectMapper = objectMapper;
+    this.transferNotificationDispatcher = transferNotificationDispatcher;
+    this.transferIdempotencyCache = transferIdempotencyCache;
+    this.transferMetrics = transferMetrics;
+    this.transferHistoryStore = transferHistoryStore;
+    this.accountImporter = accountImporter;
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Object> createAccount(@RequestBody @Valid Account account) {
     log.info("Creating account {}", account);
 
+    long startNanos = System.nanoTime();
     try {
     this.accountsService.createAccount(account);
     } catch (DuplicateAccountIdException daie) {
       return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+    } finally {
+      transferMetrics.recordLatency(Layer.CONTROLLER, Operation.CREATE, startNanos);
     }
     return new ResponseEntity<>(HttpStatus.CREATED);
   }
 
+  /**
+   * Imports accounts from a CSV ({@code text/csv}) or binary ({@code application/octet-stream})
+   * body; see {@link AccountImportFormat}. Rows that cannot be created are listed in the report
+   * and do not stop the import.
+   */
+  @PostMapping(path = "/import", consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+  public ResponseEntity<Object> importAccounts(HttpServletRequest request,
+    @RequestParam(defaultValue = "0") long expectedAccounts) throws IOException {
+    try {
+      AccountImportReport accountImportReport = this.accountImporter.importAccounts(request.getInputStream(),
+        AccountImportFormat.forContentType(request.getContentType()), expectedAccounts);
+      log.info("Imported {} accounts, rejected {} rows", accountImportReport.getAccountsCreated(), accountImportReport.getRowsRejected());
+      return new ResponseEntity<>(accountImportReport, HttpStatus.OK);
+    } catch (IllegalArgumentException iae) {
+      return new ResponseEntity<>(iae.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+  }
+
   @GetMapping(path = "/{accountId}")
   public Account getAccount(@PathVariable String accountId) {
     log.info("Retrieving account for id {}", accountId);
-    return this.accountsService.getAccount(accountId);
+    long startNanos = System.nanoTime();
+    try {
+      return this.accountsService.getAccount(accountId);
+    } finally {
+      transferMetrics.recordLatency(Layer.CONTROLLER, Operation.GET, startNanos);
+    }
   }
 
+  /**
+   * The account's balance with the version it was read at, for balance checks that must not
+   * contend with transfers.
+   */
+  @GetMapping(path = "/{accountId}/balance")
+  public ResponseEntity<BalanceSnapshot> getBalance(@PathVariable String accountId) {
+    long startNanos = System.nanoTime();
+    try {
+      BalanceSnapshot balanceSnapshot = this.accountsService.getBalanceSnapshot(accountId);
+      if (balanceSnapshot == null) {
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+      }
+      return new ResponseEntity<>(balanceSnapshot, HttpStatus.OK);
+    } finally {
+      transferMetrics.recordLatency(Layer.CONTROLLER, Operation.GET, startNanos);
+    }
+  }
 
-  @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-  public  String moneyTransferBetweenAccounts(@RequestParam(required = true) String accountFromId, @RequestParam(required = true) String accountToId, @RequestParam(required = true) BigDecimal transferAmountValue) {
-    String transferProcessDetails = "";
-    ConcurrentHashMap<Account, Account> accountDetailsBeforeTransfer = new ConcurrentHashMap<>();
-    ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
-    Account fromAccount = accountsService.getAccount(accountFromId);
-    Account toAccount = accountsService.getAccount(accountToId);
-
-    accountDetailsBeforeTransfer.put(fromAccount, toAccount);
-
-    if (accountDetailsBeforeTransfer.size() > 0) {
-      if (transferAmountValue.compareTo(BigDecimal.ONE) >= 0)  {
-        if (fromAccount.getBalance().compareTo(transferAmountValue) >=0 ) {
-          transferProcessDetails = accountDetailsBeforeTransfer.toString();
-          accountDetailsAfterTransfer = this.accountsService.transferAmountBetweenAccounts(accountDetailsBeforeTransfer, transferAmountValue);
-          // Code to call the Email Notification Service and to send notification for both account holders with a message containing id of other bank account
-          // and amount transferred.
-          if (accountDetailsAfterTransfer.size() > 0 ) {
-            accountDetailsAfterTransfer.entrySet().forEach( entry -> {
-              emailNotificationService.notifyAboutTransfer(entry.getKey(), " [" + transferAmountValue.toString() + " - Amount debited from your Account - " + entry.getKey().getAccountId() + ". Now Balance after debit is - " + entry.getKey().getBalance() + " ]");
-              emailNotificationService.notifyAboutTransfer(entry.getValue(), " [" + transferAmountValue.toString() + " - Amount credited to your Account - " + entry.getValue().getAccountId()  + ". Now Balance after credit is - " + entry.getValue().getBalance() + " ]");
-            });
-          }
-          transferProcessDetails = accountDetailsAfterTransfer.toString();
-        } else {
-          transferProcessDetails = "Insufficient Balance in the Bank Account, Overdraft facility is not available for this Bank Account.";
-        }
-      } else {
-        transferProcessDetails = "Minimum Transfer Amount value for Transfer process is  at least 1 or greater than 1.";
+  /**
+   * Resolves the slot that names the account in {@link BinaryTransferProtocol} frames.
+   */
+  @GetMapping(path = "/{accountId}/slot")
+  public ResponseEntity<Map<String, Object>> getAccountSlot(@PathVariable String accountId) {
+    int slot = this.accountsService.resolveSlot(accountId);
+    if (slot < 0) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    Map<String, Object> accountSlot = new LinkedHashMap<>();
+    accountSlot.put("accountId", accountId);
+    accountSlot.put("slot", slot);
+    return new ResponseEntity<>(accountSlot, HttpStatus.OK);
+  }
+
+  /**
+   * Streams one page of the account's committed transfers, oldest first, as
+   * {@code {"accountId":..,"transfers":[..],"nextCursor":..}}. Pass {@code nextCursor} back as
+   * {@code after} for the next page; it is null on the last page. {@code from} (inclusive) and
+   * {@code to} (exclusive) are ISO-8601 instants.
+   */
+  @GetMapping(path = "/{accountId}/transfers")
+  public ResponseEntity<StreamingResponseBody> getTransferHistory(@PathVariable String accountId,
+    @RequestParam(required = false) Long after, @RequestParam(required = false) String from,
+    @RequestParam(required = false) String to, @RequestParam(defaultValue = "100") int limit) {
+    if (this.accountsService.getAccount(accountId) == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    if (limit < 1 || limit > MAX_TRANSFER_HISTORY_PAGE_SIZE) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+    long fromMillis;
+    long toMillis;
+    try {
+      fromMillis = from != null ? Instant.parse(from).toEpochMilli() : Long.MIN_VALUE;
+      toMillis = to != null ? Instant.parse(to).toEpochMilli() : Long.MAX_VALUE;
+    } catch (DateTimeParseException dtpe) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+    long afterSequence = after != null ? after : -1;
+    StreamingResponseBody transferHistory = outputStream -> {
+      try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+        writeTransferHistory(generator, accountId, afterSequence, fromMillis, toMillis, limit);
       }
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(transferHistory);
+  }
+
+  private void writeTransferHistory(JsonGenerator generator, String accountId, long afterSequence,
+    long fromMillis, long toMillis, int limit) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("accountId", accountId);
+    generator.writeFieldName("transfers");
+    generator.writeStartArray();
+    long[] lastSequence = {afterSequence};
+    int written;
+    try {
+      written = transferHistoryStore.forEachTransfer(accountId, afterSequence, fromMillis, toMillis, limit, transferRecord -> {
+        writeTransferRecord(generator, transferRecord);
+        lastSequence[0] = transferRecord.getSequence();
+      });
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+    generator.writeEndArray();
+    if (written == limit) {
+      generator.writeNumberField("nextCursor", lastSequence[0]);
     } else {
-      transferProcessDetails = "Required From and To Bank Account details for Transfer process is not found.";
+      generator.writeNullField("nextCursor");
     }
+    generator.writeEndObject();
+  }
+
+  private static void writeTransferRecord(JsonGenerator generator, TransferRecord transferRecord) {
+    try {
+      generator.writeStartObject();
+      generator.writeNumberField("sequence", transferRecord.getSequence());
+      generator.writeStringField("accountFromId", transferRecord.getAccountFromId());
+      generator.writeStringField("accountToId", transferRecord.getAccountToId());
+      generator.writeNumberField("transferAmountValue", transferRecord.getTransferAmountValue());
+      generator.writeStringField("committedAt", transferRecord.getCommittedAt().toString());
+      generator.writeEndObject();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+
+  /**
+   * Transfers between two accounts for the client {@link #clientIdOf(HttpServletRequest)}
+   * names; if admission control turns it away, answers 429 with a {@code Retry-After} header.
+   * A retry from the same client with the same {@code Idempotency-Key} gets the stored response;
+   * reusing the key for different accounts or amount answers 422. Other clients' keys never match. A transfer aborted before any money moved answers
+   * 503 and may be retried. One whose outcome is still being settled answers 202, and so do
+   * retries with its key until it is settled; then they get the final response, or run the
+   * transfer again if it turned out to be aborted.
+   */
+  @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+  public  ResponseEntity<String> moneyTransferBetweenAccounts(@RequestParam(required = true) String accountFromId, @RequestParam(required = true) String accountToId, @RequestParam(required = true) BigDecimal transferAmountValue,
+                                              @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                              HttpServletRequest request) {
+    long startNanos = System.nanoTime();
+    String clientId = clientIdOf(request);
+    transferMetrics.transferStarted();
+    try {
+      if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+        return ResponseEntity.ok(transferBetweenAccounts(clientId, accountFromId, accountToId, transferAmountValue));
+      }
+      // Keys are chosen by clients, so each client gets its own key space.
+      String scopedIdempotencyKey = clientId + '\n' + idempotencyKey;
+      String requestFingerprint = accountFromId + '|' + accountToId + '|' + transferAmountValue.stripTrailingZeros().toPlainString();
+      return ResponseEntity.ok(transferIdempotencyCache.execute(scopedIdempotencyKey, requestFingerprint,
+        () -> idempotentTransferBetweenAccounts(clientId, accountFromId, accountToId, transferAmountValue)));
+    } catch (IdempotencyKeyReusedException ikre) {
+      return new ResponseEntity<>(ikre.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+    } catch (TransferInDoubtException | OutcomeInDoubtException inDoubt) {
+      return new ResponseEntity<>(inDoubt.getMessage() + "; retry with the same " + IDEMPOTENCY_KEY_HEADER + " to get its outcome.",
+        HttpStatus.ACCEPTED);
+    } catch (TransferAbortedException tae) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(tae.getMessage());
+    } catch (TransferRejectedException tre) {
+      long retryAfterMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(tre.getRetryAfterNanos()));
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf((retryAfterMillis + 999) / 1000))
+        .body(tre.getMessage() + ", retry after " + retryAfterMillis + " ms.");
+    } finally {
+      transferMetrics.transferFinished();
+      transferMetrics.recordLatency(Layer.CONTROLLER, Operation.TRANSFER, startNanos);
+    }
+  }
+
+  /**
+   * The identity admission control limits a caller by: its authenticated principal if there is
+   * one, otherwise its remote address. Never a value the caller sends, so a client cannot spread
+   * its requests over many buckets.
+   */
+  private static String clientIdOf(HttpServletRequest request) {
+    Principal principal = request.getUserPrincipal();
+    return principal != null ? principal.getName() : request.getRemoteAddr();
+  }
+
+  /**
+   * Hands an in-doubt transfer to the idempotency cache with a resolution the cache can store:
+   * a completion response, or null for an aborted transfer so that a retry runs it again.
+   */
+  private String idempotentTransferBetweenAccounts(String clientId, String accountFromId, String accountToId,
+    BigDecimal transferAmountValue) {
+    try {
+      return transferBetweenAccounts(clientId, accountFromId, accountToId, transferAmountValue);
+    } catch (TransferInDoubtException tide) {
+      throw new OutcomeInDoubtException(tide.getMessage(), tide.getResolution().thenApply(transferStatus ->
+        transferStatus == TransferStatus.COMPLETED
+          ? "Transfer of " + transferAmountValue + " from " + accountFromId + " to " + accountToId + " completed."
+          : null));
+    }
+  }
+
+  /**
+   * Transfers through {@link AccountsService#transferAmountWithBalances(String, String, String, BigDecimal)},
+   * which also counts the outcome, and answers from the status and balances the repository
+   * captured when the transfer committed. Notifications go out only for completed transfers.
+   */
+  private String transferBetweenAccounts(String clientId, String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    TransferReceipt transferReceipt = this.accountsService.transferAmountWithBalances(clientId, accountFromId, accountToId,
+      transferAmountValue);
+    switch (transferReceipt.getStatus()) {
+      case COMPLETED:
+        // The balances the transfer left, not ones read afterwards that later transfers may have moved.
+        Account fromAccount = new Account(accountFromId, transferReceipt.getFromBalanceAfterTransfer());
+        Account toAccount = new Account(accountToId, transferReceipt.getToBalanceAfterTransfer());
+        // Notifications for both account holders are queued and delivered by the dispatcher thread,
+        // so the response returns as soon as the balances have committed.
+        transferNotificationDispatcher.publishTransfer(fromAccount, toAccount, transferAmountValue,
+          fromAccount.getBalance(), toAccount.getBalance());
+        ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
+        accountDetailsAfterTransfer.put(fromAccount, toAccount);
+        return accountDetailsAfterTransfer.toString();
+      case INSUFFICIENT_BALANCE:
+        return "Insufficient Balance in the Bank Account, Overdraft facility is not available for this Bank Account.";
+      case BELOW_MINIMUM_AMOUNT:
+        return "Minimum Transfer Amount value for Transfer process is  at least 1 or greater than 1.";
+      case ACCOUNT_NOT_FOUND:
+        return "Required From and To Bank Account details for Transfer process is not found.";
+      case ABORTED:
+        throw new TransferAbortedException("Transfer was aborted before any money moved; it can be retried.");
+      default:
+        return "Transfer Amount value " + transferAmountValue + " is not valid for this Bank Account.";
+    }
+  }
+
+  /**
+   * Accepts a JSON array of transfers and reads it element by element, so a settlement file is
+   * never materialised as a whole before the first chunk is applied. Results are streamed back
+   * in the same order as each chunk is applied, so the response is not held in memory either.
+   */
+  @PostMapping(path = "/transfers/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> transferAmountsInBatch(HttpServletRequest request) throws IOException {
+    long startNanos = System.nanoTime();
+    String clientId = clientIdOf(request);
+    MappingIterator<TransferRequest> transferRequests = objectMapper.readerFor(TransferRequest.class).readValues(request.getInputStream());
+    StreamingResponseBody transferResults = outputStream -> {
+      try (MappingIterator<TransferRequest> batch = transferRequests;
+           JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+        writeTransferResults(generator, clientId, batch);
+      } finally {
+        transferMetrics.recordLatency(Layer.CONTROLLER, Operation.BATCH_TRANSFER, startNanos);
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(transferResults);
+  }
 
+  private void writeTransferResults(JsonGenerator generator, String clientId, MappingIterator<TransferRequest> transferRequests)
+    throws IOException {
+    generator.writeStartArray();
+    long resultCount;
+    try {
+      resultCount = this.accountsService.transferAmountsInBatch(clientId, transferRequests,
+        transferResult -> writeTransferResult(generator, transferResult));
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+    generator.writeEndArray();
+    log.info("Processed batch of {} transfers", resultCount);
+  }
 
-    return transferProcessDetails;
+  private static void writeTransferResult(JsonGenerator generator, TransferResult transferResult) {
+    try {
+      generator.writeObject(transferResult);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
   }
 }
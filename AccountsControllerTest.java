@@ -1,9 +1,12 @@
 package com.dws.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
@@ -11,6 +14,7 @@ import java.math.BigDecimal;
 
 import com.dws.challenge.domain.Account;
 import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.TransferNotificationDispatcher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -20,6 +24,8 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
 import org.springframework.web.context.WebApplicationContext;
 
 @ExtendWith(SpringExtension.class)
@@ -35,6 +41,9 @@ class AccountsControllerTest {
   @Autowired
   private WebApplicationContext webApplicationContext;
 
+  @Autowired
+  private TransferNotificationDispatcher transferNotificationDispatcher;
+
   @BeforeEach
   void prepareMockMvc() {
     this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
@@ -174,4 +183,164 @@ class AccountsControllerTest {
     assertThat(toAccountAfterTransfer.getBalance()).isEqualByComparingTo("11000");
   }
 
+  @Test
+  void rejectedTransferPublishesNoNotifications() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.accountsService.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    long publishedBefore = transferNotificationDispatcher.getPublishedNotifications();
+
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "5001"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Insufficient Balance in the Bank Account, Overdraft facility is not available for this Bank Account."));
+    assertThat(transferNotificationDispatcher.getPublishedNotifications()).isEqualTo(publishedBefore);
+
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "4999"))
+            .andExpect(status().isOk());
+    assertThat(transferNotificationDispatcher.getPublishedNotifications()).isGreaterThan(publishedBefore);
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+  }
+
+  @Test
+  void idempotencyKeyReplaysStoredResponseAndRejectsDifferentRequest() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.accountsService.createAccount(new Account("Id-456", new BigDecimal("6000")));
+
+    String firstResponse = this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .header("Idempotency-Key", "transfer-idempotency-test")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "100"))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .header("Idempotency-Key", "transfer-idempotency-test")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "100.00"))
+            .andExpect(status().isOk())
+            .andExpect(content().string(firstResponse));
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("4900");
+
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .header("Idempotency-Key", "transfer-idempotency-test")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "200"))
+            .andExpect(status().isUnprocessableEntity());
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("4900");
+    assertThat(accountsService.getAccount("Id-456").getBalance()).isEqualByComparingTo("6100");
+  }
+
+  @Test
+  void idempotencyKeysOfDifferentClientsDoNotCollide() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.accountsService.createAccount(new Account("Id-456", new BigDecimal("6000")));
+
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .with(remoteAddress("10.0.0.1"))
+            .header("Idempotency-Key", "shared-idempotency-key")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "100"))
+            .andExpect(status().isOk());
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .with(remoteAddress("10.0.0.2"))
+            .header("Idempotency-Key", "shared-idempotency-key")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "200"))
+            .andExpect(status().isOk());
+    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+            .with(remoteAddress("10.0.0.2"))
+            .header("Idempotency-Key", "shared-idempotency-key")
+            .param("accountFromId", "Id-123").param("accountToId", "Id-456").param("transferAmountValue", "200"))
+            .andExpect(status().isOk());
+
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("4700");
+    assertThat(accountsService.getAccount("Id-456").getBalance()).isEqualByComparingTo("6300");
+  }
+
+  @Test
+  void transferAmountsInBatch() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.accountsService.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    MvcResult batchResult = this.mockMvc.perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+            .content("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":4999},"
+              + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":2}]"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    this.mockMvc.perform(asyncDispatch(batchResult))
+            .andExpect(status().isOk())
+            .andExpect(content().string("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":4999,\"status\":\"COMPLETED\"},"
+              + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":2,\"status\":\"INSUFFICIENT_BALANCE\"}]"));
+
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+    assertThat(accountsService.getAccount("Id-456").getBalance()).isEqualByComparingTo("10999");
+  }
+
+  @Test
+  void transferAmountsInBatchReportsMalformedElements() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.accountsService.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    MvcResult batchResult = this.mockMvc.perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+            .content("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":10},"
+              + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":\"ten\"},"
+              + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":20}]"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    this.mockMvc.perform(asyncDispatch(batchResult))
+            .andExpect(status().isOk())
+            .andExpect(content().string("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":10,\"status\":\"COMPLETED\"},"
+              + "{\"accountFromId\":null,\"accountToId\":null,\"transferAmountValue\":null,\"status\":\"MALFORMED_REQUEST\"},"
+              + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-456\",\"transferAmountValue\":20,\"status\":\"COMPLETED\"}]"));
+
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("4970");
+  }
+
+  @Test
+  void metricsAreExposedByName() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    this.mockMvc.perform(get("/v1/accounts/Id-123")).andExpect(status().isOk());
+
+    this.mockMvc.perform(get("/v1/metrics"))
+      .andExpect(status().isOk())
+      .andExpect(content().string(containsString("accounts.controller.get.latency")));
+    this.mockMvc.perform(get("/v1/metrics/accounts.controller.get.latency"))
+      .andExpect(status().isOk())
+      .andExpect(content().string(containsString("\"statistic\":\"P99_MICROS\"")));
+    this.mockMvc.perform(get("/v1/metrics/accounts.unknown")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  void resolveAccountSlot() throws Exception {
+    String uniqueAccountId = "Id-" + System.currentTimeMillis();
+    this.accountsService.createAccount(new Account(uniqueAccountId, new BigDecimal("10")));
+    int slot = this.accountsService.resolveSlot(uniqueAccountId);
+
+    this.mockMvc.perform(get("/v1/accounts/" + uniqueAccountId + "/slot"))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"slot\":" + slot + "}"));
+    this.mockMvc.perform(get("/v1/accounts/Id-unknown/slot")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  void getBalance() throws Exception {
+    String uniqueAccountId = "Id-" + System.currentTimeMillis();
+    this.accountsService.createAccount(new Account(uniqueAccountId, new BigDecimal("123.45")));
+
+    this.mockMvc.perform(get("/v1/accounts/" + uniqueAccountId + "/balance"))
+      .andExpect(status().isOk())
+      .andExpect(content().string(containsString("\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45,\"version\":")));
+    this.mockMvc.perform(get("/v1/accounts/Id-unknown/balance")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  void importAccountsFromCsv() throws Exception {
+    this.mockMvc.perform(post("/v1/accounts/import").contentType("text/csv")
+      .content("accountId,balance\nId-Import-1,10\nId-Import-2,x\n"))
+      .andExpect(status().isOk())
+      .andExpect(content().string(containsString("\"accountsCreated\":1")))
+      .andExpect(content().string(containsString("{\"row\":3,\"accountId\":\"Id-Import-2\",\"reason\":\"Invalid balance x\"}")));
+
+    assertThat(accountsService.getAccount("Id-Import-1").getBalance()).isEqualByComparingTo("10");
+  }
+
+  private static RequestPostProcessor remoteAddress(String address) {
+    return request -> {
+      request.setRemoteAddr(address);
+      return request;
+    };
+  }
 }
@@ -1,19 +1,107 @@
 package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
 
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * Creates the accounts in list order and returns the positions of those that were rejected,
+   * mapped to the reason: a duplicate of an existing account or of an earlier one in the list,
+   * or a balance the repository cannot hold. Implementations that lock per account should take
+   * each affected lock once for the whole list.
+   */
+  default Map<Integer, String> createAccounts(List<Account> accounts) {
+    Map<Integer, String> rejectedAccounts = new TreeMap<>();
+    for (int i = 0; i < accounts.size(); i++) {
+      try {
+        createAccount(accounts.get(i));
+      } catch (DuplicateAccountIdException | IllegalArgumentException e) {
+        rejectedAccounts.put(i, e.getMessage());
+      }
+    }
+    return rejectedAccounts;
+  }
+
+  /**
+   * Hint that about {@code expectedAccounts} accounts will exist once a bulk load finishes, so
+   * storage can be sized once instead of growing account by account.
+   */
+  default void reserveCapacity(long expectedAccounts) {
+  }
+
   Account getAccount(String accountId);
 
+  /**
+   * The account's committed balance and its version, or null if there is no such account.
+   * Repositories that keep no versions report {@link BalanceSnapshot#UNVERSIONED}.
+   */
+  default BalanceSnapshot getBalanceSnapshot(String accountId) {
+    Account account = getAccount(accountId);
+    return account != null ? new BalanceSnapshot(accountId, account.getBalance(), BalanceSnapshot.UNVERSIONED) : null;
+  }
+
+  /**
+   * Adds {@code adjustment}'s amount to the balance of every account, splitting the accounts
+   * into chunks that are processed in parallel on {@code pool}. Each account is adjusted
+   * atomically with respect to transfers running at the same time, against its balance at
+   * that moment, and an adjustment that would leave the balance negative is rejected.
+   * Accounts created during the run may or may not be visited. {@code progress} receives the
+   * number of accounts visited each time a chunk finishes.
+   */
+  BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress);
 
   ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ConcurrentHashMap<Account, Account> accountDetails, BigDecimal transferAmountValue);
 
+  TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue);
+
+  /**
+   * Transfers as {@link #transferAmount(String, String, BigDecimal)} does and, if the
+   * transfer completed, returns the balances it left on both accounts. Repositories that lock
+   * per account read them under those locks; this default reads them after the transfer, so
+   * they may include later transfers and are null for an account removed in between.
+   */
+  default TransferReceipt transferAmountWithBalances(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    TransferStatus transferStatus = transferAmount(accountFromId, accountToId, transferAmountValue);
+    if (transferStatus != TransferStatus.COMPLETED) {
+      return new TransferReceipt(transferStatus, null, null);
+    }
+    Account fromAccount = getAccount(accountFromId);
+    Account toAccount = getAccount(accountToId);
+    return new TransferReceipt(transferStatus, fromAccount != null ? fromAccount.getBalance() : null,
+      toAccount != null ? toAccount.getBalance() : null);
+  }
+
+  /**
+   * Applies the transfers in list order and returns one result per transfer. Implementations
+   * that lock per account should take each affected lock once for the whole batch.
+   */
+  default List<TransferResult> transferAmountsInBatch(List<TransferRequest> transferRequests) {
+    List<TransferResult> transferResults = new ArrayList<>(transferRequests.size());
+    for (TransferRequest transferRequest : transferRequests) {
+      transferResults.add(new TransferResult(transferRequest, transferAmount(transferRequest.getAccountFromId(),
+        transferRequest.getAccountToId(), transferRequest.getTransferAmountValue())));
+    }
+    return transferResults;
+  }
+
   void clearAccounts();
 }
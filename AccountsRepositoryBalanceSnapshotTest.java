@@ -0,0 +1,230 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryLedger;
+import org.junit.jupiter.api.Test;
+
+class AccountsRepositoryBalanceSnapshotTest {
+
+  private static final int WRITER_COUNT = 4;
+
+  private static final int READER_COUNT = 4;
+
+  private static final int TRANSFERS_PER_WRITER = 100_000;
+
+  @Test
+  void getAccountReturnsDetachedCopy() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal(100)));
+
+    accountsRepository.getAccount("Id-123").setBalance(new BigDecimal(1_000_000));
+
+    assertThat(accountsRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("100");
+  }
+
+  @Test
+  void versionAdvancesWithEveryTransfer() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal(100)));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal(100)));
+    BalanceSnapshot before = accountsRepository.getBalanceSnapshot("Id-123");
+
+    accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal(40));
+    BalanceSnapshot after = accountsRepository.getBalanceSnapshot("Id-123");
+
+    assertThat(before.getBalance()).isEqualByComparingTo("100");
+    assertThat(after.getBalance()).isEqualByComparingTo("60");
+    assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+    assertThat(accountsRepository.getBalanceSnapshot("Id-123").getVersion()).isEqualTo(after.getVersion());
+    assertThat(accountsRepository.getBalanceSnapshot("Id-unknown")).isNull();
+  }
+
+  @Test
+  void concurrentReadersSeeOneBalancePerVersion() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(1);
+    assertOneBalancePerVersion(accountsRepository, false);
+  }
+
+  @Test
+  void concurrentReadersSeeOneBalancePerVersionOfHotAccount() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, Integer.MAX_VALUE, 1000);
+    assertOneBalancePerVersion(accountsRepository, true);
+  }
+
+  @Test
+  void transferReturnsTheBalancesItLeft() throws Exception {
+    assertEachTransferLeavesItsOwnBalances(new AccountsRepositoryInMemory(1));
+  }
+
+  @Test
+  void ledgerTransferReturnsTheBalancesItLeft() throws Exception {
+    assertEachTransferLeavesItsOwnBalances(new AccountsRepositoryLedger());
+  }
+
+  @Test
+  void readsFinishWhileTheStripeIsWrittenWithoutPause() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(1);
+    accountsRepository.createAccount(new Account("Id-Watched", new BigDecimal(100)));
+    for (int i = 0; i < WRITER_COUNT * 2; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT + 1);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    for (int w = 0; w < WRITER_COUNT; w++) {
+      String fromAccountId = "Id-" + (2 * w);
+      String toAccountId = "Id-" + (2 * w + 1);
+      executor.submit(() -> {
+        while (writing.get()) {
+          accountsRepository.transferAmount(fromAccountId, toAccountId, BigDecimal.ONE);
+          accountsRepository.transferAmount(toAccountId, fromAccountId, BigDecimal.ONE);
+        }
+      });
+    }
+    try {
+      Future<Integer> reader = executor.submit(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          assertThat(accountsRepository.getBalanceSnapshot("Id-Watched").getBalance()).isEqualByComparingTo("100");
+        }
+        return 10_000;
+      });
+      assertThat(reader.get(1, TimeUnit.MINUTES)).isEqualTo(10_000);
+    } finally {
+      writing.set(false);
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void unversionedRepositoriesStillReadCommittedBalance() {
+    AccountsRepositoryLedger accountsRepository = new AccountsRepositoryLedger();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("12.34")));
+
+    BalanceSnapshot balanceSnapshot = accountsRepository.getBalanceSnapshot("Id-123");
+
+    assertThat(balanceSnapshot.getBalance()).isEqualByComparingTo("12.34");
+    assertThat(balanceSnapshot.getVersion()).isEqualTo(BalanceSnapshot.UNVERSIONED);
+  }
+
+  private void assertOneBalancePerVersion(AccountsRepositoryInMemory accountsRepository, boolean hotAccount) throws Exception {
+    accountsRepository.createAccount(new Account("Id-Watched", new BigDecimal(1_000_000)));
+    for (int i = 0; i < WRITER_COUNT; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+    }
+    if (hotAccount) {
+      accountsRepository.promoteToHotAccount("Id-Watched");
+      assertThat(accountsRepository.isHotAccount("Id-Watched")).isTrue();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT + READER_COUNT);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Future<Map<Long, BigDecimal>>> readers = new ArrayList<>();
+    for (int r = 0; r < READER_COUNT; r++) {
+      readers.add(executor.submit(() -> {
+        Map<Long, BigDecimal> balancesByVersion = new HashMap<>();
+        long lastVersion = -1;
+        while (writing.get()) {
+          BalanceSnapshot balanceSnapshot = accountsRepository.getBalanceSnapshot("Id-Watched");
+          assertThat(balanceSnapshot.getVersion()).isGreaterThanOrEqualTo(lastVersion);
+          lastVersion = balanceSnapshot.getVersion();
+          BigDecimal previous = balancesByVersion.putIfAbsent(lastVersion, balanceSnapshot.getBalance());
+          if (previous != null) {
+            assertThat(balanceSnapshot.getBalance()).isEqualByComparingTo(previous);
+          }
+        }
+        return balancesByVersion;
+      }));
+    }
+    List<Future<?>> writers = new ArrayList<>();
+    for (int w = 0; w < WRITER_COUNT; w++) {
+      String otherAccountId = "Id-" + w;
+      writers.add(executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRANSFERS_PER_WRITER; i++) {
+          BigDecimal amount = new BigDecimal(1 + random.nextInt(100));
+          if (random.nextBoolean()) {
+            accountsRepository.transferAmount(otherAccountId, "Id-Watched", amount);
+          } else {
+            accountsRepository.transferAmount("Id-Watched", otherAccountId, amount);
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> writer : writers) {
+      writer.get(5, TimeUnit.MINUTES);
+    }
+    writing.set(false);
+    for (Future<Map<Long, BigDecimal>> reader : readers) {
+      assertThat(reader.get(1, TimeUnit.MINUTES)).isNotEmpty();
+    }
+    executor.shutdown();
+
+    BigDecimal total = accountsRepository.getAccount("Id-Watched").getBalance();
+    for (int i = 0; i < WRITER_COUNT; i++) {
+      total = total.add(accountsRepository.getAccount("Id-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo(new BigDecimal(1_000_000L * (WRITER_COUNT + 1)));
+  }
+
+  /**
+   * Transfers of one unit from one account never leave the same balances twice, so a receipt
+   * whose balances were read after the fact shows up as a duplicate or a gap.
+   */
+  private void assertEachTransferLeavesItsOwnBalances(AccountsRepository accountsRepository) throws Exception {
+    int transferCount = WRITER_COUNT * 10_000;
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal(transferCount)));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT);
+    List<Future<List<TransferReceipt>>> writers = new ArrayList<>();
+    for (int w = 0; w < WRITER_COUNT; w++) {
+      writers.add(executor.submit(() -> {
+        List<TransferReceipt> transferReceipts = new ArrayList<>();
+        for (int i = 0; i < transferCount / WRITER_COUNT; i++) {
+          transferReceipts.add(accountsRepository.transferAmountWithBalances("Id-123", "Id-456", BigDecimal.ONE));
+        }
+        return transferReceipts;
+      }));
+    }
+    Set<BigDecimal> fromBalances = new HashSet<>();
+    Set<BigDecimal> toBalances = new HashSet<>();
+    for (Future<List<TransferReceipt>> writer : writers) {
+      for (TransferReceipt transferReceipt : writer.get(5, TimeUnit.MINUTES)) {
+        assertThat(transferReceipt.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(transferReceipt.getFromBalanceAfterTransfer().add(transferReceipt.getToBalanceAfterTransfer()))
+          .isLessThanOrEqualTo(new BigDecimal(transferCount));
+        fromBalances.add(transferReceipt.getFromBalanceAfterTransfer().stripTrailingZeros());
+        toBalances.add(transferReceipt.getToBalanceAfterTransfer().stripTrailingZeros());
+      }
+    }
+    executor.shutdown();
+
+    assertThat(fromBalances).hasSize(transferCount);
+    assertThat(toBalances).hasSize(transferCount);
+    TransferReceipt rejectedReceipt = accountsRepository.transferAmountWithBalances("Id-123", "Id-456", BigDecimal.ONE);
+    assertThat(rejectedReceipt.getStatus()).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(rejectedReceipt.getFromBalanceAfterTransfer()).isNull();
+  }
+}
@@ -0,0 +1,111 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the {@link AccountsRepository} operations directly, for every implementation, under
+ * uniform and Zipfian (hot-account) access. Thread counts are swept by {@link BenchmarkRunner}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountsRepositoryBenchmark {
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1_000_000_000);
+
+  private static final BigDecimal TRANSFER_AMOUNT = BigDecimal.ONE;
+
+  @State(Scope.Benchmark)
+  public static class RepositoryState {
+
+    @Param({"in-memory", "ledger", "journaled", "sequenced", "partitioned"})
+    public String repository;
+
+    @Param({"uniform", "zipfian"})
+    public String accessPattern;
+
+    @Param({"100000"})
+    public int accountCount;
+
+    AccountsRepository accountsRepository;
+
+    String[] accountIds;
+
+    ZipfianGenerator zipfianGenerator;
+
+    final AtomicInteger createdAccounts = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void createAccounts() throws Exception {
+      accountsRepository = BenchmarkRepositories.create(repository);
+      accountIds = new String[accountCount];
+      for (int i = 0; i < accountCount; i++) {
+        accountIds[i] = "Id-" + i;
+        accountsRepository.createAccount(new Account(accountIds[i], INITIAL_BALANCE));
+      }
+      zipfianGenerator = "zipfian".equals(accessPattern) ? new ZipfianGenerator(accountCount) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeRepository() throws Exception {
+      BenchmarkRepositories.close(accountsRepository);
+    }
+
+    String nextAccountId() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int index = zipfianGenerator != null ? zipfianGenerator.nextInt(random) : random.nextInt(accountIds.length);
+      return accountIds[index];
+    }
+  }
+
+  @Benchmark
+  public void createAccount(RepositoryState state) {
+    state.accountsRepository.createAccount(new Account("New-" + state.createdAccounts.incrementAndGet(), INITIAL_BALANCE));
+  }
+
+  @Benchmark
+  public Account getAccount(RepositoryState state) {
+    return state.accountsRepository.getAccount(state.nextAccountId());
+  }
+
+  @Benchmark
+  public BalanceSnapshot getBalanceSnapshot(RepositoryState state) {
+    return state.accountsRepository.getBalanceSnapshot(state.nextAccountId());
+  }
+
+  @Benchmark
+  public TransferStatus transferAmount(RepositoryState state) {
+    return state.accountsRepository.transferAmount(state.nextAccountId(), state.nextAccountId(), TRANSFER_AMOUNT);
+  }
+
+  @Benchmark
+  public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(RepositoryState state) {
+    ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+    accountDetails.put(state.accountsRepository.getAccount(state.nextAccountId()), state.accountsRepository.getAccount(state.nextAccountId()));
+    return state.accountsRepository.transferAmountBetweenAccounts(accountDetails, TRANSFER_AMOUNT);
+  }
+}
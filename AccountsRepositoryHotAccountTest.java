@@ -0,0 +1,154 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+
+class AccountsRepositoryHotAccountTest {
+
+  private static final int SENDER_COUNT = 256;
+
+  private static final int THREAD_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int TRANSFERS_PER_THREAD = 200_000;
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  void creditsAndDebitsOfHotAccountConserveTotalBalance() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, Integer.MAX_VALUE, 1000);
+    createAccounts(accountsRepository);
+    accountsRepository.promoteToHotAccount("Id-Hot");
+    assertThat(accountsRepository.isHotAccount("Id-Hot")).isTrue();
+
+    runConcurrently(accountsRepository);
+
+    assertTotalBalanceConserved(accountsRepository);
+  }
+
+  @Test
+  void contendedAccountIsPromotedAutomatically() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, 10, 60_000);
+    createAccounts(accountsRepository);
+
+    runConcurrently(accountsRepository);
+
+    assertThat(accountsRepository.isHotAccount("Id-Hot")).isTrue();
+    assertTotalBalanceConserved(accountsRepository);
+  }
+
+  @Test
+  void hotAccountCannotBeOverdrawn() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, Integer.MAX_VALUE, 1000);
+    accountsRepository.createAccount(new Account("Id-Hot", new BigDecimal(100)));
+    accountsRepository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    accountsRepository.promoteToHotAccount("Id-Hot");
+
+    assertThat(accountsRepository.transferAmount("Id-1", "Id-Hot", new BigDecimal(50))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.transferAmount("Id-Hot", "Id-1", new BigDecimal(151))).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(accountsRepository.transferAmount("Id-Hot", "Id-1", new BigDecimal(150))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.getAccount("Id-Hot").getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    assertThat(accountsRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo(new BigDecimal(200));
+  }
+
+  @Test
+  void cooledHotAccountIsDemotedWithItsBalance() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, 10, 20);
+    accountsRepository.createAccount(new Account("Id-Hot", new BigDecimal(100)));
+    accountsRepository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    accountsRepository.promoteToHotAccount("Id-Hot");
+    accountsRepository.transferAmount("Id-1", "Id-Hot", new BigDecimal(30));
+
+    Thread.sleep(50);
+    assertThat(accountsRepository.transferAmount("Id-1", "Id-Hot", new BigDecimal(20))).isEqualTo(TransferStatus.COMPLETED);
+
+    assertThat(accountsRepository.isHotAccount("Id-Hot")).isFalse();
+    assertThat(accountsRepository.getAccount("Id-Hot").getBalance()).isEqualByComparingTo(new BigDecimal(150));
+    assertThat(accountsRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo(new BigDecimal(50));
+  }
+
+  @Test
+  void clearingAccountsDropsHotAccounts() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 8, Integer.MAX_VALUE, 60_000);
+    accountsRepository.createAccount(new Account("Id-Hot", new BigDecimal(100)));
+    accountsRepository.promoteToHotAccount("Id-Hot");
+
+    accountsRepository.clearAccounts();
+    accountsRepository.createAccount(new Account("Id-Hot", new BigDecimal(10)));
+    accountsRepository.createAccount(new Account("Id-1", new BigDecimal(100)));
+
+    assertThat(accountsRepository.isHotAccount("Id-Hot")).isFalse();
+    assertThat(accountsRepository.transferAmount("Id-1", "Id-Hot", new BigDecimal(5))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.getAccount("Id-Hot").getBalance()).isEqualByComparingTo(new BigDecimal(15));
+  }
+
+  @Test
+  void hotModeIsDisabledByDefault() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    accountsRepository.createAccount(new Account("Id-Hot", INITIAL_BALANCE));
+    accountsRepository.promoteToHotAccount("Id-Hot");
+
+    assertThat(accountsRepository.isHotAccount("Id-Hot")).isFalse();
+  }
+
+  private void createAccounts(AccountsRepositoryInMemory accountsRepository) {
+    accountsRepository.createAccount(new Account("Id-Hot", INITIAL_BALANCE));
+    for (int i = 0; i < SENDER_COUNT; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+  }
+
+  /**
+   * Nine in ten transfers credit the hot account; the rest pay out of it.
+   */
+  private void runConcurrently(AccountsRepositoryInMemory accountsRepository) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      workers.add(executor.submit(() -> {
+        start.await();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          String senderId = "Id-" + random.nextInt(SENDER_COUNT);
+          BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(10));
+          if (random.nextInt(10) == 0) {
+            accountsRepository.transferAmount("Id-Hot", senderId, amount);
+          } else {
+            accountsRepository.transferAmount(senderId, "Id-Hot", amount);
+          }
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+  }
+
+  private void assertTotalBalanceConserved(AccountsRepositoryInMemory accountsRepository) {
+    BigDecimal total = accountsRepository.getAccount("Id-Hot").getBalance();
+    assertThat(total).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+    for (int i = 0; i < SENDER_COUNT; i++) {
+      BigDecimal balance = accountsRepository.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(SENDER_COUNT + 1)));
+  }
+}
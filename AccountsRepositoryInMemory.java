@@ -1,35 +1,289 @@
 package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.metrics.TransferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 @Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "in-memory", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    /**
+     * Returned by the before-hooks when they recorded nothing.
+     */
+    protected static final long NO_SEQUENCE = 0L;
+
+    private final AccountLockStripes lockStripes;
+
+    /**
+     * Accounts partitioned by lock stripe, so a stripe's accounts can be visited without
+     * scanning the others. An empty stripe's map may be replaced by a presized one, so elements
+     * are read through {@link #accountsOfStripe(int)}.
+     */
+    private final Map<String, Account>[] accountsByStripe;
+
+    private static final VarHandle STRIPE_ACCOUNTS = MethodHandles.arrayElementVarHandle(Map[].class);
+
+    /**
+     * Size of the contention sketch. Accounts are counted by hash slot rather than by id, so
+     * the memory spent on measuring contention stays fixed however many accounts exist.
+     */
+    private static final int CONTENTION_SLOTS = 4096;
+
+    /**
+     * Failed snapshot reads a reader spins through before yielding, in case the writer it keeps
+     * running into has been descheduled.
+     */
+    private static final int READ_SPINS_BEFORE_YIELD = 64;
+
+    /**
+     * Optimistic reads of a balance before the reader gives up and takes the stripe, so a
+     * stripe under sustained writes cannot starve it.
+     */
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 1024;
+
+    /**
+     * Most stripes a batch holds at once; larger batches are applied in groups.
+     */
+    private static final int MAX_BATCH_STRIPES = 16;
+
+    /**
+     * Most accounts {@link #presize(long)} sizes the stripes for, whatever the hint says. Larger
+     * loads still fit; the maps just grow past this size as usual.
+     */
+    private static final long MAX_PRESIZED_ACCOUNTS = 1L << 24;
+
+    /**
+     * Accounts a bulk adjustment changes per stripe lock hold, which bounds how long it delays
+     * transfers on that stripe.
+     */
+    private static final int ADJUSTMENT_CHUNK_SIZE = 256;
+
+    /**
+     * Accounts whose balance has been split into cells; zero cells disables hot-account mode.
+     * Entries are added and removed only with the account's stripe held.
+     */
+    private final Map<String, HotAccountBalance> hotAccounts = new ConcurrentHashMap<>();
+
+    private final int hotAccountCells;
+
+    private final int contentionThreshold;
+
+    private final long contentionWindowNanos;
+
+    private final AtomicLongArray contendedCredits = new AtomicLongArray(CONTENTION_SLOTS);
+
+    /**
+     * Credits currently being made to the accounts of each sketch slot. A credit that finds
+     * another one in flight to the same account is contended on that account, whatever else
+     * its stripe is busy with.
+     */
+    private final AtomicIntegerArray creditsInFlight = new AtomicIntegerArray(CONTENTION_SLOTS);
+
+    private final AtomicLong contentionWindowStart = new AtomicLong(System.nanoTime());
+
+    private TransferHistoryStore transferHistoryStore;
+
+    public AccountsRepositoryInMemory() {
+        this(AccountLockStripes.DEFAULT_STRIPE_COUNT);
+    }
+
+    public AccountsRepositoryInMemory(int stripeCount) {
+        this(stripeCount, false, 0, Integer.MAX_VALUE, 1000);
+    }
+
+    @Autowired
+    @SuppressWarnings("unchecked")
+    public AccountsRepositoryInMemory(@Value("${accounts.stripes:1024}") int stripeCount,
+                                      @Value("${accounts.hot.enabled:false}") boolean hotAccountsEnabled,
+                                      @Value("${accounts.hot.cells:16}") int hotAccountCells,
+                                      @Value("${accounts.hot.contention-threshold:1000}") int contentionThreshold,
+                                      @Value("${accounts.hot.window-ms:1000}") long contentionWindowMillis) {
+        this.lockStripes = new AccountLockStripes(stripeCount);
+        this.accountsByStripe = new Map[lockStripes.stripeCount()];
+        for (int stripe = 0; stripe < accountsByStripe.length; stripe++) {
+            accountsByStripe[stripe] = new ConcurrentHashMap<>();
+        }
+        this.hotAccountCells = hotAccountsEnabled ? Math.max(1, hotAccountCells) : 0;
+        this.contentionThreshold = contentionThreshold;
+        this.contentionWindowNanos = TimeUnit.MILLISECONDS.toNanos(contentionWindowMillis);
+    }
+
+    /**
+     * Reports time spent blocked on account stripes to the lock-wait meter.
+     */
+    @Autowired(required = false)
+    public void setTransferMetrics(TransferMetrics transferMetrics) {
+        lockStripes.setLockWaitRecorder(transferMetrics::recordLockWait);
+    }
+
+    /**
+     * Records every committed transfer in the history while the stripes are still held, so each
+     * account's history is in the order its balance changed.
+     */
+    @Autowired(required = false)
+    public void setTransferHistoryStore(TransferHistoryStore transferHistoryStore) {
+        this.transferHistoryStore = transferHistoryStore;
+    }
 
     @Override
     public void createAccount(Account account) throws DuplicateAccountIdException {
-        Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-        if (previousAccount != null) {
-            throw new DuplicateAccountIdException(
-                    "Account id " + account.getAccountId() + " already exists!");
+        int stripe = lockStripes.stripeFor(account.getAccountId());
+        long appendedSequence;
+        lockStripes.lock(stripe);
+        try {
+            Map<String, Account> accounts = accountsOfStripe(stripe);
+            if (accounts.containsKey(account.getAccountId())) {
+                throw new DuplicateAccountIdException(
+                        "Account id " + account.getAccountId() + " already exists!");
+            }
+            appendedSequence = beforeAccountCreated(account);
+            accounts.put(account.getAccountId(), account);
+        } finally {
+            lockStripes.unlock(stripe);
         }
+        afterCommit(appendedSequence);
+    }
+
+    /**
+     * Creates the accounts in list order, in consecutive groups that touch at most
+     * {@link #MAX_BATCH_STRIPES} stripes, like {@link #transferAmountsInBatch(List)}.
+     */
+    @Override
+    public Map<Integer, String> createAccounts(List<Account> accounts) {
+        Map<Integer, String> rejectedAccounts = new TreeMap<>();
+        CommitSequence commitSequence = new CommitSequence();
+        int[] position = new int[1];
+        applyInStripeGroups(accounts, Account::getAccountId, account -> null, account -> {
+            int index = position[0]++;
+            Map<String, Account> stripeAccounts = accountsOfStripe(lockStripes.stripeFor(account.getAccountId()));
+            if (stripeAccounts.containsKey(account.getAccountId())) {
+                rejectedAccounts.put(index, "Account id " + account.getAccountId() + " already exists!");
+                return;
+            }
+            commitSequence.record(beforeAccountCreated(account));
+            stripeAccounts.put(account.getAccountId(), account);
+        });
+        afterCommit(commitSequence.sequence);
+        return rejectedAccounts;
+    }
+
+    @Override
+    public void reserveCapacity(long expectedAccounts) {
+        presize(expectedAccounts);
     }
 
+    /**
+     * Returns a detached copy carrying a consistent snapshot of the balance, so callers never
+     * read or change the stored account outside its stripe.
+     */
     @Override
     public Account getAccount(String accountId) {
-        return accounts.get(accountId);
+        BalanceSnapshot balanceSnapshot = getBalanceSnapshot(accountId);
+        return balanceSnapshot != null ? new Account(accountId, balanceSnapshot.getBalance()) : null;
+    }
+
+    /**
+     * Reads the balance without taking the stripe: the read is retried until no write to the
+     * stripe overlapped it, so readers normally never block writers. After
+     * {@link #OPTIMISTIC_READ_ATTEMPTS} overlapping reads it falls back to reading under the
+     * stripe. The version is the stripe's write count, which also moves when other accounts of
+     * the stripe change.
+     */
+    @Override
+    public BalanceSnapshot getBalanceSnapshot(String accountId) {
+        int stripe = lockStripes.stripeFor(accountId);
+        for (int attempt = 1; attempt <= OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long version = lockStripes.beginRead(stripe);
+            Account account = accountsOfStripe(stripe).get(accountId);
+            BigDecimal balance = account != null ? balanceOf(account) : null;
+            if (lockStripes.validateRead(stripe, version)) {
+                return account != null ? new BalanceSnapshot(accountId, balance, version) : null;
+            }
+            if (attempt % READ_SPINS_BEFORE_YIELD == 0) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return balanceSnapshotUnderStripe(stripe, accountId);
+    }
+
+    /**
+     * With the stripe held, only credits to hot accounts can still change a balance; those to
+     * this account are suspended for the read, so the stripe's write count is a valid version.
+     */
+    private BalanceSnapshot balanceSnapshotUnderStripe(int stripe, String accountId) {
+        lockStripes.lock(stripe);
+        try {
+            Account account = accountsOfStripe(stripe).get(accountId);
+            if (account == null) {
+                return null;
+            }
+            HotAccountBalance hotAccountBalance = hotBalanceOf(account);
+            if (hotAccountBalance == null) {
+                return new BalanceSnapshot(accountId, account.getBalance(), lockStripes.startedWrites(stripe));
+            }
+            hotAccountBalance.suspendCredits();
+            try {
+                return new BalanceSnapshot(accountId, hotAccountBalance.sum(), lockStripes.startedWrites(stripe));
+            } finally {
+                hotAccountBalance.resumeCredits();
+            }
+        } finally {
+            lockStripes.unlock(stripe);
+        }
     }
 
     @Override
     public void clearAccounts() {
-        accounts.clear();
+        BitSet allStripes = new BitSet(lockStripes.stripeCount());
+        allStripes.set(0, lockStripes.stripeCount());
+        long appendedSequence;
+        lockStripes.lockAll(allStripes);
+        try {
+            appendedSequence = beforeAccountsCleared();
+            for (Map<String, Account> accounts : accountsByStripe) {
+                accounts.clear();
+            }
+            // Every stripe is held, so no credit is in flight and each balance retires at once;
+            // a transfer that looked one up before the clear then falls back to both stripes.
+            hotAccounts.values().forEach(HotAccountBalance::retire);
+            hotAccounts.clear();
+        } finally {
+            lockStripes.unlockAll(allStripes);
+        }
+        afterCommit(appendedSequence);
     }
 
     @Override
@@ -38,16 +292,567 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
         ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
 
         if ( accountDetailsBeforeTransfer.size() > 0 ) {
+            CommitSequence commitSequence = new CommitSequence();
             for (ConcurrentHashMap.Entry<Account, Account> transferAccountDetailsEntries : accountDetailsBeforeTransfer.entrySet()) {
-                if (transferAmountValue.compareTo(BigDecimal.ONE) >= 0 &&  transferAccountDetailsEntries.getKey().getBalance().compareTo(transferAmountValue) >=0) {
-                    transferAccountDetailsEntries.getKey().setBalance(transferAccountDetailsEntries.getKey().getBalance().subtract(transferAmountValue));
-                    transferAccountDetailsEntries.getValue().setBalance(transferAccountDetailsEntries.getValue().getBalance().add(transferAmountValue));
-                    accountDetailsAfterTransfer.put(transferAccountDetailsEntries.getKey(), transferAccountDetailsEntries.getValue());
-                } else {
-                    accountDetailsAfterTransfer.put(transferAccountDetailsEntries.getKey(), transferAccountDetailsEntries.getValue());
-                }
+                Account fromAccount = storedAccountOf(transferAccountDetailsEntries.getKey());
+                Account toAccount = storedAccountOf(transferAccountDetailsEntries.getValue());
+                transferUnderStripeLocks(fromAccount, toAccount, transferAmountValue, commitSequence);
+                accountDetailsAfterTransfer.put(viewOf(fromAccount), viewOf(toAccount));
             }
+            afterCommit(commitSequence.sequence);
         }
        return accountDetailsAfterTransfer;
     }
+
+    @Override
+    public TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        return transferAmountWithBalances(accountFromId, accountToId, transferAmountValue).getStatus();
+    }
+
+    /**
+     * The balances are read while the transfer still holds its stripes. A hot receiver's
+     * balance is the sum of its cells at that moment, which may include credits from transfers
+     * that have not returned yet.
+     */
+    @Override
+    public TransferReceipt transferAmountWithBalances(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        Account fromAccount = accountOrNull(accountFromId);
+        Account toAccount = accountOrNull(accountToId);
+        if (fromAccount == null || toAccount == null) {
+            return new TransferReceipt(TransferStatus.ACCOUNT_NOT_FOUND, null, null);
+        }
+        CommitSequence commitSequence = new CommitSequence();
+        TransferStatus transferStatus = transferUnderStripeLocks(fromAccount, toAccount, transferAmountValue, commitSequence);
+        afterCommit(commitSequence.sequence);
+        return transferStatus == TransferStatus.COMPLETED
+                ? new TransferReceipt(transferStatus, commitSequence.fromBalance, commitSequence.toBalance)
+                : new TransferReceipt(transferStatus, null, null);
+    }
+
+    /**
+     * Applies the transfers in list order, in consecutive groups that touch at most
+     * {@link #MAX_BATCH_STRIPES} stripes. Each group's stripes are taken once, in ascending
+     * order, while the group applies, so a large batch never holds most of the stripes at once.
+     */
+    @Override
+    public List<TransferResult> transferAmountsInBatch(List<TransferRequest> transferRequests) {
+        List<TransferResult> transferResults = new ArrayList<>(transferRequests.size());
+        CommitSequence commitSequence = new CommitSequence();
+        applyInStripeGroups(transferRequests, TransferRequest::getAccountFromId, TransferRequest::getAccountToId, transferRequest -> {
+            Account fromAccount = accountOrNull(transferRequest.getAccountFromId());
+            Account toAccount = accountOrNull(transferRequest.getAccountToId());
+            TransferStatus transferStatus = fromAccount == null || toAccount == null
+                    ? TransferStatus.ACCOUNT_NOT_FOUND
+                    : applyTransfer(fromAccount, toAccount, hotBalanceOf(toAccount), transferRequest.getTransferAmountValue(), commitSequence);
+            transferResults.add(new TransferResult(transferRequest, transferStatus));
+        });
+        afterCommit(commitSequence.sequence);
+        return transferResults;
+    }
+
+    /**
+     * Splits the stripes into fork-join tasks down to a single stripe. A stripe's accounts are
+     * adjusted {@link #ADJUSTMENT_CHUNK_SIZE} at a time, each chunk under the stripe lock and
+     * inside one write, so transfers on the stripe wait for at most one chunk.
+     */
+    @Override
+    public BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress) {
+        long startedNanos = System.nanoTime();
+        return pool.invoke(new StripeAdjustmentTask(adjustment, progress, 0, lockStripes.stripeCount())).toReport(startedNanos);
+    }
+
+    /**
+     * Splits the account's balance into cells so that credits to it no longer take its stripe.
+     * Called automatically once credits to the account are contended often enough, or
+     * explicitly for accounts known to be hot. No-op unless hot-account mode is enabled. The
+     * account is demoted again after a contention window in which it cooled down.
+     */
+    public void promoteToHotAccount(String accountId) {
+        if (hotAccountCells == 0) {
+            return;
+        }
+        int stripe = lockStripes.stripeFor(accountId);
+        lockStripes.lock(stripe);
+        try {
+            Account account = storedAccount(accountId);
+            if (account != null && !hotAccounts.containsKey(accountId)) {
+                hotAccounts.put(accountId, new HotAccountBalance(hotAccountCells, account.getBalance()));
+            }
+        } finally {
+            lockStripes.unlock(stripe);
+        }
+    }
+
+    /**
+     * Folds a hot account's cells back into its balance once no credit is in flight to them.
+     * Transfers that looked up the hot balance before this fall back to both stripes.
+     */
+    private void demoteHotAccount(String accountId) {
+        int stripe = lockStripes.stripeFor(accountId);
+        lockStripes.lock(stripe);
+        try {
+            HotAccountBalance hotAccountBalance = hotAccounts.get(accountId);
+            if (hotAccountBalance == null) {
+                return;
+            }
+            hotAccountBalance.retire();
+            lockStripes.beginWrite(stripe);
+            try {
+                Account account = storedAccount(accountId);
+                if (account != null) {
+                    account.setBalance(hotAccountBalance.sum());
+                }
+                hotAccounts.remove(accountId);
+            } finally {
+                lockStripes.endWrite(stripe);
+            }
+        } finally {
+            lockStripes.unlock(stripe);
+        }
+    }
+
+    public boolean isHotAccount(String accountId) {
+        return hotAccounts.containsKey(accountId);
+    }
+
+    /**
+     * The live account object; use {@link #getAccount(String)} for anything handed to callers.
+     */
+    protected Account storedAccount(String accountId) {
+        return accountsOfStripe(lockStripes.stripeFor(accountId)).get(accountId);
+    }
+
+    private Account viewOf(Account account) {
+        Account view = getAccount(account.getAccountId());
+        return view != null ? view : account;
+    }
+
+    /**
+     * Hot accounts are read as the sum of their cells, since the stored object's own balance is
+     * no longer maintained.
+     */
+    private BigDecimal balanceOf(Account account) {
+        HotAccountBalance hotAccountBalance = hotAccounts.isEmpty() ? null : hotAccounts.get(account.getAccountId());
+        return hotAccountBalance != null ? hotAccountBalance.sum() : account.getBalance();
+    }
+
+    private Account accountOrNull(String accountId) {
+        return accountId != null ? storedAccount(accountId) : null;
+    }
+
+    private Account storedAccountOf(Account account) {
+        Account storedAccount = storedAccount(account.getAccountId());
+        return storedAccount != null ? storedAccount : account;
+    }
+
+    /**
+     * Debits and credits the pair while holding both account stripes, so the balance check and
+     * both updates are atomic with respect to every other transfer touching either account.
+     * In hot-account mode, concurrent credits to the same receiver are sampled first.
+     */
+    private TransferStatus transferUnderStripeLocks(Account fromAccount, Account toAccount, BigDecimal transferAmountValue,
+                                                    CommitSequence commitSequence) {
+        if (hotAccountCells == 0) {
+            return transferUnderBothStripes(fromAccount, toAccount, transferAmountValue, commitSequence);
+        }
+        rollContentionWindow();
+        int slot = contentionSlot(toAccount.getAccountId());
+        if (creditsInFlight.getAndIncrement(slot) > 0) {
+            recordContendedCredit(slot, toAccount.getAccountId());
+        }
+        try {
+            HotAccountBalance hotToBalance = hotAccounts.get(toAccount.getAccountId());
+            if (hotToBalance != null) {
+                TransferStatus transferStatus = transferToHotAccount(fromAccount, toAccount, hotToBalance, transferAmountValue, commitSequence);
+                if (transferStatus != null) {
+                    return transferStatus;
+                }
+            }
+            return transferUnderBothStripes(fromAccount, toAccount, transferAmountValue, commitSequence);
+        } finally {
+            creditsInFlight.decrementAndGet(slot);
+        }
+    }
+
+    /**
+     * A credit to a hot account needs only the sender's stripe. The balance is entered only
+     * once that stripe is held, so a demotion waiting for the credit never waits on a thread
+     * that is itself blocked on a stripe. Returns null if the account was demoted or cleared
+     * since it was looked up.
+     */
+    private TransferStatus transferToHotAccount(Account fromAccount, Account toAccount, HotAccountBalance hotToBalance,
+                                                BigDecimal transferAmountValue, CommitSequence commitSequence) {
+        int fromStripe = lockStripes.stripeFor(fromAccount.getAccountId());
+        lockStripes.lock(fromStripe);
+        try {
+            if (!hotToBalance.tryEnterCredit()) {
+                return null;
+            }
+            try {
+                return applyTransfer(fromAccount, toAccount, hotToBalance, transferAmountValue, commitSequence);
+            } finally {
+                hotToBalance.exitCredit();
+            }
+        } finally {
+            lockStripes.unlock(fromStripe);
+        }
+    }
+
+    /**
+     * Hotness is decided again under both stripes, where promotion and demotion cannot run.
+     */
+    private TransferStatus transferUnderBothStripes(Account fromAccount, Account toAccount, BigDecimal transferAmountValue,
+                                                    CommitSequence commitSequence) {
+        int fromStripe = lockStripes.stripeFor(fromAccount.getAccountId());
+        int toStripe = lockStripes.stripeFor(toAccount.getAccountId());
+        lockStripes.lockBoth(fromStripe, toStripe);
+        try {
+            return applyTransfer(fromAccount, toAccount, hotBalanceOf(toAccount), transferAmountValue, commitSequence);
+        } finally {
+            lockStripes.unlockBoth(fromStripe, toStripe);
+        }
+    }
+
+    private HotAccountBalance hotBalanceOf(Account account) {
+        return hotAccounts.isEmpty() ? null : hotAccounts.get(account.getAccountId());
+    }
+
+    /**
+     * Must be called with the sender's stripe held, and with the receiver's stripe held unless
+     * a credit to the receiver's hot balance has been entered. Balances change inside a write on
+     * both stripes, so snapshot readers see either none or all of the transfer.
+     */
+    private TransferStatus applyTransfer(Account fromAccount, Account toAccount, HotAccountBalance hotToBalance,
+                                         BigDecimal transferAmountValue, CommitSequence commitSequence) {
+        if (transferAmountValue == null) {
+            return TransferStatus.INVALID_AMOUNT;
+        }
+        if (transferAmountValue.compareTo(BigDecimal.ONE) < 0) {
+            return TransferStatus.BELOW_MINIMUM_AMOUNT;
+        }
+        int fromStripe = lockStripes.stripeFor(fromAccount.getAccountId());
+        int toStripe = lockStripes.stripeFor(toAccount.getAccountId());
+        boolean toStripeWritten = toStripe != fromStripe;
+        TransferStatus transferStatus;
+        lockStripes.beginWrite(fromStripe);
+        if (toStripeWritten) {
+            lockStripes.beginWrite(toStripe);
+        }
+        try {
+            transferStatus = applyBalanceChanges(fromAccount, toAccount, hotToBalance, transferAmountValue, commitSequence);
+        } finally {
+            if (toStripeWritten) {
+                lockStripes.endWrite(toStripe);
+            }
+            lockStripes.endWrite(fromStripe);
+        }
+        if (transferStatus == TransferStatus.COMPLETED && transferHistoryStore != null) {
+            transferHistoryStore.record(fromAccount.getAccountId(), toAccount.getAccountId(), transferAmountValue);
+        }
+        return transferStatus;
+    }
+
+    private TransferStatus applyBalanceChanges(Account fromAccount, Account toAccount, HotAccountBalance hotToBalance,
+                                               BigDecimal transferAmountValue, CommitSequence commitSequence) {
+        HotAccountBalance hotFromBalance = hotBalanceOf(fromAccount);
+        if (hotFromBalance != null) {
+            if (!hotFromBalance.tryDebit(transferAmountValue)) {
+                return TransferStatus.INSUFFICIENT_BALANCE;
+            }
+            try {
+                commitSequence.record(beforeTransferApplied(fromAccount, toAccount, transferAmountValue));
+            } catch (RuntimeException re) {
+                hotFromBalance.credit(transferAmountValue);
+                throw re;
+            }
+        } else {
+            if (fromAccount.getBalance().compareTo(transferAmountValue) < 0) {
+                return TransferStatus.INSUFFICIENT_BALANCE;
+            }
+            commitSequence.record(beforeTransferApplied(fromAccount, toAccount, transferAmountValue));
+            fromAccount.setBalance(fromAccount.getBalance().subtract(transferAmountValue));
+        }
+        if (hotToBalance != null) {
+            hotToBalance.credit(transferAmountValue);
+        } else {
+            toAccount.setBalance(toAccount.getBalance().add(transferAmountValue));
+        }
+        commitSequence.recordBalances(hotFromBalance != null ? hotFromBalance.sum() : fromAccount.getBalance(),
+                hotToBalance != null ? hotToBalance.sum() : toAccount.getBalance());
+        return TransferStatus.COMPLETED;
+    }
+
+    private BalanceAdjustmentTally adjustStripe(int stripe, BalanceAdjustment adjustment, LongConsumer progress) {
+        BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+        List<Account> accounts = new ArrayList<>(accountsOfStripe(stripe).values());
+        for (int chunkStart = 0; chunkStart < accounts.size(); chunkStart += ADJUSTMENT_CHUNK_SIZE) {
+            int chunkEnd = Math.min(accounts.size(), chunkStart + ADJUSTMENT_CHUNK_SIZE);
+            CommitSequence commitSequence = new CommitSequence();
+            lockStripes.lock(stripe);
+            lockStripes.beginWrite(stripe);
+            try {
+                Map<String, Account> stripeAccounts = accountsOfStripe(stripe);
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    Account account = accounts.get(i);
+                    // Skip accounts cleared since the stripe was listed.
+                    if (stripeAccounts.get(account.getAccountId()) == account) {
+                        adjustAccount(account, adjustment, tally, commitSequence);
+                    }
+                }
+            } finally {
+                lockStripes.endWrite(stripe);
+                lockStripes.unlock(stripe);
+            }
+            afterCommit(commitSequence.sequence);
+            progress.accept(chunkEnd - chunkStart);
+        }
+        return tally;
+    }
+
+    /**
+     * Must be called with the account's stripe held and inside a write on it. A hot account's
+     * credits may still land meanwhile; its debit goes through the cells so none is lost.
+     */
+    private void adjustAccount(Account account, BalanceAdjustment adjustment, BalanceAdjustmentTally tally,
+                               CommitSequence commitSequence) {
+        tally.accountsVisited++;
+        HotAccountBalance hotBalance = hotAccounts.isEmpty() ? null : hotAccounts.get(account.getAccountId());
+        BigDecimal balance = hotBalance != null ? hotBalance.sum() : account.getBalance();
+        BigDecimal amount = adjustment.adjustmentFor(account.getAccountId(), balance);
+        if (amount == null || amount.signum() == 0) {
+            return;
+        }
+        if (hotBalance == null) {
+            BigDecimal adjustedBalance = balance.add(amount);
+            if (adjustedBalance.signum() < 0) {
+                tally.accountsRejected++;
+                return;
+            }
+            commitSequence.record(beforeBalanceAdjusted(account, amount));
+            account.setBalance(adjustedBalance);
+        } else if (amount.signum() > 0) {
+            commitSequence.record(beforeBalanceAdjusted(account, amount));
+            hotBalance.credit(amount);
+        } else {
+            if (!hotBalance.tryDebit(amount.negate())) {
+                tally.accountsRejected++;
+                return;
+            }
+            try {
+                commitSequence.record(beforeBalanceAdjusted(account, amount));
+            } catch (RuntimeException re) {
+                hotBalance.credit(amount.negate());
+                throw re;
+            }
+        }
+        tally.adjusted(amount);
+    }
+
+    private final class StripeAdjustmentTask extends RecursiveTask<BalanceAdjustmentTally> {
+
+        private final BalanceAdjustment adjustment;
+
+        private final LongConsumer progress;
+
+        private final int fromStripe;
+
+        private final int toStripe;
+
+        private StripeAdjustmentTask(BalanceAdjustment adjustment, LongConsumer progress, int fromStripe, int toStripe) {
+            this.adjustment = adjustment;
+            this.progress = progress;
+            this.fromStripe = fromStripe;
+            this.toStripe = toStripe;
+        }
+
+        @Override
+        protected BalanceAdjustmentTally compute() {
+            if (toStripe - fromStripe == 1) {
+                return adjustStripe(fromStripe, adjustment, progress);
+            }
+            int middle = (fromStripe + toStripe) >>> 1;
+            StripeAdjustmentTask lower = new StripeAdjustmentTask(adjustment, progress, fromStripe, middle);
+            lower.fork();
+            BalanceAdjustmentTally upperTally = new StripeAdjustmentTask(adjustment, progress, middle, toStripe).compute();
+            return lower.join().merge(upperTally);
+        }
+    }
+
+    /**
+     * Calls {@code apply} for every item in list order. Items are cut into consecutive groups
+     * whose accounts (either id may be null) fall into at most {@link #MAX_BATCH_STRIPES}
+     * stripes, and each group's stripes are held while its items are applied.
+     */
+    private <T> void applyInStripeGroups(List<T> items, Function<T, String> firstAccountId, Function<T, String> secondAccountId,
+                                         Consumer<T> apply) {
+        BitSet groupStripes = new BitSet(lockStripes.stripeCount());
+        int groupStart = 0;
+        for (int i = 0; i < items.size(); i++) {
+            int firstStripe = stripeOrNone(firstAccountId.apply(items.get(i)));
+            int secondStripe = stripeOrNone(secondAccountId.apply(items.get(i)));
+            int addedStripes = (firstStripe >= 0 && !groupStripes.get(firstStripe) ? 1 : 0)
+                    + (secondStripe >= 0 && secondStripe != firstStripe && !groupStripes.get(secondStripe) ? 1 : 0);
+            if (i > groupStart && groupStripes.cardinality() + addedStripes > MAX_BATCH_STRIPES) {
+                applyUnderStripes(items.subList(groupStart, i), groupStripes, apply);
+                groupStripes.clear();
+                groupStart = i;
+            }
+            if (firstStripe >= 0) {
+                groupStripes.set(firstStripe);
+            }
+            if (secondStripe >= 0) {
+                groupStripes.set(secondStripe);
+            }
+        }
+        if (groupStart < items.size()) {
+            applyUnderStripes(items.subList(groupStart, items.size()), groupStripes, apply);
+        }
+    }
+
+    private <T> void applyUnderStripes(List<T> group, BitSet groupStripes, Consumer<T> apply) {
+        lockStripes.lockAll(groupStripes);
+        try {
+            group.forEach(apply);
+        } finally {
+            lockStripes.unlockAll(groupStripes);
+        }
+    }
+
+    private int stripeOrNone(String accountId) {
+        return accountId != null ? lockStripes.stripeFor(accountId) : -1;
+    }
+
+    /**
+     * Counts a credit that found another credit to the same account in flight. Counts live in a
+     * fixed sketch indexed by account hash; an account whose slot crosses the threshold within
+     * one contention window is promoted.
+     */
+    private void recordContendedCredit(int slot, String accountId) {
+        if (contendedCredits.incrementAndGet(slot) == contentionThreshold) {
+            promoteToHotAccount(accountId);
+        }
+    }
+
+    /**
+     * Starts a new contention window once the current one has ended. Hot accounts whose slot
+     * counted fewer than half the threshold in the ended window are demoted, so an account is
+     * not kept split after its load has moved elsewhere. Called with no stripe held.
+     */
+    private void rollContentionWindow() {
+        long now = System.nanoTime();
+        long windowStart = contentionWindowStart.get();
+        if (now - windowStart <= contentionWindowNanos || !contentionWindowStart.compareAndSet(windowStart, now)) {
+            return;
+        }
+        List<String> cooledAccountIds = new ArrayList<>();
+        for (String accountId : hotAccounts.keySet()) {
+            if (contendedCredits.get(contentionSlot(accountId)) < contentionThreshold / 2) {
+                cooledAccountIds.add(accountId);
+            }
+        }
+        for (int slot = 0; slot < CONTENTION_SLOTS; slot++) {
+            contendedCredits.set(slot, 0);
+        }
+        cooledAccountIds.forEach(this::demoteHotAccount);
+    }
+
+    private static int contentionSlot(String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & (CONTENTION_SLOTS - 1);
+    }
+
+    protected AccountLockStripes getLockStripes() {
+        return lockStripes;
+    }
+
+    /**
+     * Live accounts of one stripe. Callers mutate or iterate it only while holding that stripe,
+     * or before the repository is shared.
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, Account> accountsOfStripe(int stripe) {
+        return (Map<String, Account>) STRIPE_ACCOUNTS.getAcquire(accountsByStripe, stripe);
+    }
+
+    /**
+     * Replaces the empty per-stripe maps with maps sized for the expected number of accounts, so
+     * a bulk load does not rehash repeatedly. Stripes that already hold accounts keep their map.
+     * The hint comes from request parameters and file headers, so it is capped at
+     * {@link #MAX_PRESIZED_ACCOUNTS} and ignored when not positive.
+     */
+    protected void presize(long expectedAccounts) {
+        if (expectedAccounts <= 0) {
+            return;
+        }
+        int perStripeCapacity = (int) (Math.min(expectedAccounts, MAX_PRESIZED_ACCOUNTS) / accountsByStripe.length + 1);
+        for (int stripe = 0; stripe < accountsByStripe.length; stripe++) {
+            lockStripes.lock(stripe);
+            try {
+                if (accountsOfStripe(stripe).isEmpty()) {
+                    STRIPE_ACCOUNTS.setRelease(accountsByStripe, stripe, new ConcurrentHashMap<>(perStripeCapacity));
+                }
+            } finally {
+                lockStripes.unlock(stripe);
+            }
+        }
+    }
+
+    /**
+     * Called with the account's stripe held, after the duplicate check and before the account
+     * becomes visible. Throwing leaves the repository unchanged. The before-hooks return the
+     * sequence under which they recorded the change, or {@link #NO_SEQUENCE}.
+     */
+    protected long beforeAccountCreated(Account account) {
+        return NO_SEQUENCE;
+    }
+
+    /**
+     * Called with both stripes held, after the transfer was validated and before either balance
+     * changes. Throwing leaves both balances unchanged.
+     */
+    protected long beforeTransferApplied(Account fromAccount, Account toAccount, BigDecimal transferAmountValue) {
+        return NO_SEQUENCE;
+    }
+
+    /**
+     * Called with the account's stripe held, before a bulk adjustment changes its balance.
+     * Throwing leaves the balance unchanged and stops the adjustment.
+     */
+    protected long beforeBalanceAdjusted(Account account, BigDecimal adjustment) {
+        return NO_SEQUENCE;
+    }
+
+    protected long beforeAccountsCleared() {
+        return NO_SEQUENCE;
+    }
+
+    /**
+     * Called once per mutating call after every stripe has been released, with the highest
+     * sequence the call's before-hooks returned, or {@link #NO_SEQUENCE} if they recorded
+     * nothing (for example because every transfer was rejected).
+     */
+    protected void afterCommit(long appendedSequence) {
+    }
+
+    /**
+     * Highest sequence returned by the before-hooks during one mutating call, and the balances
+     * the call's last completed transfer left.
+     */
+    private static final class CommitSequence {
+
+        private long sequence = NO_SEQUENCE;
+
+        private BigDecimal fromBalance;
+
+        private BigDecimal toBalance;
+
+        private void record(long appendedSequence) {
+            sequence = Math.max(sequence, appendedSequence);
+        }
+
+        private void recordBalances(BigDecimal fromBalanceAfterTransfer, BigDecimal toBalanceAfterTransfer) {
+            fromBalance = fromBalanceAfterTransfer;
+            toBalance = toBalanceAfterTransfer;
+        }
+    }
 }
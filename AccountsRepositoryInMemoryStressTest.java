@@ -0,0 +1,94 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+
+class AccountsRepositoryInMemoryStressTest {
+
+  private static final int ACCOUNT_COUNT = 1_000;
+
+  private static final int THREAD_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int TRANSFERS_PER_THREAD = 2_000_000 / THREAD_COUNT;
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  void randomConcurrentTransfersConserveTotalBalance() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64);
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      workers.add(executor.submit(() -> {
+        start.await();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          Account fromAccount = accountsRepository.getAccount("Id-" + random.nextInt(ACCOUNT_COUNT));
+          Account toAccount = accountsRepository.getAccount("Id-" + random.nextInt(ACCOUNT_COUNT));
+          ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+          accountDetails.put(fromAccount, toAccount);
+          accountsRepository.transferAmountBetweenAccounts(accountDetails, BigDecimal.valueOf(1 + random.nextInt(100)));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      BigDecimal balance = accountsRepository.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNT_COUNT)));
+  }
+
+  @Test
+  void oppositeDirectionTransfersDoNotDeadlock() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    Account accountA = new Account("Id-A", INITIAL_BALANCE);
+    Account accountB = new Account("Id-B", INITIAL_BALANCE);
+    accountsRepository.createAccount(accountA);
+    accountsRepository.createAccount(accountB);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Future<?> aToB = executor.submit(() -> transferRepeatedly(accountsRepository, accountA, accountB));
+    Future<?> bToA = executor.submit(() -> transferRepeatedly(accountsRepository, accountB, accountA));
+    aToB.get(1, TimeUnit.MINUTES);
+    bToA.get(1, TimeUnit.MINUTES);
+    executor.shutdown();
+
+    assertThat(accountA.getBalance().add(accountB.getBalance())).isEqualByComparingTo("2000");
+  }
+
+  private static void transferRepeatedly(AccountsRepositoryInMemory accountsRepository, Account fromAccount, Account toAccount) {
+    for (int i = 0; i < 200_000; i++) {
+      ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+      accountDetails.put(fromAccount, toAccount);
+      accountsRepository.transferAmountBetweenAccounts(accountDetails, BigDecimal.ONE);
+    }
+  }
+}
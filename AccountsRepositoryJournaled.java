@@ -0,0 +1,246 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable variant of the in-memory repository. Every create and transfer is appended to a
+ * {@link TransferJournal} while its stripes are held and before the balances change. Periodic
+ * {@link AccountsSnapshotFile snapshots} are taken one stripe at a time without stopping
+ * writers; startup loads the latest snapshot and replays only the journal tail after it.
+ * Enabled with {@code accounts.repository=journaled}.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "journaled")
+@Slf4j
+public class AccountsRepositoryJournaled extends AccountsRepositoryInMemory {
+
+    private final TransferJournal journal;
+
+    private final Path snapshotDirectory;
+
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    private ScheduledExecutorService snapshotScheduler;
+
+    private boolean replaying;
+
+    /**
+     * Per-stripe journal sequences of the snapshot being replayed on top of; a record only
+     * touches a stripe during replay if it is newer than that stripe's sequence.
+     */
+    private long[] replayStripeSequences = new long[1];
+
+    @Autowired
+    public AccountsRepositoryJournaled(@Value("${accounts.journal.directory:journal}") String journalDirectory,
+                                       @Value("${accounts.journal.segment-size:67108864}") int segmentSize,
+                                       @Value("${accounts.journal.fsync-policy:INTERVAL}") JournalFsyncPolicy fsyncPolicy,
+                                       @Value("${accounts.journal.fsync-interval-ms:10}") long fsyncIntervalMillis,
+                                       @Value("${accounts.snapshot.directory:${accounts.journal.directory:journal}}") String snapshotDirectory,
+                                       @Value("${accounts.snapshot.interval-seconds:300}") long snapshotIntervalSeconds) throws IOException {
+        this(new TransferJournal(Paths.get(journalDirectory), segmentSize, fsyncPolicy, fsyncIntervalMillis),
+                Paths.get(snapshotDirectory), snapshotIntervalSeconds);
+    }
+
+    public AccountsRepositoryJournaled(TransferJournal journal) throws IOException {
+        this(journal, null, 0);
+    }
+
+    public AccountsRepositoryJournaled(TransferJournal journal, Path snapshotDirectory, long snapshotIntervalSeconds) throws IOException {
+        this.journal = journal;
+        this.snapshotDirectory = snapshotDirectory;
+        recover();
+        if (snapshotDirectory != null && snapshotIntervalSeconds > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "accounts-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::takeScheduledSnapshot,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        journal.close();
+    }
+
+    /**
+     * Writes a snapshot of every account, then deletes the journal segments and snapshots it
+     * supersedes. Each stripe is held only while its accounts are copied. The journal is forced
+     * once the snapshot is written, so the sequences the snapshot covers are on disk before any
+     * segment is deleted.
+     */
+    public Path takeSnapshot() throws IOException {
+        if (snapshotDirectory == null) {
+            throw new IllegalStateException("No snapshot directory is configured");
+        }
+        snapshotLock.lock();
+        try {
+            long startedNanos = System.nanoTime();
+            int journalSegment = journal.getSegmentIndex();
+            Path snapshotFile = AccountsSnapshotFile.write(snapshotDirectory, getLockStripes().stripeCount(), journalSegment, this::copyStripe);
+            journal.force();
+            AccountsSnapshotFile.deleteAllExcept(snapshotDirectory, snapshotFile);
+            journal.deleteSegmentsBefore(journalSegment);
+            log.info("Wrote snapshot {} in {} ms", snapshotFile, (System.nanoTime() - startedNanos) / 1_000_000);
+            return snapshotFile;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    @Override
+    protected long beforeAccountCreated(Account account) {
+        return replaying ? NO_SEQUENCE : journal.appendAccountCreated(account.getAccountId(), account.getBalance());
+    }
+
+    @Override
+    protected long beforeTransferApplied(Account fromAccount, Account toAccount, BigDecimal transferAmountValue) {
+        return replaying ? NO_SEQUENCE : journal.appendTransfer(fromAccount.getAccountId(), toAccount.getAccountId(), transferAmountValue);
+    }
+
+    @Override
+    protected long beforeBalanceAdjusted(Account account, BigDecimal adjustment) {
+        return replaying ? NO_SEQUENCE : journal.appendBalanceAdjusted(account.getAccountId(), adjustment);
+    }
+
+    @Override
+    protected long beforeAccountsCleared() {
+        return replaying ? NO_SEQUENCE : journal.appendAccountsCleared();
+    }
+
+    /**
+     * Waits only for the records this call appended; a call that appended nothing, such as a
+     * rejected transfer, returns at once.
+     */
+    @Override
+    protected void afterCommit(long appendedSequence) {
+        if (!replaying && appendedSequence != NO_SEQUENCE) {
+            journal.awaitDurable(appendedSequence);
+        }
+    }
+
+    private void recover() throws IOException {
+        long startedNanos = System.nanoTime();
+        int fromSegment = 0;
+        long baseSequence = 0;
+        Optional<AccountsSnapshotFile> snapshot = snapshotDirectory != null ? AccountsSnapshotFile.latest(snapshotDirectory) : Optional.empty();
+        if (snapshot.isPresent()) {
+            AccountsSnapshotFile snapshotFile = snapshot.get();
+            presize(snapshotFile.getAccountCount());
+            snapshotFile.loadInto((accountId, balance) -> restoreAccount(new Account(accountId, balance)));
+            replayStripeSequences = new long[snapshotFile.getStripeCount()];
+            for (int stripe = 0; stripe < replayStripeSequences.length; stripe++) {
+                replayStripeSequences[stripe] = snapshotFile.getStripeSequence(stripe);
+            }
+            fromSegment = snapshotFile.getJournalSegment();
+            baseSequence = snapshotFile.getMaxStripeSequence();
+            log.info("Loaded {} accounts from snapshot in {} ms", snapshotFile.getAccountCount(), (System.nanoTime() - startedNanos) / 1_000_000);
+        }
+        replaying = true;
+        try {
+            journal.open(new ReplayHandler(), fromSegment, baseSequence);
+        } finally {
+            replaying = false;
+            replayStripeSequences = new long[1];
+        }
+        log.info("Recovered up to journal sequence {} in {} ms", journal.getAppendedSequence(), (System.nanoTime() - startedNanos) / 1_000_000);
+    }
+
+    private AccountsSnapshotFile.StripeCopy copyStripe(int stripe) {
+        ReentrantLock stripeLock = getLockStripes().lockAt(stripe);
+        stripeLock.lock();
+        try {
+            Map<String, Account> accounts = accountsOfStripe(stripe);
+            String[] accountIds = new String[accounts.size()];
+            BigDecimal[] balances = new BigDecimal[accountIds.length];
+            int i = 0;
+            for (Account account : accounts.values()) {
+                accountIds[i] = account.getAccountId();
+                balances[i] = account.getBalance();
+                i++;
+            }
+            return new AccountsSnapshotFile.StripeCopy(accountIds, balances, journal.getAppendedSequence());
+        } finally {
+            stripeLock.unlock();
+        }
+    }
+
+    private void takeScheduledSnapshot() {
+        try {
+            takeSnapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Scheduled snapshot failed", e);
+        }
+    }
+
+    private void restoreAccount(Account account) {
+        accountsOfStripe(getLockStripes().stripeFor(account.getAccountId())).put(account.getAccountId(), account);
+    }
+
+    private boolean replayTouches(long sequence, String accountId) {
+        return sequence > replayStripeSequences[AccountLockStripes.stripeIndex(accountId, replayStripeSequences.length)];
+    }
+
+    /**
+     * Applies records straight to the stripe maps, skipping whatever part of a record the
+     * snapshot already reflects. Journaled records were validated when they were written.
+     */
+    private final class ReplayHandler implements TransferJournal.RecordHandler {
+
+        @Override
+        public void onAccountCreated(long sequence, String accountId, BigDecimal balance) {
+            if (replayTouches(sequence, accountId)) {
+                restoreAccount(new Account(accountId, balance));
+            }
+        }
+
+        @Override
+        public void onTransfer(long sequence, String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+            Account fromAccount = storedAccount(accountFromId);
+            if (fromAccount != null && replayTouches(sequence, accountFromId)) {
+                fromAccount.setBalance(fromAccount.getBalance().subtract(transferAmountValue));
+            }
+            Account toAccount = storedAccount(accountToId);
+            if (toAccount != null && replayTouches(sequence, accountToId)) {
+                toAccount.setBalance(toAccount.getBalance().add(transferAmountValue));
+            }
+        }
+
+        @Override
+        public void onBalanceAdjusted(long sequence, String accountId, BigDecimal adjustment) {
+            Account account = storedAccount(accountId);
+            if (account != null && replayTouches(sequence, accountId)) {
+                account.setBalance(account.getBalance().add(adjustment));
+            }
+        }
+
+        @Override
+        public void onAccountsCleared(long sequence) {
+            for (int stripe = 0; stripe < getLockStripes().stripeCount(); stripe++) {
+                accountsOfStripe(stripe).keySet().removeIf(accountId -> replayTouches(sequence, accountId));
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepositoryJournaled;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.TransferJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccountsRepositoryJournaledTest {
+
+  private static final int SEGMENT_SIZE = 256 * 1024;
+
+  @TempDir
+  Path journalDirectory;
+
+  @Test
+  void replaysCreatesAndTransfersAfterRestart() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openRepository(JournalFsyncPolicy.ALWAYS);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000.50")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal("4999.25"))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal("5000"))).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    accountsRepository.close();
+
+    AccountsRepositoryJournaled recoveredRepository = openRepository(JournalFsyncPolicy.ALWAYS);
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("1.25");
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("10999.25");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void rollsSegmentsAndReplaysAllOfThem() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openRepository(JournalFsyncPolicy.INTERVAL);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("100000")));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    for (int i = 0; i < 20_000; i++) {
+      accountsRepository.transferAmount("Id-123", "Id-456", BigDecimal.ONE);
+    }
+    accountsRepository.close();
+
+    try (Stream<Path> segments = Files.list(journalDirectory)) {
+      assertThat(segments.count()).isGreaterThan(1);
+    }
+    AccountsRepositoryJournaled recoveredRepository = openRepository(JournalFsyncPolicy.INTERVAL);
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("80000");
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("20000");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void truncatesTornTailOnRecovery() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openRepository(JournalFsyncPolicy.NEVER);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    accountsRepository.close();
+    simulateTornWrite();
+
+    AccountsRepositoryJournaled recoveredRepository = openRepository(JournalFsyncPolicy.NEVER);
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("5000");
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("6000");
+    recoveredRepository.transferAmount("Id-123", "Id-456", new BigDecimal("10"));
+    recoveredRepository.close();
+
+    AccountsRepositoryJournaled reopenedRepository = openRepository(JournalFsyncPolicy.NEVER);
+    assertThat(reopenedRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("6010");
+    reopenedRepository.close();
+  }
+
+  @Test
+  void recoversFromSnapshotTakenDuringConcurrentTransfers() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openSnapshottingRepository();
+    for (int i = 0; i < 1_000; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      workers.add(executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 50_000; i++) {
+          accountsRepository.transferAmount("Id-" + random.nextInt(1_000), "Id-" + random.nextInt(1_000),
+            BigDecimal.valueOf(1 + random.nextInt(50)));
+        }
+      }));
+    }
+    accountsRepository.takeSnapshot();
+    for (Future<?> worker : workers) {
+      worker.get(1, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+    Map<String, BigDecimal> balancesBeforeRestart = new HashMap<>();
+    for (int i = 0; i < 1_000; i++) {
+      balancesBeforeRestart.put("Id-" + i, accountsRepository.getAccount("Id-" + i).getBalance());
+    }
+    accountsRepository.close();
+
+    AccountsRepositoryJournaled recoveredRepository = openSnapshottingRepository();
+    for (Map.Entry<String, BigDecimal> balanceBeforeRestart : balancesBeforeRestart.entrySet()) {
+      assertThat(recoveredRepository.getAccount(balanceBeforeRestart.getKey()).getBalance())
+        .isEqualByComparingTo(balanceBeforeRestart.getValue());
+    }
+    recoveredRepository.close();
+  }
+
+  @Test
+  void snapshotRemovesSupersededSegments() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openSnapshottingRepository();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("100000")));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    for (int i = 0; i < 20_000; i++) {
+      accountsRepository.transferAmount("Id-123", "Id-456", BigDecimal.ONE);
+    }
+    accountsRepository.takeSnapshot();
+    accountsRepository.transferAmount("Id-456", "Id-123", new BigDecimal("5"));
+    accountsRepository.close();
+
+    try (Stream<Path> files = Files.list(journalDirectory)) {
+      assertThat(files.filter(file -> file.getFileName().toString().startsWith("journal-")).count()).isEqualTo(1);
+    }
+    AccountsRepositoryJournaled recoveredRepository = openSnapshottingRepository();
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("80005");
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("19995");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void doesNotReuseSequencesCoveredBySnapshotAfterLosingTheJournalTail() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = openSnapshottingRepository();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("1000")));
+    for (int i = 0; i < 10; i++) {
+      accountsRepository.transferAmount("Id-123", "Id-456", BigDecimal.ONE);
+    }
+    accountsRepository.takeSnapshot();
+    accountsRepository.close();
+    // The records the snapshot covers but the disk never got.
+    truncateLastRecords(5);
+
+    AccountsRepositoryJournaled recoveredRepository = openSnapshottingRepository();
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("990");
+    assertThat(recoveredRepository.transferAmount("Id-123", "Id-456", new BigDecimal("100"))).isEqualTo(TransferStatus.COMPLETED);
+    recoveredRepository.close();
+
+    AccountsRepositoryJournaled reopenedRepository = openSnapshottingRepository();
+    assertThat(reopenedRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("890");
+    assertThat(reopenedRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("1110");
+    reopenedRepository.close();
+  }
+
+  private AccountsRepositoryJournaled openSnapshottingRepository() throws IOException {
+    return new AccountsRepositoryJournaled(new TransferJournal(journalDirectory, SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1),
+      journalDirectory, 0);
+  }
+
+  private AccountsRepositoryJournaled openRepository(JournalFsyncPolicy fsyncPolicy) throws IOException {
+    return new AccountsRepositoryJournaled(new TransferJournal(journalDirectory, SEGMENT_SIZE, fsyncPolicy, 1));
+  }
+
+  /**
+   * Writes a record header whose checksum does not match its body right after the last record.
+   */
+  private void simulateTornWrite() throws IOException {
+    try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      List<Long> recordPositions = recordPositions(channel);
+      ByteBuffer torn = ByteBuffer.allocate(16);
+      torn.putInt(8).putInt(0xCAFEBABE).putLong(42L).flip();
+      channel.write(torn, recordPositions.get(recordPositions.size() - 1));
+    }
+  }
+
+  /**
+   * Zeroes the last {@code count} records of the last segment, as if they had never been synced.
+   */
+  private void truncateLastRecords(int count) throws IOException {
+    try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      List<Long> recordPositions = recordPositions(channel);
+      long position = recordPositions.get(recordPositions.size() - 1 - count);
+      channel.write(ByteBuffer.allocate((int) (channel.size() - position)), position);
+    }
+  }
+
+  private Path lastSegment() throws IOException {
+    try (Stream<Path> segments = Files.list(journalDirectory)) {
+      return segments.filter(file -> file.getFileName().toString().startsWith("journal-")).sorted()
+        .reduce((first, second) -> second).orElseThrow();
+    }
+  }
+
+  /**
+   * Start of every record followed by the end of the last one.
+   */
+  private static List<Long> recordPositions(FileChannel channel) throws IOException {
+    List<Long> recordPositions = new ArrayList<>();
+    ByteBuffer header = ByteBuffer.allocate(8);
+    long position = 0;
+    while (true) {
+      recordPositions.add(position);
+      header.clear();
+      channel.read(header, position);
+      int bodyLength = header.getInt(0);
+      if (bodyLength == 0) {
+        return recordPositions;
+      }
+      position += 8 + bodyLength;
+    }
+  }
+}
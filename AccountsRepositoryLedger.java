@@ -0,0 +1,247 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock-free repository backed by a {@link BalanceLedger}. Accounts handed out by this repository
+ * are detached snapshots of the ledger; the ledger itself is the only source of truth.
+ * Enabled with {@code accounts.repository=ledger}.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "ledger")
+public class AccountsRepositoryLedger implements AccountsRepository {
+
+    /**
+     * Slots per leaf task of a bulk adjustment.
+     */
+    private static final int ADJUSTMENT_CHUNK_SIZE = 4096;
+
+    private final BalanceLedger ledger;
+
+    private TransferHistoryStore transferHistoryStore;
+
+    public AccountsRepositoryLedger() {
+        this(BalanceLedger.DEFAULT_SCALE);
+    }
+
+    @Autowired
+    public AccountsRepositoryLedger(@Value("${accounts.ledger.scale:2}") int scale) {
+        this.ledger = new BalanceLedger(scale);
+    }
+
+    @Autowired(required = false)
+    public void setTransferHistoryStore(TransferHistoryStore transferHistoryStore) {
+        this.transferHistoryStore = transferHistoryStore;
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        ledger.allocateSlot(account.getAccountId(), ledger.toMinorUnits(account.getBalance()));
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        int slot = ledger.slotOf(accountId);
+        if (slot < 0) {
+            return null;
+        }
+        return new Account(accountId, ledger.fromMinorUnits(ledger.balanceAt(slot)));
+    }
+
+    @Override
+    public void clearAccounts() {
+        ledger.clear();
+    }
+
+    @Override
+    public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ConcurrentHashMap<Account, Account> accountDetailsBeforeTransfer, BigDecimal transferAmountValue) {
+
+        ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
+
+        for (ConcurrentHashMap.Entry<Account, Account> transferAccountDetailsEntries : accountDetailsBeforeTransfer.entrySet()) {
+            String fromAccountId = transferAccountDetailsEntries.getKey().getAccountId();
+            String toAccountId = transferAccountDetailsEntries.getValue().getAccountId();
+            // Amounts the ledger cannot hold leave both balances unchanged, as in transferAmount.
+            transferAmount(fromAccountId, toAccountId, transferAmountValue);
+            Account fromAccount = getAccount(fromAccountId);
+            Account toAccount = getAccount(toAccountId);
+            accountDetailsAfterTransfer.put(fromAccount != null ? fromAccount : transferAccountDetailsEntries.getKey(),
+                    toAccount != null ? toAccount : transferAccountDetailsEntries.getValue());
+        }
+        return accountDetailsAfterTransfer;
+    }
+
+    @Override
+    public TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        int fromSlot = accountFromId != null ? ledger.slotOf(accountFromId) : -1;
+        int toSlot = accountToId != null ? ledger.slotOf(accountToId) : -1;
+        if (fromSlot < 0 || toSlot < 0) {
+            return TransferStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (transferAmountValue == null) {
+            return TransferStatus.INVALID_AMOUNT;
+        }
+        long transferMinorUnits;
+        try {
+            transferMinorUnits = ledger.toMinorUnits(transferAmountValue);
+        } catch (IllegalArgumentException iae) {
+            return TransferStatus.INVALID_AMOUNT;
+        }
+        if (transferMinorUnits < ledger.getMinimumTransferMinorUnits()) {
+            return TransferStatus.BELOW_MINIMUM_AMOUNT;
+        }
+        if (!ledger.transfer(fromSlot, toSlot, transferMinorUnits)) {
+            return TransferStatus.INSUFFICIENT_BALANCE;
+        }
+        recordHistory(accountFromId, accountToId, transferMinorUnits);
+        return TransferStatus.COMPLETED;
+    }
+
+    /**
+     * The balances are the values the debit and the credit left in their slots, so they
+     * reflect this transfer and any transfer that touched the same slot before it.
+     */
+    @Override
+    public TransferReceipt transferAmountWithBalances(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        int fromSlot = accountFromId != null ? ledger.slotOf(accountFromId) : -1;
+        int toSlot = accountToId != null ? ledger.slotOf(accountToId) : -1;
+        if (fromSlot < 0 || toSlot < 0) {
+            return new TransferReceipt(TransferStatus.ACCOUNT_NOT_FOUND, null, null);
+        }
+        if (transferAmountValue == null) {
+            return new TransferReceipt(TransferStatus.INVALID_AMOUNT, null, null);
+        }
+        long transferMinorUnits;
+        try {
+            transferMinorUnits = ledger.toMinorUnits(transferAmountValue);
+        } catch (IllegalArgumentException iae) {
+            return new TransferReceipt(TransferStatus.INVALID_AMOUNT, null, null);
+        }
+        if (transferMinorUnits < ledger.getMinimumTransferMinorUnits()) {
+            return new TransferReceipt(TransferStatus.BELOW_MINIMUM_AMOUNT, null, null);
+        }
+        long fromBalance = ledger.debitAndGet(fromSlot, transferMinorUnits);
+        if (fromBalance < 0) {
+            return new TransferReceipt(TransferStatus.INSUFFICIENT_BALANCE, null, null);
+        }
+        long toBalance = ledger.creditAndGet(toSlot, transferMinorUnits);
+        recordHistory(accountFromId, accountToId, transferMinorUnits);
+        // A transfer to the same account is left with the balance after its credit.
+        return new TransferReceipt(TransferStatus.COMPLETED, ledger.fromMinorUnits(fromSlot == toSlot ? toBalance : fromBalance),
+                ledger.fromMinorUnits(toBalance));
+    }
+
+    /**
+     * Splits the slots into fork-join tasks of {@link #ADJUSTMENT_CHUNK_SIZE}. Each balance is
+     * replaced with a CAS against the value the adjustment was computed from, so no lock is
+     * taken and a concurrent transfer only makes the adjustment be recomputed. Amounts are
+     * rounded half-even to the ledger's scale.
+     */
+    @Override
+    public BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress) {
+        long startedNanos = System.nanoTime();
+        String[] accountIds = ledger.accountIdsBySlot();
+        return pool.invoke(new SlotAdjustmentTask(accountIds, adjustment, progress, 0, accountIds.length)).toReport(startedNanos);
+    }
+
+    /**
+     * Allocation-free transfer path for callers that already hold amounts in minor units.
+     */
+    public boolean transferMinorUnits(String fromAccountId, String toAccountId, long transferMinorUnits) {
+        int fromSlot = ledger.slotOf(fromAccountId);
+        int toSlot = ledger.slotOf(toAccountId);
+        if (fromSlot < 0 || toSlot < 0 || !ledger.transfer(fromSlot, toSlot, transferMinorUnits)) {
+            return false;
+        }
+        recordHistory(fromAccountId, toAccountId, transferMinorUnits);
+        return true;
+    }
+
+    private void recordHistory(String fromAccountId, String toAccountId, long transferMinorUnits) {
+        if (transferHistoryStore != null) {
+            transferHistoryStore.record(fromAccountId, toAccountId, ledger.fromMinorUnits(transferMinorUnits));
+        }
+    }
+
+    public BalanceLedger getLedger() {
+        return ledger;
+    }
+
+    private BalanceAdjustmentTally adjustSlots(String[] accountIds, BalanceAdjustment adjustment, int fromSlot, int toSlot) {
+        BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+        for (int slot = fromSlot; slot < toSlot; slot++) {
+            if (accountIds[slot] == null) {
+                continue;
+            }
+            tally.accountsVisited++;
+            while (true) {
+                long balance = ledger.balanceAt(slot);
+                BigDecimal amount = adjustment.adjustmentFor(accountIds[slot], ledger.fromMinorUnits(balance));
+                long amountMinorUnits = amount != null ? amount.setScale(ledger.getScale(), RoundingMode.HALF_EVEN).unscaledValue().longValueExact() : 0L;
+                if (amountMinorUnits == 0) {
+                    break;
+                }
+                if (balance + amountMinorUnits < 0) {
+                    tally.accountsRejected++;
+                    break;
+                }
+                if (ledger.compareAndSet(slot, balance, balance + amountMinorUnits)) {
+                    tally.adjusted(ledger.fromMinorUnits(amountMinorUnits));
+                    break;
+                }
+            }
+        }
+        return tally;
+    }
+
+    private final class SlotAdjustmentTask extends RecursiveTask<BalanceAdjustmentTally> {
+
+        private final String[] accountIds;
+
+        private final BalanceAdjustment adjustment;
+
+        private final LongConsumer progress;
+
+        private final int fromSlot;
+
+        private final int toSlot;
+
+        private SlotAdjustmentTask(String[] accountIds, BalanceAdjustment adjustment, LongConsumer progress, int fromSlot, int toSlot) {
+            this.accountIds = accountIds;
+            this.adjustment = adjustment;
+            this.progress = progress;
+            this.fromSlot = fromSlot;
+            this.toSlot = toSlot;
+        }
+
+        @Override
+        protected BalanceAdjustmentTally compute() {
+            if (toSlot - fromSlot <= ADJUSTMENT_CHUNK_SIZE) {
+                BalanceAdjustmentTally tally = adjustSlots(accountIds, adjustment, fromSlot, toSlot);
+                progress.accept(toSlot - fromSlot);
+                return tally;
+            }
+            int middle = (fromSlot + toSlot) >>> 1;
+            SlotAdjustmentTask lower = new SlotAdjustmentTask(accountIds, adjustment, progress, fromSlot, middle);
+            lower.fork();
+            BalanceAdjustmentTally upperTally = new SlotAdjustmentTask(accountIds, adjustment, progress, middle, toSlot).compute();
+            return lower.join().merge(upperTally);
+        }
+    }
+}
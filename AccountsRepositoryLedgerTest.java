@@ -0,0 +1,132 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.repository.AccountsRepositoryLedger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountsRepositoryLedgerTest {
+
+  private AccountsRepositoryLedger accountsRepository;
+
+  @BeforeEach
+  void prepareRepository() {
+    accountsRepository = new AccountsRepositoryLedger();
+  }
+
+  @Test
+  void createAndGetAccount() {
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+    Account account = accountsRepository.getAccount("Id-123");
+    assertThat(account.getAccountId()).isEqualTo("Id-123");
+    assertThat(account.getBalance()).isEqualByComparingTo("123.45");
+    assertThat(accountsRepository.getAccount("Id-unknown")).isNull();
+  }
+
+  @Test
+  void createDuplicateAccount() {
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+    try {
+      accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+      fail("Should have failed when adding duplicate account");
+    } catch (DuplicateAccountIdException ex) {
+      assertThat(ex.getMessage()).isEqualTo("Account id Id-123 already exists!");
+    }
+  }
+
+  @Test
+  void createAccountWithTooManyDecimalPlaces() {
+    try {
+      accountsRepository.createAccount(new Account("Id-123", new BigDecimal("0.001")));
+      fail("Should have failed when the balance does not fit the ledger scale");
+    } catch (IllegalArgumentException ex) {
+      assertThat(accountsRepository.getAccount("Id-123")).isNull();
+    }
+  }
+
+  @Test
+  void transferAmountBetweenAccounts() {
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+
+    assertThat(accountsRepository.transferMinorUnits("Id-123", "Id-456", 499_900L)).isTrue();
+
+    assertThat(accountsRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+    assertThat(accountsRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("10999");
+  }
+
+  @Test
+  void transferAmountWithTooManyDecimalPlacesIsIgnored() {
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+    accountDetails.put(accountsRepository.getAccount("Id-123"), accountsRepository.getAccount("Id-456"));
+
+    accountsRepository.transferAmountBetweenAccounts(accountDetails, new BigDecimal("1.005"));
+
+    assertThat(accountsRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("5000");
+    assertThat(accountsRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("6000");
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal("1.005"))).isEqualTo(TransferStatus.INVALID_AMOUNT);
+  }
+
+  @Test
+  void transferAmountWithGreaterAmount() {
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+    accountDetails.put(accountsRepository.getAccount("Id-123"), accountsRepository.getAccount("Id-456"));
+
+    accountsRepository.transferAmountBetweenAccounts(accountDetails, new BigDecimal("5001"));
+
+    assertThat(accountsRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("5000");
+    assertThat(accountsRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("6000");
+  }
+
+  @Test
+  void randomConcurrentTransfersConserveTotalBalance() throws Exception {
+    int accountCount = 1_000;
+    for (int i = 0; i < accountCount; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      workers.add(executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 250_000; i++) {
+          accountsRepository.transferMinorUnits("Id-" + random.nextInt(accountCount),
+            "Id-" + random.nextInt(accountCount), 100L * (1 + random.nextInt(100)));
+        }
+      }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accountCount; i++) {
+      BigDecimal balance = accountsRepository.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo("1000000");
+  }
+}
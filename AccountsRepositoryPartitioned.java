@@ -0,0 +1,456 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.TransferInDoubtException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Repository that hash-partitions accounts over independent {@link AccountShard}s, each with
+ * its own storage and thread. A transfer between two accounts of one shard is a single shard
+ * operation; a transfer across shards is coordinated here in two phases (reserve on the
+ * sender's shard, prepare the credit on the receiver's shard, then commit or abort both).
+ * While a cross-shard transfer is between its phases the amount is on neither balance.
+ * Commits and aborts are repeated until the shard acknowledges them, first on the calling
+ * thread and then in the background; reservations a coordinator never resolves expire on the
+ * shard. A transfer whose sender commit is still unacknowledged is reported in doubt with a
+ * {@link TransferInDoubtException}, and one whose reservation expired first is reported
+ * {@link TransferStatus#ABORTED}. Bulk balance adjustments run shard by shard in parallel, each account compared and
+ * set against the balance its adjustment was computed from. Enabled with
+ * {@code accounts.repository=partitioned}; shards run in this JVM unless
+ * {@code accounts.partitions.remote-shards} lists {@link AccountShardServer} addresses.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "partitioned")
+@Slf4j
+public class AccountsRepositoryPartitioned implements AccountsRepository {
+
+    /**
+     * Attempts at a commit or abort on the calling thread before it is left to the background.
+     */
+    private static final int DECISION_ATTEMPTS = 3;
+
+    private static final long FIRST_RETRY_DELAY_MILLIS = 10;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Accounts of one shard whose balances are read, and adjustments sent, before waiting for
+     * any of them in a bulk adjustment.
+     */
+    private static final int ADJUSTMENT_CHUNK_SIZE = 1024;
+
+    private final List<AccountShard> shards;
+
+    private final ScheduledExecutorService decisionRetrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "partitioned-decision-retrier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Transfer ids start at a random multiple of 2^32 so that several application instances
+     * coordinating transfers on the same remote shards do not reuse each other's ids.
+     */
+    private final AtomicLong nextTransferId = new AtomicLong((long) ThreadLocalRandom.current().nextInt() << 32);
+
+    private TransferHistoryStore transferHistoryStore;
+
+    @Autowired
+    public AccountsRepositoryPartitioned(@Value("${accounts.partitions.shards:0}") int shardCount,
+                                         @Value("${accounts.partitions.remote-shards:}") String remoteShards,
+                                         @Value("${accounts.partitions.reservation-timeout-ms:60000}") long reservationTimeoutMillis,
+                                         @Value("${accounts.partitions.remote-timeout-ms:5000}") int remoteTimeoutMillis) throws IOException {
+        this(remoteShards.isEmpty()
+                ? localShards(shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors(), reservationTimeoutMillis)
+                : remoteShards(remoteShards, remoteTimeoutMillis));
+    }
+
+    public AccountsRepositoryPartitioned(int shardCount) {
+        this(localShards(shardCount, LocalAccountShard.DEFAULT_RESERVATION_TIMEOUT_MILLIS));
+    }
+
+    public AccountsRepositoryPartitioned(List<AccountShard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards;
+    }
+
+    @Autowired(required = false)
+    public void setTransferHistoryStore(TransferHistoryStore transferHistoryStore) {
+        this.transferHistoryStore = transferHistoryStore;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        decisionRetrier.shutdown();
+        for (AccountShard shard : shards) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Index of the shard that owns the account.
+     */
+    public int shardIndexOf(String accountId) {
+        int hash = accountId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        join(shardOf(account.getAccountId()).createAccount(account.getAccountId(), account.getBalance()));
+    }
+
+    /**
+     * Sends every create before waiting for any, so the shards work through the list in
+     * parallel. Each shard applies its creates in list order.
+     */
+    @Override
+    public Map<Integer, String> createAccounts(List<Account> accounts) {
+        List<CompletableFuture<Void>> createdAccounts = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            createdAccounts.add(shardOf(account.getAccountId()).createAccount(account.getAccountId(), account.getBalance()));
+        }
+        Map<Integer, String> rejectedAccounts = new TreeMap<>();
+        for (int i = 0; i < createdAccounts.size(); i++) {
+            try {
+                join(createdAccounts.get(i));
+            } catch (DuplicateAccountIdException daie) {
+                rejectedAccounts.put(i, daie.getMessage());
+            }
+        }
+        return rejectedAccounts;
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        BigDecimal balance = join(shardOf(accountId).getBalance(accountId));
+        return balance != null ? new Account(accountId, balance) : null;
+    }
+
+    @Override
+    public void clearAccounts() {
+        List<CompletableFuture<Void>> clearedShards = new ArrayList<>(shards.size());
+        for (AccountShard shard : shards) {
+            clearedShards.add(shard.clear());
+        }
+        join(CompletableFuture.allOf(clearedShards.toArray(new CompletableFuture[0])));
+    }
+
+    @Override
+    public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ConcurrentHashMap<Account, Account> accountDetailsBeforeTransfer, BigDecimal transferAmountValue) {
+
+        ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
+
+        for (ConcurrentHashMap.Entry<Account, Account> transferAccountDetailsEntries : accountDetailsBeforeTransfer.entrySet()) {
+            String fromAccountId = transferAccountDetailsEntries.getKey().getAccountId();
+            String toAccountId = transferAccountDetailsEntries.getValue().getAccountId();
+            transferAmount(fromAccountId, toAccountId, transferAmountValue);
+            Account fromAccount = getAccount(fromAccountId);
+            Account toAccount = getAccount(toAccountId);
+            accountDetailsAfterTransfer.put(fromAccount != null ? fromAccount : transferAccountDetailsEntries.getKey(),
+                    toAccount != null ? toAccount : transferAccountDetailsEntries.getValue());
+        }
+        return accountDetailsAfterTransfer;
+    }
+
+    @Override
+    public TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        if (accountFromId == null || accountToId == null) {
+            return TransferStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (transferAmountValue == null) {
+            return TransferStatus.INVALID_AMOUNT;
+        }
+        if (transferAmountValue.compareTo(BigDecimal.ONE) < 0) {
+            return TransferStatus.BELOW_MINIMUM_AMOUNT;
+        }
+        AccountShard fromShard = shardOf(accountFromId);
+        AccountShard toShard = shardOf(accountToId);
+        if (fromShard == toShard) {
+            TransferStatus transferStatus = join(fromShard.transfer(accountFromId, accountToId, transferAmountValue));
+            if (transferStatus == TransferStatus.COMPLETED) {
+                recordHistory(accountFromId, accountToId, transferAmountValue);
+            }
+            return transferStatus;
+        }
+
+        long transferId = nextTransferId.incrementAndGet();
+        CompletableFuture<TransferStatus> reserved = fromShard.reserve(transferId, accountFromId, transferAmountValue);
+        CompletableFuture<TransferStatus> creditPrepared = toShard.prepareCredit(transferId, accountToId, transferAmountValue);
+        TransferStatus reserveStatus;
+        TransferStatus creditStatus;
+        try {
+            reserveStatus = join(reserved);
+            creditStatus = join(creditPrepared);
+        } catch (RuntimeException re) {
+            // Each shard runs its operations in order, so the aborts undo whichever phase did happen.
+            abort(fromShard, transferId);
+            abort(toShard, transferId);
+            throw re;
+        }
+        if (reserveStatus != TransferStatus.COMPLETED || creditStatus != TransferStatus.COMPLETED) {
+            abort(fromShard, transferId);
+            abort(toShard, transferId);
+            return creditStatus == TransferStatus.ACCOUNT_NOT_FOUND ? creditStatus : reserveStatus;
+        }
+
+        // The sender's commit decides the transfer; the receiver follows whatever it decided.
+        CompletableFuture<TransferStatus> resolution = new CompletableFuture<>();
+        Boolean committed = decide(() -> fromShard.commit(transferId),
+                lateCommitted -> resolution.complete(completeTransfer(accountFromId, accountToId, transferAmountValue, toShard, transferId, lateCommitted)),
+                "commit of transfer " + transferId + " on the sender's shard");
+        if (committed == null) {
+            throw new TransferInDoubtException("Transfer " + transferId + " is in doubt: the sender's shard has not acknowledged its commit yet",
+                    resolution);
+        }
+        return completeTransfer(accountFromId, accountToId, transferAmountValue, toShard, transferId, committed);
+    }
+
+    /**
+     * Turns a transfer the coordinator cannot settle into an {@link TransferStatus#IN_DOUBT}
+     * result, so the rest of the batch still runs.
+     */
+    @Override
+    public List<TransferResult> transferAmountsInBatch(List<TransferRequest> transferRequests) {
+        List<TransferResult> transferResults = new ArrayList<>(transferRequests.size());
+        for (TransferRequest transferRequest : transferRequests) {
+            TransferStatus transferStatus;
+            try {
+                transferStatus = transferAmount(transferRequest.getAccountFromId(), transferRequest.getAccountToId(),
+                        transferRequest.getTransferAmountValue());
+            } catch (TransferInDoubtException tide) {
+                transferStatus = TransferStatus.IN_DOUBT;
+            }
+            transferResults.add(new TransferResult(transferRequest, transferStatus));
+        }
+        return transferResults;
+    }
+
+    /**
+     * Applies the sender's decision to the receiver. A commit the sender refused because its
+     * reservation expired moved nothing, so the transfer is reported as aborted.
+     */
+    private TransferStatus completeTransfer(String accountFromId, String accountToId, BigDecimal transferAmountValue,
+                                            AccountShard toShard, long transferId, boolean committed) {
+        completeOnReceiver(toShard, transferId, committed);
+        if (!committed) {
+            log.warn("Transfer {} expired on the sender's shard before it was committed", transferId);
+            return TransferStatus.ABORTED;
+        }
+        recordHistory(accountFromId, accountToId, transferAmountValue);
+        return TransferStatus.COMPLETED;
+    }
+
+    /**
+     * Adjusts the shards in parallel, one task per shard on {@code pool}. Each account's
+     * adjustment is computed here from the balance its shard reported and applied only if the
+     * balance is still the same, so a transfer landing in between makes it be recomputed
+     * rather than lost. Money reserved by a cross-shard transfer in flight is not part of the
+     * balance it is computed from.
+     */
+    @Override
+    public BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress) {
+        long startedNanos = System.nanoTime();
+        List<ForkJoinTask<BalanceAdjustmentTally>> shardAdjustments = new ArrayList<>(shards.size());
+        for (AccountShard shard : shards) {
+            shardAdjustments.add(pool.submit(() -> adjustShard(shard, adjustment, progress)));
+        }
+        BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+        for (ForkJoinTask<BalanceAdjustmentTally> shardAdjustment : shardAdjustments) {
+            tally.merge(shardAdjustment.join());
+        }
+        return tally.toReport(startedNanos);
+    }
+
+    private BalanceAdjustmentTally adjustShard(AccountShard shard, BalanceAdjustment adjustment, LongConsumer progress) {
+        BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+        List<String> accountIds = join(shard.accountIds());
+        for (int chunkStart = 0; chunkStart < accountIds.size(); chunkStart += ADJUSTMENT_CHUNK_SIZE) {
+            long visitedBefore = tally.accountsVisited;
+            List<String> pendingAccountIds = accountIds.subList(chunkStart, Math.min(accountIds.size(), chunkStart + ADJUSTMENT_CHUNK_SIZE));
+            boolean firstPass = true;
+            while (!pendingAccountIds.isEmpty()) {
+                pendingAccountIds = adjustAccounts(shard, pendingAccountIds, adjustment, tally, firstPass);
+                firstPass = false;
+            }
+            progress.accept(tally.accountsVisited - visitedBefore);
+        }
+        return tally;
+    }
+
+    /**
+     * One round trip for the balances and one for the adjustments. Returns the accounts whose
+     * balance changed before their adjustment arrived; accounts removed meanwhile are skipped.
+     */
+    private List<String> adjustAccounts(AccountShard shard, List<String> accountIds, BalanceAdjustment adjustment,
+                                        BalanceAdjustmentTally tally, boolean firstPass) {
+        List<CompletableFuture<BigDecimal>> balances = new ArrayList<>(accountIds.size());
+        for (String accountId : accountIds) {
+            balances.add(shard.getBalance(accountId));
+        }
+        List<String> adjustedAccountIds = new ArrayList<>();
+        List<BigDecimal> amounts = new ArrayList<>();
+        List<CompletableFuture<Boolean>> adjustedBalances = new ArrayList<>();
+        for (int i = 0; i < accountIds.size(); i++) {
+            BigDecimal balance = join(balances.get(i));
+            if (balance == null) {
+                continue;
+            }
+            if (firstPass) {
+                tally.accountsVisited++;
+            }
+            BigDecimal amount = adjustment.adjustmentFor(accountIds.get(i), balance);
+            if (amount == null || amount.signum() == 0) {
+                continue;
+            }
+            if (balance.add(amount).signum() < 0) {
+                tally.accountsRejected++;
+                continue;
+            }
+            adjustedAccountIds.add(accountIds.get(i));
+            amounts.add(amount);
+            adjustedBalances.add(shard.adjustBalance(accountIds.get(i), balance, amount));
+        }
+        List<String> changedAccountIds = new ArrayList<>();
+        for (int i = 0; i < adjustedBalances.size(); i++) {
+            if (join(adjustedBalances.get(i))) {
+                tally.adjusted(amounts.get(i));
+            } else {
+                changedAccountIds.add(adjustedAccountIds.get(i));
+            }
+        }
+        return changedAccountIds;
+    }
+
+    private void completeOnReceiver(AccountShard toShard, long transferId, boolean committed) {
+        if (committed) {
+            decide(() -> toShard.commit(transferId), ignored -> { }, "commit of transfer " + transferId + " on the receiver's shard");
+        } else {
+            abort(toShard, transferId);
+        }
+    }
+
+    private void abort(AccountShard shard, long transferId) {
+        decide(() -> shard.abort(transferId), ignored -> { }, "abort of transfer " + transferId);
+    }
+
+    /**
+     * Sends a commit or abort until the shard acknowledges it and returns the shard's answer.
+     * After {@link #DECISION_ATTEMPTS} failed attempts it returns null and keeps retrying in the
+     * background with a growing delay, handing the answer to {@code onLateResult} once it
+     * arrives, so a shard that is down does not hold the caller indefinitely.
+     */
+    private <T> T decide(Supplier<CompletableFuture<T>> decision, Consumer<T> onLateResult, String description) {
+        RuntimeException lastFailure = null;
+        long delayMillis = FIRST_RETRY_DELAY_MILLIS;
+        for (int attempt = 0; attempt < DECISION_ATTEMPTS; attempt++) {
+            try {
+                return join(decision.get());
+            } catch (RuntimeException re) {
+                lastFailure = re;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, 2 * delayMillis);
+        }
+        log.warn("The {} failed {} times, retrying in the background", description, DECISION_ATTEMPTS, lastFailure);
+        retryInBackground(decision, onLateResult, description, delayMillis);
+        return null;
+    }
+
+    private <T> void retryInBackground(Supplier<CompletableFuture<T>> decision, Consumer<T> onLateResult, String description, long delayMillis) {
+        decisionRetrier.schedule(() -> decision.get().whenComplete((result, failure) -> {
+            if (failure != null) {
+                retryInBackground(decision, onLateResult, description, Math.min(MAX_RETRY_DELAY_MILLIS, 2 * delayMillis));
+            } else {
+                log.info("The {} succeeded after retrying", description);
+                onLateResult.accept(result);
+            }
+        }), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void recordHistory(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        if (transferHistoryStore != null) {
+            transferHistoryStore.record(accountFromId, accountToId, transferAmountValue);
+        }
+    }
+
+    private AccountShard shardOf(String accountId) {
+        return shards.get(shardIndexOf(accountId));
+    }
+
+    /**
+     * Waits for a shard operation and rethrows what the shard threw, rather than the
+     * {@link CompletionException} wrapping it.
+     */
+    private static <T> T join(CompletableFuture<T> shardOperation) {
+        try {
+            return shardOperation.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+
+    private static List<AccountShard> localShards(int shardCount, long reservationTimeoutMillis) {
+        List<AccountShard> shards = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards.add(new LocalAccountShard(shard, reservationTimeoutMillis));
+        }
+        return shards;
+    }
+
+    private static List<AccountShard> remoteShards(String addresses, int remoteTimeoutMillis) throws IOException {
+        List<AccountShard> shards = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            shards.add(RemoteAccountShard.connect(address, remoteTimeoutMillis));
+        }
+        return shards;
+    }
+}
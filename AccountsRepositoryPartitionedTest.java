@@ -0,0 +1,383 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.TransferInDoubtException;
+import com.dws.challenge.repository.AccountShard;
+import com.dws.challenge.repository.AccountShardServer;
+import com.dws.challenge.repository.AccountsRepositoryPartitioned;
+import com.dws.challenge.repository.LocalAccountShard;
+import com.dws.challenge.repository.RemoteAccountShard;
+import org.junit.jupiter.api.Test;
+
+class AccountsRepositoryPartitionedTest {
+
+  private static final int ACCOUNT_COUNT = 1_000;
+
+  private static final int THREAD_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int TRANSFERS_PER_THREAD = 50_000;
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @Test
+  void concurrentSingleAndCrossShardTransfersConserveTotalBalance() throws Exception {
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(4);
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      workers.add(executor.submit(() -> {
+        start.await();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          accountsRepository.transferAmount("Id-" + random.nextInt(ACCOUNT_COUNT), "Id-" + random.nextInt(ACCOUNT_COUNT),
+            BigDecimal.valueOf(1 + random.nextInt(100)));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      BigDecimal balance = accountsRepository.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNT_COUNT)));
+    accountsRepository.close();
+  }
+
+  @Test
+  void failedCrossShardTransferReleasesReservation() throws Exception {
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(4);
+    String fromAccountId = "Id-0";
+    String toAccountId = accountOnOtherShard(accountsRepository, fromAccountId);
+    accountsRepository.createAccount(new Account(fromAccountId, new BigDecimal("100")));
+
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("40"))).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("100");
+
+    accountsRepository.createAccount(new Account(toAccountId, BigDecimal.ZERO));
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("101"))).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("100"))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("0");
+    assertThat(accountsRepository.getAccount(toAccountId).getBalance()).isEqualByComparingTo("100");
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("0.5"))).isEqualTo(TransferStatus.BELOW_MINIMUM_AMOUNT);
+    accountsRepository.close();
+  }
+
+  @Test
+  void duplicateAccountIsRejected() throws Exception {
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(2);
+    accountsRepository.createAccount(new Account("Id-123", BigDecimal.TEN));
+
+    assertThrows(DuplicateAccountIdException.class, () -> accountsRepository.createAccount(new Account("Id-123", BigDecimal.ONE)));
+    accountsRepository.close();
+  }
+
+  @Test
+  void transfersAcrossRemoteShards() throws Exception {
+    AccountShardServer firstServer = new AccountShardServer(new LocalAccountShard(0), 0);
+    AccountShardServer secondServer = new AccountShardServer(new LocalAccountShard(1), 0);
+    serveInBackground(firstServer);
+    serveInBackground(secondServer);
+    List<AccountShard> shards = Arrays.asList(new RemoteAccountShard("localhost", firstServer.getPort()),
+      new RemoteAccountShard("localhost", secondServer.getPort()));
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(shards);
+
+    String fromAccountId = "Id-0";
+    String toAccountId = accountOnOtherShard(accountsRepository, fromAccountId);
+    accountsRepository.createAccount(new Account(fromAccountId, new BigDecimal("5000.50")));
+    accountsRepository.createAccount(new Account(toAccountId, new BigDecimal("6000")));
+    assertThrows(DuplicateAccountIdException.class, () -> accountsRepository.createAccount(new Account(toAccountId, BigDecimal.ONE)));
+
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("4999.25"))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("5000"))).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("1.25");
+    assertThat(accountsRepository.getAccount(toAccountId).getBalance()).isEqualByComparingTo("10999.25");
+    assertThat(accountsRepository.getAccount("Id-missing")).isNull();
+
+    accountsRepository.close();
+    firstServer.close();
+    secondServer.close();
+  }
+
+  @Test
+  void adjustsBalancesOnRemoteShards() throws Exception {
+    AccountShardServer firstServer = new AccountShardServer(new LocalAccountShard(0), 0);
+    AccountShardServer secondServer = new AccountShardServer(new LocalAccountShard(1), 0);
+    serveInBackground(firstServer);
+    serveInBackground(secondServer);
+    List<AccountShard> shards = Arrays.asList(new RemoteAccountShard("localhost", firstServer.getPort()),
+      new RemoteAccountShard("localhost", secondServer.getPort()));
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(shards);
+    for (int i = 0; i < 100; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal(i)));
+    }
+    AtomicInteger progress = new AtomicInteger();
+
+    BalanceAdjustmentReport report = accountsRepository.adjustBalances((accountId, balance) -> new BigDecimal("-10.5"),
+      ForkJoinPool.commonPool(), accounts -> progress.addAndGet((int) accounts));
+
+    assertThat(report.getAccountsVisited()).isEqualTo(100L);
+    assertThat(report.getAccountsAdjusted()).isEqualTo(89L);
+    assertThat(report.getAccountsRejected()).isEqualTo(11L);
+    assertThat(progress.get()).isEqualTo(100);
+    assertThat(accountsRepository.getAccount("Id-10").getBalance()).isEqualByComparingTo("10");
+    assertThat(accountsRepository.getAccount("Id-11").getBalance()).isEqualByComparingTo("0.5");
+
+    accountsRepository.close();
+    firstServer.close();
+    secondServer.close();
+  }
+
+  @Test
+  void uncommittedReservationExpiresAndLateCommitIsRefused() throws Exception {
+    LocalAccountShard shard = new LocalAccountShard(0, 20);
+    shard.createAccount("Id-123", new BigDecimal("100")).join();
+
+    assertThat(shard.reserve(1, "Id-123", new BigDecimal("40")).join()).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(shard.getBalance("Id-123").join()).isEqualByComparingTo("60");
+    Thread.sleep(100);
+
+    assertThat(shard.getBalance("Id-123").join()).isEqualByComparingTo("100");
+    assertThat(shard.commit(1).join()).isFalse();
+    shard.close();
+  }
+
+  @Test
+  void receiverCommitIsRetriedUntilItSucceeds() throws Exception {
+    LocalAccountShard firstShard = new LocalAccountShard(0);
+    FlakyShard secondShard = new FlakyShard(new LocalAccountShard(1), 5);
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(Arrays.asList(firstShard, secondShard));
+    String fromAccountId = accountOnShard(accountsRepository, 0);
+    String toAccountId = accountOnShard(accountsRepository, 1);
+    accountsRepository.createAccount(new Account(fromAccountId, new BigDecimal("100")));
+    accountsRepository.createAccount(new Account(toAccountId, BigDecimal.ZERO));
+
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("40"))).isEqualTo(TransferStatus.COMPLETED);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (accountsRepository.getAccount(toAccountId).getBalance().signum() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(secondShard.failedCommits).hasValue(5);
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("60");
+    assertThat(accountsRepository.getAccount(toAccountId).getBalance()).isEqualByComparingTo("40");
+    accountsRepository.close();
+  }
+
+  @Test
+  void unacknowledgedSenderCommitIsInDoubtUntilTheRetrySettlesIt() throws Exception {
+    FlakyShard firstShard = new FlakyShard(new LocalAccountShard(0), 5);
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(Arrays.asList(firstShard, new LocalAccountShard(1)));
+    String fromAccountId = accountOnShard(accountsRepository, 0);
+    String toAccountId = accountOnShard(accountsRepository, 1);
+    accountsRepository.createAccount(new Account(fromAccountId, new BigDecimal("100")));
+    accountsRepository.createAccount(new Account(toAccountId, BigDecimal.ZERO));
+
+    TransferInDoubtException inDoubt = assertThrows(TransferInDoubtException.class,
+      () -> accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("40")));
+
+    assertThat(inDoubt.getResolution().get(10, TimeUnit.SECONDS)).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("60");
+    assertThat(accountsRepository.getAccount(toAccountId).getBalance()).isEqualByComparingTo("40");
+    accountsRepository.close();
+  }
+
+  @Test
+  void transferWhoseReservationExpiredIsAbortedOnBothShards() throws Exception {
+    LocalAccountShard firstShard = new LocalAccountShard(0, 20);
+    AccountShard slowShard = new FlakyShard(firstShard, 0) {
+      @Override
+      public CompletableFuture<Boolean> commit(long transferId) {
+        sleepQuietly(100);
+        return super.commit(transferId);
+      }
+    };
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(Arrays.asList(slowShard, new LocalAccountShard(1)));
+    String fromAccountId = accountOnShard(accountsRepository, 0);
+    String toAccountId = accountOnShard(accountsRepository, 1);
+    accountsRepository.createAccount(new Account(fromAccountId, new BigDecimal("100")));
+    accountsRepository.createAccount(new Account(toAccountId, BigDecimal.ZERO));
+
+    assertThat(accountsRepository.transferAmount(fromAccountId, toAccountId, new BigDecimal("40"))).isEqualTo(TransferStatus.ABORTED);
+
+    assertThat(accountsRepository.getAccount(fromAccountId).getBalance()).isEqualByComparingTo("100");
+    assertThat(accountsRepository.getAccount(toAccountId).getBalance()).isEqualByComparingTo("0");
+    accountsRepository.close();
+  }
+
+  @Test
+  void remoteShardTimesOutAndReconnects() throws Exception {
+    AtomicInteger acceptedConnections = new AtomicInteger();
+    ServerSocket silentServer = new ServerSocket(0);
+    List<Socket> connections = new ArrayList<>();
+    Thread acceptor = new Thread(() -> {
+      try {
+        while (true) {
+          connections.add(silentServer.accept());
+          acceptedConnections.incrementAndGet();
+        }
+      } catch (Exception e) {
+        // Closed by the test.
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+    RemoteAccountShard shard = new RemoteAccountShard("localhost", silentServer.getLocalPort(), 100);
+
+    CompletionException firstFailure = assertThrows(CompletionException.class, () -> shard.getBalance("Id-123").join());
+    assertThat(firstFailure.getCause()).isInstanceOf(UncheckedIOException.class);
+    assertThrows(CompletionException.class, () -> shard.getBalance("Id-123").join());
+
+    assertThat(acceptedConnections).hasValue(2);
+    shard.close();
+    silentServer.close();
+  }
+
+  private static String accountOnShard(AccountsRepositoryPartitioned accountsRepository, int shardIndex) {
+    for (int i = 0; ; i++) {
+      String accountId = "Id-" + i;
+      if (accountsRepository.shardIndexOf(accountId) == shardIndex) {
+        return accountId;
+      }
+    }
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String accountOnOtherShard(AccountsRepositoryPartitioned accountsRepository, String accountId) {
+    for (int i = 1; ; i++) {
+      String otherAccountId = "Id-" + i;
+      if (accountsRepository.shardIndexOf(otherAccountId) != accountsRepository.shardIndexOf(accountId)) {
+        return otherAccountId;
+      }
+    }
+  }
+
+  private static void serveInBackground(AccountShardServer server) {
+    Thread serverThread = new Thread(() -> {
+      try {
+        server.serve();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  /**
+   * Fails the first commits it is asked for, as a shard that cannot be reached would.
+   */
+  private static class FlakyShard implements AccountShard {
+
+    private final AccountShard shard;
+
+    private final int commitsToFail;
+
+    private final AtomicInteger failedCommits = new AtomicInteger();
+
+    private FlakyShard(AccountShard shard, int commitsToFail) {
+      this.shard = shard;
+      this.commitsToFail = commitsToFail;
+    }
+
+    @Override
+    public CompletableFuture<Void> createAccount(String accountId, BigDecimal balance) {
+      return shard.createAccount(accountId, balance);
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBalance(String accountId) {
+      return shard.getBalance(accountId);
+    }
+
+    @Override
+    public CompletableFuture<TransferStatus> transfer(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+      return shard.transfer(accountFromId, accountToId, transferAmountValue);
+    }
+
+    @Override
+    public CompletableFuture<TransferStatus> reserve(long transferId, String accountFromId, BigDecimal transferAmountValue) {
+      return shard.reserve(transferId, accountFromId, transferAmountValue);
+    }
+
+    @Override
+    public CompletableFuture<TransferStatus> prepareCredit(long transferId, String accountToId, BigDecimal transferAmountValue) {
+      return shard.prepareCredit(transferId, accountToId, transferAmountValue);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> commit(long transferId) {
+      if (failedCommits.get() < commitsToFail) {
+        failedCommits.incrementAndGet();
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new UncheckedIOException(new IOException("shard unreachable")));
+        return failed;
+      }
+      return shard.commit(transferId);
+    }
+
+    @Override
+    public CompletableFuture<Void> abort(long transferId) {
+      return shard.abort(transferId);
+    }
+
+    @Override
+    public CompletableFuture<Void> clear() {
+      return shard.clear();
+    }
+
+    @Override
+    public CompletableFuture<List<String>> accountIds() {
+      return shard.accountIds();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> adjustBalance(String accountId, BigDecimal expectedBalance, BigDecimal adjustment) {
+      return shard.adjustBalance(accountId, expectedBalance, adjustment);
+    }
+  }
+}
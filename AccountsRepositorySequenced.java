@@ -0,0 +1,301 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Repository whose transfers run through a {@link SequencedTransferEngine} rather than under
+ * account locks. Balances live in a {@link BalanceLedger}; accounts handed out are detached
+ * snapshots of it. When {@code accounts.sequencer.journal-directory} is set, account creation
+ * is journaled synchronously and completed transfers are journaled by the writers, one sync per
+ * batch, as are bulk balance adjustments, and the journal is replayed on startup. Enabled with {@code accounts.repository=sequenced}.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "sequenced")
+@Slf4j
+public class AccountsRepositorySequenced implements AccountsRepository {
+
+    /**
+     * Adjustments published before waiting for their results in a bulk adjustment.
+     */
+    private static final int ADJUSTMENT_CHUNK_SIZE = 1024;
+
+    private final BalanceLedger ledger = new BalanceLedger();
+
+    private final TransferJournal journal;
+
+    private final SequencedTransferEngine engine;
+
+    /**
+     * Serializes account creation so the journal records creations in the order they happen.
+     */
+    private final ReentrantLock creationLock = new ReentrantLock();
+
+    /**
+     * Set after the writers have started, hence volatile.
+     */
+    private volatile TransferHistoryStore transferHistoryStore;
+
+    @Autowired
+    public AccountsRepositorySequenced(@Value("${accounts.sequencer.partitions:4}") int partitionCount,
+                                       @Value("${accounts.sequencer.ring-size:65536}") int ringCapacity,
+                                       @Value("${accounts.sequencer.journal-directory:}") String journalDirectory,
+                                       @Value("${accounts.journal.segment-size:67108864}") int segmentSize,
+                                       @Value("${accounts.journal.fsync-policy:INTERVAL}") JournalFsyncPolicy fsyncPolicy,
+                                       @Value("${accounts.journal.fsync-interval-ms:10}") long fsyncIntervalMillis) throws IOException {
+        this(partitionCount, ringCapacity, journalDirectory.isEmpty() ? null
+                : new TransferJournal(Paths.get(journalDirectory), segmentSize, fsyncPolicy, fsyncIntervalMillis));
+    }
+
+    public AccountsRepositorySequenced(int partitionCount, int ringCapacity) throws IOException {
+        this(partitionCount, ringCapacity, null);
+    }
+
+    public AccountsRepositorySequenced(int partitionCount, int ringCapacity, TransferJournal journal) throws IOException {
+        this.journal = journal;
+        if (journal != null) {
+            journal.open(new ReplayHandler());
+        }
+        this.engine = new SequencedTransferEngine(ledger, partitionCount, ringCapacity, new DownstreamListener(journal, partitionCount));
+        engine.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        engine.stop();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Autowired(required = false)
+    public void setTransferHistoryStore(TransferHistoryStore transferHistoryStore) {
+        this.transferHistoryStore = transferHistoryStore;
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        long minorUnits = ledger.toMinorUnits(account.getBalance());
+        long journalSequence = -1;
+        creationLock.lock();
+        try {
+            if (ledger.slotOf(account.getAccountId()) >= 0) {
+                throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+            }
+            if (journal != null) {
+                journalSequence = journal.appendAccountCreated(account.getAccountId(), account.getBalance());
+            }
+            ledger.allocateSlot(account.getAccountId(), minorUnits);
+        } finally {
+            creationLock.unlock();
+        }
+        if (journal != null) {
+            journal.awaitDurable(journalSequence);
+        }
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        int slot = ledger.slotOf(accountId);
+        if (slot < 0) {
+            return null;
+        }
+        return new Account(accountId, ledger.fromMinorUnits(ledger.balanceAt(slot)));
+    }
+
+    /**
+     * Holds every writer at a barrier while clearing, so no command already in a ring is
+     * journaled after the clear record or applied to a slot reused by a later account.
+     */
+    @Override
+    public void clearAccounts() {
+        creationLock.lock();
+        try {
+            engine.runBetweenCommands(() -> {
+                if (journal != null) {
+                    journal.awaitDurable(journal.appendAccountsCleared());
+                }
+                ledger.clear();
+            });
+        } finally {
+            creationLock.unlock();
+        }
+    }
+
+    @Override
+    public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ConcurrentHashMap<Account, Account> accountDetailsBeforeTransfer, BigDecimal transferAmountValue) {
+
+        ConcurrentHashMap<Account, Account> accountDetailsAfterTransfer = new ConcurrentHashMap<>();
+
+        for (ConcurrentHashMap.Entry<Account, Account> transferAccountDetailsEntries : accountDetailsBeforeTransfer.entrySet()) {
+            String fromAccountId = transferAccountDetailsEntries.getKey().getAccountId();
+            String toAccountId = transferAccountDetailsEntries.getValue().getAccountId();
+            engine.submit(fromAccountId, toAccountId, transferAmountValue).join();
+            Account fromAccount = getAccount(fromAccountId);
+            Account toAccount = getAccount(toAccountId);
+            accountDetailsAfterTransfer.put(fromAccount != null ? fromAccount : transferAccountDetailsEntries.getKey(),
+                    toAccount != null ? toAccount : transferAccountDetailsEntries.getValue());
+        }
+        return accountDetailsAfterTransfer;
+    }
+
+    @Override
+    public TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+        return engine.submit(accountFromId, accountToId, transferAmountValue).join();
+    }
+
+    /**
+     * Publishes the whole batch before waiting for any result, so the writers apply it in as
+     * few batches as the ring allows. Transfers from the same account keep their list order.
+     */
+    @Override
+    public List<TransferResult> transferAmountsInBatch(List<TransferRequest> transferRequests) {
+        List<CompletableFuture<TransferStatus>> transferFutures = new ArrayList<>(transferRequests.size());
+        for (TransferRequest transferRequest : transferRequests) {
+            transferFutures.add(engine.submit(transferRequest.getAccountFromId(), transferRequest.getAccountToId(),
+                    transferRequest.getTransferAmountValue()));
+        }
+        List<TransferResult> transferResults = new ArrayList<>(transferRequests.size());
+        for (int i = 0; i < transferRequests.size(); i++) {
+            transferResults.add(new TransferResult(transferRequests.get(i), transferFutures.get(i).join()));
+        }
+        return transferResults;
+    }
+
+    /**
+     * Publishes one adjustment per account into the rings, {@link #ADJUSTMENT_CHUNK_SIZE} at a
+     * time, so each is applied by the writer that debits the account, in order with its
+     * transfers, and journaled like them. The writers already apply them in parallel, so
+     * {@code pool} is not used. Amounts are rounded half-even to the ledger's scale.
+     */
+    @Override
+    public BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress) {
+        long startedNanos = System.nanoTime();
+        String[] accountIds = ledger.accountIdsBySlot();
+        BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+        List<CompletableFuture<BalanceAdjustmentTally>> adjustmentFutures = new ArrayList<>(ADJUSTMENT_CHUNK_SIZE);
+        for (int chunkStart = 0; chunkStart < accountIds.length; chunkStart += ADJUSTMENT_CHUNK_SIZE) {
+            int chunkEnd = Math.min(accountIds.length, chunkStart + ADJUSTMENT_CHUNK_SIZE);
+            for (int slot = chunkStart; slot < chunkEnd; slot++) {
+                if (accountIds[slot] != null) {
+                    adjustmentFutures.add(engine.submitAdjustment(accountIds[slot], adjustment));
+                }
+            }
+            for (CompletableFuture<BalanceAdjustmentTally> adjustmentFuture : adjustmentFutures) {
+                tally.merge(adjustmentFuture.join());
+            }
+            progress.accept(adjustmentFutures.size());
+            adjustmentFutures.clear();
+        }
+        return tally.toReport(startedNanos);
+    }
+
+    public SequencedTransferEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Records each completed transfer in the history and, when journaling, appends it and every
+     * balance adjustment to the journal and waits for the journal once per batch. Each writer thread has its own
+     * partition, so the last appended sequence is per partition.
+     */
+    private final class DownstreamListener implements SequencedTransferListener {
+
+        private final TransferJournal journal;
+
+        private final long[] lastAppendedSequences;
+
+        private DownstreamListener(TransferJournal journal, int partitionCount) {
+            this.journal = journal;
+            this.lastAppendedSequences = new long[partitionCount];
+        }
+
+        @Override
+        public void onTransfer(int partition, long sequence, String accountFromId, String accountToId, long minorUnits, TransferStatus status) {
+            if (status != TransferStatus.COMPLETED) {
+                return;
+            }
+            BigDecimal transferAmountValue = ledger.fromMinorUnits(minorUnits);
+            if (journal != null) {
+                lastAppendedSequences[partition] = journal.appendTransfer(accountFromId, accountToId, transferAmountValue);
+            }
+            TransferHistoryStore history = transferHistoryStore;
+            if (history != null) {
+                history.record(accountFromId, accountToId, transferAmountValue);
+            }
+        }
+
+        @Override
+        public void onBalanceAdjusted(int partition, long sequence, String accountId, long minorUnits) {
+            if (journal != null) {
+                lastAppendedSequences[partition] = journal.appendBalanceAdjusted(accountId, ledger.fromMinorUnits(minorUnits));
+            }
+        }
+
+        @Override
+        public void onEndOfBatch(int partition, long sequence) {
+            if (journal != null && lastAppendedSequences[partition] > 0) {
+                journal.awaitDurable(lastAppendedSequences[partition]);
+            }
+        }
+    }
+
+    /**
+     * Applies journaled records without checks; every transfer in the journal completed.
+     */
+    private final class ReplayHandler implements TransferJournal.RecordHandler {
+
+        @Override
+        public void onAccountCreated(long sequence, String accountId, BigDecimal balance) {
+            ledger.allocateSlot(accountId, ledger.toMinorUnits(balance));
+        }
+
+        @Override
+        public void onTransfer(long sequence, String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+            int fromSlot = ledger.slotOf(accountFromId);
+            int toSlot = ledger.slotOf(accountToId);
+            if (fromSlot < 0 || toSlot < 0) {
+                throw new IllegalStateException("Journal record " + sequence + " refers to an unknown account");
+            }
+            long minorUnits = ledger.toMinorUnits(transferAmountValue);
+            ledger.credit(fromSlot, -minorUnits);
+            ledger.credit(toSlot, minorUnits);
+        }
+
+        @Override
+        public void onAccountsCleared(long sequence) {
+            ledger.clear();
+        }
+
+        @Override
+        public void onBalanceAdjusted(long sequence, String accountId, BigDecimal adjustment) {
+            int slot = ledger.slotOf(accountId);
+            if (slot < 0) {
+                throw new IllegalStateException("Journal record " + sequence + " refers to an unknown account");
+            }
+            ledger.credit(slot, ledger.toMinorUnits(adjustment));
+        }
+    }
+}
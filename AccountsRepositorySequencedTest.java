@@ -0,0 +1,248 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepositorySequenced;
+import com.dws.challenge.repository.BalanceLedger;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.SequencedTransferEngine;
+import com.dws.challenge.repository.SequencedTransferListener;
+import com.dws.challenge.repository.TransferJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccountsRepositorySequencedTest {
+
+  private static final int ACCOUNT_COUNT = 1_000;
+
+  private static final int THREAD_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int TRANSFERS_PER_THREAD = 100_000;
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  @TempDir
+  Path journalDirectory;
+
+  @Test
+  void hotAccountTransfersConserveTotalBalance() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(4, 1024);
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, INITIAL_BALANCE));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      workers.add(executor.submit(() -> {
+        start.await();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+          // Half of all transfers touch Id-0.
+          String fromAccountId = "Id-" + (random.nextBoolean() ? 0 : random.nextInt(ACCOUNT_COUNT));
+          String toAccountId = "Id-" + (random.nextBoolean() ? 0 : random.nextInt(ACCOUNT_COUNT));
+          accountsRepository.transferAmount(fromAccountId, toAccountId, BigDecimal.valueOf(1 + random.nextInt(100)));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < ACCOUNT_COUNT; i++) {
+      BigDecimal balance = accountsRepository.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNT_COUNT)));
+    accountsRepository.close();
+  }
+
+  @Test
+  void transfersFromOneAccountApplyInSubmissionOrder() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(4, 1024);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("10")));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    SequencedTransferEngine engine = accountsRepository.getEngine();
+
+    CompletableFuture<TransferStatus> first = engine.submit("Id-123", "Id-456", new BigDecimal("6"));
+    CompletableFuture<TransferStatus> second = engine.submit("Id-123", "Id-456", new BigDecimal("6"));
+    CompletableFuture<TransferStatus> third = engine.submit("Id-123", "Id-456", new BigDecimal("4"));
+
+    assertThat(first.get(1, TimeUnit.MINUTES)).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(second.get(1, TimeUnit.MINUTES)).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(third.get(1, TimeUnit.MINUTES)).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("10");
+    accountsRepository.close();
+  }
+
+  @Test
+  void rejectsInvalidTransfersWithoutQueueingThem() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(1, 16);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("10")));
+
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-999", BigDecimal.ONE)).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-123", new BigDecimal("0.5"))).isEqualTo(TransferStatus.BELOW_MINIMUM_AMOUNT);
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-123", null)).isEqualTo(TransferStatus.INVALID_AMOUNT);
+    accountsRepository.close();
+  }
+
+  @Test
+  void replaysJournaledTransfersAfterRestart() throws Exception {
+    AccountsRepositorySequenced accountsRepository = openJournaledRepository();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("5000.50")));
+    accountsRepository.createAccount(new Account("Id-456", new BigDecimal("6000")));
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal("4999.25"))).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsRepository.transferAmount("Id-123", "Id-456", new BigDecimal("5000"))).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+    assertThat(accountsRepository.transferAmount("Id-456", "Id-123", new BigDecimal("1000"))).isEqualTo(TransferStatus.COMPLETED);
+    accountsRepository.close();
+
+    AccountsRepositorySequenced recoveredRepository = openJournaledRepository();
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo("1001.25");
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo("9999.25");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void listenerFailureUndoesTheUnrecordedTransferAndStopsTheEngine() throws Exception {
+    BalanceLedger ledger = new BalanceLedger();
+    int fromSlot = ledger.allocateSlot("Id-123", ledger.toMinorUnits(new BigDecimal("10")));
+    int toSlot = ledger.allocateSlot("Id-456", 0);
+    AtomicInteger reportedTransfers = new AtomicInteger();
+    SequencedTransferEngine engine = new SequencedTransferEngine(ledger, 1, 16, new SequencedTransferListener() {
+      @Override
+      public void onTransfer(int partition, long sequence, String accountFromId, String accountToId, long minorUnits, TransferStatus status) {
+        if (reportedTransfers.incrementAndGet() == 2) {
+          throw new IllegalStateException("journal unavailable");
+        }
+      }
+
+      @Override
+      public void onEndOfBatch(int partition, long sequence) {
+      }
+    });
+    engine.start();
+
+    assertThat(engine.submit("Id-123", "Id-456", new BigDecimal("4")).get(1, TimeUnit.MINUTES)).isEqualTo(TransferStatus.COMPLETED);
+    CompletableFuture<TransferStatus> failed = engine.submit("Id-123", "Id-456", new BigDecimal("3"));
+
+    assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.MINUTES));
+    assertThat(engine.getFailure()).isNotNull();
+    assertThrows(IllegalStateException.class, () -> engine.submit("Id-123", "Id-456", BigDecimal.ONE));
+    assertThat(ledger.balanceAt(fromSlot)).isEqualTo(ledger.toMinorUnits(new BigDecimal("6")));
+    assertThat(ledger.balanceAt(toSlot)).isEqualTo(ledger.toMinorUnits(new BigDecimal("4")));
+    engine.stop();
+  }
+
+  @Test
+  void submissionsRacingStopAreAppliedOrRefused() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(2, 16);
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000000")));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    SequencedTransferEngine engine = accountsRepository.getEngine();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<CompletableFuture<TransferStatus>>>> submitters = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      submitters.add(executor.submit(() -> {
+        List<CompletableFuture<TransferStatus>> submitted = new ArrayList<>();
+        start.await();
+        try {
+          while (true) {
+            submitted.add(engine.submit("Id-123", "Id-456", BigDecimal.ONE));
+          }
+        } catch (IllegalStateException ise) {
+          return submitted;
+        }
+      }));
+    }
+    start.countDown();
+    Thread.sleep(20);
+    engine.stop();
+
+    long completed = 0;
+    for (Future<List<CompletableFuture<TransferStatus>>> submitter : submitters) {
+      for (CompletableFuture<TransferStatus> transfer : submitter.get(1, TimeUnit.MINUTES)) {
+        assertThat(transfer.get(1, TimeUnit.MINUTES)).isEqualTo(TransferStatus.COMPLETED);
+        completed++;
+      }
+    }
+    executor.shutdown();
+    assertThat(accountsRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo(BigDecimal.valueOf(completed));
+  }
+
+  @Test
+  void clearingWhileTransfersAreInFlightKeepsThemOffTheNewAccounts() throws Exception {
+    AccountsRepositorySequenced accountsRepository = openJournaledRepository();
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000000")));
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    SequencedTransferEngine engine = accountsRepository.getEngine();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicBoolean stopped = new AtomicBoolean();
+    List<Future<List<CompletableFuture<TransferStatus>>>> submitters = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      submitters.add(executor.submit(() -> {
+        List<CompletableFuture<TransferStatus>> submitted = new ArrayList<>();
+        start.await();
+        while (!stopped.get()) {
+          submitted.add(engine.submit("Id-123", "Id-456", BigDecimal.ONE));
+        }
+        return submitted;
+      }));
+    }
+    start.countDown();
+    Thread.sleep(20);
+    accountsRepository.clearAccounts();
+    // Created in the opposite order, so each new account takes the slot the other one had.
+    accountsRepository.createAccount(new Account("Id-456", BigDecimal.ZERO));
+    accountsRepository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+    Thread.sleep(20);
+    stopped.set(true);
+
+    for (Future<List<CompletableFuture<TransferStatus>>> submitter : submitters) {
+      for (CompletableFuture<TransferStatus> transfer : submitter.get(1, TimeUnit.MINUTES)) {
+        assertThat(transfer.get(1, TimeUnit.MINUTES))
+          .isIn(TransferStatus.COMPLETED, TransferStatus.ACCOUNT_NOT_FOUND, TransferStatus.INSUFFICIENT_BALANCE);
+      }
+    }
+    executor.shutdown();
+    BigDecimal fromBalance = accountsRepository.getAccount("Id-123").getBalance();
+    BigDecimal toBalance = accountsRepository.getAccount("Id-456").getBalance();
+    assertThat(fromBalance.add(toBalance)).isEqualByComparingTo("1000");
+    accountsRepository.close();
+
+    AccountsRepositorySequenced recoveredRepository = openJournaledRepository();
+    assertThat(recoveredRepository.getAccount("Id-123").getBalance()).isEqualByComparingTo(fromBalance);
+    assertThat(recoveredRepository.getAccount("Id-456").getBalance()).isEqualByComparingTo(toBalance);
+    recoveredRepository.close();
+  }
+
+  private AccountsRepositorySequenced openJournaledRepository() throws Exception {
+    return new AccountsRepositorySequenced(2, 1024,
+      new TransferJournal(journalDirectory, TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.ALWAYS, 10));
+  }
+}
@@ -1,36 +1,415 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferReceipt;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.TransferInDoubtException;
+import com.dws.challenge.exception.TransferRejectedException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.metrics.TransferMetrics.Layer;
+import com.dws.challenge.metrics.TransferMetrics.Operation;
 import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.TransferAdmissionControl.Admission;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 @Service
 public class AccountsService {
 
+  /**
+   * Number of streamed transfers handed to the repository as one batch, so a settlement file
+   * never holds every account lock at once.
+   */
+  public static final int TRANSFER_BATCH_CHUNK_SIZE = 1024;
+
+  /**
+   * Number of accounts handed to the repository at once during a bulk import, for the same
+   * reason.
+   */
+  public static final int ACCOUNT_BATCH_CHUNK_SIZE = 1024;
+
   @Getter
   private final AccountsRepository accountsRepository;
 
-  @Autowired
+  @Getter
+  private final TransferMetrics transferMetrics;
+
+  private final AccountSlotRegistry accountSlotRegistry = new AccountSlotRegistry();
+
+  private TransferAdmissionControl transferAdmissionControl = new TransferAdmissionControl(null, null, null);
+
   public AccountsService(AccountsRepository accountsRepository) {
+    this(accountsRepository, new TransferMetrics());
+  }
+
+  @Autowired
+  public AccountsService(AccountsRepository accountsRepository, TransferMetrics transferMetrics) {
     this.accountsRepository = accountsRepository;
+    this.transferMetrics = transferMetrics;
+  }
+
+  /**
+   * Every transfer method runs through the admission control, so no endpoint can bypass it.
+   * Without one, nothing is limited.
+   */
+  @Autowired(required = false)
+  public void setTransferAdmissionControl(TransferAdmissionControl transferAdmissionControl) {
+    this.transferAdmissionControl = transferAdmissionControl;
   }
 
   public void createAccount(Account account) {
-    this.accountsRepository.createAccount(account);
+    long startNanos = System.nanoTime();
+    try {
+      long repositoryStartNanos = System.nanoTime();
+      try {
+        this.accountsRepository.createAccount(account);
+      } finally {
+        transferMetrics.recordLatency(Layer.REPOSITORY, Operation.CREATE, repositoryStartNanos);
+      }
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.CREATE, startNanos);
+    }
+  }
+
+  /**
+   * Creates the accounts in list order; see {@link AccountsRepository#createAccounts(List)}.
+   * Bulk creates are not timed, so the create latency histograms keep describing single
+   * accounts.
+   */
+  public Map<Integer, String> createAccounts(List<Account> accounts) {
+    Map<Integer, String> rejectedAccounts = new TreeMap<>();
+    for (int chunkStart = 0; chunkStart < accounts.size(); chunkStart += ACCOUNT_BATCH_CHUNK_SIZE) {
+      int offset = chunkStart;
+      List<Account> accountChunk = accounts.subList(chunkStart, Math.min(accounts.size(), chunkStart + ACCOUNT_BATCH_CHUNK_SIZE));
+      this.accountsRepository.createAccounts(accountChunk).forEach((position, reason) -> rejectedAccounts.put(offset + position, reason));
+    }
+    return rejectedAccounts;
+  }
+
+  public void reserveCapacity(long expectedAccounts) {
+    this.accountsRepository.reserveCapacity(expectedAccounts);
+  }
+
+  /**
+   * Applies the adjustment to every account; see
+   * {@link AccountsRepository#adjustBalances(BalanceAdjustment, ForkJoinPool, LongConsumer)}.
+   * Not timed, like bulk creates.
+   */
+  public BalanceAdjustmentReport adjustBalances(BalanceAdjustment adjustment, ForkJoinPool pool, LongConsumer progress) {
+    return this.accountsRepository.adjustBalances(adjustment, pool, progress);
   }
 
   public Account getAccount(String accountId) {
-    return this.accountsRepository.getAccount(accountId);
+    long startNanos = System.nanoTime();
+    try {
+      long repositoryStartNanos = System.nanoTime();
+      try {
+        return this.accountsRepository.getAccount(accountId);
+      } finally {
+        transferMetrics.recordLatency(Layer.REPOSITORY, Operation.GET, repositoryStartNanos);
+      }
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.GET, startNanos);
+    }
+  }
+
+  public BalanceSnapshot getBalanceSnapshot(String accountId) {
+    long startNanos = System.nanoTime();
+    try {
+      long repositoryStartNanos = System.nanoTime();
+      try {
+        return this.accountsRepository.getBalanceSnapshot(accountId);
+      } finally {
+        transferMetrics.recordLatency(Layer.REPOSITORY, Operation.GET, repositoryStartNanos);
+      }
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.GET, startNanos);
+    }
   }
 
   public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ConcurrentHashMap<Account, Account> accountDetails, BigDecimal transferAmountValue) {
-    return this.accountsRepository.transferAmountBetweenAccounts(accountDetails, transferAmountValue);
+    long startNanos = System.nanoTime();
+    try {
+      Account fromAccount = accountDetails.isEmpty() ? null : accountDetails.keys().nextElement();
+      Admission admission = admit(null, fromAccount != null ? fromAccount.getAccountId() : null);
+      long repositoryStartNanos = System.nanoTime();
+      try {
+        return this.accountsRepository.transferAmountBetweenAccounts(accountDetails, transferAmountValue);
+      } finally {
+        transferMetrics.recordLatency(Layer.REPOSITORY, Operation.TRANSFER, repositoryStartNanos);
+        transferAdmissionControl.release(admission, startNanos);
+      }
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.TRANSFER, startNanos);
+    }
+  }
+
+  /**
+   * Transfer on behalf of no particular client, so only the account and concurrency limits
+   * apply.
+   *
+   * @throws TransferRejectedException if admission control turns the transfer away
+   */
+  public TransferStatus transferAmount(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    return transferAmount(null, accountFromId, accountToId, transferAmountValue);
+  }
+
+  /**
+   * Transfer on behalf of {@code clientId}, an identity the caller cannot choose (remote
+   * address or authenticated principal).
+   *
+   * @throws TransferRejectedException if admission control turns the transfer away
+   * @throws TransferInDoubtException if the repository could not settle the transfer before returning
+   */
+  public TransferStatus transferAmount(String clientId, String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    return transferAmount(clientId, accountFromId, accountToId, transferAmountValue, System.nanoTime());
+  }
+
+  /**
+   * Transfer on behalf of {@code clientId} that also returns the balances it left on both
+   * accounts, as the repository read them when the transfer committed.
+   *
+   * @throws TransferRejectedException if admission control turns the transfer away
+   * @throws TransferInDoubtException if the repository could not settle the transfer before returning
+   */
+  public TransferReceipt transferAmountWithBalances(String clientId, String accountFromId, String accountToId,
+    BigDecimal transferAmountValue) {
+    return transfer(clientId, accountFromId, accountToId, transferAmountValue, System.nanoTime(), true);
+  }
+
+  /**
+   * Transfer between accounts named by the slots {@link #resolveSlot(String)} handed out.
+   *
+   * @throws TransferRejectedException if admission control turns the transfer away
+   */
+  public TransferStatus transferAmount(String clientId, int accountFromSlot, int accountToSlot, BigDecimal transferAmountValue) {
+    long startNanos = System.nanoTime();
+    String accountFromId = accountSlotRegistry.accountIdOf(accountFromSlot);
+    String accountToId = accountSlotRegistry.accountIdOf(accountToSlot);
+    if (accountFromId == null || accountToId == null) {
+      transferMetrics.recordOutcome(TransferStatus.ACCOUNT_NOT_FOUND);
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.TRANSFER, startNanos);
+      return TransferStatus.ACCOUNT_NOT_FOUND;
+    }
+    return transferAmount(clientId, accountFromId, accountToId, transferAmountValue, startNanos);
+  }
+
+  private TransferStatus transferAmount(String clientId, String accountFromId, String accountToId, BigDecimal transferAmountValue,
+    long startNanos) {
+    return transfer(clientId, accountFromId, accountToId, transferAmountValue, startNanos, false).getStatus();
+  }
+
+  /**
+   * Service latency runs from {@code startNanos}, taken when the service call began, and
+   * repository latency covers only the repository call, so the two layers are timed apart.
+   * Balances are asked of the repository only {@code withBalances}, since reading them may
+   * cost the repository more than the transfer.
+   */
+  private TransferReceipt transfer(String clientId, String accountFromId, String accountToId, BigDecimal transferAmountValue,
+    long startNanos, boolean withBalances) {
+    try {
+      Admission admission = admit(clientId, accountFromId);
+      TransferReceipt transferReceipt;
+      long repositoryStartNanos = System.nanoTime();
+      try {
+        transferReceipt = withBalances
+          ? this.accountsRepository.transferAmountWithBalances(accountFromId, accountToId, transferAmountValue)
+          : new TransferReceipt(this.accountsRepository.transferAmount(accountFromId, accountToId, transferAmountValue), null, null);
+      } catch (TransferInDoubtException tide) {
+        transferMetrics.recordOutcome(TransferStatus.IN_DOUBT);
+        throw tide;
+      } finally {
+        transferMetrics.recordLatency(Layer.REPOSITORY, Operation.TRANSFER, repositoryStartNanos);
+        transferAdmissionControl.release(admission, startNanos);
+      }
+      transferMetrics.recordOutcome(transferReceipt.getStatus());
+      return transferReceipt;
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.TRANSFER, startNanos);
+    }
+  }
+
+  private Admission admit(String clientId, String accountFromId) {
+    Admission admission = transferAdmissionControl.tryAdmit(clientId, accountFromId);
+    if (!admission.isAdmitted()) {
+      transferMetrics.recordOutcome(TransferStatus.REJECTED);
+      throw new TransferRejectedException(admission.getRejection(), admission.getRetryAfterNanos());
+    }
+    return admission;
+  }
+
+  /**
+   * Returns the account's slot for the binary transfer protocol, or -1 if there is no such
+   * account. Slots are assigned on first resolution and stay valid for the life of the process.
+   */
+  public int resolveSlot(String accountId) {
+    int slot = accountSlotRegistry.slotOf(accountId);
+    if (slot >= 0) {
+      return slot;
+    }
+    if (this.accountsRepository.getAccount(accountId) == null) {
+      return -1;
+    }
+    return accountSlotRegistry.register(accountId);
+  }
+
+  /**
+   * Applies the transfers in chunks of {@link #TRANSFER_BATCH_CHUNK_SIZE} as they are read. An
+   * element the iterator fails to produce gets a {@link TransferStatus#MALFORMED_REQUEST} result
+   * in its place and reading goes on; if the iterator cannot continue either, the batch ends
+   * there, so every transfer applied so far still has its result. Service latency covers the
+   * whole batch including reading it; repository latency is recorded per chunk.
+   */
+  public List<TransferResult> transferAmountsInBatch(Iterator<TransferRequest> transferRequests) {
+    return transferAmountsInBatch(null, transferRequests);
   }
-}
 
+  /**
+   * Batch on behalf of {@code clientId}, as in {@link #transferAmount(String, String, String, BigDecimal)}.
+   * Each chunk takes one concurrency slot and each transfer the client and account rates; a
+   * transfer admission control turns away gets a {@link TransferStatus#REJECTED} result.
+   */
+  public List<TransferResult> transferAmountsInBatch(String clientId, Iterator<TransferRequest> transferRequests) {
+    List<TransferResult> transferResults = new ArrayList<>();
+    transferAmountsInBatch(clientId, transferRequests, transferResults::add);
+    return transferResults;
+  }
+
+  /**
+   * Batch that hands each result to {@code transferResults} as soon as its chunk is applied,
+   * in stream order, instead of collecting them, so a caller can pass results on while the
+   * rest of the batch is still being read. Returns the number of results handed over.
+   */
+  public long transferAmountsInBatch(String clientId, Iterator<TransferRequest> transferRequests,
+    Consumer<TransferResult> transferResults) {
+    long startNanos = System.nanoTime();
+    try {
+      return readAndTransferInChunks(clientId, transferRequests, transferResults);
+    } finally {
+      transferMetrics.recordLatency(Layer.SERVICE, Operation.BATCH_TRANSFER, startNanos);
+    }
+  }
+
+  private long readAndTransferInChunks(String clientId, Iterator<TransferRequest> transferRequests,
+    Consumer<TransferResult> transferResults) {
+    long resultCount = 0;
+    List<TransferRequest> transferChunk = new ArrayList<>(TRANSFER_BATCH_CHUNK_SIZE);
+    boolean previousMalformed = false;
+    while (true) {
+      TransferRequest transferRequest;
+      try {
+        if (!transferRequests.hasNext()) {
+          break;
+        }
+      } catch (RuntimeException re) {
+        if (!previousMalformed) {
+          resultCount += passOn(transferChunk(clientId, transferChunk), transferResults);
+          transferResults.accept(malformedTransfer());
+          resultCount++;
+        }
+        break;
+      }
+      try {
+        transferRequest = transferRequests.next();
+        previousMalformed = false;
+      } catch (RuntimeException re) {
+        // Results stay in stream order, so the chunk read so far is applied first.
+        resultCount += passOn(transferChunk(clientId, transferChunk), transferResults);
+        transferResults.accept(malformedTransfer());
+        resultCount++;
+        previousMalformed = true;
+        continue;
+      }
+      transferChunk.add(transferRequest);
+      if (transferChunk.size() == TRANSFER_BATCH_CHUNK_SIZE) {
+        resultCount += passOn(transferChunk(clientId, transferChunk), transferResults);
+      }
+    }
+    return resultCount + passOn(transferChunk(clientId, transferChunk), transferResults);
+  }
+
+  private static int passOn(List<TransferResult> chunkResults, Consumer<TransferResult> transferResults) {
+    chunkResults.forEach(transferResults);
+    return chunkResults.size();
+  }
 
+  private TransferResult malformedTransfer() {
+    transferMetrics.recordOutcome(TransferStatus.MALFORMED_REQUEST);
+    return new TransferResult(new TransferRequest(null, null, null), TransferStatus.MALFORMED_REQUEST);
+  }
+
+  /**
+   * Applies the admitted transfers of the chunk and empties it. Results stay in chunk order,
+   * rejected transfers included.
+   */
+  private List<TransferResult> transferChunk(String clientId, List<TransferRequest> transferChunk) {
+    if (transferChunk.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<TransferResult> transferResults = new ArrayList<>(transferChunk.size());
+    Admission chunkAdmission = transferAdmissionControl.tryAdmitChunk();
+    if (!chunkAdmission.isAdmitted()) {
+      transferChunk.forEach(transferRequest -> transferResults.add(rejectedTransfer(transferRequest)));
+      transferChunk.clear();
+      return transferResults;
+    }
+    long chunkStartNanos = System.nanoTime();
+    try {
+      boolean[] admitted = new boolean[transferChunk.size()];
+      List<TransferRequest> admittedTransfers = new ArrayList<>(transferChunk.size());
+      for (int i = 0; i < transferChunk.size(); i++) {
+        TransferRequest transferRequest = transferChunk.get(i);
+        admitted[i] = transferAdmissionControl.tryAdmitRate(clientId, transferRequest.getAccountFromId()).isAdmitted();
+        if (admitted[i]) {
+          admittedTransfers.add(transferRequest);
+        }
+      }
+      List<TransferResult> appliedTransfers = Collections.emptyList();
+      if (!admittedTransfers.isEmpty()) {
+        long repositoryStartNanos = System.nanoTime();
+        try {
+          appliedTransfers = this.accountsRepository.transferAmountsInBatch(admittedTransfers);
+        } finally {
+          transferMetrics.recordLatency(Layer.REPOSITORY, Operation.BATCH_TRANSFER, repositoryStartNanos);
+        }
+      }
+      int applied = 0;
+      for (int i = 0; i < transferChunk.size(); i++) {
+        if (admitted[i]) {
+          TransferResult transferResult = appliedTransfers.get(applied++);
+          transferMetrics.recordOutcome(transferResult.getStatus());
+          transferResults.add(transferResult);
+        } else {
+          transferResults.add(rejectedTransfer(transferChunk.get(i)));
+        }
+      }
+    } finally {
+      transferAdmissionControl.release(chunkAdmission, chunkStartNanos);
+    }
+    transferChunk.clear();
+    return transferResults;
+  }
+
+  private TransferResult rejectedTransfer(TransferRequest transferRequest) {
+    transferMetrics.recordOutcome(TransferStatus.REJECTED);
+    return new TransferResult(transferRequest, TransferStatus.REJECTED);
+  }
+}
@@ -0,0 +1,101 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.service.AccountsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transfer paths through {@link AccountsService}, including the batch API, on top
+ * of each repository implementation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountsServiceBenchmark {
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1_000_000_000);
+
+  private static final int BATCH_SIZE = 1_000;
+
+  @State(Scope.Benchmark)
+  public static class ServiceState {
+
+    @Param({"in-memory", "ledger", "journaled", "sequenced", "partitioned"})
+    public String repository;
+
+    @Param({"uniform", "zipfian"})
+    public String accessPattern;
+
+    @Param({"100000"})
+    public int accountCount;
+
+    AccountsService accountsService;
+
+    String[] accountIds;
+
+    ZipfianGenerator zipfianGenerator;
+
+    @Setup(Level.Trial)
+    public void createAccounts() throws Exception {
+      accountsService = new AccountsService(BenchmarkRepositories.create(repository));
+      accountIds = new String[accountCount];
+      for (int i = 0; i < accountCount; i++) {
+        accountIds[i] = "Id-" + i;
+        accountsService.createAccount(new Account(accountIds[i], INITIAL_BALANCE));
+      }
+      zipfianGenerator = "zipfian".equals(accessPattern) ? new ZipfianGenerator(accountCount) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeRepository() throws Exception {
+      BenchmarkRepositories.close(accountsService.getAccountsRepository());
+    }
+
+    String nextAccountId() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int index = zipfianGenerator != null ? zipfianGenerator.nextInt(random) : random.nextInt(accountIds.length);
+      return accountIds[index];
+    }
+  }
+
+  @Benchmark
+  public ConcurrentHashMap<Account, Account> transferAmountBetweenAccounts(ServiceState state) {
+    ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+    accountDetails.put(state.accountsService.getAccount(state.nextAccountId()), state.accountsService.getAccount(state.nextAccountId()));
+    return state.accountsService.transferAmountBetweenAccounts(accountDetails, BigDecimal.ONE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public List<TransferResult> transferAmountsInBatch(ServiceState state) {
+    List<TransferRequest> transferRequests = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      transferRequests.add(new TransferRequest(state.nextAccountId(), state.nextAccountId(), BigDecimal.ONE));
+    }
+    return state.accountsService.transferAmountsInBatch(transferRequests.iterator());
+  }
+}
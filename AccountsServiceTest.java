@@ -4,8 +4,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 import com.dws.challenge.service.AccountsService;
 import org.junit.jupiter.api.Test;
@@ -139,4 +144,28 @@ class AccountsServiceTest {
     }
   }
 
+  @Test
+  void transferAmountsInBatch() {
+    String uniqueId = "Id-" + System.currentTimeMillis();
+    this.accountsService.createAccount(new Account(uniqueId + "-A", new BigDecimal(5000)));
+    this.accountsService.createAccount(new Account(uniqueId + "-B", new BigDecimal(6000)));
+    List<TransferRequest> transferRequests = Arrays.asList(
+      new TransferRequest(uniqueId + "-A", uniqueId + "-B", new BigDecimal(4000)),
+      new TransferRequest(uniqueId + "-A", uniqueId + "-B", new BigDecimal(1001)),
+      new TransferRequest(uniqueId + "-B", uniqueId + "-A", new BigDecimal(0)),
+      new TransferRequest(uniqueId + "-B", uniqueId + "-C", new BigDecimal(10)),
+      new TransferRequest(uniqueId + "-B", uniqueId + "-A", new BigDecimal(10000)));
+
+    List<TransferResult> transferResults = this.accountsService.transferAmountsInBatch(transferRequests.iterator());
+
+    assertThat(transferResults).extracting(TransferResult::getStatus).containsExactly(
+      TransferStatus.COMPLETED,
+      TransferStatus.INSUFFICIENT_BALANCE,
+      TransferStatus.BELOW_MINIMUM_AMOUNT,
+      TransferStatus.ACCOUNT_NOT_FOUND,
+      TransferStatus.COMPLETED);
+    assertThat(this.accountsService.getAccount(uniqueId + "-A").getBalance()).isEqualByComparingTo("11000");
+    assertThat(this.accountsService.getAccount(uniqueId + "-B").getBalance()).isEqualByComparingTo("0");
+  }
+
 }
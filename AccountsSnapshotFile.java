@@ -0,0 +1,265 @@
+package com.dws.challenge.repository;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time image of every account, written one lock stripe at a time. The file starts
+ * with a fixed header, followed by one block per stripe holding an id column and then a balance
+ * column, and ends with a footer giving each stripe's block offset, account count and the
+ * journal sequence it reflects. A file only gets its final name once it is complete and forced
+ * to disk, so a crash mid-write never leaves a half snapshot behind.
+ */
+public final class AccountsSnapshotFile {
+
+  private static final int MAGIC = 0x41435353;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_BYTES = 32;
+
+  private static final int FOOTER_ENTRY_BYTES = 20;
+
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+
+  /**
+   * Copy of one stripe taken while the stripe was held, together with the last journal sequence
+   * appended at that moment.
+   */
+  public static final class StripeCopy {
+
+    private final String[] accountIds;
+
+    private final BigDecimal[] balances;
+
+    private final long journalSequence;
+
+    public StripeCopy(String[] accountIds, BigDecimal[] balances, long journalSequence) {
+      this.accountIds = accountIds;
+      this.balances = balances;
+      this.journalSequence = journalSequence;
+    }
+  }
+
+  private final Path file;
+
+  private final int stripeCount;
+
+  private final int journalSegment;
+
+  private final long accountCount;
+
+  private final long[] stripeSequences;
+
+  private final long[] blockOffsets;
+
+  private final int[] blockCounts;
+
+  private final long footerOffset;
+
+  private AccountsSnapshotFile(Path file, int stripeCount, int journalSegment, long accountCount,
+    long[] stripeSequences, long[] blockOffsets, int[] blockCounts, long footerOffset) {
+    this.file = file;
+    this.stripeCount = stripeCount;
+    this.journalSegment = journalSegment;
+    this.accountCount = accountCount;
+    this.stripeSequences = stripeSequences;
+    this.blockOffsets = blockOffsets;
+    this.blockCounts = blockCounts;
+    this.footerOffset = footerOffset;
+  }
+
+  /**
+   * Writes a snapshot by asking for one stripe copy at a time. Only the copy is taken under the
+   * stripe; encoding and I/O happen after it has been released.
+   */
+  public static Path write(Path directory, int stripeCount, int journalSegment, IntFunction<StripeCopy> stripeCopier) throws IOException {
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, SNAPSHOT_PREFIX, ".tmp");
+    long[] stripeSequences = new long[stripeCount];
+    long[] blockOffsets = new long[stripeCount];
+    int[] blockCounts = new int[stripeCount];
+    long accountCount = 0;
+    long maxSequence = 0;
+    try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+      buffer.position(HEADER_BYTES);
+      for (int stripe = 0; stripe < stripeCount; stripe++) {
+        StripeCopy stripeCopy = stripeCopier.apply(stripe);
+        blockOffsets[stripe] = channel.position() + buffer.position();
+        blockCounts[stripe] = stripeCopy.accountIds.length;
+        stripeSequences[stripe] = stripeCopy.journalSequence;
+        accountCount += stripeCopy.accountIds.length;
+        maxSequence = Math.max(maxSequence, stripeCopy.journalSequence);
+        for (String accountId : stripeCopy.accountIds) {
+          buffer = ensureRemaining(channel, buffer, 2 + 4 * accountId.length());
+          TransferJournal.putString(buffer, accountId);
+        }
+        for (BigDecimal balance : stripeCopy.balances) {
+          buffer = ensureRemaining(channel, buffer, 5 + 255);
+          TransferJournal.putDecimal(buffer, balance);
+        }
+      }
+      long footerOffset = channel.position() + buffer.position();
+      for (int stripe = 0; stripe < stripeCount; stripe++) {
+        buffer = ensureRemaining(channel, buffer, FOOTER_ENTRY_BYTES);
+        buffer.putLong(stripeSequences[stripe]).putLong(blockOffsets[stripe]).putInt(blockCounts[stripe]);
+      }
+      drain(channel, buffer);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putInt(stripeCount).putInt(journalSegment)
+        .putLong(accountCount).putLong(footerOffset).flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      channel.force(true);
+    }
+    Path snapshotFile = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, maxSequence, SNAPSHOT_SUFFIX));
+    Files.move(temporaryFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return snapshotFile;
+  }
+
+  public static Optional<AccountsSnapshotFile> latest(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return Optional.empty();
+    }
+    Optional<Path> latestFile;
+    try (Stream<Path> files = Files.list(directory)) {
+      latestFile = files.filter(AccountsSnapshotFile::isSnapshotFile).max(Path::compareTo);
+    }
+    return latestFile.isPresent() ? Optional.of(open(latestFile.get())) : Optional.empty();
+  }
+
+  /**
+   * Deletes every snapshot in the directory except {@code keep}.
+   */
+  public static void deleteAllExcept(Path directory, Path keep) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path snapshotFile : (Iterable<Path>) files.filter(AccountsSnapshotFile::isSnapshotFile)::iterator) {
+        if (!snapshotFile.equals(keep)) {
+          Files.deleteIfExists(snapshotFile);
+        }
+      }
+    }
+  }
+
+  public static AccountsSnapshotFile open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IllegalStateException("Not an accounts snapshot: " + file);
+      }
+      int stripeCount = header.getInt();
+      int journalSegment = header.getInt();
+      long accountCount = header.getLong();
+      long footerOffset = header.getLong();
+      ByteBuffer footer = readFully(channel, footerOffset, stripeCount * FOOTER_ENTRY_BYTES);
+      long[] stripeSequences = new long[stripeCount];
+      long[] blockOffsets = new long[stripeCount];
+      int[] blockCounts = new int[stripeCount];
+      for (int stripe = 0; stripe < stripeCount; stripe++) {
+        stripeSequences[stripe] = footer.getLong();
+        blockOffsets[stripe] = footer.getLong();
+        blockCounts[stripe] = footer.getInt();
+      }
+      return new AccountsSnapshotFile(file, stripeCount, journalSegment, accountCount,
+        stripeSequences, blockOffsets, blockCounts, footerOffset);
+    }
+  }
+
+  /**
+   * Decodes every stripe block in parallel and hands each account to the consumer, which must
+   * therefore be thread-safe.
+   */
+  public void loadInto(BiConsumer<String, BigDecimal> accountConsumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      IntStream.range(0, stripeCount).parallel().forEach(stripe -> {
+        long blockEnd = stripe + 1 < stripeCount ? blockOffsets[stripe + 1] : footerOffset;
+        ByteBuffer block;
+        try {
+          block = readFully(channel, blockOffsets[stripe], (int) (blockEnd - blockOffsets[stripe]));
+        } catch (IOException ioe) {
+          throw new IllegalStateException("Unable to read snapshot " + file, ioe);
+        }
+        String[] accountIds = new String[blockCounts[stripe]];
+        for (int i = 0; i < accountIds.length; i++) {
+          accountIds[i] = TransferJournal.getString(block);
+        }
+        for (String accountId : accountIds) {
+          accountConsumer.accept(accountId, TransferJournal.getDecimal(block));
+        }
+      });
+    }
+  }
+
+  public int getStripeCount() {
+    return stripeCount;
+  }
+
+  public int getJournalSegment() {
+    return journalSegment;
+  }
+
+  public long getAccountCount() {
+    return accountCount;
+  }
+
+  public long getStripeSequence(int stripe) {
+    return stripeSequences[stripe];
+  }
+
+  public long getMaxStripeSequence() {
+    long maxSequence = 0;
+    for (long stripeSequence : stripeSequences) {
+      maxSequence = Math.max(maxSequence, stripeSequence);
+    }
+    return maxSequence;
+  }
+
+  private static boolean isSnapshotFile(Path path) {
+    String fileName = path.getFileName().toString();
+    return fileName.startsWith(SNAPSHOT_PREFIX) && fileName.endsWith(SNAPSHOT_SUFFIX);
+  }
+
+  private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      drain(channel, buffer);
+      buffer.clear();
+    }
+    return buffer;
+  }
+
+  private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IllegalStateException("Accounts snapshot is truncated at offset " + (position + buffer.position()));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
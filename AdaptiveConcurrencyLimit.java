@@ -0,0 +1,123 @@
+package com.dws.challenge.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit that follows measured latency, in the style of a gradient limiter. Latencies
+ * are averaged over windows of {@code windowNanos}; at the end of each window the limit is scaled
+ * by how far the window's average has drifted above the lowest average seen (the no-load
+ * latency), and grows by its square root when latency has not drifted and the limit was
+ * actually used. Admitting and completing requests are a few atomic operations; the window
+ * update is done by whichever completing request finds the window over, without locking.
+ */
+public class AdaptiveConcurrencyLimit {
+
+  /**
+   * Average latency may exceed the no-load latency by this factor before the limit shrinks.
+   */
+  private static final double LATENCY_TOLERANCE = 1.5;
+
+  /**
+   * Weight of a new window's limit; the rest is the previous limit, to damp oscillation.
+   */
+  private static final double SMOOTHING = 0.2;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final long windowNanos;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicInteger peakInFlight = new AtomicInteger();
+
+  private final LongAdder windowLatencyNanos = new LongAdder();
+
+  private final LongAdder windowSamples = new LongAdder();
+
+  private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+  private volatile double limit;
+
+  private volatile long noLoadLatencyNanos = Long.MAX_VALUE;
+
+  private volatile long averageLatencyNanos;
+
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long windowNanos) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.windowNanos = windowNanos;
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+  }
+
+  /**
+   * Takes a slot if fewer than the limit are in use; every successful call must be followed by
+   * {@link #release(long)}.
+   */
+  public boolean tryAcquire() {
+    int current = inFlight.incrementAndGet();
+    if (current > (int) limit) {
+      inFlight.decrementAndGet();
+      return false;
+    }
+    int peak = peakInFlight.get();
+    while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+      peak = peakInFlight.get();
+    }
+    return true;
+  }
+
+  public void release(long latencyNanos) {
+    inFlight.decrementAndGet();
+    windowLatencyNanos.add(latencyNanos);
+    windowSamples.increment();
+    long now = System.nanoTime();
+    long start = windowStart.get();
+    if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+      updateLimit();
+    }
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Average latency of the last completed window, as a hint for when a rejected request may
+   * find a free slot.
+   */
+  public long getAverageLatencyNanos() {
+    return averageLatencyNanos;
+  }
+
+  private void updateLimit() {
+    long samples = windowSamples.sumThenReset();
+    long totalLatencyNanos = windowLatencyNanos.sumThenReset();
+    int peak = peakInFlight.getAndSet(inFlight.get());
+    if (samples == 0) {
+      return;
+    }
+    long average = Math.max(1, totalLatencyNanos / samples);
+    averageLatencyNanos = average;
+    long noLoadLatency = noLoadLatencyNanos;
+    // Let the baseline creep towards the current average so it can recover from a lucky window.
+    noLoadLatency = average < noLoadLatency ? average : noLoadLatency + (average - noLoadLatency) / 100;
+    noLoadLatencyNanos = noLoadLatency;
+
+    double currentLimit = limit;
+    double gradient = Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * noLoadLatency / average));
+    double newLimit = currentLimit * gradient;
+    if (gradient == 1.0 && peak * 2 >= currentLimit) {
+      newLimit += Math.sqrt(currentLimit);
+    }
+    newLimit = currentLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+  }
+}
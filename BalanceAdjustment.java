@@ -0,0 +1,16 @@
+package com.dws.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Amount to add to an account's balance in a bulk adjustment such as end-of-day interest and
+ * fees: positive for a credit, negative for a debit, zero or null to leave the account alone.
+ * Called with the balance at the moment the account is adjusted, possibly from several threads
+ * at once, and called again for the same account if a lock-free repository finds the balance
+ * changed before the result could be applied; it must therefore have no side effects.
+ */
+@FunctionalInterface
+public interface BalanceAdjustment {
+
+  BigDecimal adjustmentFor(String accountId, BigDecimal balance);
+}
@@ -0,0 +1,32 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Outcome of one bulk balance adjustment. Rejected accounts are those the adjustment would have
+ * left with a negative balance; they keep their balance.
+ */
+@Data
+public class BalanceAdjustmentReport {
+
+  private final long accountsVisited;
+
+  private final long accountsAdjusted;
+
+  private final long accountsRejected;
+
+  private final BigDecimal totalAdjustment;
+
+  private final long elapsedMillis;
+
+  public BalanceAdjustmentReport(long accountsVisited, long accountsAdjusted, long accountsRejected, BigDecimal totalAdjustment,
+    long elapsedMillis) {
+    this.accountsVisited = accountsVisited;
+    this.accountsAdjusted = accountsAdjusted;
+    this.accountsRejected = accountsRejected;
+    this.totalAdjustment = totalAdjustment;
+    this.elapsedMillis = elapsedMillis;
+  }
+}
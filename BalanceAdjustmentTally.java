@@ -0,0 +1,39 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts of one fork-join leaf of a bulk balance adjustment, merged up the task tree into the
+ * final report. Each instance is written by one thread only.
+ */
+final class BalanceAdjustmentTally {
+
+    long accountsVisited;
+
+    long accountsAdjusted;
+
+    long accountsRejected;
+
+    BigDecimal totalAdjustment = BigDecimal.ZERO;
+
+    void adjusted(BigDecimal adjustment) {
+        accountsAdjusted++;
+        totalAdjustment = totalAdjustment.add(adjustment);
+    }
+
+    BalanceAdjustmentTally merge(BalanceAdjustmentTally other) {
+        accountsVisited += other.accountsVisited;
+        accountsAdjusted += other.accountsAdjusted;
+        accountsRejected += other.accountsRejected;
+        totalAdjustment = totalAdjustment.add(other.totalAdjustment);
+        return this;
+    }
+
+    BalanceAdjustmentReport toReport(long startedNanos) {
+        return new BalanceAdjustmentReport(accountsVisited, accountsAdjusted, accountsRejected, totalAdjustment,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+    }
+}
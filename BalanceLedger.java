@@ -0,0 +1,201 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.exception.DuplicateAccountIdException;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Primitive balance store. Every account gets a dense slot and its balance is kept as a scaled
+ * {@code long} of minor units inside chunked {@link AtomicLongArray}s, so no per-account balance
+ * object exists. Debits are a CAS loop that refuses to go below zero, credits are a single atomic
+ * add, and neither allocates.
+ */
+public class BalanceLedger {
+
+  public static final int DEFAULT_SCALE = 2;
+
+  private static final int CHUNK_BITS = 16;
+
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final int scale;
+
+  private final long minimumTransferMinorUnits;
+
+  private final ReentrantLock allocationLock = new ReentrantLock();
+
+  private final Map<String, Integer> slotsByAccountId = new ConcurrentHashMap<>();
+
+  private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+  private volatile int size;
+
+  /**
+   * Incremented by every {@link #clear()}, so a slot resolved before a clear can be told apart
+   * from the same slot reused after it.
+   */
+  private volatile long generation;
+
+  public BalanceLedger() {
+    this(DEFAULT_SCALE);
+  }
+
+  public BalanceLedger(int scale) {
+    if (scale < 0 || scale > 9) {
+      throw new IllegalArgumentException("Ledger scale must be between 0 and 9 but was " + scale);
+    }
+    this.scale = scale;
+    this.minimumTransferMinorUnits = BigDecimal.ONE.movePointRight(scale).longValueExact();
+  }
+
+  public int getScale() {
+    return scale;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  public long getMinimumTransferMinorUnits() {
+    return minimumTransferMinorUnits;
+  }
+
+  public int allocateSlot(String accountId, long initialMinorUnits) throws DuplicateAccountIdException {
+    allocationLock.lock();
+    try {
+      if (slotsByAccountId.containsKey(accountId)) {
+        throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+      }
+      int slot = size;
+      AtomicLongArray[] currentChunks = chunks;
+      int chunk = slot >>> CHUNK_BITS;
+      if (chunk == currentChunks.length) {
+        AtomicLongArray[] grownChunks = new AtomicLongArray[chunk + 1];
+        System.arraycopy(currentChunks, 0, grownChunks, 0, currentChunks.length);
+        grownChunks[chunk] = new AtomicLongArray(CHUNK_SIZE);
+        chunks = grownChunks;
+        currentChunks = grownChunks;
+      }
+      currentChunks[chunk].set(slot & CHUNK_MASK, initialMinorUnits);
+      size = slot + 1;
+      slotsByAccountId.put(accountId, slot);
+      return slot;
+    } finally {
+      allocationLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the slot of the account or {@code -1} when the account does not exist.
+   */
+  public int slotOf(String accountId) {
+    Integer slot = slotsByAccountId.get(accountId);
+    return slot != null ? slot : -1;
+  }
+
+  public long balanceAt(int slot) {
+    return chunks[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+  }
+
+  public boolean tryDebit(int slot, long amountMinorUnits) {
+    return debitAndGet(slot, amountMinorUnits) >= 0;
+  }
+
+  /**
+   * Debits the slot and returns the balance the debit left, or -1 without debiting if the slot
+   * holds less than {@code amountMinorUnits}.
+   */
+  public long debitAndGet(int slot, long amountMinorUnits) {
+    AtomicLongArray chunk = chunks[slot >>> CHUNK_BITS];
+    int index = slot & CHUNK_MASK;
+    long balance;
+    do {
+      balance = chunk.get(index);
+      if (balance < amountMinorUnits) {
+        return -1;
+      }
+    } while (!chunk.compareAndSet(index, balance, balance - amountMinorUnits));
+    return balance - amountMinorUnits;
+  }
+
+  /**
+   * Sets the slot to {@code newMinorUnits} if it still holds {@code expectedMinorUnits}.
+   */
+  public boolean compareAndSet(int slot, long expectedMinorUnits, long newMinorUnits) {
+    return chunks[slot >>> CHUNK_BITS].compareAndSet(slot & CHUNK_MASK, expectedMinorUnits, newMinorUnits);
+  }
+
+  public void credit(int slot, long amountMinorUnits) {
+    chunks[slot >>> CHUNK_BITS].getAndAdd(slot & CHUNK_MASK, amountMinorUnits);
+  }
+
+  /**
+   * Credits the slot and returns the balance the credit left.
+   */
+  public long creditAndGet(int slot, long amountMinorUnits) {
+    return chunks[slot >>> CHUNK_BITS].addAndGet(slot & CHUNK_MASK, amountMinorUnits);
+  }
+
+  /**
+   * Moves {@code amountMinorUnits} between two slots. The debit is applied first, so money may
+   * briefly be in flight between the two slots but the source never goes negative.
+   */
+  public boolean transfer(int fromSlot, int toSlot, long amountMinorUnits) {
+    if (amountMinorUnits < minimumTransferMinorUnits || !tryDebit(fromSlot, amountMinorUnits)) {
+      return false;
+    }
+    credit(toSlot, amountMinorUnits);
+    return true;
+  }
+
+  /**
+   * Account ids indexed by slot, as of the call. Slots allocated meanwhile may be missing.
+   */
+  public String[] accountIdsBySlot() {
+    String[] accountIds = new String[size];
+    for (Map.Entry<String, Integer> slotOfAccount : slotsByAccountId.entrySet()) {
+      if (slotOfAccount.getValue() < accountIds.length) {
+        accountIds[slotOfAccount.getValue()] = slotOfAccount.getKey();
+      }
+    }
+    return accountIds;
+  }
+
+  public long toMinorUnits(BigDecimal amount) {
+    if (amount == null) {
+      return 0L;
+    }
+    try {
+      return amount.setScale(scale).unscaledValue().longValueExact();
+    } catch (ArithmeticException ae) {
+      throw new IllegalArgumentException(
+              "Amount " + amount + " cannot be represented with " + scale + " decimal places", ae);
+    }
+  }
+
+  public BigDecimal fromMinorUnits(long minorUnits) {
+    return BigDecimal.valueOf(minorUnits, scale);
+  }
+
+  public void clear() {
+    allocationLock.lock();
+    try {
+      generation++;
+      slotsByAccountId.clear();
+      chunks = new AtomicLongArray[0];
+      size = 0;
+    } finally {
+      allocationLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * An account's committed balance together with the version it was read at. Versions of an
+ * account only grow, and two snapshots of the same account with the same version carry the
+ * same balance; a newer version does not necessarily mean the balance changed.
+ */
+@Data
+public class BalanceSnapshot {
+
+  /**
+   * Version reported by repositories that read a committed balance but keep no versions.
+   */
+  public static final long UNVERSIONED = -1;
+
+  private final String accountId;
+
+  private final BigDecimal balance;
+
+  private final long version;
+
+  public BalanceSnapshot(String accountId, BigDecimal balance, long version) {
+    this.accountId = accountId;
+    this.balance = balance;
+    this.version = version;
+  }
+}
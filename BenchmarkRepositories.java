@@ -0,0 +1,52 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryJournaled;
+import com.dws.challenge.repository.AccountsRepositoryLedger;
+import com.dws.challenge.repository.AccountsRepositoryPartitioned;
+import com.dws.challenge.repository.AccountsRepositorySequenced;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.TransferJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Builds repository implementations by the same names used for {@code accounts.repository}.
+ */
+final class BenchmarkRepositories {
+
+  private BenchmarkRepositories() {
+  }
+
+  static AccountsRepository create(String repository) throws IOException {
+    switch (repository) {
+      case "in-memory":
+        return new AccountsRepositoryInMemory();
+      case "ledger":
+        return new AccountsRepositoryLedger();
+      case "journaled":
+        return new AccountsRepositoryJournaled(new TransferJournal(Files.createTempDirectory("accounts-benchmark-journal"),
+          TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.INTERVAL, 10));
+      case "sequenced":
+        return new AccountsRepositorySequenced(Runtime.getRuntime().availableProcessors(), 65536);
+      case "partitioned":
+        return new AccountsRepositoryPartitioned(Runtime.getRuntime().availableProcessors());
+      default:
+        throw new IllegalArgumentException("Unknown repository " + repository);
+    }
+  }
+
+  static void close(AccountsRepository accountsRepository) throws IOException, InterruptedException {
+    if (accountsRepository instanceof AccountsRepositoryJournaled) {
+      ((AccountsRepositoryJournaled) accountsRepository).close();
+    }
+    if (accountsRepository instanceof AccountsRepositorySequenced) {
+      ((AccountsRepositorySequenced) accountsRepository).close();
+    }
+    if (accountsRepository instanceof AccountsRepositoryPartitioned) {
+      ((AccountsRepositoryPartitioned) accountsRepository).close();
+    }
+  }
+}
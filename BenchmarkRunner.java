@@ -0,0 +1,33 @@
+package com.dws.challenge.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching an optional regular expression at 1, 2, 4 ... up to the number
+ * of available processors threads, with the GC profiler attached so every result also reports
+ * the allocation rate per operation. Sample-time results report p99 latency. Results are
+ * written as JSON per thread count so runs of different repository implementations can be
+ * compared.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    String include = args.length > 0 ? args[0] : "com.dws.challenge.benchmark.*";
+    int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+    for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+      Options options = new OptionsBuilder()
+        .include(include)
+        .threads(threads)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result("jmh-result-" + threads + "-threads.json")
+        .build();
+      new Runner(options).run();
+    }
+  }
+}
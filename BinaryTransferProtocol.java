@@ -0,0 +1,122 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.TransferStatus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame layout of the binary transfer protocol served by {@link BinaryTransferServer}. All
+ * fields are big-endian and every frame has a fixed size, so frames are read in place from the
+ * receive buffer with no parsing or copying.
+ * <pre>
+ * request  (24 bytes): long requestId | int accountFromSlot | int accountToSlot | long amountMinorUnits
+ * response (12 bytes): long requestId | int statusCode
+ * </pre>
+ * Status codes are fixed by the {@code STATUS_*} constants below and never follow the declaration
+ * order of {@link TransferStatus}, so adding or reordering statuses does not change the wire format.
+ * Slots come from {@code GET /v1/accounts/{accountId}/slot}. Amounts are in minor units at
+ * {@code accounts.binary.scale} decimal places. A client may send any number of requests
+ * without waiting; responses come back on the same connection in request order.
+ */
+public final class BinaryTransferProtocol {
+
+  public static final int REQUEST_FRAME_SIZE = 24;
+
+  public static final int RESPONSE_FRAME_SIZE = 12;
+
+  public static final int STATUS_COMPLETED = 0;
+
+  public static final int STATUS_INSUFFICIENT_BALANCE = 1;
+
+  public static final int STATUS_BELOW_MINIMUM_AMOUNT = 2;
+
+  public static final int STATUS_INVALID_AMOUNT = 3;
+
+  public static final int STATUS_ACCOUNT_NOT_FOUND = 4;
+
+  public static final int STATUS_MALFORMED_REQUEST = 5;
+
+  /**
+   * Returned when admission control turned the transfer away; it may be retried later.
+   */
+  public static final int STATUS_REJECTED = 6;
+
+  /**
+   * Returned when the transfer was abandoned before any money moved; it may be retried.
+   */
+  public static final int STATUS_ABORTED = 7;
+
+  /**
+   * Returned when the transfer may or may not have been applied; it must not be blindly retried.
+   */
+  public static final int STATUS_IN_DOUBT = 8;
+
+  /**
+   * Returned when the transfer failed with an unexpected error.
+   */
+  public static final int STATUS_FAILED = 255;
+
+  private BinaryTransferProtocol() {
+  }
+
+  public static int statusCode(TransferStatus transferStatus) {
+    switch (transferStatus) {
+      case COMPLETED:
+        return STATUS_COMPLETED;
+      case INSUFFICIENT_BALANCE:
+        return STATUS_INSUFFICIENT_BALANCE;
+      case BELOW_MINIMUM_AMOUNT:
+        return STATUS_BELOW_MINIMUM_AMOUNT;
+      case INVALID_AMOUNT:
+        return STATUS_INVALID_AMOUNT;
+      case ACCOUNT_NOT_FOUND:
+        return STATUS_ACCOUNT_NOT_FOUND;
+      case MALFORMED_REQUEST:
+        return STATUS_MALFORMED_REQUEST;
+      case REJECTED:
+        return STATUS_REJECTED;
+      case ABORTED:
+        return STATUS_ABORTED;
+      case IN_DOUBT:
+        return STATUS_IN_DOUBT;
+      default:
+        throw new IllegalArgumentException("No status code for " + transferStatus);
+    }
+  }
+
+  /**
+   * The status for a response code, or null for {@link #STATUS_FAILED} and unknown codes.
+   */
+  public static TransferStatus transferStatus(int statusCode) {
+    switch (statusCode) {
+      case STATUS_COMPLETED:
+        return TransferStatus.COMPLETED;
+      case STATUS_INSUFFICIENT_BALANCE:
+        return TransferStatus.INSUFFICIENT_BALANCE;
+      case STATUS_BELOW_MINIMUM_AMOUNT:
+        return TransferStatus.BELOW_MINIMUM_AMOUNT;
+      case STATUS_INVALID_AMOUNT:
+        return TransferStatus.INVALID_AMOUNT;
+      case STATUS_ACCOUNT_NOT_FOUND:
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      case STATUS_MALFORMED_REQUEST:
+        return TransferStatus.MALFORMED_REQUEST;
+      case STATUS_REJECTED:
+        return TransferStatus.REJECTED;
+      case STATUS_ABORTED:
+        return TransferStatus.ABORTED;
+      case STATUS_IN_DOUBT:
+        return TransferStatus.IN_DOUBT;
+      default:
+        return null;
+    }
+  }
+
+  public static void putRequest(ByteBuffer buffer, long requestId, int accountFromSlot, int accountToSlot, long amountMinorUnits) {
+    buffer.putLong(requestId).putInt(accountFromSlot).putInt(accountToSlot).putLong(amountMinorUnits);
+  }
+
+  public static void putResponse(ByteBuffer buffer, long requestId, int statusCode) {
+    buffer.putLong(requestId).putInt(statusCode);
+  }
+}
@@ -0,0 +1,294 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.TransferInDoubtException;
+import com.dws.challenge.exception.TransferRejectedException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.service.AccountsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves {@link BinaryTransferProtocol} frames next to the JSON endpoints
+ * ({@code accounts.binary.enabled=true}, port {@code accounts.binary.port}). One thread accepts
+ * connections and hands them round-robin to {@code accounts.binary.io-threads} selector loops.
+ * Each connection owns a direct receive and send buffer: a loop reads whatever the socket has,
+ * runs every complete request frame in it through {@link AccountsService} and writes all the
+ * responses back with one socket write, so pipelined requests share system calls. A connection
+ * whose client does not read its responses stops being read until its send buffer drains.
+ * Transfers run on the loop thread, so a repository that blocks (a journal with
+ * {@code fsync-policy=ALWAYS}) holds up every connection on that loop.
+ */
+@Component
+@ConditionalOnProperty(name = "accounts.binary.enabled", havingValue = "true")
+@Slf4j
+public class BinaryTransferServer implements Closeable {
+
+  private static final int RECEIVE_BUFFER_FRAMES = 2048;
+
+  private final AccountsService accountsService;
+
+  private final int port;
+
+  private final int scale;
+
+  private final EventLoop[] eventLoops;
+
+  private final AtomicInteger openConnections = new AtomicInteger();
+
+  private final LongAdder processedFrames = new LongAdder();
+
+  private ServerSocketChannel serverChannel;
+
+  private Thread acceptorThread;
+
+  private volatile boolean running;
+
+  @Autowired
+  public BinaryTransferServer(AccountsService accountsService,
+    @Value("${accounts.binary.port:7070}") int port,
+    @Value("${accounts.binary.io-threads:0}") int ioThreads,
+    @Value("${accounts.binary.scale:2}") int scale) {
+    this.accountsService = accountsService;
+    this.port = port;
+    this.scale = scale;
+    this.eventLoops = new EventLoop[ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors()];
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.binary.connections", openConnections::get);
+    transferMetrics.registerGauge("accounts.binary.frames", processedFrames::sum);
+  }
+
+  @PostConstruct
+  public void start() throws IOException {
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    running = true;
+    for (int i = 0; i < eventLoops.length; i++) {
+      eventLoops[i] = new EventLoop(Selector.open());
+      Thread loopThread = new Thread(eventLoops[i], "binary-transfer-io-" + i);
+      loopThread.setDaemon(true);
+      loopThread.start();
+    }
+    acceptorThread = new Thread(this::acceptLoop, "binary-transfer-acceptor");
+    acceptorThread.setDaemon(true);
+    acceptorThread.start();
+    log.info("Serving binary transfers on port {} with {} I/O threads", getPort(), eventLoops.length);
+  }
+
+  @PreDestroy
+  @Override
+  public void close() throws IOException {
+    running = false;
+    serverChannel.close();
+    for (EventLoop eventLoop : eventLoops) {
+      if (eventLoop != null) {
+        eventLoop.selector.wakeup();
+      }
+    }
+  }
+
+  public int getPort() {
+    return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+  }
+
+  public int getOpenConnections() {
+    return openConnections.get();
+  }
+
+  public long getProcessedFrames() {
+    return processedFrames.sum();
+  }
+
+  private void acceptLoop() {
+    int nextLoop = 0;
+    while (running) {
+      try {
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        eventLoops[nextLoop].register(channel);
+        nextLoop = (nextLoop + 1) % eventLoops.length;
+      } catch (ClosedChannelException cce) {
+        return;
+      } catch (IOException ioe) {
+        log.warn("Accepting a binary transfer connection failed", ioe);
+      }
+    }
+  }
+
+  /**
+   * Admission control limits the client by the connection's remote address.
+   */
+  private int transfer(String clientId, int accountFromSlot, int accountToSlot, long amountMinorUnits) {
+    try {
+      TransferStatus transferStatus = accountsService.transferAmount(clientId, accountFromSlot, accountToSlot,
+        BigDecimal.valueOf(amountMinorUnits, scale));
+      return BinaryTransferProtocol.statusCode(transferStatus);
+    } catch (TransferRejectedException tre) {
+      return BinaryTransferProtocol.STATUS_REJECTED;
+    } catch (TransferInDoubtException tide) {
+      return BinaryTransferProtocol.STATUS_IN_DOUBT;
+    } catch (RuntimeException re) {
+      log.warn("Binary transfer from slot {} to slot {} failed", accountFromSlot, accountToSlot, re);
+      return BinaryTransferProtocol.STATUS_FAILED;
+    }
+  }
+
+  private final class EventLoop implements Runnable {
+
+    private final Selector selector;
+
+    private final Queue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<>();
+
+    private EventLoop(Selector selector) {
+      this.selector = selector;
+    }
+
+    private void register(SocketChannel channel) {
+      acceptedChannels.add(channel);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try (Selector ownedSelector = selector) {
+        while (running) {
+          ownedSelector.select();
+          registerAcceptedChannels();
+          Iterator<SelectionKey> selectedKeys = ownedSelector.selectedKeys().iterator();
+          while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isReadable()) {
+                connection.onReadable();
+              } else if (key.isWritable()) {
+                connection.onWritable();
+              }
+            } catch (IOException ioe) {
+              log.debug("Binary transfer connection closed", ioe);
+              connection.close();
+            }
+          }
+        }
+        for (SelectionKey key : ownedSelector.keys()) {
+          ((Connection) key.attachment()).close();
+        }
+      } catch (IOException ioe) {
+        log.error("Binary transfer I/O loop failed", ioe);
+      }
+    }
+
+    private void registerAcceptedChannels() throws IOException {
+      SocketChannel channel;
+      while ((channel = acceptedChannels.poll()) != null) {
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        openConnections.incrementAndGet();
+      }
+    }
+  }
+
+  private final class Connection {
+
+    private final SocketChannel channel;
+
+    private final String clientId;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_FRAMES * BinaryTransferProtocol.REQUEST_FRAME_SIZE);
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_FRAMES * BinaryTransferProtocol.RESPONSE_FRAME_SIZE);
+
+    private SelectionKey key;
+
+    private Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.clientId = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+    }
+
+    private void onReadable() throws IOException {
+      if (channel.read(receiveBuffer) < 0) {
+        close();
+        return;
+      }
+      processFrames();
+      flush();
+    }
+
+    private void onWritable() throws IOException {
+      if (flush()) {
+        // Requests left unanswered while the send buffer was full.
+        processFrames();
+        flush();
+      }
+    }
+
+    private void processFrames() {
+      receiveBuffer.flip();
+      int frames = 0;
+      while (receiveBuffer.remaining() >= BinaryTransferProtocol.REQUEST_FRAME_SIZE
+        && sendBuffer.remaining() >= BinaryTransferProtocol.RESPONSE_FRAME_SIZE) {
+        long requestId = receiveBuffer.getLong();
+        int accountFromSlot = receiveBuffer.getInt();
+        int accountToSlot = receiveBuffer.getInt();
+        long amountMinorUnits = receiveBuffer.getLong();
+        BinaryTransferProtocol.putResponse(sendBuffer, requestId, transfer(clientId, accountFromSlot, accountToSlot, amountMinorUnits));
+        frames++;
+      }
+      receiveBuffer.compact();
+      processedFrames.add(frames);
+    }
+
+    /**
+     * Writes pending responses and returns whether they all went out. Reading pauses while
+     * any remain, which pushes back on a client that sends faster than it reads.
+     */
+    private boolean flush() throws IOException {
+      sendBuffer.flip();
+      channel.write(sendBuffer);
+      boolean drained = !sendBuffer.hasRemaining();
+      sendBuffer.compact();
+      if (key.isValid()) {
+        key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+      }
+      return drained;
+    }
+
+    private void close() {
+      if (channel.isOpen()) {
+        openConnections.decrementAndGet();
+        try {
+          channel.close();
+        } catch (IOException ioe) {
+          log.debug("Closing binary transfer connection failed", ioe);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.web.BinaryTransferProtocol;
+import com.dws.challenge.web.BinaryTransferServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BinaryTransferServerTest {
+
+  private AccountsService accountsService;
+
+  private BinaryTransferServer binaryTransferServer;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    accountsService = new AccountsService(new AccountsRepositoryInMemory());
+    binaryTransferServer = new BinaryTransferServer(accountsService, 0, 2, 2);
+    binaryTransferServer.start();
+  }
+
+  @AfterEach
+  void stopServer() throws IOException {
+    binaryTransferServer.close();
+  }
+
+  @Test
+  void answersPipelinedTransfersInRequestOrder() throws Exception {
+    accountsService.createAccount(new Account("Id-123", new BigDecimal("1000.00")));
+    accountsService.createAccount(new Account("Id-456", new BigDecimal("1000.00")));
+    int fromSlot = accountsService.resolveSlot("Id-123");
+    int toSlot = accountsService.resolveSlot("Id-456");
+    int transfers = 50_000;
+
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", binaryTransferServer.getPort()))) {
+      CompletableFuture<Void> requests = CompletableFuture.runAsync(() -> {
+        ByteBuffer requestFrames = ByteBuffer.allocate(transfers * BinaryTransferProtocol.REQUEST_FRAME_SIZE);
+        for (int i = 0; i < transfers; i++) {
+          // Alternate directions so neither balance runs out; every 1000th request (always an inbound
+          // one) asks for 0.50 and is rejected.
+          boolean outbound = i % 2 == 0;
+          BinaryTransferProtocol.putRequest(requestFrames, i, outbound ? fromSlot : toSlot, outbound ? toSlot : fromSlot,
+            i % 1000 == 999 ? 50 : 100);
+        }
+        requestFrames.flip();
+        try {
+          while (requestFrames.hasRemaining()) {
+            channel.write(requestFrames);
+          }
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      });
+
+      ByteBuffer responseFrames = ByteBuffer.allocate(transfers * BinaryTransferProtocol.RESPONSE_FRAME_SIZE);
+      while (responseFrames.hasRemaining()) {
+        assertThat(channel.read(responseFrames)).isNotNegative();
+      }
+      requests.get(1, TimeUnit.MINUTES);
+      responseFrames.flip();
+      for (int i = 0; i < transfers; i++) {
+        assertThat(responseFrames.getLong()).isEqualTo(i);
+        assertThat(BinaryTransferProtocol.transferStatus(responseFrames.getInt()))
+          .isEqualTo(i % 1000 == 999 ? TransferStatus.BELOW_MINIMUM_AMOUNT : TransferStatus.COMPLETED);
+      }
+    }
+
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("950.00");
+    assertThat(accountsService.getAccount("Id-456").getBalance()).isEqualByComparingTo("1050.00");
+    assertThat(binaryTransferServer.getProcessedFrames()).isEqualTo(transfers);
+  }
+
+  @Test
+  void reportsUnknownSlotsAndInsufficientBalance() throws Exception {
+    accountsService.createAccount(new Account("Id-123", new BigDecimal("10.00")));
+    accountsService.createAccount(new Account("Id-456", new BigDecimal("10.00")));
+    int fromSlot = accountsService.resolveSlot("Id-123");
+    int toSlot = accountsService.resolveSlot("Id-456");
+    assertThat(accountsService.resolveSlot("Id-123")).isEqualTo(fromSlot);
+    assertThat(accountsService.resolveSlot("Id-unknown")).isEqualTo(-1);
+
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", binaryTransferServer.getPort()))) {
+      ByteBuffer requestFrames = ByteBuffer.allocate(3 * BinaryTransferProtocol.REQUEST_FRAME_SIZE);
+      BinaryTransferProtocol.putRequest(requestFrames, 1, fromSlot, 4096, 100);
+      BinaryTransferProtocol.putRequest(requestFrames, 2, fromSlot, toSlot, 1001);
+      BinaryTransferProtocol.putRequest(requestFrames, 3, fromSlot, toSlot, 1000);
+      requestFrames.flip();
+      while (requestFrames.hasRemaining()) {
+        channel.write(requestFrames);
+      }
+      ByteBuffer responseFrames = ByteBuffer.allocate(3 * BinaryTransferProtocol.RESPONSE_FRAME_SIZE);
+      while (responseFrames.hasRemaining()) {
+        assertThat(channel.read(responseFrames)).isNotNegative();
+      }
+      responseFrames.flip();
+      assertThat(responseFrames.getLong()).isEqualTo(1);
+      assertThat(BinaryTransferProtocol.transferStatus(responseFrames.getInt())).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+      assertThat(responseFrames.getLong()).isEqualTo(2);
+      assertThat(BinaryTransferProtocol.transferStatus(responseFrames.getInt())).isEqualTo(TransferStatus.INSUFFICIENT_BALANCE);
+      assertThat(responseFrames.getLong()).isEqualTo(3);
+      assertThat(BinaryTransferProtocol.transferStatus(responseFrames.getInt())).isEqualTo(TransferStatus.COMPLETED);
+    }
+
+    assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("0.00");
+    assertThat(accountsService.getAccount("Id-456").getBalance()).isEqualByComparingTo("20.00");
+  }
+
+  @Test
+  void statusCodesAreFixedOnTheWire() {
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.COMPLETED)).isEqualTo(0);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.INSUFFICIENT_BALANCE)).isEqualTo(1);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.BELOW_MINIMUM_AMOUNT)).isEqualTo(2);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.INVALID_AMOUNT)).isEqualTo(3);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.ACCOUNT_NOT_FOUND)).isEqualTo(4);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.MALFORMED_REQUEST)).isEqualTo(5);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.REJECTED)).isEqualTo(6);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.ABORTED)).isEqualTo(7);
+    assertThat(BinaryTransferProtocol.statusCode(TransferStatus.IN_DOUBT)).isEqualTo(8);
+    for (TransferStatus transferStatus : TransferStatus.values()) {
+      assertThat(BinaryTransferProtocol.transferStatus(BinaryTransferProtocol.statusCode(transferStatus))).isEqualTo(transferStatus);
+    }
+    assertThat(BinaryTransferProtocol.transferStatus(BinaryTransferProtocol.STATUS_FAILED)).isNull();
+    assertThat(BinaryTransferProtocol.transferStatus(9)).isNull();
+  }
+}
@@ -0,0 +1,172 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.metrics.TransferMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-of-day batch that credits daily interest ({@code accounts.end-of-day.daily-interest-rate},
+ * a fraction of the balance rounded half-even to cents) and debits a flat fee
+ * ({@code accounts.end-of-day.fee}) on every account through
+ * {@link AccountsService#adjustBalances(BalanceAdjustment, ForkJoinPool, java.util.function.LongConsumer)}.
+ * Accounts whose balance would go negative are skipped and reported. The batch runs on its own
+ * fork-join pool of {@code accounts.end-of-day.parallelism} threads, by default half the cores,
+ * so transfers keep the other half; when {@code accounts.end-of-day.enabled=true} it runs every
+ * day at {@code accounts.end-of-day.time} in the server's time zone. Progress is logged every
+ * million accounts and exposed as gauges.
+ */
+@Component
+@Slf4j
+public class EndOfDayBalanceJob {
+
+  private static final int AMOUNT_SCALE = 2;
+
+  private static final long PROGRESS_LOG_INTERVAL = 1_000_000;
+
+  private final AccountsService accountsService;
+
+  private final BigDecimal dailyInterestRate;
+
+  private final BigDecimal fee;
+
+  private final ForkJoinPool pool;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private final AtomicLong accountsVisited = new AtomicLong();
+
+  private volatile BalanceAdjustmentReport lastReport;
+
+  private ScheduledExecutorService scheduler;
+
+  private LocalTime runTime;
+
+  public EndOfDayBalanceJob(AccountsService accountsService, BigDecimal dailyInterestRate, BigDecimal fee, int parallelism) {
+    this.accountsService = accountsService;
+    this.dailyInterestRate = dailyInterestRate;
+    this.fee = fee;
+    this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  @Autowired
+  public EndOfDayBalanceJob(AccountsService accountsService,
+    @Value("${accounts.end-of-day.daily-interest-rate:0}") BigDecimal dailyInterestRate,
+    @Value("${accounts.end-of-day.fee:0}") BigDecimal fee,
+    @Value("${accounts.end-of-day.parallelism:0}") int parallelism,
+    @Value("${accounts.end-of-day.enabled:false}") boolean enabled,
+    @Value("${accounts.end-of-day.time:00:00}") String runTime) {
+    this(accountsService, dailyInterestRate, fee, parallelism);
+    if (enabled) {
+      this.runTime = LocalTime.parse(runTime);
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "accounts-end-of-day");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduleNextRun();
+    }
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.end-of-day.running", () -> running.get() ? 1 : 0);
+    transferMetrics.registerGauge("accounts.end-of-day.visited", accountsVisited::get);
+  }
+
+  /**
+   * Runs the batch now, blocking until it finishes, and returns its report.
+   *
+   * @throws IllegalStateException if a run is already in progress
+   */
+  public BalanceAdjustmentReport run() {
+    if (!running.compareAndSet(false, true)) {
+      throw new IllegalStateException("End-of-day batch is already running");
+    }
+    try {
+      accountsVisited.set(0);
+      log.info("End-of-day batch started with daily interest rate {} and fee {}", dailyInterestRate, fee);
+      BalanceAdjustmentReport report = accountsService.adjustBalances(this::adjustmentFor, pool, this::recordProgress);
+      log.info("End-of-day batch visited {} accounts in {} ms: {} adjusted by {} in total, {} rejected",
+        report.getAccountsVisited(), report.getElapsedMillis(), report.getAccountsAdjusted(), report.getTotalAdjustment(),
+        report.getAccountsRejected());
+      lastReport = report;
+      return report;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  /**
+   * Accounts visited so far by the current run, or by the last one when none is running.
+   */
+  public long getAccountsVisited() {
+    return accountsVisited.get();
+  }
+
+  public BalanceAdjustmentReport getLastReport() {
+    return lastReport;
+  }
+
+  @PreDestroy
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    pool.shutdownNow();
+  }
+
+  private BigDecimal adjustmentFor(String accountId, BigDecimal balance) {
+    return balance.multiply(dailyInterestRate).setScale(AMOUNT_SCALE, RoundingMode.HALF_EVEN).subtract(fee);
+  }
+
+  private void recordProgress(long accounts) {
+    long visited = accountsVisited.addAndGet(accounts);
+    if (visited / PROGRESS_LOG_INTERVAL != (visited - accounts) / PROGRESS_LOG_INTERVAL) {
+      log.info("End-of-day batch has visited {} accounts", visited);
+    }
+  }
+
+  /**
+   * Schedules one run at the next occurrence of the run time; each run schedules the next, so
+   * daylight saving changes do not shift it.
+   */
+  private void scheduleNextRun() {
+    ZonedDateTime now = ZonedDateTime.now();
+    ZonedDateTime nextRun = now.with(runTime);
+    if (!nextRun.isAfter(now)) {
+      nextRun = nextRun.plusDays(1).with(runTime);
+    }
+    scheduler.schedule(this::runScheduled, Duration.between(now, nextRun).toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private void runScheduled() {
+    try {
+      run();
+    } catch (RuntimeException re) {
+      log.error("Scheduled end-of-day batch failed", re);
+    } finally {
+      scheduleNextRun();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceAdjustmentReport;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryJournaled;
+import com.dws.challenge.repository.AccountsRepositoryLedger;
+import com.dws.challenge.repository.AccountsRepositoryPartitioned;
+import com.dws.challenge.repository.AccountsRepositorySequenced;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.TransferJournal;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.EndOfDayBalanceJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EndOfDayBalanceJobTest {
+
+  private static final BigDecimal DAILY_INTEREST_RATE = new BigDecimal("0.01");
+
+  private static final BigDecimal FEE = BigDecimal.ONE;
+
+  @TempDir
+  Path journalDirectory;
+
+  @Test
+  void appliesInterestAndFeeToEveryAccountInMemory() {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64, true, 4, Integer.MAX_VALUE, 1000);
+    assertInterestAndFeeApplied(accountsRepository);
+
+    accountsRepository.promoteToHotAccount("Id-1");
+    EndOfDayBalanceJob endOfDayBalanceJob = new EndOfDayBalanceJob(new AccountsService(accountsRepository), DAILY_INTEREST_RATE, FEE, 2);
+    endOfDayBalanceJob.run();
+    endOfDayBalanceJob.close();
+    assertThat(accountsRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1018.09");
+  }
+
+  @Test
+  void appliesInterestAndFeeToEveryAccountInTheLedger() {
+    assertInterestAndFeeApplied(new AccountsRepositoryLedger());
+  }
+
+  @Test
+  void appliesInterestAndFeeToEveryAccountSequenced() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(4, 1024);
+    assertInterestAndFeeApplied(accountsRepository);
+    accountsRepository.close();
+  }
+
+  @Test
+  void appliesInterestAndFeeToEveryAccountPartitioned() throws Exception {
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(4);
+    assertInterestAndFeeApplied(accountsRepository);
+    accountsRepository.close();
+  }
+
+  @Test
+  void replaysAdjustmentsFromTheJournal() throws Exception {
+    AccountsRepositoryJournaled accountsRepository = new AccountsRepositoryJournaled(
+      new TransferJournal(journalDirectory, TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1));
+    assertInterestAndFeeApplied(accountsRepository);
+    accountsRepository.close();
+
+    AccountsRepositoryJournaled recoveredRepository = new AccountsRepositoryJournaled(
+      new TransferJournal(journalDirectory, TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1));
+    assertThat(recoveredRepository.getAccount("Id-0").getBalance()).isEqualByComparingTo("0.50");
+    assertThat(recoveredRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1009");
+    assertThat(recoveredRepository.getAccount("Id-999").getBalance()).isEqualByComparingTo("1009");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void replaysSequencedAdjustmentsFromTheJournal() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(4, 1024,
+      new TransferJournal(journalDirectory, TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1));
+    assertInterestAndFeeApplied(accountsRepository);
+    accountsRepository.close();
+
+    AccountsRepositorySequenced recoveredRepository = new AccountsRepositorySequenced(4, 1024,
+      new TransferJournal(journalDirectory, TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1));
+    assertThat(recoveredRepository.getAccount("Id-0").getBalance()).isEqualByComparingTo("0.50");
+    assertThat(recoveredRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1009");
+    assertThat(recoveredRepository.getAccount("Id-999").getBalance()).isEqualByComparingTo("1009");
+    recoveredRepository.close();
+  }
+
+  @Test
+  void adjustmentsStayConsistentWithConcurrentTransfers() throws Exception {
+    assertConsistentWithConcurrentTransfers(new AccountsRepositoryInMemory(64));
+  }
+
+  @Test
+  void sequencedAdjustmentsStayConsistentWithConcurrentTransfers() throws Exception {
+    AccountsRepositorySequenced accountsRepository = new AccountsRepositorySequenced(4, 1024);
+    assertConsistentWithConcurrentTransfers(accountsRepository);
+    accountsRepository.close();
+  }
+
+  @Test
+  void partitionedAdjustmentsStayConsistentWithConcurrentTransfers() throws Exception {
+    AccountsRepositoryPartitioned accountsRepository = new AccountsRepositoryPartitioned(4);
+    assertConsistentWithConcurrentTransfers(accountsRepository);
+    accountsRepository.close();
+  }
+
+  private static void assertConsistentWithConcurrentTransfers(AccountsRepository accountsRepository) throws Exception {
+    AccountsService accountsService = new AccountsService(accountsRepository);
+    int accountCount = 20_000;
+    for (int i = 0; i < accountCount; i++) {
+      accountsService.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+
+    AtomicBoolean batchFinished = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      workers.add(executor.submit(() -> {
+        start.await();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!batchFinished.get()) {
+          accountsService.transferAmount("Id-" + random.nextInt(accountCount), "Id-" + random.nextInt(accountCount),
+            BigDecimal.valueOf(1 + random.nextInt(100)));
+        }
+        return null;
+      }));
+    }
+    EndOfDayBalanceJob endOfDayBalanceJob = new EndOfDayBalanceJob(accountsService, DAILY_INTEREST_RATE, FEE, 2);
+    start.countDown();
+    BalanceAdjustmentReport report = endOfDayBalanceJob.run();
+    batchFinished.set(true);
+    for (Future<?> worker : workers) {
+      worker.get(1, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+    endOfDayBalanceJob.close();
+
+    // Transfers conserve money, so the total moves by exactly what the batch applied.
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accountCount; i++) {
+      BigDecimal balance = accountsService.getAccount("Id-" + i).getBalance();
+      assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+      total = total.add(balance);
+    }
+    assertThat(report.getAccountsVisited()).isEqualTo((long) accountCount);
+    assertThat(endOfDayBalanceJob.getAccountsVisited()).isEqualTo((long) accountCount);
+    assertThat(total).isEqualByComparingTo(new BigDecimal(1000L * accountCount).add(report.getTotalAdjustment()));
+  }
+
+  /**
+   * Account Id-0 holds 0.50, so the fee would overdraw it; Id-1 to Id-999 hold 1000 and earn
+   * 10 in interest before the fee.
+   */
+  private static void assertInterestAndFeeApplied(AccountsRepository accountsRepository) {
+    AccountsService accountsService = new AccountsService(accountsRepository);
+    accountsService.createAccount(new Account("Id-0", new BigDecimal("0.50")));
+    for (int i = 1; i < 1000; i++) {
+      accountsService.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    EndOfDayBalanceJob endOfDayBalanceJob = new EndOfDayBalanceJob(accountsService, DAILY_INTEREST_RATE, FEE, 2);
+
+    BalanceAdjustmentReport report = endOfDayBalanceJob.run();
+    endOfDayBalanceJob.close();
+
+    assertThat(report.getAccountsVisited()).isEqualTo(1000L);
+    assertThat(report.getAccountsAdjusted()).isEqualTo(999L);
+    assertThat(report.getAccountsRejected()).isEqualTo(1L);
+    assertThat(report.getTotalAdjustment()).isEqualByComparingTo("8991");
+    assertThat(endOfDayBalanceJob.getLastReport()).isSameAs(report);
+    assertThat(accountsService.getAccount("Id-0").getBalance()).isEqualByComparingTo("0.50");
+    assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("1009");
+    assertThat(accountsService.getAccount("Id-999").getBalance()).isEqualByComparingTo("1009");
+  }
+}
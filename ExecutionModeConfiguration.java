@@ -0,0 +1,28 @@
+package com.dws.challenge.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selects the threads that serve requests. By default ({@code accounts.execution-mode=platform})
+ * Tomcat's fixed worker pool is used, capped by {@code server.tomcat.threads.max}. With
+ * {@code accounts.execution-mode=virtual} every request runs on its own virtual thread, so a
+ * request blocked on an account stripe, a journal group commit or a full notification queue
+ * holds no platform thread. All of those wait on {@code java.util.concurrent} locks and
+ * conditions rather than monitors, so a blocked virtual thread unmounts instead of pinning its
+ * carrier.
+ */
+@Configuration
+@Slf4j
+public class ExecutionModeConfiguration {
+
+  @Bean
+  @ConditionalOnProperty(name = "accounts.execution-mode", havingValue = "virtual")
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    log.info("Serving requests on virtual threads");
+    return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newVirtualThreadPerTaskExecutor());
+  }
+}
@@ -0,0 +1,134 @@
+package com.dws.challenge.repository;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Balance of a hot account split over several cells, in the style of {@code LongAdder}. Credits
+ * pick a random cell and CAS into it, so concurrent credits rarely collide. Debits drain cells
+ * one by one and never take more than a cell holds, so no cell and therefore no balance ever
+ * goes negative. Debits must be serialized by the caller (the account's lock stripe); credits
+ * need no lock, but a caller not holding the account's stripe must bracket its credit with
+ * {@link #tryEnterCredit()} and {@link #exitCredit()}, so the account can be retired safely.
+ */
+public class HotAccountBalance {
+
+  /**
+   * Cells are spaced this many references apart so that two cells never share a cache line.
+   */
+  private static final int CELL_STRIDE = 16;
+
+  private static final int RETIRED = -1;
+
+  private final int cellCount;
+
+  private final AtomicReferenceArray<BigDecimal> cells;
+
+  /**
+   * Credits in flight without the account's stripe, or {@link #RETIRED}.
+   */
+  private final AtomicInteger unlockedCredits = new AtomicInteger();
+
+  public HotAccountBalance(int cellCount, BigDecimal initialBalance) {
+    this.cellCount = cellCount;
+    this.cells = new AtomicReferenceArray<>(cellCount * CELL_STRIDE);
+    for (int cell = 0; cell < cellCount; cell++) {
+      cells.set(cell * CELL_STRIDE, BigDecimal.ZERO);
+    }
+    cells.set(0, initialBalance);
+  }
+
+  public void credit(BigDecimal amount) {
+    int index = ThreadLocalRandom.current().nextInt(cellCount) * CELL_STRIDE;
+    BigDecimal balance;
+    do {
+      balance = cells.get(index);
+    } while (!cells.compareAndSet(index, balance, balance.add(amount)));
+  }
+
+  /**
+   * Takes {@code amount} out of the cells, or nothing at all if the cells do not hold enough.
+   * Passes over the cells are repeated while they still yield money, so credits landing on an
+   * already visited cell are picked up.
+   */
+  public boolean tryDebit(BigDecimal amount) {
+    BigDecimal remaining = amount;
+    boolean progressed = true;
+    while (remaining.signum() > 0 && progressed) {
+      progressed = false;
+      for (int cell = 0; cell < cellCount && remaining.signum() > 0; cell++) {
+        int index = cell * CELL_STRIDE;
+        BigDecimal balance;
+        BigDecimal taken;
+        do {
+          balance = cells.get(index);
+          taken = balance.min(remaining);
+        } while (taken.signum() > 0 && !cells.compareAndSet(index, balance, balance.subtract(taken)));
+        if (taken.signum() > 0) {
+          remaining = remaining.subtract(taken);
+          progressed = true;
+        }
+      }
+    }
+    if (remaining.signum() > 0) {
+      BigDecimal taken = amount.subtract(remaining);
+      if (taken.signum() > 0) {
+        credit(taken);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Registers a credit made without the account's stripe. Returns false once the balance has
+   * been retired, in which case the caller must take the stripe and look the account up again.
+   */
+  public boolean tryEnterCredit() {
+    int credits;
+    do {
+      credits = unlockedCredits.get();
+      if (credits == RETIRED) {
+        return false;
+      }
+    } while (!unlockedCredits.compareAndSet(credits, credits + 1));
+    return true;
+  }
+
+  public void exitCredit() {
+    unlockedCredits.decrementAndGet();
+  }
+
+  /**
+   * Waits for credits entered without the stripe to finish and refuses new ones, after which
+   * {@link #sum()} is final. Must be called with the account's stripe held.
+   */
+  public void retire() {
+    suspendCredits();
+  }
+
+  /**
+   * Like {@link #retire()}, but only until {@link #resumeCredits()}: while suspended, credits
+   * fall back to taking the stripe, so {@link #sum()} holds still for as long as the caller
+   * keeps the stripe. Must be called with the account's stripe held.
+   */
+  public void suspendCredits() {
+    while (!unlockedCredits.compareAndSet(0, RETIRED)) {
+      Thread.onSpinWait();
+    }
+  }
+
+  public void resumeCredits() {
+    unlockedCredits.set(0);
+  }
+
+  public BigDecimal sum() {
+    BigDecimal sum = BigDecimal.ZERO;
+    for (int cell = 0; cell < cellCount; cell++) {
+      sum = sum.add(cells.get(cell * CELL_STRIDE));
+    }
+    return sum;
+  }
+}
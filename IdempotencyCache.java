@@ -0,0 +1,291 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.IdempotencyKeyReusedException;
+import com.dws.challenge.exception.OutcomeInDoubtException;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Remembers the outcome of an operation per idempotency key, so a retried request gets the
+ * stored outcome instead of running the operation again. Keys are spread over independently
+ * locked segments; each segment keeps its entries in insertion order and evicts the oldest when
+ * its share of the entry or weight budget is exceeded, and drops entries older than the TTL.
+ * Entries whose operation is still running or in doubt are never evicted. The operation itself
+ * runs outside any segment lock; concurrent duplicates wait for the first submission to finish.
+ */
+public class IdempotencyCache<V> {
+
+  private final Segment<V>[] segments;
+
+  private final long ttlNanos;
+
+  private final int maxEntriesPerSegment;
+
+  private final long maxWeightPerSegment;
+
+  private final ToIntFunction<V> weigher;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  private final LongAdder expirations = new LongAdder();
+
+  @SuppressWarnings("unchecked")
+  public IdempotencyCache(int segmentCount, int maxEntries, long maxWeight, long ttl, TimeUnit ttlUnit, ToIntFunction<V> weigher) {
+    int size = Integer.highestOneBit(Math.max(1, segmentCount));
+    if (size < segmentCount) {
+      size <<= 1;
+    }
+    this.segments = new Segment[size];
+    for (int i = 0; i < size; i++) {
+      this.segments[i] = new Segment<>();
+    }
+    this.ttlNanos = ttlUnit.toNanos(ttl);
+    this.maxEntriesPerSegment = Math.max(1, maxEntries / size);
+    this.maxWeightPerSegment = Math.max(1, maxWeight / size);
+    this.weigher = weigher;
+  }
+
+  /**
+   * Runs the operation once per key within the TTL and returns its stored outcome for every
+   * later call with the same key and request fingerprint. A failed operation is not remembered,
+   * so it can be retried, unless it failed with an {@link OutcomeInDoubtException}: later calls
+   * get that exception until its resolution settles the key.
+   *
+   * @throws IdempotencyKeyReusedException if the key is already stored for a request with a
+   *   different fingerprint
+   */
+  public V execute(String idempotencyKey, String requestFingerprint, Supplier<V> operation) {
+    Segment<V> segment = segmentFor(idempotencyKey);
+    Entry<V> entry;
+    boolean owner;
+    segment.lock.lock();
+    try {
+      long now = System.nanoTime();
+      expire(segment, now);
+      Entry<V> existingEntry = segment.entries.get(idempotencyKey);
+      if (existingEntry != null) {
+        if (!Objects.equals(existingEntry.requestFingerprint, requestFingerprint)) {
+          throw new IdempotencyKeyReusedException("Idempotency key " + idempotencyKey + " was already used for a different request.");
+        }
+        hits.increment();
+        entry = existingEntry;
+        owner = false;
+      } else {
+        misses.increment();
+        entry = new Entry<>(requestFingerprint, now + ttlNanos, keyWeight(idempotencyKey, requestFingerprint));
+        segment.entries.put(idempotencyKey, entry);
+        segment.weight += entry.weight;
+        evictOverflow(segment);
+        owner = true;
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+
+    if (!owner) {
+      return awaitOutcome(entry);
+    }
+    V outcome;
+    try {
+      outcome = operation.get();
+    } catch (OutcomeInDoubtException oide) {
+      entry.inDoubt = true;
+      entry.outcome.completeExceptionally(oide);
+      oide.getResolution().whenComplete((resolvedOutcome, failure) -> settle(segment, idempotencyKey, entry, resolvedOutcome));
+      throw oide;
+    } catch (RuntimeException re) {
+      remove(segment, idempotencyKey, entry);
+      entry.outcome.completeExceptionally(re);
+      throw re;
+    }
+    reweigh(segment, idempotencyKey, entry, outcome);
+    entry.outcome.complete(outcome);
+    return outcome;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getExpirations() {
+    return expirations.sum();
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment<V> segment : segments) {
+      segment.lock.lock();
+      try {
+        size += segment.entries.size();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  private V awaitOutcome(Entry<V> entry) {
+    try {
+      return entry.outcome.join();
+    } catch (CompletionException ce) {
+      if (ce.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ce.getCause();
+      }
+      throw ce;
+    }
+  }
+
+  private void reweigh(Segment<V> segment, String idempotencyKey, Entry<V> entry, V outcome) {
+    int outcomeWeight = keyWeight(idempotencyKey, entry.requestFingerprint) + weigher.applyAsInt(outcome);
+    segment.lock.lock();
+    try {
+      if (segment.entries.get(idempotencyKey) == entry) {
+        segment.weight += outcomeWeight - entry.weight;
+        entry.weight = outcomeWeight;
+        evictOverflow(segment);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Replaces an in-doubt entry with its resolved outcome, keeping its place and expiry, or
+   * removes it if the operation turned out to have had no effect.
+   */
+  @SuppressWarnings("unchecked")
+  private void settle(Segment<V> segment, String idempotencyKey, Entry<V> entry, Object resolvedOutcome) {
+    if (resolvedOutcome == null) {
+      remove(segment, idempotencyKey, entry);
+      return;
+    }
+    V outcome = (V) resolvedOutcome;
+    Entry<V> settledEntry = new Entry<>(entry.requestFingerprint, entry.expiresAtNanos, 0);
+    settledEntry.weight = keyWeight(idempotencyKey, entry.requestFingerprint) + weigher.applyAsInt(outcome);
+    settledEntry.outcome.complete(outcome);
+    segment.lock.lock();
+    try {
+      if (segment.entries.get(idempotencyKey) == entry) {
+        segment.entries.put(idempotencyKey, settledEntry);
+        segment.weight += settledEntry.weight - entry.weight;
+        evictOverflow(segment);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  private void remove(Segment<V> segment, String idempotencyKey, Entry<V> entry) {
+    segment.lock.lock();
+    try {
+      if (segment.entries.remove(idempotencyKey, entry)) {
+        segment.weight -= entry.weight;
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Entries share one TTL and are kept in insertion order, so expired entries are always at the
+   * head of the segment.
+   */
+  private void expire(Segment<V> segment, long now) {
+    Iterator<Entry<V>> iterator = segment.entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry<V> entry = iterator.next();
+      if (entry.expiresAtNanos - now > 0) {
+        return;
+      }
+      iterator.remove();
+      segment.weight -= entry.weight;
+      expirations.increment();
+    }
+  }
+
+  /**
+   * Evicts the oldest completed entries. A pending or in-doubt entry is skipped: evicting it
+   * would let a retry run the operation a second time while the first run may still take effect.
+   */
+  private void evictOverflow(Segment<V> segment) {
+    Iterator<Entry<V>> iterator = segment.entries.values().iterator();
+    while ((segment.entries.size() > maxEntriesPerSegment || segment.weight > maxWeightPerSegment) && iterator.hasNext()) {
+      Entry<V> entry = iterator.next();
+      if (!entry.outcome.isDone() || entry.inDoubt) {
+        continue;
+      }
+      iterator.remove();
+      segment.weight -= entry.weight;
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Approximate heap size of the stored key and fingerprint strings.
+   */
+  private static int keyWeight(String idempotencyKey, String requestFingerprint) {
+    return 2 * (idempotencyKey.length() + (requestFingerprint == null ? 0 : requestFingerprint.length()));
+  }
+
+  private Segment<V> segmentFor(String idempotencyKey) {
+    int hash = idempotencyKey.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+  }
+
+  private static final class Segment<V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>();
+
+    private long weight;
+  }
+
+  private static final class Entry<V> {
+
+    /**
+     * Weight charged for an entry whose operation is still running.
+     */
+    private static final int PENDING_WEIGHT = 64;
+
+    private final CompletableFuture<V> outcome = new CompletableFuture<>();
+
+    private final String requestFingerprint;
+
+    private final long expiresAtNanos;
+
+    private int weight;
+
+    /**
+     * Set before the outcome completes with an {@link OutcomeInDoubtException}.
+     */
+    private volatile boolean inDoubt;
+
+    private Entry(String requestFingerprint, long expiresAtNanos, int keyWeight) {
+      this.requestFingerprint = requestFingerprint;
+      this.expiresAtNanos = expiresAtNanos;
+      this.weight = PENDING_WEIGHT + keyWeight;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dws.challenge.exception.IdempotencyKeyReusedException;
+import com.dws.challenge.exception.OutcomeInDoubtException;
+import com.dws.challenge.service.IdempotencyCache;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyCacheTest {
+
+  @Test
+  void returnsStoredOutcomeForDuplicateKey() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(4, 100, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    AtomicInteger executions = new AtomicInteger();
+
+    String first = cache.execute("key-1", "request", () -> "transfer-" + executions.incrementAndGet());
+    String second = cache.execute("key-1", "request", () -> "transfer-" + executions.incrementAndGet());
+
+    assertThat(first).isEqualTo("transfer-1");
+    assertThat(second).isEqualTo("transfer-1");
+    assertThat(executions).hasValue(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  void concurrentDuplicatesRunOperationOnce() throws Exception {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(4, 100, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<String>> outcomes = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      outcomes.add(executor.submit(() -> {
+        start.await();
+        return cache.execute("key-1", "request", () -> {
+          sleepQuietly(50);
+          return "transfer-" + executions.incrementAndGet();
+        });
+      }));
+    }
+    start.countDown();
+    for (Future<String> outcome : outcomes) {
+      assertThat(outcome.get(10, TimeUnit.SECONDS)).isEqualTo("transfer-1");
+    }
+    executor.shutdown();
+    assertThat(executions).hasValue(1);
+  }
+
+  @Test
+  void failedOperationIsNotRemembered() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(4, 100, 1_000_000, 1, TimeUnit.HOURS, String::length);
+
+    assertThrows(IllegalStateException.class, () -> cache.execute("key-1", "request", () -> {
+      throw new IllegalStateException("timeout");
+    }));
+
+    assertThat(cache.execute("key-1", "request", () -> "transfer-2")).isEqualTo("transfer-2");
+  }
+
+  @Test
+  void inDoubtOperationKeepsItsKeyUntilResolved() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 2, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    AtomicInteger executions = new AtomicInteger();
+    CompletableFuture<String> resolution = new CompletableFuture<>();
+    OutcomeInDoubtException inDoubt = new OutcomeInDoubtException("in doubt", resolution);
+
+    assertThrows(OutcomeInDoubtException.class, () -> cache.execute("key-1", "request", () -> {
+      executions.incrementAndGet();
+      throw inDoubt;
+    }));
+    for (int i = 0; i < 5; i++) {
+      cache.execute("key-" + (i + 2), "request", () -> "other");
+    }
+    assertThat(assertThrows(OutcomeInDoubtException.class,
+      () -> cache.execute("key-1", "request", () -> "transfer-" + executions.incrementAndGet()))).isSameAs(inDoubt);
+
+    resolution.complete("transfer-late");
+    assertThat(cache.execute("key-1", "request", () -> "transfer-" + executions.incrementAndGet())).isEqualTo("transfer-late");
+    assertThat(executions).hasValue(1);
+  }
+
+  @Test
+  void inDoubtOperationResolvedWithoutEffectRunsAgain() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(4, 100, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    CompletableFuture<String> resolution = new CompletableFuture<>();
+
+    assertThrows(OutcomeInDoubtException.class, () -> cache.execute("key-1", "request", () -> {
+      throw new OutcomeInDoubtException("in doubt", resolution);
+    }));
+    resolution.complete(null);
+
+    assertThat(cache.execute("key-1", "request", () -> "transfer-2")).isEqualTo("transfer-2");
+  }
+
+  @Test
+  void evictsOldestEntriesWhenFull() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 10, 1_000_000, 1, TimeUnit.HOURS, String::length);
+
+    for (int i = 0; i < 15; i++) {
+      int transfer = i;
+      cache.execute("key-" + i, "request", () -> "transfer-" + transfer);
+    }
+
+    assertThat(cache.size()).isEqualTo(10);
+    assertThat(cache.getEvictions()).isEqualTo(5);
+    assertThat(cache.execute("key-0", "request", () -> "again")).isEqualTo("again");
+    assertThat(cache.execute("key-14", "request", () -> "again")).isEqualTo("transfer-14");
+  }
+
+  @Test
+  void evictsWhenWeightLimitIsExceeded() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 1_000, 1_000, 1, TimeUnit.HOURS, String::length);
+
+    for (int i = 0; i < 5; i++) {
+      cache.execute("key-" + i, "request", () -> new String(new char[300]));
+    }
+
+    assertThat(cache.size()).isEqualTo(3);
+    assertThat(cache.getEvictions()).isEqualTo(2);
+  }
+
+  @Test
+  void expiresEntriesAfterTtl() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 100, 1_000_000, 20, TimeUnit.MILLISECONDS, String::length);
+    cache.execute("key-1", "request", () -> "transfer-1");
+
+    sleepQuietly(50);
+
+    assertThat(cache.execute("key-1", "request", () -> "transfer-2")).isEqualTo("transfer-2");
+    assertThat(cache.getExpirations()).isEqualTo(1);
+  }
+
+  @Test
+  void rejectsKeyReusedForDifferentRequest() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(4, 100, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    cache.execute("key-1", "Id-1|Id-2|10", () -> "transfer-1");
+
+    assertThrows(IdempotencyKeyReusedException.class, () -> cache.execute("key-1", "Id-1|Id-2|20", () -> "transfer-2"));
+    assertThat(cache.execute("key-1", "Id-1|Id-2|10", () -> "transfer-3")).isEqualTo("transfer-1");
+  }
+
+  @Test
+  void pendingEntriesAreNotEvicted() throws Exception {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 2, 1_000_000, 1, TimeUnit.HOURS, String::length);
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<String> pending = executor.submit(() -> cache.execute("key-pending", "request", () -> {
+      running.countDown();
+      awaitQuietly(release);
+      return "transfer-" + executions.incrementAndGet();
+    }));
+    running.await(10, TimeUnit.SECONDS);
+
+    for (int i = 0; i < 5; i++) {
+      int transfer = i;
+      cache.execute("key-" + i, "request", () -> "other-" + transfer);
+    }
+    release.countDown();
+
+    assertThat(pending.get(10, TimeUnit.SECONDS)).isEqualTo("transfer-1");
+    assertThat(cache.execute("key-pending", "request", () -> "transfer-" + executions.incrementAndGet())).isEqualTo("transfer-1");
+    assertThat(executions).hasValue(1);
+    executor.shutdown();
+  }
+
+  @Test
+  void keyLengthCountsTowardsWeight() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(1, 1_000, 1_000, 1, TimeUnit.HOURS, String::length);
+
+    for (int i = 0; i < 3; i++) {
+      cache.execute(new String(new char[200]) + i, "request", () -> "ok");
+    }
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getEvictions()).isEqualTo(1);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
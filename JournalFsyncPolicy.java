@@ -0,0 +1,23 @@
+package com.dws.challenge.repository;
+
+/**
+ * When the {@link TransferJournal} forces appended records to disk.
+ */
+public enum JournalFsyncPolicy {
+
+  /**
+   * Every mutating call waits until its record is on disk. Concurrent callers share one fsync
+   * (group commit).
+   */
+  ALWAYS,
+
+  /**
+   * A background thread forces the journal every fsync interval; callers never wait.
+   */
+  INTERVAL,
+
+  /**
+   * The journal is only forced on segment roll and shutdown; the OS decides otherwise.
+   */
+  NEVER
+}
@@ -0,0 +1,96 @@
+package com.dws.challenge.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram over nanoseconds. Every power of two is split into eight
+ * sub-buckets, so a reported percentile is at most 12.5% above the true value. Buckets are
+ * {@link LongAdder}s created up front; recording indexes into them and allocates nothing once a
+ * contended adder has grown its cells.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      buckets[bucket] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    buckets[bucketOf(value)].increment();
+    count.increment();
+    totalNanos.add(value);
+    maxNanos.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Upper bound of the bucket holding the given quantile, or zero when nothing was recorded.
+   * Buckets are read one by one while writers carry on, so the answer is approximate.
+   */
+  public long valueAtQuantile(double quantile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      counts[bucket] = buckets[bucket].sum();
+      total += counts[bucket];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(bucket), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowerBound = (long) (SUB_BUCKET_COUNT | (bucket & (SUB_BUCKET_COUNT - 1))) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,240 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process shard. Its balances and pending two-phase transfers are plain maps confined to the
+ * shard's own single thread, so no operation takes a lock and shards never contend with one
+ * another.
+ * <p>
+ * A reservation not committed within the reservation timeout expires: the money goes back to
+ * the sender and a later commit of that transfer is refused, so a coordinator that died between
+ * the phases cannot hold money forever. Pending credits hold no money; one still pending after
+ * the timeout is logged as in doubt, and one still pending after the expired-reservation
+ * retention is dropped, so credits whose abort never arrived do not pile up.
+ */
+@Slf4j
+public class LocalAccountShard implements AccountShard, Closeable {
+
+  public static final long DEFAULT_RESERVATION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final int EXPIRED_RETENTION_TIMEOUTS = 10;
+
+  private static final long MIN_EXPIRED_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final Map<String, BigDecimal> balances = new HashMap<>();
+
+  private final Map<Long, PendingTransfer> pendingTransfers = new HashMap<>();
+
+  /**
+   * Ids of expired reservations, with the time they expired, kept for {@link #EXPIRED_RETENTION_TIMEOUTS}
+   * timeouts (and at least {@link #MIN_EXPIRED_RETENTION_MILLIS}) so a coordinator still retrying a late
+   * commit is refused rather than taken for a repeat.
+   */
+  private final Map<Long, Long> expiredReservations = new HashMap<>();
+
+  private final long reservationTimeoutNanos;
+
+  private final long expiredRetentionNanos;
+
+  private final ScheduledExecutorService executor;
+
+  public LocalAccountShard(int shardIndex) {
+    this(shardIndex, DEFAULT_RESERVATION_TIMEOUT_MILLIS);
+  }
+
+  public LocalAccountShard(int shardIndex, long reservationTimeoutMillis) {
+    this.reservationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(reservationTimeoutMillis);
+    this.expiredRetentionNanos = TimeUnit.MILLISECONDS.toNanos(
+      Math.max(MIN_EXPIRED_RETENTION_MILLIS, reservationTimeoutMillis * EXPIRED_RETENTION_TIMEOUTS));
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "account-shard-" + shardIndex);
+      thread.setDaemon(true);
+      return thread;
+    });
+    long sweepIntervalMillis = Math.max(1, reservationTimeoutMillis / 4);
+    executor.scheduleWithFixedDelay(this::expireReservations, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public CompletableFuture<Void> createAccount(String accountId, BigDecimal balance) {
+    return CompletableFuture.runAsync(() -> {
+      if (balances.containsKey(accountId)) {
+        throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+      }
+      balances.put(accountId, balance);
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<BigDecimal> getBalance(String accountId) {
+    return CompletableFuture.supplyAsync(() -> balances.get(accountId), executor);
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> transfer(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    return CompletableFuture.supplyAsync(() -> {
+      BigDecimal fromBalance = balances.get(accountFromId);
+      BigDecimal toBalance = balances.get(accountToId);
+      if (fromBalance == null || toBalance == null) {
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      }
+      if (fromBalance.compareTo(transferAmountValue) < 0) {
+        return TransferStatus.INSUFFICIENT_BALANCE;
+      }
+      balances.put(accountFromId, fromBalance.subtract(transferAmountValue));
+      balances.put(accountToId, balances.get(accountToId).add(transferAmountValue));
+      return TransferStatus.COMPLETED;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> reserve(long transferId, String accountFromId, BigDecimal transferAmountValue) {
+    return CompletableFuture.supplyAsync(() -> {
+      BigDecimal fromBalance = balances.get(accountFromId);
+      if (fromBalance == null) {
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      }
+      if (fromBalance.compareTo(transferAmountValue) < 0) {
+        return TransferStatus.INSUFFICIENT_BALANCE;
+      }
+      balances.put(accountFromId, fromBalance.subtract(transferAmountValue));
+      pendingTransfers.put(transferId, new PendingTransfer(accountFromId, transferAmountValue, true, System.nanoTime()));
+      return TransferStatus.COMPLETED;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> prepareCredit(long transferId, String accountToId, BigDecimal transferAmountValue) {
+    return CompletableFuture.supplyAsync(() -> {
+      if (!balances.containsKey(accountToId)) {
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      }
+      pendingTransfers.put(transferId, new PendingTransfer(accountToId, transferAmountValue, false, System.nanoTime()));
+      return TransferStatus.COMPLETED;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> commit(long transferId) {
+    return CompletableFuture.supplyAsync(() -> {
+      PendingTransfer pendingTransfer = pendingTransfers.remove(transferId);
+      if (pendingTransfer == null) {
+        return !expiredReservations.containsKey(transferId);
+      }
+      if (!pendingTransfer.debit) {
+        balances.computeIfPresent(pendingTransfer.accountId, (accountId, balance) -> balance.add(pendingTransfer.amount));
+      }
+      return true;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> abort(long transferId) {
+    return CompletableFuture.runAsync(() -> {
+      PendingTransfer pendingTransfer = pendingTransfers.remove(transferId);
+      if (pendingTransfer != null && pendingTransfer.debit) {
+        balances.computeIfPresent(pendingTransfer.accountId, (accountId, balance) -> balance.add(pendingTransfer.amount));
+      }
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> clear() {
+    return CompletableFuture.runAsync(() -> {
+      balances.clear();
+      pendingTransfers.clear();
+      expiredReservations.clear();
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> accountIds() {
+    return CompletableFuture.supplyAsync(() -> new ArrayList<>(balances.keySet()), executor);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> adjustBalance(String accountId, BigDecimal expectedBalance, BigDecimal adjustment) {
+    return CompletableFuture.supplyAsync(() -> {
+      BigDecimal balance = balances.get(accountId);
+      if (balance == null || balance.compareTo(expectedBalance) != 0) {
+        return false;
+      }
+      balances.put(accountId, balance.add(adjustment));
+      return true;
+    }, executor);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Runs on the shard thread.
+   */
+  private void expireReservations() {
+    long now = System.nanoTime();
+    expiredReservations.values().removeIf(expiredAtNanos -> now - expiredAtNanos > expiredRetentionNanos);
+    Iterator<Map.Entry<Long, PendingTransfer>> iterator = pendingTransfers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, PendingTransfer> pendingEntry = iterator.next();
+      PendingTransfer pendingTransfer = pendingEntry.getValue();
+      if (now - pendingTransfer.createdAtNanos <= reservationTimeoutNanos) {
+        continue;
+      }
+      if (pendingTransfer.debit) {
+        iterator.remove();
+        balances.computeIfPresent(pendingTransfer.accountId, (accountId, balance) -> balance.add(pendingTransfer.amount));
+        expiredReservations.put(pendingEntry.getKey(), now);
+        log.warn("Reservation of {} on account {} for transfer {} expired and was returned", pendingTransfer.amount,
+          pendingTransfer.accountId, pendingEntry.getKey());
+      } else if (now - pendingTransfer.createdAtNanos > expiredRetentionNanos) {
+        iterator.remove();
+        log.error("Dropped credit of {} to account {} for transfer {}, which got neither a commit nor an abort", pendingTransfer.amount,
+          pendingTransfer.accountId, pendingEntry.getKey());
+      } else if (!pendingTransfer.reportedInDoubt) {
+        pendingTransfer.reportedInDoubt = true;
+        log.warn("Credit of {} to account {} for transfer {} is still waiting for its commit or abort", pendingTransfer.amount,
+          pendingTransfer.accountId, pendingEntry.getKey());
+      }
+    }
+  }
+
+  private static final class PendingTransfer {
+
+    private final String accountId;
+
+    private final BigDecimal amount;
+
+    /**
+     * True for the sender's reservation, false for the receiver's pending credit.
+     */
+    private final boolean debit;
+
+    private final long createdAtNanos;
+
+    private boolean reportedInDoubt;
+
+    private PendingTransfer(String accountId, BigDecimal amount, boolean debit, long createdAtNanos) {
+      this.accountId = accountId;
+      this.amount = amount;
+      this.debit = debit;
+      this.createdAtNanos = createdAtNanos;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.metrics.TransferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read side of {@link TransferMetrics}, shaped like Spring Boot's {@code /actuator/metrics}:
+ * the root lists meter names and {@code /{name}} returns that meter's measurements.
+ */
+@RestController
+@RequestMapping("/v1/metrics")
+public class MetricsController {
+
+  private final TransferMetrics transferMetrics;
+
+  @Autowired
+  public MetricsController(TransferMetrics transferMetrics) {
+    this.transferMetrics = transferMetrics;
+  }
+
+  @GetMapping
+  public Map<String, Object> listMetrics() {
+    return Collections.singletonMap("names", new ArrayList<>(transferMetrics.snapshot().keySet()));
+  }
+
+  @GetMapping(path = "/{name:.+}")
+  public ResponseEntity<Object> getMetric(@PathVariable String name) {
+    Map<String, Long> statistics = transferMetrics.snapshot().get(name);
+    if (statistics == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    List<Map<String, Object>> measurements = new ArrayList<>();
+    statistics.forEach((statistic, value) -> {
+      Map<String, Object> measurement = new LinkedHashMap<>();
+      measurement.put("statistic", statistic);
+      measurement.put("value", value);
+      measurements.add(measurement);
+    });
+    Map<String, Object> metric = new LinkedHashMap<>();
+    metric.put("name", name);
+    metric.put("measurements", measurements);
+    return new ResponseEntity<>(metric, HttpStatus.OK);
+  }
+}
@@ -0,0 +1,23 @@
+package com.dws.challenge.exception;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thrown by an operation run through an {@link com.dws.challenge.service.IdempotencyCache}
+ * whose effect is not known yet. The cache keeps the key, answering repeats with this exception
+ * instead of running the operation again, until the resolution completes: with the outcome to
+ * store for the key, or with null if the operation had no effect and may run again.
+ */
+public class OutcomeInDoubtException extends RuntimeException {
+
+  private final transient CompletableFuture<?> resolution;
+
+  public OutcomeInDoubtException(String message, CompletableFuture<?> resolution) {
+    super(message);
+    this.resolution = resolution;
+  }
+
+  public CompletableFuture<?> getResolution() {
+    return resolution;
+  }
+}
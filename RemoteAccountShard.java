@@ -0,0 +1,290 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Client for a shard served by an {@link AccountShardServer} in another process. Requests go
+ * over one connection, one at a time, on the client's own I/O thread, so calls to the same
+ * remote shard keep their order just as they do on a {@link LocalAccountShard}.
+ * <p>
+ * Connecting and every reply are bounded by the I/O timeout. A call that fails or times out
+ * completes exceptionally and drops the connection, since its reply may still arrive; the next
+ * call connects again. Whether a failed call took effect on the shard is unknown, which is why
+ * commit and abort are safe to repeat.
+ */
+public class RemoteAccountShard implements AccountShard, Closeable {
+
+  static final byte CREATE_ACCOUNT = 1;
+
+  static final byte GET_BALANCE = 2;
+
+  static final byte TRANSFER = 3;
+
+  static final byte RESERVE = 4;
+
+  static final byte PREPARE_CREDIT = 5;
+
+  static final byte COMMIT = 6;
+
+  static final byte ABORT = 7;
+
+  static final byte CLEAR = 8;
+
+  static final byte ACCOUNT_IDS = 9;
+
+  static final byte ADJUST_BALANCE = 10;
+
+  static final byte OK = 0;
+
+  static final byte DUPLICATE_ACCOUNT = 1;
+
+  static final byte EXPIRED = 2;
+
+  static final byte BALANCE_CHANGED = 3;
+
+  public static final int DEFAULT_IO_TIMEOUT_MILLIS = 5_000;
+
+  private final InetSocketAddress address;
+
+  private final int ioTimeoutMillis;
+
+  private final ExecutorService executor;
+
+  /**
+   * Connection state, touched only on the I/O thread once the constructor has returned.
+   */
+  private Socket socket;
+
+  private DataInputStream in;
+
+  private DataOutputStream out;
+
+  public RemoteAccountShard(String host, int port) throws IOException {
+    this(host, port, DEFAULT_IO_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Connects at once, so a shard that is down fails startup.
+   */
+  public RemoteAccountShard(String host, int port, int ioTimeoutMillis) throws IOException {
+    this.address = new InetSocketAddress(host, port);
+    this.ioTimeoutMillis = ioTimeoutMillis;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "remote-account-shard-" + host + ":" + port);
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      connectIfNeeded();
+    } catch (IOException ioe) {
+      executor.shutdown();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Parses {@code host:port}.
+   */
+  public static RemoteAccountShard connect(String address, int ioTimeoutMillis) throws IOException {
+    int separator = address.lastIndexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Shard address " + address + " is not host:port");
+    }
+    return new RemoteAccountShard(address.substring(0, separator).trim(), Integer.parseInt(address.substring(separator + 1).trim()),
+      ioTimeoutMillis);
+  }
+
+  @Override
+  public CompletableFuture<Void> createAccount(String accountId, BigDecimal balance) {
+    return call(() -> {
+      out.writeByte(CREATE_ACCOUNT);
+      out.writeUTF(accountId);
+      out.writeUTF(balance.toString());
+      out.flush();
+      if (in.readByte() == DUPLICATE_ACCOUNT) {
+        throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<BigDecimal> getBalance(String accountId) {
+    return call(() -> {
+      out.writeByte(GET_BALANCE);
+      out.writeUTF(accountId);
+      out.flush();
+      return in.readBoolean() ? new BigDecimal(in.readUTF()) : null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> transfer(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    return call(() -> {
+      out.writeByte(TRANSFER);
+      out.writeUTF(accountFromId);
+      out.writeUTF(accountToId);
+      out.writeUTF(transferAmountValue.toString());
+      out.flush();
+      return TransferStatus.valueOf(in.readUTF());
+    });
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> reserve(long transferId, String accountFromId, BigDecimal transferAmountValue) {
+    return call(() -> {
+      out.writeByte(RESERVE);
+      out.writeLong(transferId);
+      out.writeUTF(accountFromId);
+      out.writeUTF(transferAmountValue.toString());
+      out.flush();
+      return TransferStatus.valueOf(in.readUTF());
+    });
+  }
+
+  @Override
+  public CompletableFuture<TransferStatus> prepareCredit(long transferId, String accountToId, BigDecimal transferAmountValue) {
+    return call(() -> {
+      out.writeByte(PREPARE_CREDIT);
+      out.writeLong(transferId);
+      out.writeUTF(accountToId);
+      out.writeUTF(transferAmountValue.toString());
+      out.flush();
+      return TransferStatus.valueOf(in.readUTF());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> commit(long transferId) {
+    return call(() -> {
+      out.writeByte(COMMIT);
+      out.writeLong(transferId);
+      out.flush();
+      return in.readByte() != EXPIRED;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> abort(long transferId) {
+    return call(() -> {
+      out.writeByte(ABORT);
+      out.writeLong(transferId);
+      out.flush();
+      in.readByte();
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> clear() {
+    return call(() -> {
+      out.writeByte(CLEAR);
+      out.flush();
+      in.readByte();
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<String>> accountIds() {
+    return call(() -> {
+      out.writeByte(ACCOUNT_IDS);
+      out.flush();
+      int accountCount = in.readInt();
+      List<String> accountIds = new ArrayList<>(accountCount);
+      for (int i = 0; i < accountCount; i++) {
+        accountIds.add(in.readUTF());
+      }
+      return accountIds;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> adjustBalance(String accountId, BigDecimal expectedBalance, BigDecimal adjustment) {
+    return call(() -> {
+      out.writeByte(ADJUST_BALANCE);
+      out.writeUTF(accountId);
+      out.writeUTF(expectedBalance.toString());
+      out.writeUTF(adjustment.toString());
+      out.flush();
+      return in.readByte() != BALANCE_CHANGED;
+    });
+  }
+
+  /**
+   * Disconnects after the calls already queued.
+   */
+  @Override
+  public void close() {
+    CompletableFuture<Void> disconnected = CompletableFuture.runAsync(this::disconnect, executor);
+    executor.shutdown();
+    disconnected.join();
+  }
+
+  private <T> CompletableFuture<T> call(IoCall<T> ioCall) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        connectIfNeeded();
+        return ioCall.call();
+      } catch (IOException ioe) {
+        disconnect();
+        throw new UncheckedIOException(ioe);
+      }
+    }, executor);
+  }
+
+  private void connectIfNeeded() throws IOException {
+    if (socket != null) {
+      return;
+    }
+    Socket connection = new Socket();
+    try {
+      connection.setTcpNoDelay(true);
+      connection.setSoTimeout(ioTimeoutMillis);
+      connection.connect(address, ioTimeoutMillis);
+      in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+    } catch (IOException ioe) {
+      connection.close();
+      throw ioe;
+    }
+    socket = connection;
+  }
+
+  private void disconnect() {
+    if (socket == null) {
+      return;
+    }
+    try {
+      socket.close();
+    } catch (IOException ioe) {
+      // Already unusable.
+    }
+    socket = null;
+    in = null;
+    out = null;
+  }
+
+  @FunctionalInterface
+  private interface IoCall<T> {
+
+    T call() throws IOException;
+  }
+}
@@ -0,0 +1,425 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.TransferStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies transfers to a {@link BalanceLedger} on single writer threads instead of under locks.
+ * Transfers are partitioned by the sender's slot and every partition has its own
+ * {@link TransferRingBuffer} and writer thread, so all debits of an account happen on one
+ * thread, in the order the transfers were published. Credits to another partition's accounts
+ * are atomic adds, which commute with that partition's debits. The order in which each writer
+ * applies transfers is the audit order and is reported, sequence by sequence, to the
+ * {@link SequencedTransferListener}. Balance adjustments go through the same rings, to the
+ * account's partition, so an account's adjustments and debits are applied and reported in one
+ * order. A listener failure stops the engine from applying any further transfer.
+ */
+@Slf4j
+public class SequencedTransferEngine {
+
+  private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final BalanceLedger ledger;
+
+  private final SequencedTransferListener listener;
+
+  private final Partition[] partitions;
+
+  private volatile boolean running;
+
+  /**
+   * First listener failure; once set, no writer applies another transfer.
+   */
+  private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+  public SequencedTransferEngine(BalanceLedger ledger, int partitionCount, int ringCapacity, SequencedTransferListener listener) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("Partition count must be at least 1 but was " + partitionCount);
+    }
+    this.ledger = ledger;
+    this.listener = listener;
+    this.partitions = new Partition[partitionCount];
+    for (int partition = 0; partition < partitionCount; partition++) {
+      partitions[partition] = new Partition(partition, ringCapacity);
+    }
+  }
+
+  public void start() {
+    running = true;
+    for (Partition partition : partitions) {
+      Thread writerThread = new Thread(partition::run, "transfer-sequencer-" + partition.index);
+      writerThread.setDaemon(true);
+      partition.writerThread = writerThread;
+      partition.ring.setConsumerThread(writerThread);
+      writerThread.start();
+    }
+  }
+
+  /**
+   * Stops the writers once every transfer submitted so far has been applied. Each writer
+   * closes its ring before it exits, so a submission racing the stop either gets in and is
+   * applied, or is refused; none is left waiting.
+   */
+  public void stop() throws InterruptedException {
+    running = false;
+    for (Partition partition : partitions) {
+      if (partition.writerThread != null) {
+        partition.writerThread.interrupt();
+        partition.writerThread.join(TimeUnit.SECONDS.toMillis(5));
+      }
+    }
+  }
+
+  public int getPartitionCount() {
+    return partitions.length;
+  }
+
+  /**
+   * The listener failure that stopped the engine, or null.
+   */
+  public RuntimeException getFailure() {
+    return failure.get();
+  }
+
+  /**
+   * Validates the transfer on the calling thread and queues it for the sender's partition.
+   * Requests that cannot succeed complete immediately without entering the ring.
+   */
+  public CompletableFuture<TransferStatus> submit(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    long generation = ledger.getGeneration();
+    int fromSlot = accountFromId != null ? ledger.slotOf(accountFromId) : -1;
+    int toSlot = accountToId != null ? ledger.slotOf(accountToId) : -1;
+    if (fromSlot < 0 || toSlot < 0) {
+      return CompletableFuture.completedFuture(TransferStatus.ACCOUNT_NOT_FOUND);
+    }
+    if (transferAmountValue == null) {
+      return CompletableFuture.completedFuture(TransferStatus.INVALID_AMOUNT);
+    }
+    long minorUnits;
+    try {
+      minorUnits = ledger.toMinorUnits(transferAmountValue);
+    } catch (IllegalArgumentException iae) {
+      return CompletableFuture.completedFuture(TransferStatus.INVALID_AMOUNT);
+    }
+    if (minorUnits < ledger.getMinimumTransferMinorUnits()) {
+      return CompletableFuture.completedFuture(TransferStatus.BELOW_MINIMUM_AMOUNT);
+    }
+    RuntimeException listenerFailure = failure.get();
+    if (listenerFailure != null) {
+      throw new IllegalStateException("The transfer sequencer stopped after a listener failure", listenerFailure);
+    }
+    CompletableFuture<TransferStatus> future = new CompletableFuture<>();
+    if (!running || !partitions[fromSlot % partitions.length].ring.publish(accountFromId, accountToId, fromSlot, toSlot, generation, minorUnits, future)) {
+      throw new IllegalStateException("The transfer sequencer is not running");
+    }
+    return future;
+  }
+
+  /**
+   * Queues a balance adjustment of one account for its partition. The future yields the
+   * account's tally; it completes exceptionally if {@code adjustment} throws, and is empty when
+   * the account does not exist.
+   */
+  CompletableFuture<BalanceAdjustmentTally> submitAdjustment(String accountId, BalanceAdjustment adjustment) {
+    long generation = ledger.getGeneration();
+    int slot = accountId != null ? ledger.slotOf(accountId) : -1;
+    if (slot < 0) {
+      return CompletableFuture.completedFuture(new BalanceAdjustmentTally());
+    }
+    RuntimeException listenerFailure = failure.get();
+    if (listenerFailure != null) {
+      throw new IllegalStateException("The transfer sequencer stopped after a listener failure", listenerFailure);
+    }
+    CompletableFuture<BalanceAdjustmentTally> future = new CompletableFuture<>();
+    if (!running || !partitions[slot % partitions.length].ring.publishAdjustment(accountId, slot, generation, adjustment, future)) {
+      throw new IllegalStateException("The transfer sequencer is not running");
+    }
+    return future;
+  }
+
+  /**
+   * Runs {@code action} while every writer is held at a barrier published to its ring, so each
+   * command published before the call has been applied and reported first and none is applied
+   * meanwhile. Commands whose slots were resolved before a {@link BalanceLedger#clear()} in the
+   * action are refused as if their accounts did not exist, since the slots may be reused.
+   */
+  public void runBetweenCommands(Runnable action) {
+    CountDownLatch arrived = new CountDownLatch(partitions.length);
+    CountDownLatch released = new CountDownLatch(1);
+    Runnable barrier = () -> {
+      arrived.countDown();
+      awaitUninterruptibly(released);
+    };
+    try {
+      for (Partition partition : partitions) {
+        // A closed ring belongs to a writer that has applied everything and exited.
+        if (!partition.ring.publishBarrier(barrier)) {
+          arrived.countDown();
+        }
+      }
+      awaitUninterruptibly(arrived);
+      action.run();
+    } finally {
+      released.countDown();
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void fail(int partition, long sequence, RuntimeException listenerFailure) {
+    failure.compareAndSet(null, listenerFailure);
+    log.error("Transfer listener failed at sequence {} of partition {}; no further transfers are applied", sequence, partition, listenerFailure);
+  }
+
+  private final class Partition {
+
+    private final int index;
+
+    private final TransferRingBuffer ring;
+
+    /**
+     * Futures and results of the batch being applied, copied out of the ring so its slots can
+     * be released before the callers are woken.
+     */
+    private final CompletableFuture<TransferStatus>[] batchFutures;
+
+    private final TransferStatus[] batchStatuses;
+
+    private final CompletableFuture<BalanceAdjustmentTally>[] batchAdjustmentFutures;
+
+    private final BalanceAdjustmentTally[] batchAdjustmentTallies;
+
+    /**
+     * Exceptions thrown by an adjustment itself; they fail only that adjustment.
+     */
+    private final RuntimeException[] batchAdjustmentErrors;
+
+    private Thread writerThread;
+
+    @SuppressWarnings("unchecked")
+    private Partition(int index, int ringCapacity) {
+      this.index = index;
+      this.ring = new TransferRingBuffer(ringCapacity);
+      this.batchFutures = new CompletableFuture[ring.capacity()];
+      this.batchStatuses = new TransferStatus[ring.capacity()];
+      this.batchAdjustmentFutures = new CompletableFuture[ring.capacity()];
+      this.batchAdjustmentTallies = new BalanceAdjustmentTally[ring.capacity()];
+      this.batchAdjustmentErrors = new RuntimeException[ring.capacity()];
+    }
+
+    private void run() {
+      long nextSequence = 0;
+      long lastClaimedSequence = Long.MAX_VALUE;
+      while (true) {
+        long lastSequence = ring.highestPublished(nextSequence);
+        if (lastSequence < nextSequence) {
+          if (!running) {
+            if (lastClaimedSequence == Long.MAX_VALUE) {
+              lastClaimedSequence = ring.close();
+            }
+            if (nextSequence > lastClaimedSequence) {
+              return;
+            }
+          }
+          ring.awaitPublished(nextSequence, WRITER_PARK_NANOS);
+          continue;
+        }
+        int batchSize = (int) (lastSequence - nextSequence + 1);
+        // Transfers are applied and reported while none has failed; the rest are only collected.
+        int reportedCount = 0;
+        for (long sequence = nextSequence; sequence <= lastSequence; sequence++) {
+          TransferRingBuffer.TransferCommand command = ring.commandAt(sequence);
+          int batchIndex = (int) (sequence - nextSequence);
+          if (command.barrier != null) {
+            // Barriers are honoured even after a listener failure, or their caller would wait forever.
+            command.barrier.run();
+            command.barrier = null;
+            if (reportedCount == batchIndex) {
+              reportedCount++;
+            }
+          } else if (reportedCount == batchIndex && failure.get() == null) {
+            if (command.adjustment != null) {
+              if (adjustAndReport(sequence, command, batchIndex)) {
+                reportedCount++;
+              }
+            } else {
+              TransferStatus status = applyAndReport(sequence, command);
+              if (status != null) {
+                batchStatuses[batchIndex] = status;
+                reportedCount++;
+              }
+            }
+          }
+          batchFutures[batchIndex] = command.future;
+          batchAdjustmentFutures[batchIndex] = command.adjustmentFuture;
+          command.future = null;
+          command.adjustment = null;
+          command.adjustmentFuture = null;
+        }
+        if (reportedCount > 0) {
+          long lastReportedSequence = nextSequence + reportedCount - 1;
+          try {
+            listener.onEndOfBatch(index, lastReportedSequence);
+          } catch (RuntimeException re) {
+            fail(index, lastReportedSequence, re);
+            reportedCount = 0;
+          }
+        }
+        ring.release(lastSequence);
+        for (int batchIndex = 0; batchIndex < batchSize; batchIndex++) {
+          complete(batchIndex, batchIndex < reportedCount);
+        }
+        nextSequence = lastSequence + 1;
+      }
+    }
+
+    private void complete(int batchIndex, boolean reported) {
+      CompletableFuture<TransferStatus> future = batchFutures[batchIndex];
+      CompletableFuture<BalanceAdjustmentTally> adjustmentFuture = batchAdjustmentFutures[batchIndex];
+      if (future != null) {
+        if (reported) {
+          future.complete(batchStatuses[batchIndex]);
+        } else {
+          future.completeExceptionally(failure.get());
+        }
+      } else if (adjustmentFuture == null) {
+        // A barrier; its caller was released when it ran.
+      } else if (!reported) {
+        adjustmentFuture.completeExceptionally(failure.get());
+      } else if (batchAdjustmentErrors[batchIndex] != null) {
+        adjustmentFuture.completeExceptionally(batchAdjustmentErrors[batchIndex]);
+      } else {
+        adjustmentFuture.complete(batchAdjustmentTallies[batchIndex]);
+      }
+      batchFutures[batchIndex] = null;
+      batchAdjustmentFutures[batchIndex] = null;
+      batchAdjustmentTallies[batchIndex] = null;
+      batchAdjustmentErrors[batchIndex] = null;
+    }
+
+    /**
+     * Debits the sender, reports the outcome and only then credits the receiver, so a transfer
+     * the listener failed to record is undone by refunding the sender, whose balance only this
+     * writer debits. Returns null if the listener failed.
+     */
+    private TransferStatus applyAndReport(long sequence, TransferRingBuffer.TransferCommand command) {
+      TransferStatus status = debit(command);
+      try {
+        listener.onTransfer(index, sequence, command.accountFromId, command.accountToId, command.minorUnits, status);
+      } catch (RuntimeException re) {
+        if (status == TransferStatus.COMPLETED) {
+          credit(command.fromSlot, command.minorUnits);
+        }
+        fail(index, sequence, re);
+        return null;
+      }
+      if (status == TransferStatus.COMPLETED) {
+        credit(command.toSlot, command.minorUnits);
+      }
+      return status;
+    }
+
+    /**
+     * Applies the adjustment against the account's current balance and reports it, undoing
+     * it if the listener fails. Other partitions may credit the account meanwhile, so the new
+     * balance is set with a CAS and the adjustment recomputed if it lost. Returns false if the
+     * listener failed.
+     */
+    private boolean adjustAndReport(long sequence, TransferRingBuffer.TransferCommand command, int batchIndex) {
+      BalanceAdjustmentTally tally = new BalanceAdjustmentTally();
+      long amountMinorUnits;
+      try {
+        amountMinorUnits = adjust(command, tally);
+      } catch (IndexOutOfBoundsException ioobe) {
+        // The ledger was cleared after the adjustment was queued; there is no account left.
+        amountMinorUnits = 0;
+      } catch (RuntimeException re) {
+        batchAdjustmentErrors[batchIndex] = re;
+        return true;
+      }
+      if (amountMinorUnits != 0) {
+        try {
+          listener.onBalanceAdjusted(index, sequence, command.accountFromId, amountMinorUnits);
+        } catch (RuntimeException re) {
+          credit(command.fromSlot, -amountMinorUnits);
+          fail(index, sequence, re);
+          return false;
+        }
+      }
+      batchAdjustmentTallies[batchIndex] = tally;
+      return true;
+    }
+
+    /**
+     * Returns the minor units applied, rounded half-even to the ledger's scale, or 0 if the
+     * account was left alone.
+     */
+    private long adjust(TransferRingBuffer.TransferCommand command, BalanceAdjustmentTally tally) {
+      if (command.generation != ledger.getGeneration()) {
+        return 0;
+      }
+      while (true) {
+        long balance = ledger.balanceAt(command.fromSlot);
+        tally.accountsVisited = 1;
+        BigDecimal amount = command.adjustment.adjustmentFor(command.accountFromId, ledger.fromMinorUnits(balance));
+        long amountMinorUnits = amount != null ? amount.setScale(ledger.getScale(), RoundingMode.HALF_EVEN).unscaledValue().longValueExact() : 0L;
+        if (amountMinorUnits == 0) {
+          return 0;
+        }
+        if (balance + amountMinorUnits < 0) {
+          tally.accountsRejected++;
+          return 0;
+        }
+        if (ledger.compareAndSet(command.fromSlot, balance, balance + amountMinorUnits)) {
+          tally.adjusted(ledger.fromMinorUnits(amountMinorUnits));
+          return amountMinorUnits;
+        }
+      }
+    }
+
+    /**
+     * A slot can disappear or be reused between validation and application only when the
+     * ledger is cleared, which is reported as the account not being found.
+     */
+    private TransferStatus debit(TransferRingBuffer.TransferCommand command) {
+      if (command.generation != ledger.getGeneration()) {
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      }
+      try {
+        return command.minorUnits >= ledger.getMinimumTransferMinorUnits() && ledger.tryDebit(command.fromSlot, command.minorUnits)
+          ? TransferStatus.COMPLETED : TransferStatus.INSUFFICIENT_BALANCE;
+      } catch (IndexOutOfBoundsException ioobe) {
+        return TransferStatus.ACCOUNT_NOT_FOUND;
+      }
+    }
+
+    private void credit(int slot, long minorUnits) {
+      try {
+        ledger.credit(slot, minorUnits);
+      } catch (IndexOutOfBoundsException ioobe) {
+        // The ledger was cleared after the debit; there is no account left to credit.
+      }
+    }
+  }
+}
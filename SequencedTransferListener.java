@@ -0,0 +1,29 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferStatus;
+
+/**
+ * Downstream consumer of a {@link SequencedTransferEngine} partition, called on the partition's
+ * writer thread in sequence order once each transfer's outcome is decided: after the sender
+ * has been debited and before the receiver is credited. Callers' futures are completed only
+ * after {@link #onEndOfBatch} returns, so a listener that journals transfers can make a whole
+ * batch durable with one write and one sync before any caller sees a result. Balance
+ * adjustments are reported the same way with {@link #onBalanceAdjusted}, after the new balance
+ * has been set; adjustments that change nothing are not reported.
+ * <p>
+ * A listener failure is fatal to the engine. If {@link #onTransfer} or
+ * {@link #onBalanceAdjusted} throws, the debit or adjustment is undone and neither that transfer nor any later one is applied; they complete exceptionally
+ * with the exception. The transfers reported before it are still ended with
+ * {@link #onEndOfBatch} and complete with their status if that succeeds. If
+ * {@link #onEndOfBatch} throws, the batch's transfers stay applied but complete exceptionally,
+ * since whether they were recorded is unknown.
+ */
+public interface SequencedTransferListener {
+
+  void onTransfer(int partition, long sequence, String accountFromId, String accountToId, long minorUnits, TransferStatus status);
+
+  default void onBalanceAdjusted(int partition, long sequence, String accountId, long minorUnits) {
+  }
+
+  void onEndOfBatch(int partition, long sequence);
+}
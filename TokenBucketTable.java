@@ -0,0 +1,74 @@
+package com.dws.challenge.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets for an unbounded key space in fixed memory. Keys are hashed onto a fixed number
+ * of slots and each slot is one {@code long}: the bucket's theoretical arrival time (the generic
+ * cell rate algorithm), which is equivalent to a token bucket refilled at {@code ratePerSecond}
+ * holding up to {@code burst} tokens. Taking a token is a single CAS on the slot. Keys that
+ * share a slot share its bucket, so a collision can only make a limit stricter, never looser.
+ */
+public class TokenBucketTable {
+
+  private final AtomicLongArray arrivalTimes;
+
+  private final int slotMask;
+
+  private final long emissionIntervalNanos;
+
+  private final long burstNanos;
+
+  private final long epochNanos = System.nanoTime();
+
+  public TokenBucketTable(int slotCount, double ratePerSecond, int burst) {
+    if (ratePerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+    }
+    int size = Integer.highestOneBit(Math.max(1, slotCount));
+    if (size < slotCount) {
+      size <<= 1;
+    }
+    this.arrivalTimes = new AtomicLongArray(size);
+    this.slotMask = size - 1;
+    this.emissionIntervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+    this.burstNanos = emissionIntervalNanos * burst;
+  }
+
+  /**
+   * Takes one token from the key's bucket. Returns 0 if it was taken, otherwise the nanoseconds
+   * until one will be available; nothing is taken then.
+   */
+  public long tryAcquire(String key) {
+    int slot = slotOf(key);
+    long now = System.nanoTime() - epochNanos;
+    while (true) {
+      long arrivalTime = arrivalTimes.get(slot);
+      long nextArrivalTime = Math.max(arrivalTime, now) + emissionIntervalNanos;
+      long allowedAt = nextArrivalTime - burstNanos;
+      if (allowedAt > now) {
+        return allowedAt - now;
+      }
+      if (arrivalTimes.compareAndSet(slot, arrivalTime, nextArrivalTime)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Puts back a token taken by {@link #tryAcquire(String)} for a request that was not admitted
+   * after all.
+   */
+  public void refund(String key) {
+    arrivalTimes.addAndGet(slotOf(key), -emissionIntervalNanos);
+  }
+
+  public int slotCount() {
+    return arrivalTimes.length();
+  }
+
+  private int slotOf(String key) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & slotMask;
+  }
+}
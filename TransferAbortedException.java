@@ -0,0 +1,8 @@
+package com.dws.challenge.exception;
+
+public class TransferAbortedException extends RuntimeException {
+
+  public TransferAbortedException(String message) {
+    super(message);
+  }
+}
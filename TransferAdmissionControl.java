@@ -0,0 +1,201 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.metrics.TransferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control in front of every transfer {@link AccountsService} runs, whichever endpoint
+ * it came from. A transfer is admitted only if its client's token bucket, its source account's
+ * token bucket and the adaptive concurrency limit all have room; otherwise it is rejected at
+ * once, with a hint of when a retry can succeed, and takes nothing from the limits it passed.
+ * Batches take one concurrency slot per chunk and the rate limits per transfer. Each limit is off unless configured:
+ * {@code accounts.admission.client.rate-per-second} / {@code burst},
+ * {@code accounts.admission.account.rate-per-second} / {@code burst} and
+ * {@code accounts.admission.concurrency.max-limit}. Bucket state lives in fixed tables of
+ * {@code accounts.admission.slots} entries, so memory does not grow with the number of clients
+ * or accounts.
+ */
+@Component
+public class TransferAdmissionControl {
+
+  public enum Rejection {
+
+    CLIENT_RATE,
+
+    ACCOUNT_RATE,
+
+    CONCURRENCY
+  }
+
+  private final TokenBucketTable clientBuckets;
+
+  private final TokenBucketTable accountBuckets;
+
+  private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+  private final LongAdder[] rejections = new LongAdder[Rejection.values().length];
+
+  public TransferAdmissionControl(TokenBucketTable clientBuckets, TokenBucketTable accountBuckets,
+    AdaptiveConcurrencyLimit concurrencyLimit) {
+    this.clientBuckets = clientBuckets;
+    this.accountBuckets = accountBuckets;
+    this.concurrencyLimit = concurrencyLimit;
+    for (int i = 0; i < rejections.length; i++) {
+      rejections[i] = new LongAdder();
+    }
+  }
+
+  @Autowired
+  public TransferAdmissionControl(@Value("${accounts.admission.slots:262144}") int slots,
+    @Value("${accounts.admission.client.rate-per-second:0}") double clientRatePerSecond,
+    @Value("${accounts.admission.client.burst:100}") int clientBurst,
+    @Value("${accounts.admission.account.rate-per-second:0}") double accountRatePerSecond,
+    @Value("${accounts.admission.account.burst:20}") int accountBurst,
+    @Value("${accounts.admission.concurrency.initial-limit:64}") int initialConcurrencyLimit,
+    @Value("${accounts.admission.concurrency.min-limit:8}") int minConcurrencyLimit,
+    @Value("${accounts.admission.concurrency.max-limit:0}") int maxConcurrencyLimit,
+    @Value("${accounts.admission.concurrency.window-ms:100}") long concurrencyWindowMillis) {
+    this(clientRatePerSecond > 0 ? new TokenBucketTable(slots, clientRatePerSecond, clientBurst) : null,
+      accountRatePerSecond > 0 ? new TokenBucketTable(slots, accountRatePerSecond, accountBurst) : null,
+      maxConcurrencyLimit > 0 ? new AdaptiveConcurrencyLimit(initialConcurrencyLimit, minConcurrencyLimit, maxConcurrencyLimit,
+        TimeUnit.MILLISECONDS.toNanos(concurrencyWindowMillis)) : null);
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.admission.rejected.client-rate", rejections[Rejection.CLIENT_RATE.ordinal()]::sum);
+    transferMetrics.registerGauge("accounts.admission.rejected.account-rate", rejections[Rejection.ACCOUNT_RATE.ordinal()]::sum);
+    transferMetrics.registerGauge("accounts.admission.rejected.concurrency", rejections[Rejection.CONCURRENCY.ordinal()]::sum);
+    if (concurrencyLimit != null) {
+      transferMetrics.registerGauge("accounts.admission.concurrency.limit", concurrencyLimit::getLimit);
+    }
+  }
+
+  /**
+   * Admits or rejects a transfer. {@code clientId} must identify the caller by something it
+   * cannot choose, such as its remote address or authenticated principal; null skips the client
+   * limit. An admitted transfer must be passed to {@link #release(Admission, long)} when it
+   * finishes.
+   */
+  public Admission tryAdmit(String clientId, String accountFromId) {
+    Admission rateAdmission = tryAdmitRate(clientId, accountFromId);
+    if (!rateAdmission.isAdmitted() || concurrencyLimit == null) {
+      return rateAdmission;
+    }
+    if (!concurrencyLimit.tryAcquire()) {
+      refundClient(clientId);
+      if (accountBuckets != null && accountFromId != null) {
+        accountBuckets.refund(accountFromId);
+      }
+      return rejectForConcurrency();
+    }
+    return Admission.ADMITTED_WITH_CONCURRENCY_SLOT;
+  }
+
+  /**
+   * Checks only the client and account rates, for a transfer inside a chunk that
+   * {@link #tryAdmitChunk()} admitted. The result never needs releasing.
+   */
+  public Admission tryAdmitRate(String clientId, String accountFromId) {
+    if (clientBuckets != null && clientId != null) {
+      long waitNanos = clientBuckets.tryAcquire(clientId);
+      if (waitNanos > 0) {
+        return reject(Rejection.CLIENT_RATE, waitNanos);
+      }
+    }
+    if (accountBuckets != null && accountFromId != null) {
+      long waitNanos = accountBuckets.tryAcquire(accountFromId);
+      if (waitNanos > 0) {
+        refundClient(clientId);
+        return reject(Rejection.ACCOUNT_RATE, waitNanos);
+      }
+    }
+    return Admission.ADMITTED;
+  }
+
+  /**
+   * Takes one concurrency slot for a chunk of a batch, which the repository applies as one
+   * operation. Must be passed to {@link #release(Admission, long)} like a single admission.
+   */
+  public Admission tryAdmitChunk() {
+    if (concurrencyLimit == null) {
+      return Admission.ADMITTED;
+    }
+    if (!concurrencyLimit.tryAcquire()) {
+      return rejectForConcurrency();
+    }
+    return Admission.ADMITTED_WITH_CONCURRENCY_SLOT;
+  }
+
+  public void release(Admission admission, long startNanos) {
+    if (admission.holdsConcurrencySlot) {
+      concurrencyLimit.release(System.nanoTime() - startNanos);
+    }
+  }
+
+  public long getRejections(Rejection rejection) {
+    return rejections[rejection.ordinal()].sum();
+  }
+
+  public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  private void refundClient(String clientId) {
+    if (clientBuckets != null && clientId != null) {
+      clientBuckets.refund(clientId);
+    }
+  }
+
+  private Admission rejectForConcurrency() {
+    return reject(Rejection.CONCURRENCY, Math.max(1, concurrencyLimit.getAverageLatencyNanos()));
+  }
+
+  private Admission reject(Rejection rejection, long retryAfterNanos) {
+    rejections[rejection.ordinal()].increment();
+    return new Admission(rejection, retryAfterNanos, false);
+  }
+
+  /**
+   * Outcome of {@link #tryAdmit(String, String)} and its variants. Admissions are shared constants; only
+   * rejections allocate.
+   */
+  public static final class Admission {
+
+    private static final Admission ADMITTED = new Admission(null, 0, false);
+
+    private static final Admission ADMITTED_WITH_CONCURRENCY_SLOT = new Admission(null, 0, true);
+
+    private final Rejection rejection;
+
+    private final long retryAfterNanos;
+
+    private final boolean holdsConcurrencySlot;
+
+    private Admission(Rejection rejection, long retryAfterNanos, boolean holdsConcurrencySlot) {
+      this.rejection = rejection;
+      this.retryAfterNanos = retryAfterNanos;
+      this.holdsConcurrencySlot = holdsConcurrencySlot;
+    }
+
+    public boolean isAdmitted() {
+      return rejection == null;
+    }
+
+    /**
+     * Which limit rejected the transfer, or null if it was admitted.
+     */
+    public Rejection getRejection() {
+      return rejection;
+    }
+
+    public long getRetryAfterNanos() {
+      return retryAfterNanos;
+    }
+  }
+}
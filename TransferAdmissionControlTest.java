@@ -0,0 +1,148 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.exception.TransferRejectedException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.AdaptiveConcurrencyLimit;
+import com.dws.challenge.service.TokenBucketTable;
+import com.dws.challenge.service.TransferAdmissionControl;
+import com.dws.challenge.service.TransferAdmissionControl.Admission;
+import com.dws.challenge.service.TransferAdmissionControl.Rejection;
+import org.junit.jupiter.api.Test;
+
+class TransferAdmissionControlTest {
+
+  @Test
+  void tokenBucketAdmitsBurstThenRejectsWithRetryHint() {
+    TokenBucketTable tokenBucketTable = new TokenBucketTable(1024, 1, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(tokenBucketTable.tryAcquire("Id-1")).isEqualTo(0L);
+    }
+    long waitNanos = tokenBucketTable.tryAcquire("Id-1");
+    assertThat(waitNanos).isGreaterThan(0L);
+    assertThat(waitNanos).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+
+    tokenBucketTable.refund("Id-1");
+    assertThat(tokenBucketTable.tryAcquire("Id-1")).isEqualTo(0L);
+  }
+
+  @Test
+  void tokenBucketTableIsBoundedByItsSlotCount() {
+    TokenBucketTable tokenBucketTable = new TokenBucketTable(1000, 1000, 1000);
+
+    assertThat(tokenBucketTable.slotCount()).isEqualTo(1024);
+    for (int i = 0; i < 100_000; i++) {
+      tokenBucketTable.tryAcquire("Id-" + i);
+    }
+    assertThat(tokenBucketTable.slotCount()).isEqualTo(1024);
+  }
+
+  @Test
+  void accountRateRejectionRefundsTheClientBucket() {
+    TransferAdmissionControl admissionControl = new TransferAdmissionControl(
+      new TokenBucketTable(1024, 1, 2), new TokenBucketTable(1024, 1, 1), null);
+
+    Admission admitted = admissionControl.tryAdmit("client", "Id-1");
+    Admission rejected = admissionControl.tryAdmit("client", "Id-1");
+
+    assertThat(admitted.isAdmitted()).isTrue();
+    assertThat(rejected.isAdmitted()).isFalse();
+    assertThat(rejected.getRejection()).isEqualTo(Rejection.ACCOUNT_RATE);
+    assertThat(rejected.getRetryAfterNanos()).isGreaterThan(0L);
+    // The client's second token was given back, so another account is still admitted.
+    assertThat(admissionControl.tryAdmit("client", "Id-2").isAdmitted()).isTrue();
+    assertThat(admissionControl.tryAdmit("client", "Id-3").getRejection()).isEqualTo(Rejection.CLIENT_RATE);
+    assertThat(admissionControl.getRejections(Rejection.ACCOUNT_RATE)).isEqualTo(1L);
+    assertThat(admissionControl.getRejections(Rejection.CLIENT_RATE)).isEqualTo(1L);
+  }
+
+  @Test
+  void concurrencyLimitRejectsUntilASlotIsReleased() {
+    TransferAdmissionControl admissionControl = new TransferAdmissionControl(null, null,
+      new AdaptiveConcurrencyLimit(2, 1, 2, TimeUnit.SECONDS.toNanos(10)));
+
+    Admission first = admissionControl.tryAdmit("client", "Id-1");
+    Admission second = admissionControl.tryAdmit("client", "Id-2");
+    Admission third = admissionControl.tryAdmit("client", "Id-3");
+
+    assertThat(first.isAdmitted()).isTrue();
+    assertThat(second.isAdmitted()).isTrue();
+    assertThat(third.getRejection()).isEqualTo(Rejection.CONCURRENCY);
+    assertThat(third.getRetryAfterNanos()).isGreaterThan(0L);
+
+    admissionControl.release(first, System.nanoTime());
+    assertThat(admissionControl.getConcurrencyLimit().getInFlight()).isEqualTo(1);
+    assertThat(admissionControl.tryAdmit("client", "Id-3").isAdmitted()).isTrue();
+  }
+
+  @Test
+  void concurrencyLimitShrinksWhenLatencyRises() {
+    AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit(100, 4, 200, 0);
+
+    for (int window = 0; window < 5; window++) {
+      assertThat(concurrencyLimit.tryAcquire()).isTrue();
+      concurrencyLimit.release(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    int limitAtNoLoad = concurrencyLimit.getLimit();
+    for (int window = 0; window < 20; window++) {
+      assertThat(concurrencyLimit.tryAcquire()).isTrue();
+      concurrencyLimit.release(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    assertThat(concurrencyLimit.getLimit()).isLessThan(limitAtNoLoad);
+    assertThat(concurrencyLimit.getLimit()).isGreaterThanOrEqualTo(4);
+  }
+
+  @Test
+  void serviceRejectsTransfersOverTheClientRate() {
+    AccountsService accountsService = serviceWithAdmission(new TransferAdmissionControl(
+      new TokenBucketTable(1024, 1, 1), null, null));
+
+    assertThat(accountsService.transferAmount("10.0.0.1", "Id-1", "Id-2", BigDecimal.ONE)).isEqualTo(TransferStatus.COMPLETED);
+    TransferRejectedException rejected = assertThrows(TransferRejectedException.class,
+      () -> accountsService.transferAmount("10.0.0.1", "Id-1", "Id-2", BigDecimal.ONE));
+
+    assertThat(rejected.getRejection()).isEqualTo(Rejection.CLIENT_RATE);
+    assertThat(rejected.getRetryAfterNanos()).isGreaterThan(0L);
+    assertThat(accountsService.transferAmount("10.0.0.2", "Id-1", "Id-2", BigDecimal.ONE)).isEqualTo(TransferStatus.COMPLETED);
+    assertThat(accountsService.getTransferMetrics().getOutcomeCount(TransferStatus.REJECTED)).isEqualTo(1L);
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("102");
+  }
+
+  @Test
+  void batchTransfersAreAdmittedOneByOne() {
+    AccountsService accountsService = serviceWithAdmission(new TransferAdmissionControl(
+      null, new TokenBucketTable(1024, 1, 1), new AdaptiveConcurrencyLimit(1, 1, 1, TimeUnit.SECONDS.toNanos(10))));
+
+    List<TransferResult> transferResults = accountsService.transferAmountsInBatch("10.0.0.1", Arrays.asList(
+      new TransferRequest("Id-1", "Id-2", BigDecimal.ONE),
+      new TransferRequest("Id-1", "Id-2", BigDecimal.ONE),
+      new TransferRequest("Id-2", "Id-1", BigDecimal.TEN)).iterator());
+
+    assertThat(transferResults.stream().map(TransferResult::getStatus).collect(Collectors.toList())).containsExactly(
+      TransferStatus.COMPLETED, TransferStatus.REJECTED, TransferStatus.COMPLETED);
+    assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("109");
+  }
+
+  private static AccountsService serviceWithAdmission(TransferAdmissionControl admissionControl) {
+    AccountsService accountsService = new AccountsService(new AccountsRepositoryInMemory());
+    accountsService.setTransferAdmissionControl(admissionControl);
+    accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+    return accountsService;
+  }
+}
@@ -0,0 +1,331 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BalanceSnapshot;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryJournaled;
+import com.dws.challenge.repository.AccountsRepositoryLedger;
+import com.dws.challenge.repository.AccountsRepositoryPartitioned;
+import com.dws.challenge.repository.AccountsRepositorySequenced;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.TransferJournal;
+import com.dws.challenge.service.AccountsService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Concurrency checks for the transfer paths of every repository implementation, through
+ * {@link AccountsService}: jcstress-style races between two transfers (see
+ * {@link TransferRaceHarness}), randomized multi-threaded invariant checks, opposite-direction
+ * transfers and a throughput floor. Floors are transfers per second for the whole run and can be
+ * overridden per repository with {@code -Dtransfers.throughput-floor.<repository>=...}. The floor
+ * runs in the default test phase with defaults low enough for a slow build agent; it is tagged
+ * {@value #PERFORMANCE_TAG} so a build can raise the floors for, or exclude, just this test.
+ */
+class TransferConcurrencyTest {
+
+  private static final List<String> REPOSITORIES = Arrays.asList("in-memory", "ledger", "journaled", "sequenced", "partitioned");
+
+  private static final int RACE_ROUNDS = 2_000;
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final int THREAD_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int ACCOUNT_COUNT = 1_000;
+
+  private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+  static final String PERFORMANCE_TAG = "performance";
+
+  private static final long THROUGHPUT_RUN_MILLIS = 2_000;
+
+  private static final long THROUGHPUT_WARM_UP_MILLIS = 1_000;
+
+  @TempDir
+  Path journalDirectory;
+
+  @Test
+  void concurrentDebitsOfTheSameBalanceCompleteAtMostOnce() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        Map<String, Integer> outcomes = new TransferRaceHarness<>(RACE_ROUNDS,
+          round -> createAccounts(accountsService, "Race-" + round, "100", "0", "0"), TIMEOUT_MILLIS)
+          .race(ids -> accountsService.transferAmount(ids[0], ids[1], new BigDecimal(100)),
+            ids -> accountsService.transferAmount(ids[0], ids[2], new BigDecimal(100)),
+            ids -> balancesOf(accountsService, ids));
+
+        assertThat(outcomes.keySet()).as(repository).allMatch(outcome ->
+          outcome.equals("COMPLETED, INSUFFICIENT_BALANCE, 0/100/0") || outcome.equals("INSUFFICIENT_BALANCE, COMPLETED, 0/0/100"));
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  @Test
+  void concurrentTransfersInOppositeDirectionsAreNotLost() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        Map<String, Integer> outcomes = new TransferRaceHarness<>(RACE_ROUNDS,
+          round -> createAccounts(accountsService, "Race-" + round, "100", "100"), TIMEOUT_MILLIS)
+          .race(ids -> accountsService.transferAmount(ids[0], ids[1], new BigDecimal(30)),
+            ids -> accountsService.transferAmount(ids[1], ids[0], new BigDecimal(50)),
+            ids -> balancesOf(accountsService, ids));
+
+        assertThat(outcomes.keySet()).as(repository).containsExactly("COMPLETED, COMPLETED, 120/80");
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  @Test
+  void concurrentLegacyTransfersFromTheSameAccountDoNotLoseUpdates() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        Map<String, Integer> outcomes = new TransferRaceHarness<>(RACE_ROUNDS,
+          round -> createAccounts(accountsService, "Race-" + round, "100", "0"), TIMEOUT_MILLIS)
+          .race(ids -> transferAmountBetweenAccounts(accountsService, ids[0], ids[1], BigDecimal.TEN),
+            ids -> transferAmountBetweenAccounts(accountsService, ids[0], ids[1], BigDecimal.TEN),
+            ids -> balancesOf(accountsService, ids));
+
+        assertThat(outcomes.keySet()).as(repository).containsExactly("done, done, 80/20");
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  @Test
+  void randomConcurrentTransfersConserveMoneyAndNeverOverdraw() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        String[] accountIds = new String[ACCOUNT_COUNT];
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+          accountIds[i] = "Id-" + i;
+          accountsService.createAccount(new Account(accountIds[i], INITIAL_BALANCE));
+        }
+
+        AtomicBoolean transfersFinished = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+          workers.add(executor.submit(() -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+              // Amounts up to the whole initial balance, so insufficient balances are common.
+              accountsService.transferAmount(accountIds[random.nextInt(ACCOUNT_COUNT)], accountIds[random.nextInt(ACCOUNT_COUNT)],
+                BigDecimal.valueOf(1 + random.nextInt(1000)));
+            }
+            return null;
+          }));
+        }
+        Future<Integer> reader = executor.submit(() -> {
+          start.await();
+          int negativeReads = 0;
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          while (!transfersFinished.get()) {
+            BalanceSnapshot balanceSnapshot = accountsService.getBalanceSnapshot(accountIds[random.nextInt(ACCOUNT_COUNT)]);
+            if (balanceSnapshot.getBalance().signum() < 0) {
+              negativeReads++;
+            }
+          }
+          return negativeReads;
+        });
+        start.countDown();
+        for (Future<?> worker : workers) {
+          worker.get(5, TimeUnit.MINUTES);
+        }
+        transfersFinished.set(true);
+        executor.shutdown();
+
+        assertThat(reader.get(1, TimeUnit.MINUTES)).as(repository).isEqualTo(0);
+        BigDecimal total = BigDecimal.ZERO;
+        for (String accountId : accountIds) {
+          BigDecimal balance = accountsService.getAccount(accountId).getBalance();
+          assertThat(balance).as(repository).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+          total = total.add(balance);
+        }
+        assertThat(total).as(repository).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNT_COUNT)));
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  @Test
+  void oppositeDirectionTransfersDoNotDeadlock() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        accountsService.createAccount(new Account("Id-A", INITIAL_BALANCE));
+        accountsService.createAccount(new Account("Id-B", INITIAL_BALANCE));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+          workers.add(executor.submit(() -> transferRepeatedly(accountsService, "Id-A", "Id-B")));
+          workers.add(executor.submit(() -> transferRepeatedly(accountsService, "Id-B", "Id-A")));
+        }
+        for (Future<?> worker : workers) {
+          // A deadlock surfaces as a TimeoutException here.
+          worker.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertThat(accountsService.getAccount("Id-A").getBalance().add(accountsService.getAccount("Id-B").getBalance()))
+          .as(repository).isEqualByComparingTo("2000");
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  @Test
+  @Tag(PERFORMANCE_TAG)
+  void transferThroughputStaysAboveFloor() throws Exception {
+    for (String repository : REPOSITORIES) {
+      AccountsService accountsService = new AccountsService(createRepository(repository));
+      try {
+        String[] accountIds = new String[ACCOUNT_COUNT];
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+          accountIds[i] = "Id-" + i;
+          accountsService.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000)));
+        }
+        // Warm up the transfer path before measuring.
+        runTransfersFor(accountsService, accountIds, THROUGHPUT_WARM_UP_MILLIS);
+
+        long transfers = runTransfersFor(accountsService, accountIds, THROUGHPUT_RUN_MILLIS);
+        long transfersPerSecond = transfers * 1000 / THROUGHPUT_RUN_MILLIS;
+
+        assertThat(transfersPerSecond).as(repository + " transfers/s").isGreaterThanOrEqualTo(throughputFloor(repository));
+      } finally {
+        closeRepository(accountsService);
+      }
+    }
+  }
+
+  private static long runTransfersFor(AccountsService accountsService, String[] accountIds, long millis) throws Exception {
+    LongAdder transfers = new LongAdder();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      workers.add(executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+          accountsService.transferAmount(accountIds[random.nextInt(accountIds.length)], accountIds[random.nextInt(accountIds.length)],
+            BigDecimal.ONE);
+          transfers.increment();
+        }
+        return null;
+      }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get(1, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+    return transfers.sum();
+  }
+
+  private static long throughputFloor(String repository) {
+    // Defaults sit an order of magnitude below what a single core manages, so the default build catches
+    // a collapse (a lock held across I/O, a livelock) without flaking on slow or shared CI agents.
+    long defaultFloor = "sequenced".equals(repository) || "partitioned".equals(repository) ? 1_000 : 20_000;
+    return Long.getLong("transfers.throughput-floor." + repository, defaultFloor);
+  }
+
+  private static void transferRepeatedly(AccountsService accountsService, String accountFromId, String accountToId) {
+    for (int i = 0; i < 50_000; i++) {
+      accountsService.transferAmount(accountFromId, accountToId, BigDecimal.ONE);
+    }
+  }
+
+  private static String transferAmountBetweenAccounts(AccountsService accountsService, String accountFromId, String accountToId,
+    BigDecimal transferAmountValue) {
+    ConcurrentHashMap<Account, Account> accountDetails = new ConcurrentHashMap<>();
+    accountDetails.put(accountsService.getAccount(accountFromId), accountsService.getAccount(accountToId));
+    accountsService.transferAmountBetweenAccounts(accountDetails, transferAmountValue);
+    return "done";
+  }
+
+  private static String[] createAccounts(AccountsService accountsService, String prefix, String... balances) {
+    String[] accountIds = new String[balances.length];
+    for (int i = 0; i < balances.length; i++) {
+      accountIds[i] = prefix + "-" + i;
+      accountsService.createAccount(new Account(accountIds[i], new BigDecimal(balances[i])));
+    }
+    return accountIds;
+  }
+
+  private static String balancesOf(AccountsService accountsService, String[] accountIds) {
+    StringBuilder balances = new StringBuilder();
+    for (String accountId : accountIds) {
+      if (balances.length() > 0) {
+        balances.append('/');
+      }
+      balances.append(accountsService.getAccount(accountId).getBalance().stripTrailingZeros().toPlainString());
+    }
+    return balances.toString();
+  }
+
+  private AccountsRepository createRepository(String repository) throws IOException {
+    switch (repository) {
+      case "in-memory":
+        return new AccountsRepositoryInMemory();
+      case "ledger":
+        return new AccountsRepositoryLedger();
+      case "journaled":
+        return new AccountsRepositoryJournaled(new TransferJournal(journalDirectory.resolve(repository + "-" + System.nanoTime()),
+          TransferJournal.DEFAULT_SEGMENT_SIZE, JournalFsyncPolicy.NEVER, 1));
+      case "sequenced":
+        return new AccountsRepositorySequenced(4, 65536);
+      case "partitioned":
+        return new AccountsRepositoryPartitioned(4);
+      default:
+        throw new IllegalArgumentException("Unknown repository " + repository);
+    }
+  }
+
+  private static void closeRepository(AccountsService accountsService) throws Exception {
+    AccountsRepository accountsRepository = accountsService.getAccountsRepository();
+    if (accountsRepository instanceof AccountsRepositoryJournaled) {
+      ((AccountsRepositoryJournaled) accountsRepository).close();
+    }
+    if (accountsRepository instanceof AccountsRepositorySequenced) {
+      ((AccountsRepositorySequenced) accountsRepository).close();
+    }
+    if (accountsRepository instanceof AccountsRepositoryPartitioned) {
+      ((AccountsRepositoryPartitioned) accountsRepository).close();
+    }
+  }
+}
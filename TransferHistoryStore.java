@@ -0,0 +1,292 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.TransferRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Append-only history of committed transfers with a per-account index.
+ * <p>
+ * Repositories call {@link #record} while committing a transfer. Recording takes a sequence
+ * from a counter and stores one small entry into a chunked log; it takes no lock. A
+ * background indexer follows the log in sequence order, gives every entry a timestamp that
+ * never decreases along the sequence, and appends the sequence to the index of both accounts.
+ * Queries see a transfer once it has been indexed, normally within a millisecond of the commit.
+ * An account's index is a chunked array of sequences in ascending order, so a cursor or the
+ * start of a time range is found by binary search however many transfers the account has.
+ */
+@Component
+@Slf4j
+public class TransferHistoryStore {
+
+  private static final int LOG_CHUNK_BITS = 16;
+
+  private static final int LOG_CHUNK_SIZE = 1 << LOG_CHUNK_BITS;
+
+  private static final int LOG_CHUNK_MASK = LOG_CHUNK_SIZE - 1;
+
+  private static final long INDEXER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final AtomicLong appendedSequence = new AtomicLong(-1);
+
+  private final ReentrantLock chunkAllocationLock = new ReentrantLock();
+
+  private volatile AtomicReferenceArray<Entry>[] logChunks = newLogChunks(0);
+
+  /**
+   * Non-decreasing commit times by sequence, written by the indexer only.
+   */
+  private volatile long[][] timestampChunks = new long[0][];
+
+  private final Map<String, AccountIndex> accountIndexes = new ConcurrentHashMap<>();
+
+  private volatile long indexedSequence = -1;
+
+  private volatile boolean running;
+
+  private Thread indexerThread;
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    indexerThread = new Thread(this::indexLoop, "transfer-history-indexer");
+    indexerThread.setDaemon(true);
+    indexerThread.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    if (indexerThread != null) {
+      indexerThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+
+  /**
+   * Appends a committed transfer and returns its sequence.
+   */
+  public long record(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    long sequence = appendedSequence.incrementAndGet();
+    AtomicReferenceArray<Entry> logChunk = logChunk(sequence);
+    logChunk.set((int) sequence & LOG_CHUNK_MASK, new Entry(accountFromId, accountToId, transferAmountValue, System.currentTimeMillis()));
+    return sequence;
+  }
+
+  public long getAppendedSequence() {
+    return appendedSequence.get();
+  }
+
+  public long getIndexedSequence() {
+    return indexedSequence;
+  }
+
+  /**
+   * Passes the account's transfers with a sequence above {@code afterSequence} and a commit time
+   * in {@code [fromMillis, toMillis)} to the consumer, oldest first, stopping after
+   * {@code limit} of them. Returns how many were passed.
+   */
+  public int forEachTransfer(String accountId, long afterSequence, long fromMillis, long toMillis, int limit,
+                             Consumer<TransferRecord> consumer) {
+    AccountIndex accountIndex = accountIndexes.get(accountId);
+    if (accountIndex == null || limit <= 0) {
+      return 0;
+    }
+    int size = accountIndex.size;
+    long[][] sequenceChunks = accountIndex.chunks;
+    long[][] timestamps = timestampChunks;
+    int position = Math.max(accountIndex.firstPositionAfter(sequenceChunks, size, afterSequence),
+      accountIndex.firstPositionAtOrAfter(sequenceChunks, timestamps, size, fromMillis));
+    int passed = 0;
+    for (; position < size && passed < limit; position++) {
+      long sequence = AccountIndex.sequenceAt(sequenceChunks, position);
+      long committedAtMillis = timestampAt(timestamps, sequence);
+      if (committedAtMillis >= toMillis) {
+        break;
+      }
+      Entry entry = logChunks[(int) (sequence >>> LOG_CHUNK_BITS)].get((int) sequence & LOG_CHUNK_MASK);
+      consumer.accept(new TransferRecord(sequence, entry.accountFromId, entry.accountToId, entry.transferAmountValue,
+        Instant.ofEpochMilli(committedAtMillis)));
+      passed++;
+    }
+    return passed;
+  }
+
+  private AtomicReferenceArray<Entry> logChunk(long sequence) {
+    int chunk = (int) (sequence >>> LOG_CHUNK_BITS);
+    AtomicReferenceArray<Entry>[] chunks = logChunks;
+    if (chunk < chunks.length) {
+      return chunks[chunk];
+    }
+    chunkAllocationLock.lock();
+    try {
+      chunks = logChunks;
+      if (chunk >= chunks.length) {
+        AtomicReferenceArray<Entry>[] grownChunks = newLogChunks(chunk + 1);
+        System.arraycopy(chunks, 0, grownChunks, 0, chunks.length);
+        for (int i = chunks.length; i <= chunk; i++) {
+          grownChunks[i] = new AtomicReferenceArray<>(LOG_CHUNK_SIZE);
+        }
+        logChunks = grownChunks;
+        chunks = grownChunks;
+      }
+      return chunks[chunk];
+    } finally {
+      chunkAllocationLock.unlock();
+    }
+  }
+
+  private void indexLoop() {
+    long nextSequence = 0;
+    long lastTimestamp = 0;
+    while (running || nextSequence <= appendedSequence.get()) {
+      AtomicReferenceArray<Entry>[] chunks = logChunks;
+      int chunk = (int) (nextSequence >>> LOG_CHUNK_BITS);
+      Entry entry = chunk < chunks.length ? chunks[chunk].get((int) nextSequence & LOG_CHUNK_MASK) : null;
+      if (entry == null) {
+        if (nextSequence <= appendedSequence.get()) {
+          // The sequence is taken but its entry is still being stored.
+          Thread.onSpinWait();
+        } else {
+          LockSupport.parkNanos(INDEXER_PARK_NANOS);
+        }
+        continue;
+      }
+      lastTimestamp = Math.max(lastTimestamp, entry.committedAtMillis);
+      storeTimestamp(nextSequence, lastTimestamp);
+      accountIndexes.computeIfAbsent(entry.accountFromId, accountId -> new AccountIndex()).add(nextSequence);
+      if (!entry.accountToId.equals(entry.accountFromId)) {
+        accountIndexes.computeIfAbsent(entry.accountToId, accountId -> new AccountIndex()).add(nextSequence);
+      }
+      indexedSequence = nextSequence;
+      nextSequence++;
+    }
+  }
+
+  private void storeTimestamp(long sequence, long timestamp) {
+    int chunk = (int) (sequence >>> LOG_CHUNK_BITS);
+    long[][] chunks = timestampChunks;
+    if (chunk >= chunks.length) {
+      long[][] grownChunks = new long[chunk + 1][];
+      System.arraycopy(chunks, 0, grownChunks, 0, chunks.length);
+      grownChunks[chunk] = new long[LOG_CHUNK_SIZE];
+      chunks = grownChunks;
+    }
+    chunks[chunk][(int) sequence & LOG_CHUNK_MASK] = timestamp;
+    // Readers pick the timestamp up through the account index, which is published after this.
+    timestampChunks = chunks;
+  }
+
+  private static long timestampAt(long[][] timestamps, long sequence) {
+    return timestamps[(int) (sequence >>> LOG_CHUNK_BITS)][(int) sequence & LOG_CHUNK_MASK];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static AtomicReferenceArray<Entry>[] newLogChunks(int length) {
+    return new AtomicReferenceArray[length];
+  }
+
+  private static final class Entry {
+
+    private final String accountFromId;
+
+    private final String accountToId;
+
+    private final BigDecimal transferAmountValue;
+
+    private final long committedAtMillis;
+
+    private Entry(String accountFromId, String accountToId, BigDecimal transferAmountValue, long committedAtMillis) {
+      this.accountFromId = accountFromId;
+      this.accountToId = accountToId;
+      this.transferAmountValue = transferAmountValue;
+      this.committedAtMillis = committedAtMillis;
+    }
+  }
+
+  /**
+   * Ascending sequences of one account's transfers in fixed-size chunks, so growing it never
+   * copies more than one chunk. The first chunk starts small and doubles, so accounts with few
+   * transfers stay cheap. Written by the indexer only; {@code size} is written last and
+   * publishes everything before it to readers.
+   */
+  private static final class AccountIndex {
+
+    private static final int CHUNK_BITS = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private volatile long[][] chunks = {new long[INITIAL_CAPACITY]};
+
+    private volatile int size;
+
+    private void add(long sequence) {
+      int position = size;
+      int chunk = position >>> CHUNK_BITS;
+      int offset = position & CHUNK_MASK;
+      long[][] currentChunks = chunks;
+      if (chunk == currentChunks.length) {
+        currentChunks = Arrays.copyOf(currentChunks, currentChunks.length * 2);
+      }
+      if (currentChunks[chunk] == null) {
+        currentChunks[chunk] = new long[CHUNK_SIZE];
+      } else if (offset == currentChunks[chunk].length) {
+        // Readers may still hold the old array of chunks, so the grown first chunk goes into a copy.
+        currentChunks = currentChunks.clone();
+        currentChunks[chunk] = Arrays.copyOf(currentChunks[chunk], Math.min(CHUNK_SIZE, offset * 2));
+      }
+      currentChunks[chunk][offset] = sequence;
+      chunks = currentChunks;
+      size = position + 1;
+    }
+
+    private static long sequenceAt(long[][] chunks, int position) {
+      return chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    }
+
+    private int firstPositionAfter(long[][] chunks, int size, long sequence) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (sequenceAt(chunks, middle) <= sequence) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private int firstPositionAtOrAfter(long[][] chunks, long[][] timestamps, int size, long timestampMillis) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (timestampAt(timestamps, sequenceAt(chunks, middle)) < timestampMillis) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+}
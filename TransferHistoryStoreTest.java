@@ -0,0 +1,125 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRecord;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistoryStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TransferHistoryStoreTest {
+
+  private TransferHistoryStore transferHistoryStore;
+
+  @BeforeEach
+  void startStore() {
+    transferHistoryStore = new TransferHistoryStore();
+    transferHistoryStore.start();
+  }
+
+  @AfterEach
+  void stopStore() throws InterruptedException {
+    transferHistoryStore.stop();
+  }
+
+  @Test
+  void pagesThroughOneAccountWithCursor() throws Exception {
+    for (int i = 0; i < 10_000; i++) {
+      transferHistoryStore.record(i % 2 == 0 ? "Id-A" : "Id-B", "Id-C", BigDecimal.valueOf(i));
+    }
+    awaitIndexed();
+
+    List<TransferRecord> transfers = new ArrayList<>();
+    long cursor = -1;
+    int page;
+    do {
+      List<TransferRecord> pageTransfers = new ArrayList<>();
+      page = transferHistoryStore.forEachTransfer("Id-A", cursor, Long.MIN_VALUE, Long.MAX_VALUE, 1_000, pageTransfers::add);
+      transfers.addAll(pageTransfers);
+      if (!pageTransfers.isEmpty()) {
+        cursor = pageTransfers.get(pageTransfers.size() - 1).getSequence();
+      }
+    } while (page == 1_000);
+
+    assertThat(transfers).hasSize(5_000);
+    for (int i = 0; i < transfers.size(); i++) {
+      assertThat(transfers.get(i).getAccountFromId()).isEqualTo("Id-A");
+      assertThat(transfers.get(i).getTransferAmountValue()).isEqualByComparingTo(BigDecimal.valueOf(2L * i));
+      if (i > 0) {
+        assertThat(transfers.get(i).getSequence()).isGreaterThan(transfers.get(i - 1).getSequence());
+        assertThat(transfers.get(i).getCommittedAt()).isAfterOrEqualTo(transfers.get(i - 1).getCommittedAt());
+      }
+    }
+    assertThat(countTransfers("Id-C", -1, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(10_000);
+    assertThat(countTransfers("Id-unknown", -1, Long.MIN_VALUE, Long.MAX_VALUE)).isZero();
+  }
+
+  @Test
+  void filtersByCommitTime() throws Exception {
+    transferHistoryStore.record("Id-A", "Id-B", BigDecimal.ONE);
+    awaitIndexed();
+    Thread.sleep(20);
+    long between = System.currentTimeMillis();
+    Thread.sleep(20);
+    transferHistoryStore.record("Id-A", "Id-B", BigDecimal.TEN);
+    awaitIndexed();
+
+    assertThat(countTransfers("Id-A", -1, between, Long.MAX_VALUE)).isEqualTo(1);
+    assertThat(countTransfers("Id-A", -1, Long.MIN_VALUE, between)).isEqualTo(1);
+    assertThat(countTransfers("Id-B", -1, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(2);
+  }
+
+  @Test
+  void recordsEveryConcurrentlyCommittedTransfer() throws Exception {
+    AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory(64);
+    accountsRepository.setTransferHistoryStore(transferHistoryStore);
+    for (int i = 0; i < 8; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, new BigDecimal(1_000_000)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      String fromAccountId = "Id-" + t;
+      String toAccountId = "Id-" + ((t + 1) % 8);
+      workers.add(executor.submit(() -> {
+        for (int i = 0; i < 20_000; i++) {
+          accountsRepository.transferAmount(fromAccountId, toAccountId, BigDecimal.ONE);
+        }
+        return null;
+      }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get(5, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+    awaitIndexed();
+
+    assertThat(transferHistoryStore.getAppendedSequence()).isEqualTo(8 * 20_000 - 1);
+    for (int i = 0; i < 8; i++) {
+      assertThat(countTransfers("Id-" + i, -1, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(2 * 20_000);
+    }
+  }
+
+  private int countTransfers(String accountId, long afterSequence, long fromMillis, long toMillis) {
+    return transferHistoryStore.forEachTransfer(accountId, afterSequence, fromMillis, toMillis, Integer.MAX_VALUE, transferRecord -> { });
+  }
+
+  private void awaitIndexed() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (transferHistoryStore.getIndexedSequence() < transferHistoryStore.getAppendedSequence() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
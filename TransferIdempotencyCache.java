@@ -0,0 +1,33 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.metrics.TransferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idempotency cache for transfer responses, keyed by the client's {@code Idempotency-Key}.
+ * Entries are weighed by the approximate heap size of the stored response.
+ */
+@Component
+public class TransferIdempotencyCache extends IdempotencyCache<String> {
+
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  @Autowired
+  public TransferIdempotencyCache(@Value("${accounts.idempotency.segments:64}") int segmentCount,
+    @Value("${accounts.idempotency.max-entries:1000000}") int maxEntries,
+    @Value("${accounts.idempotency.max-weight-bytes:268435456}") long maxWeightBytes,
+    @Value("${accounts.idempotency.ttl-seconds:86400}") long ttlSeconds) {
+    super(segmentCount, maxEntries, maxWeightBytes, ttlSeconds, TimeUnit.SECONDS,
+      response -> ENTRY_OVERHEAD_BYTES + 2 * response.length());
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.idempotency.size", this::size);
+    transferMetrics.registerGauge("accounts.idempotency.hits", this::getHits);
+  }
+}
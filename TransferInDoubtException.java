@@ -0,0 +1,24 @@
+package com.dws.challenge.exception;
+
+import com.dws.challenge.domain.TransferStatus;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thrown when a transfer's outcome could not be settled before returning: it may still be
+ * applied. The resolution completes with {@link TransferStatus#COMPLETED} or
+ * {@link TransferStatus#ABORTED} once it is settled in the background.
+ */
+public class TransferInDoubtException extends RuntimeException {
+
+  private final transient CompletableFuture<TransferStatus> resolution;
+
+  public TransferInDoubtException(String message, CompletableFuture<TransferStatus> resolution) {
+    super(message);
+    this.resolution = resolution;
+  }
+
+  public CompletableFuture<TransferStatus> getResolution() {
+    return resolution;
+  }
+}
@@ -0,0 +1,497 @@
+package com.dws.challenge.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of committed account changes, written through memory-mapped
+ * segment files of a fixed size. Each record is laid out as
+ * {@code [int bodyLength][int crc32(body)][byte type][long sequence][payload]}; a zero length
+ * marks the end of the written part of a segment and a bad checksum marks a torn tail left by a
+ * crash. Sequence numbers are assigned under the append lock, so journal order and sequence
+ * order are the same.
+ */
+public class TransferJournal implements Closeable {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  static final byte RECORD_ACCOUNT_CREATED = 1;
+
+  static final byte RECORD_TRANSFER = 2;
+
+  static final byte RECORD_ACCOUNTS_CLEARED = 3;
+
+  static final byte RECORD_BALANCE_ADJUSTED = 4;
+
+  private static final int RECORD_HEADER_BYTES = 8;
+
+  private static final int MAX_RECORD_BYTES = 128 * 1024;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  /**
+   * Receives journal records in sequence order during replay.
+   */
+  public interface RecordHandler {
+
+    void onAccountCreated(long sequence, String accountId, BigDecimal balance);
+
+    void onTransfer(long sequence, String accountFromId, String accountToId, BigDecimal transferAmountValue);
+
+    void onAccountsCleared(long sequence);
+
+    void onBalanceAdjusted(long sequence, String accountId, BigDecimal adjustment);
+  }
+
+  private final Path directory;
+
+  private final int segmentSize;
+
+  private final JournalFsyncPolicy fsyncPolicy;
+
+  private final long fsyncIntervalNanos;
+
+  private final ReentrantLock appendLock = new ReentrantLock();
+
+  private final ByteBuffer scratch = ByteBuffer.allocate(MAX_RECORD_BYTES);
+
+  private final CRC32 crc = new CRC32();
+
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  private final Condition flushRequested = flushLock.newCondition();
+
+  private final Condition flushed = flushLock.newCondition();
+
+  private boolean flushPending;
+
+  private FileChannel segmentChannel;
+
+  private volatile MappedByteBuffer segment;
+
+  private volatile int segmentIndex;
+
+  private volatile long appendedSequence;
+
+  private volatile long durableSequence;
+
+  private volatile boolean open;
+
+  private Thread flusherThread;
+
+  public TransferJournal(Path directory, int segmentSize, JournalFsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+    if (segmentSize < MAX_RECORD_BYTES) {
+      throw new IllegalArgumentException("Journal segment size must be at least " + MAX_RECORD_BYTES + " bytes");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+  }
+
+  /**
+   * Replays every record into the handler, truncates a torn tail left by a crash and opens the
+   * journal for appending right after the last intact record.
+   */
+  public void open(RecordHandler handler) throws IOException {
+    open(handler, 0, 0L);
+  }
+
+  /**
+   * Like {@link #open(RecordHandler)} but skips segments before {@code fromSegment}, which a
+   * snapshot already covers. New sequence numbers continue after {@code baseSequence} even when
+   * no record is left to replay.
+   */
+  public void open(RecordHandler handler, int fromSegment, long baseSequence) throws IOException {
+    Files.createDirectories(directory);
+    List<Path> segmentFiles = segmentFiles();
+    segmentFiles.removeIf(segmentFile -> segmentIndexOf(segmentFile) < fromSegment);
+    appendedSequence = baseSequence;
+    int resumeSegment = fromSegment;
+    int resumePosition = 0;
+    boolean tornTail = false;
+    for (int i = 0; i < segmentFiles.size(); i++) {
+      Path segmentFile = segmentFiles.get(i);
+      int index = segmentIndexOf(segmentFile);
+      ReplayOutcome outcome = replaySegment(segmentFile, handler);
+      if (outcome.torn && i < segmentFiles.size() - 1) {
+        throw new IllegalStateException("Journal segment " + segmentFile + " is corrupt at offset " + outcome.position);
+      }
+      resumeSegment = index;
+      resumePosition = outcome.position;
+      tornTail = outcome.torn;
+    }
+    mapSegment(resumeSegment, resumePosition);
+    if (tornTail) {
+      for (int position = resumePosition; position < segmentSize; position++) {
+        segment.put(position, (byte) 0);
+      }
+      segment.force();
+    }
+    durableSequence = appendedSequence;
+    open = true;
+    if (fsyncPolicy != JournalFsyncPolicy.NEVER) {
+      flusherThread = new Thread(this::flushLoop, "transfer-journal-flusher");
+      flusherThread.setDaemon(true);
+      flusherThread.start();
+    }
+  }
+
+  public long appendAccountCreated(String accountId, BigDecimal balance) {
+    appendLock.lock();
+    try {
+      startRecord(RECORD_ACCOUNT_CREATED);
+      putString(scratch, accountId);
+      putDecimal(scratch, balance);
+      return finishRecord();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public long appendTransfer(String accountFromId, String accountToId, BigDecimal transferAmountValue) {
+    appendLock.lock();
+    try {
+      startRecord(RECORD_TRANSFER);
+      putString(scratch, accountFromId);
+      putString(scratch, accountToId);
+      putDecimal(scratch, transferAmountValue);
+      return finishRecord();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public long appendAccountsCleared() {
+    appendLock.lock();
+    try {
+      startRecord(RECORD_ACCOUNTS_CLEARED);
+      return finishRecord();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public long appendBalanceAdjusted(String accountId, BigDecimal adjustment) {
+    appendLock.lock();
+    try {
+      startRecord(RECORD_BALANCE_ADJUSTED);
+      putString(scratch, accountId);
+      putDecimal(scratch, adjustment);
+      return finishRecord();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public int getSegmentIndex() {
+    return segmentIndex;
+  }
+
+  /**
+   * Removes segments that a snapshot has made redundant. The current segment is never removed.
+   */
+  public void deleteSegmentsBefore(int segment) throws IOException {
+    int deleteBefore = Math.min(segment, segmentIndex);
+    for (Path segmentFile : segmentFiles()) {
+      if (segmentIndexOf(segmentFile) < deleteBefore) {
+        Files.deleteIfExists(segmentFile);
+      }
+    }
+  }
+
+  public long getAppendedSequence() {
+    return appendedSequence;
+  }
+
+  public long getDurableSequence() {
+    return durableSequence;
+  }
+
+  public JournalFsyncPolicy getFsyncPolicy() {
+    return fsyncPolicy;
+  }
+
+  /**
+   * Forces every record appended so far to disk, whatever the fsync policy.
+   */
+  public void force() {
+    appendLock.lock();
+    try {
+      segment.force();
+      flushLock.lock();
+      try {
+        durableSequence = appendedSequence;
+        flushed.signalAll();
+      } finally {
+        flushLock.unlock();
+      }
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  /**
+   * Blocks until the record with the given sequence is on disk. Only {@link JournalFsyncPolicy#ALWAYS}
+   * waits; every caller waiting at the same time is covered by the same fsync.
+   */
+  public void awaitDurable(long sequence) {
+    if (fsyncPolicy != JournalFsyncPolicy.ALWAYS || sequence <= durableSequence) {
+      return;
+    }
+    flushLock.lock();
+    try {
+      flushPending = true;
+      flushRequested.signal();
+      while (open && durableSequence < sequence) {
+        flushed.awaitUninterruptibly();
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!open) {
+      return;
+    }
+    open = false;
+    flushLock.lock();
+    try {
+      flushRequested.signalAll();
+      flushed.signalAll();
+    } finally {
+      flushLock.unlock();
+    }
+    if (flusherThread != null) {
+      try {
+        flusherThread.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    appendLock.lock();
+    try {
+      segment.force();
+      durableSequence = appendedSequence;
+      segmentChannel.close();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void startRecord(byte recordType) {
+    scratch.clear();
+    scratch.position(RECORD_HEADER_BYTES);
+    scratch.put(recordType);
+    scratch.putLong(appendedSequence + 1);
+  }
+
+  private long finishRecord() {
+    int recordBytes = scratch.position();
+    scratch.flip();
+    scratch.putInt(0, recordBytes - RECORD_HEADER_BYTES);
+    crc.reset();
+    crc.update(scratch.duplicate().position(RECORD_HEADER_BYTES));
+    scratch.putInt(4, (int) crc.getValue());
+    try {
+      if (segment.remaining() < recordBytes) {
+        rollSegment();
+      }
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Unable to roll journal segment in " + directory, ioe);
+    }
+    segment.put(scratch);
+    appendedSequence = appendedSequence + 1;
+    return appendedSequence;
+  }
+
+  static void putString(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Account id is too long to journal: " + bytes.length + " bytes");
+    }
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+
+  static void putDecimal(ByteBuffer buffer, BigDecimal value) {
+    BigDecimal decimal = value != null ? value : BigDecimal.ZERO;
+    byte[] unscaled = decimal.unscaledValue().toByteArray();
+    buffer.putInt(decimal.scale());
+    buffer.put((byte) unscaled.length);
+    buffer.put(unscaled);
+  }
+
+  static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static BigDecimal getDecimal(ByteBuffer buffer) {
+    int scale = buffer.getInt();
+    byte[] unscaled = new byte[buffer.get() & 0xFF];
+    buffer.get(unscaled);
+    return new BigDecimal(new BigInteger(unscaled), scale);
+  }
+
+  private void rollSegment() throws IOException {
+    if (fsyncPolicy != JournalFsyncPolicy.NEVER) {
+      segment.force();
+    }
+    segmentChannel.close();
+    mapSegment(segmentIndex + 1, 0);
+  }
+
+  private void mapSegment(int index, int position) throws IOException {
+    segmentChannel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer mapped = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    mapped.position(position);
+    segmentIndex = index;
+    segment = mapped;
+  }
+
+  private ReplayOutcome replaySegment(Path segmentFile, RecordHandler handler) throws IOException {
+    try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CRC32 recordCrc = new CRC32();
+      while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+        int recordStart = buffer.position();
+        int bodyLength = buffer.getInt();
+        if (bodyLength == 0) {
+          return new ReplayOutcome(recordStart, false);
+        }
+        int checksum = buffer.getInt();
+        if (bodyLength < 0 || bodyLength > buffer.remaining()) {
+          return new ReplayOutcome(recordStart, true);
+        }
+        ByteBuffer body = buffer.slice();
+        body.limit(bodyLength);
+        recordCrc.reset();
+        recordCrc.update(body.duplicate());
+        if ((int) recordCrc.getValue() != checksum) {
+          return new ReplayOutcome(recordStart, true);
+        }
+        dispatch(body, handler);
+        buffer.position(buffer.position() + bodyLength);
+      }
+      return new ReplayOutcome(buffer.position(), false);
+    }
+  }
+
+  private void dispatch(ByteBuffer body, RecordHandler handler) {
+    byte recordType = body.get();
+    long sequence = body.getLong();
+    switch (recordType) {
+      case RECORD_ACCOUNT_CREATED:
+        handler.onAccountCreated(sequence, getString(body), getDecimal(body));
+        break;
+      case RECORD_TRANSFER:
+        handler.onTransfer(sequence, getString(body), getString(body), getDecimal(body));
+        break;
+      case RECORD_ACCOUNTS_CLEARED:
+        handler.onAccountsCleared(sequence);
+        break;
+      case RECORD_BALANCE_ADJUSTED:
+        handler.onBalanceAdjusted(sequence, getString(body), getDecimal(body));
+        break;
+      default:
+        throw new IllegalStateException("Unknown journal record type " + recordType + " at sequence " + sequence);
+    }
+    // A snapshot may cover sequences whose records never reached the disk; they must not be reused.
+    appendedSequence = Math.max(appendedSequence, sequence);
+  }
+
+  private void flushLoop() {
+    while (open) {
+      flushLock.lock();
+      try {
+        if (fsyncPolicy == JournalFsyncPolicy.ALWAYS) {
+          while (open && !flushPending) {
+            flushRequested.awaitUninterruptibly();
+          }
+          flushPending = false;
+        } else {
+          flushRequested.awaitNanos(fsyncIntervalNanos);
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        flushLock.unlock();
+      }
+      forceAppended();
+    }
+  }
+
+  /**
+   * Reads the appended sequence before the segment, so every record up to it is either in that
+   * segment or in an earlier one that was forced when it rolled.
+   */
+  private void forceAppended() {
+    long target = appendedSequence;
+    if (target <= durableSequence) {
+      return;
+    }
+    segment.force();
+    flushLock.lock();
+    try {
+      durableSequence = target;
+      flushed.signalAll();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+        .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+        .sorted()
+        .collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+
+  private Path segmentPath(int index) {
+    return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+  }
+
+  private static int segmentIndexOf(Path segmentFile) {
+    String fileName = segmentFile.getFileName().toString();
+    return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static final class ReplayOutcome {
+
+    private final int position;
+
+    private final boolean torn;
+
+    private ReplayOutcome(int position, boolean torn) {
+      this.position = position;
+      this.torn = torn;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.repository.AccountsRepositoryJournaled;
+import com.dws.challenge.repository.JournalFsyncPolicy;
+import com.dws.challenge.repository.TransferJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journaled transfers per second under each {@link JournalFsyncPolicy}; every trial journals
+ * into a fresh temporary directory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferJournalBenchmark {
+
+  @Param({"ALWAYS", "INTERVAL", "NEVER"})
+  public JournalFsyncPolicy fsyncPolicy;
+
+  @Param({"10000"})
+  public int accountCount;
+
+  private AccountsRepositoryJournaled accountsRepository;
+
+  private String[] accountIds;
+
+  @Setup(Level.Trial)
+  public void openJournal() throws Exception {
+    accountsRepository = new AccountsRepositoryJournaled(new TransferJournal(Files.createTempDirectory("transfer-journal-benchmark"),
+      TransferJournal.DEFAULT_SEGMENT_SIZE, fsyncPolicy, 10));
+    accountIds = new String[accountCount];
+    for (int i = 0; i < accountCount; i++) {
+      accountIds[i] = "Id-" + i;
+      accountsRepository.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000)));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void closeJournal() throws Exception {
+    accountsRepository.close();
+  }
+
+  @Benchmark
+  public TransferStatus journaledTransfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsRepository.transferAmount(accountIds[random.nextInt(accountCount)], accountIds[random.nextInt(accountCount)], BigDecimal.ONE);
+  }
+}
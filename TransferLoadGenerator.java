@@ -0,0 +1,96 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.metrics.LatencyHistogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop HTTP load test of the transfer endpoint against a running application. Keeps a
+ * fixed number of transfers outstanding for the given duration and prints throughput, client
+ * latency percentiles and the peak number of transfers the server had in flight at once.
+ * Start the application once with {@code accounts.execution-mode=platform} and once with
+ * {@code accounts.execution-mode=virtual} and run this against each to compare the modes.
+ * <p>
+ * Usage: {@code TransferLoadGenerator <base-url> <label> [concurrency] [duration-seconds] [accounts]}
+ */
+public class TransferLoadGenerator {
+
+  private static final String ACCOUNT_ID_PREFIX = "load-";
+
+  public static void main(String[] args) throws Exception {
+    String baseUrl = args.length > 0 ? args[0] : "http://localhost:18080";
+    String label = args.length > 1 ? args[1] : "unlabelled";
+    int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+    int durationSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+    int accountCount = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+
+    HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    createAccounts(httpClient, baseUrl, accountCount);
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    LongAdder failures = new LongAdder();
+    AtomicInteger clientInFlight = new AtomicInteger();
+    LongAccumulator maxClientInFlight = new LongAccumulator(Math::max, 0);
+    Semaphore outstanding = new Semaphore(concurrency);
+
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+    while (System.nanoTime() < endNanos) {
+      outstanding.acquire();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      HttpRequest transferRequest = HttpRequest.newBuilder(URI.create(baseUrl + "/v1/accounts"
+          + "?accountFromId=" + ACCOUNT_ID_PREFIX + random.nextInt(accountCount)
+          + "&accountToId=" + ACCOUNT_ID_PREFIX + random.nextInt(accountCount)
+          + "&transferAmountValue=" + (1 + random.nextInt(100))))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString("{}"))
+        .build();
+      long requestStartNanos = System.nanoTime();
+      maxClientInFlight.accumulate(clientInFlight.incrementAndGet());
+      httpClient.sendAsync(transferRequest, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+        latencies.record(System.nanoTime() - requestStartNanos);
+        if (failure != null || response.statusCode() >= 400) {
+          failures.increment();
+        }
+        clientInFlight.decrementAndGet();
+        outstanding.release();
+      });
+    }
+    outstanding.acquire(concurrency);
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    HttpResponse<String> serverInFlight = httpClient.send(
+      HttpRequest.newBuilder(URI.create(baseUrl + "/v1/metrics/accounts.transfers.in-flight.max")).GET().build(),
+      HttpResponse.BodyHandlers.ofString());
+
+    System.out.printf("%s: %d transfers in %.1f s (%.0f/s), %d failed%n", label, latencies.getCount(),
+      elapsedNanos / 1e9, latencies.getCount() / (elapsedNanos / 1e9), failures.sum());
+    System.out.printf("%s: latency p50 %d us, p99 %d us, p99.9 %d us, max %d us%n", label,
+      TimeUnit.NANOSECONDS.toMicros(latencies.valueAtQuantile(0.5)),
+      TimeUnit.NANOSECONDS.toMicros(latencies.valueAtQuantile(0.99)),
+      TimeUnit.NANOSECONDS.toMicros(latencies.valueAtQuantile(0.999)),
+      TimeUnit.NANOSECONDS.toMicros(latencies.getMaxNanos()));
+    System.out.printf("%s: max in flight, client %d, server %s%n", label, maxClientInFlight.get(), serverInFlight.body());
+  }
+
+  private static void createAccounts(HttpClient httpClient, String baseUrl, int accountCount) throws Exception {
+    for (int i = 0; i < accountCount; i++) {
+      HttpRequest createRequest = HttpRequest.newBuilder(URI.create(baseUrl + "/v1/accounts"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString("{\"accountId\":\"" + ACCOUNT_ID_PREFIX + i + "\",\"balance\":1000000}"))
+        .build();
+      // A 400 means the account survives from an earlier run, which is fine.
+      httpClient.send(createRequest, HttpResponse.BodyHandlers.discarding());
+    }
+  }
+}
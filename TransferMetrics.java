@@ -0,0 +1,158 @@
+package com.dws.challenge.metrics;
+
+import com.dws.challenge.domain.TransferStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency, outcome and lock-wait meters for the account operations. Meters are created once,
+ * indexed by enum ordinal and updated with {@link LongAdder}s, so the recording methods
+ * allocate nothing and never take a lock. Gauges are sampled only when the metrics are read.
+ */
+@Component
+public class TransferMetrics {
+
+  public enum Layer {
+    CONTROLLER, SERVICE, REPOSITORY
+  }
+
+  /**
+   * {@code BATCH_TRANSFER} times a whole batch, or one chunk of it at the repository, apart
+   * from single transfers, whose latencies it would otherwise skew.
+   */
+  public enum Operation {
+    CREATE, GET, TRANSFER, BATCH_TRANSFER
+  }
+
+  private static final double[] REPORTED_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static final String[] REPORTED_QUANTILE_LABELS = {"P50_MICROS", "P90_MICROS", "P99_MICROS", "P99_9_MICROS"};
+
+  private final LatencyHistogram[][] latencies = new LatencyHistogram[Layer.values().length][Operation.values().length];
+
+  private final LongAdder[] transferOutcomes = new LongAdder[TransferStatus.values().length];
+
+  private final LatencyHistogram lockWaits = new LatencyHistogram();
+
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  private final AtomicLong transfersInFlight = new AtomicLong();
+
+  private final LongAccumulator maxTransfersInFlight = new LongAccumulator(Math::max, 0);
+
+  public TransferMetrics() {
+    for (Layer layer : Layer.values()) {
+      for (Operation operation : Operation.values()) {
+        latencies[layer.ordinal()][operation.ordinal()] = new LatencyHistogram();
+      }
+    }
+    for (TransferStatus transferStatus : TransferStatus.values()) {
+      transferOutcomes[transferStatus.ordinal()] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records the time since {@code startNanos}, a value previously taken from {@link System#nanoTime()}.
+   */
+  public void recordLatency(Layer layer, Operation operation, long startNanos) {
+    latencies[layer.ordinal()][operation.ordinal()].record(System.nanoTime() - startNanos);
+  }
+
+  public void recordOutcome(TransferStatus transferStatus) {
+    transferOutcomes[transferStatus.ordinal()].increment();
+  }
+
+  /**
+   * Records the time a thread spent blocked on an account lock it could not take at once.
+   */
+  public void recordLockWait(long waitNanos) {
+    lockWaits.record(waitNanos);
+  }
+
+  /**
+   * Marks a transfer request as entered; every call must be paired with {@link #transferFinished()}.
+   */
+  public void transferStarted() {
+    maxTransfersInFlight.accumulate(transfersInFlight.incrementAndGet());
+  }
+
+  public void transferFinished() {
+    transfersInFlight.decrementAndGet();
+  }
+
+  public void registerGauge(String name, LongSupplier gauge) {
+    gauges.put(name, gauge);
+  }
+
+  public LatencyHistogram getLatency(Layer layer, Operation operation) {
+    return latencies[layer.ordinal()][operation.ordinal()];
+  }
+
+  public long getOutcomeCount(TransferStatus transferStatus) {
+    return transferOutcomes[transferStatus.ordinal()].sum();
+  }
+
+  public LatencyHistogram getLockWaits() {
+    return lockWaits;
+  }
+
+  /**
+   * Current value of every meter, by meter name and then by statistic. Names follow the
+   * dotted, lower-case convention of Spring Boot actuator metrics.
+   */
+  public Map<String, Map<String, Long>> snapshot() {
+    Map<String, Map<String, Long>> meters = new TreeMap<>();
+    for (Layer layer : Layer.values()) {
+      for (Operation operation : Operation.values()) {
+        meters.put("accounts." + lowerCase(layer) + "." + lowerCase(operation) + ".latency",
+          statisticsOf(getLatency(layer, operation)));
+      }
+    }
+    for (TransferStatus transferStatus : TransferStatus.values()) {
+      meters.put("accounts.transfers.outcome." + lowerCase(transferStatus), countOf(getOutcomeCount(transferStatus)));
+    }
+    meters.put("accounts.locks.wait", statisticsOf(lockWaits));
+    meters.put("accounts.transfers.in-flight", valueOf(transfersInFlight.get()));
+    meters.put("accounts.transfers.in-flight.max", valueOf(maxTransfersInFlight.get()));
+    gauges.forEach((name, gauge) -> meters.put(name, valueOf(gauge.getAsLong())));
+    return meters;
+  }
+
+  private static Map<String, Long> statisticsOf(LatencyHistogram histogram) {
+    Map<String, Long> statistics = new TreeMap<>();
+    long count = histogram.getCount();
+    statistics.put("COUNT", count);
+    statistics.put("TOTAL_TIME_MICROS", TimeUnit.NANOSECONDS.toMicros(histogram.getTotalNanos()));
+    statistics.put("MAX_MICROS", TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos()));
+    for (int quantile = 0; quantile < REPORTED_QUANTILES.length; quantile++) {
+      statistics.put(REPORTED_QUANTILE_LABELS[quantile],
+        TimeUnit.NANOSECONDS.toMicros(histogram.valueAtQuantile(REPORTED_QUANTILES[quantile])));
+    }
+    return statistics;
+  }
+
+  private static Map<String, Long> valueOf(long value) {
+    Map<String, Long> statistics = new TreeMap<>();
+    statistics.put("VALUE", value);
+    return statistics;
+  }
+
+  private static Map<String, Long> countOf(long count) {
+    Map<String, Long> statistics = new TreeMap<>();
+    statistics.put("COUNT", count);
+    return statistics;
+  }
+
+  private static String lowerCase(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT).replace('_', '-');
+  }
+}
@@ -0,0 +1,92 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferStatus;
+import com.dws.challenge.metrics.LatencyHistogram;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.metrics.TransferMetrics.Layer;
+import com.dws.challenge.metrics.TransferMetrics.Operation;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.service.AccountsService;
+import org.junit.jupiter.api.Test;
+
+class TransferMetricsTest {
+
+  @Test
+  void histogramQuantilesAreWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 100_000; nanos++) {
+      histogram.record(nanos);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(100_000);
+    assertThat(histogram.getMaxNanos()).isEqualTo(100_000);
+    assertThat(histogram.valueAtQuantile(0.5)).isBetween(50_000L, 56_250L);
+    assertThat(histogram.valueAtQuantile(0.99)).isBetween(99_000L, 100_000L);
+    assertThat(histogram.valueAtQuantile(1.0)).isEqualTo(100_000);
+  }
+
+  @Test
+  void emptyHistogramReportsZero() {
+    assertThat(new LatencyHistogram().valueAtQuantile(0.99)).isZero();
+  }
+
+  @Test
+  void snapshotContainsLatenciesOutcomesAndGauges() {
+    TransferMetrics transferMetrics = new TransferMetrics();
+    transferMetrics.recordLatency(Layer.SERVICE, Operation.TRANSFER, System.nanoTime());
+    transferMetrics.recordOutcome(TransferStatus.COMPLETED);
+    transferMetrics.recordOutcome(TransferStatus.COMPLETED);
+    transferMetrics.recordOutcome(TransferStatus.INSUFFICIENT_BALANCE);
+    transferMetrics.registerGauge("accounts.test.depth", () -> 7);
+
+    Map<String, Map<String, Long>> snapshot = transferMetrics.snapshot();
+
+    assertThat(snapshot.get("accounts.service.transfer.latency")).containsEntry("COUNT", 1L);
+    assertThat(snapshot.get("accounts.repository.transfer.latency")).containsEntry("COUNT", 0L);
+    assertThat(snapshot.get("accounts.transfers.outcome.completed")).containsEntry("COUNT", 2L);
+    assertThat(snapshot.get("accounts.transfers.outcome.insufficient-balance")).containsEntry("COUNT", 1L);
+    assertThat(snapshot.get("accounts.transfers.outcome.account-not-found")).containsEntry("COUNT", 0L);
+    assertThat(snapshot.get("accounts.test.depth")).containsEntry("VALUE", 7L);
+    assertThat(snapshot).containsKey("accounts.locks.wait");
+  }
+
+  @Test
+  void transferToMissingAccountIsCountedAsAccountNotFound() {
+    TransferMetrics transferMetrics = new TransferMetrics();
+    AccountsService accountsService = new AccountsService(new AccountsRepositoryInMemory(), transferMetrics);
+    accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+
+    assertThat(accountsService.transferAmount("Id-1", "Id-Missing", new BigDecimal(10))).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+    assertThat(accountsService.transferAmount("Id-Missing", "Id-1", new BigDecimal(10))).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+
+    assertThat(transferMetrics.getOutcomeCount(TransferStatus.ACCOUNT_NOT_FOUND)).isEqualTo(2);
+    assertThat(transferMetrics.getOutcomeCount(TransferStatus.COMPLETED)).isZero();
+    assertThat(transferMetrics.getLatency(Layer.SERVICE, Operation.TRANSFER).getCount()).isEqualTo(2);
+    assertThat(transferMetrics.getLatency(Layer.REPOSITORY, Operation.TRANSFER).getCount()).isEqualTo(2);
+  }
+
+  @Test
+  void batchTransfersAreTimedAtServiceAndRepositoryApartFromSingleTransfers() {
+    TransferMetrics transferMetrics = new TransferMetrics();
+    AccountsService accountsService = new AccountsService(new AccountsRepositoryInMemory(), transferMetrics);
+    accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+
+    accountsService.transferAmountsInBatch(Arrays.asList(
+      new TransferRequest("Id-1", "Id-2", new BigDecimal(10)),
+      new TransferRequest("Id-2", "Id-1", new BigDecimal(5))).iterator());
+
+    assertThat(transferMetrics.getLatency(Layer.SERVICE, Operation.BATCH_TRANSFER).getCount()).isEqualTo(1);
+    assertThat(transferMetrics.getLatency(Layer.REPOSITORY, Operation.BATCH_TRANSFER).getCount()).isEqualTo(1);
+    assertThat(transferMetrics.getLatency(Layer.SERVICE, Operation.TRANSFER).getCount()).isZero();
+    assertThat(transferMetrics.getOutcomeCount(TransferStatus.COMPLETED)).isEqualTo(2);
+  }
+}
@@ -0,0 +1,201 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.metrics.TransferMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Takes transfer notifications off the request thread. Publishers put a small event on a bounded
+ * queue and a single background thread drains it in batches into the
+ * {@link EmailNotificationService}; message text is only built on that thread. When the queue is
+ * full a publisher waits up to the configured timeout and then drops the notification, so slow
+ * delivery can never stall a transfer indefinitely.
+ */
+@Component
+@Slf4j
+public class TransferNotificationDispatcher {
+
+  private final EmailNotificationService emailNotificationService;
+
+  private final BlockingQueue<TransferNotification> notificationQueue;
+
+  private final int batchSize;
+
+  private final long publishTimeoutNanos;
+
+  private final LongAdder publishedNotifications = new LongAdder();
+
+  private final LongAdder deliveredNotifications = new LongAdder();
+
+  private final LongAdder droppedNotifications = new LongAdder();
+
+  private final LongAdder failedNotifications = new LongAdder();
+
+  private final AtomicLong lastLagNanos = new AtomicLong();
+
+  private final AtomicLong maxLagNanos = new AtomicLong();
+
+  private volatile boolean running;
+
+  private Thread dispatcherThread;
+
+  @Autowired
+  public TransferNotificationDispatcher(EmailNotificationService emailNotificationService,
+    @Value("${accounts.notifications.queue-capacity:10000}") int queueCapacity,
+    @Value("${accounts.notifications.batch-size:256}") int batchSize,
+    @Value("${accounts.notifications.publish-timeout-ms:5}") long publishTimeoutMillis) {
+    this.emailNotificationService = emailNotificationService;
+    this.notificationQueue = new ArrayBlockingQueue<>(queueCapacity);
+    this.batchSize = batchSize;
+    this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(publishTimeoutMillis);
+  }
+
+  @Autowired(required = false)
+  public void setTransferMetrics(TransferMetrics transferMetrics) {
+    transferMetrics.registerGauge("accounts.notifications.queue.depth", this::getQueueDepth);
+    transferMetrics.registerGauge("accounts.notifications.dropped", this::getDroppedNotifications);
+    transferMetrics.registerGauge("accounts.notifications.lag.max.micros", () -> TimeUnit.NANOSECONDS.toMicros(getMaxLagNanos()));
+  }
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    dispatcherThread = new Thread(this::dispatchLoop, "transfer-notification-dispatcher");
+    dispatcherThread.setDaemon(true);
+    dispatcherThread.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    if (dispatcherThread != null) {
+      dispatcherThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+
+  /**
+   * Queues the debit notification for the sender and the credit notification for the receiver.
+   * Balances are captured by the caller right after the transfer committed.
+   */
+  public void publishTransfer(Account fromAccount, Account toAccount, BigDecimal transferAmountValue,
+    BigDecimal fromBalanceAfterTransfer, BigDecimal toBalanceAfterTransfer) {
+    publish(new TransferNotification(fromAccount, transferAmountValue, fromBalanceAfterTransfer, true));
+    publish(new TransferNotification(toAccount, transferAmountValue, toBalanceAfterTransfer, false));
+  }
+
+  private void publish(TransferNotification notification) {
+    try {
+      if (notificationQueue.offer(notification, publishTimeoutNanos, TimeUnit.NANOSECONDS)) {
+        publishedNotifications.increment();
+        return;
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    droppedNotifications.increment();
+  }
+
+  private void dispatchLoop() {
+    List<TransferNotification> batch = new ArrayList<>(batchSize);
+    while (running || !notificationQueue.isEmpty()) {
+      try {
+        TransferNotification first = notificationQueue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        notificationQueue.drainTo(batch, batchSize - 1);
+        deliver(batch);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void deliver(List<TransferNotification> batch) {
+    long now = System.nanoTime();
+    for (TransferNotification notification : batch) {
+      long lagNanos = now - notification.enqueuedNanos;
+      lastLagNanos.set(lagNanos);
+      maxLagNanos.accumulateAndGet(lagNanos, Math::max);
+      try {
+        emailNotificationService.notifyAboutTransfer(notification.account, notification.describe());
+        deliveredNotifications.increment();
+      } catch (RuntimeException re) {
+        failedNotifications.increment();
+        log.warn("Failed to notify account {} about transfer", notification.account.getAccountId(), re);
+      }
+    }
+  }
+
+  public int getQueueDepth() {
+    return notificationQueue.size();
+  }
+
+  public long getPublishedNotifications() {
+    return publishedNotifications.sum();
+  }
+
+  public long getDeliveredNotifications() {
+    return deliveredNotifications.sum();
+  }
+
+  public long getDroppedNotifications() {
+    return droppedNotifications.sum();
+  }
+
+  public long getFailedNotifications() {
+    return failedNotifications.sum();
+  }
+
+  public long getLastLagNanos() {
+    return lastLagNanos.get();
+  }
+
+  public long getMaxLagNanos() {
+    return maxLagNanos.get();
+  }
+
+  private static final class TransferNotification {
+
+    private final Account account;
+
+    private final BigDecimal transferAmountValue;
+
+    private final BigDecimal balanceAfterTransfer;
+
+    private final boolean debit;
+
+    private final long enqueuedNanos = System.nanoTime();
+
+    private TransferNotification(Account account, BigDecimal transferAmountValue, BigDecimal balanceAfterTransfer, boolean debit) {
+      this.account = account;
+      this.transferAmountValue = transferAmountValue;
+      this.balanceAfterTransfer = balanceAfterTransfer;
+      this.debit = debit;
+    }
+
+    private String describe() {
+      return debit
+        ? " [" + transferAmountValue + " - Amount debited from your Account - " + account.getAccountId() + ". Now Balance after debit is - " + balanceAfterTransfer + " ]"
+        : " [" + transferAmountValue + " - Amount credited to your Account - " + account.getAccountId() + ". Now Balance after credit is - " + balanceAfterTransfer + " ]";
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.EmailNotificationService;
+import com.dws.challenge.service.TransferNotificationDispatcher;
+import org.junit.jupiter.api.Test;
+
+class TransferNotificationDispatcherTest {
+
+  @Test
+  void deliversDebitAndCreditNotificationsInBackground() throws Exception {
+    EmailNotificationService emailNotificationService = mock(EmailNotificationService.class);
+    TransferNotificationDispatcher dispatcher = new TransferNotificationDispatcher(emailNotificationService, 16, 8, 5);
+    dispatcher.start();
+    Account fromAccount = new Account("Id-123", new BigDecimal("1"));
+    Account toAccount = new Account("Id-456", new BigDecimal("10999"));
+
+    dispatcher.publishTransfer(fromAccount, toAccount, new BigDecimal("4999"), fromAccount.getBalance(), toAccount.getBalance());
+
+    verify(emailNotificationService, timeout(1000)).notifyAboutTransfer(eq(fromAccount),
+      eq(" [4999 - Amount debited from your Account - Id-123. Now Balance after debit is - 1 ]"));
+    verify(emailNotificationService, timeout(1000)).notifyAboutTransfer(eq(toAccount),
+      contains("Amount credited to your Account - Id-456"));
+    dispatcher.stop();
+    assertThat(dispatcher.getDeliveredNotifications()).isEqualTo(2);
+    assertThat(dispatcher.getDroppedNotifications()).isZero();
+  }
+
+  @Test
+  void dropsNotificationsWhenQueueIsFull() throws Exception {
+    EmailNotificationService emailNotificationService = mock(EmailNotificationService.class);
+    CountDownLatch deliveryBlocked = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      deliveryBlocked.await();
+      return null;
+    }).when(emailNotificationService).notifyAboutTransfer(any(), any());
+    TransferNotificationDispatcher dispatcher = new TransferNotificationDispatcher(emailNotificationService, 2, 1, 1);
+    dispatcher.start();
+    Account fromAccount = new Account("Id-123", new BigDecimal("5000"));
+    Account toAccount = new Account("Id-456", new BigDecimal("6000"));
+
+    for (int i = 0; i < 10; i++) {
+      dispatcher.publishTransfer(fromAccount, toAccount, BigDecimal.ONE, fromAccount.getBalance(), toAccount.getBalance());
+    }
+
+    assertThat(dispatcher.getDroppedNotifications()).isPositive();
+    assertThat(dispatcher.getQueueDepth()).isLessThanOrEqualTo(2);
+    deliveryBlocked.countDown();
+    dispatcher.stop();
+  }
+}
@@ -0,0 +1,95 @@
+package com.dws.challenge;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Runs two actors against the same state many times and counts the combined outcomes, in the
+ * manner of jcstress. Every round gets its own state, prepared before the race starts, and both
+ * actors are released into a round together, so their operations overlap as much as the scheduler
+ * allows. Each outcome is "actor1, actor2, arbiter", where the arbiter reads the state after both
+ * actors have finished the round. A round that does not finish within the timeout fails the race
+ * as a deadlock.
+ */
+final class TransferRaceHarness<S> {
+
+  private final int rounds;
+
+  private final IntFunction<S> stateForRound;
+
+  private final long timeoutMillis;
+
+  TransferRaceHarness(int rounds, IntFunction<S> stateForRound, long timeoutMillis) {
+    this.rounds = rounds;
+    this.stateForRound = stateForRound;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  Map<String, Integer> race(Function<S, Object> actor1, Function<S, Object> actor2, Function<S, Object> arbiter) throws InterruptedException {
+    Object[] states = new Object[rounds];
+    for (int round = 0; round < rounds; round++) {
+      states[round] = stateForRound.apply(round);
+    }
+    Object[] outcomes1 = new Object[rounds];
+    Object[] outcomes2 = new Object[rounds];
+    AtomicInteger arrivals = new AtomicInteger();
+    Throwable[] failure = new Throwable[1];
+    Thread thread1 = actorThread("race-actor-1", actor1, states, outcomes1, arrivals, failure);
+    Thread thread2 = actorThread("race-actor-2", actor2, states, outcomes2, arrivals, failure);
+    thread1.start();
+    thread2.start();
+    thread1.join(timeoutMillis);
+    thread2.join(Math.max(1, timeoutMillis));
+    if (thread1.isAlive() || thread2.isAlive()) {
+      throw new AssertionError("Race did not finish within " + timeoutMillis + " ms, after " + arrivals.get() / 2
+        + " rounds; possible deadlock");
+    }
+    synchronized (failure) {
+      if (failure[0] != null) {
+        throw new AssertionError("Actor failed", failure[0]);
+      }
+    }
+
+    Map<String, Integer> outcomes = new TreeMap<>();
+    for (int round = 0; round < rounds; round++) {
+      @SuppressWarnings("unchecked")
+      S state = (S) states[round];
+      outcomes.merge(outcomes1[round] + ", " + outcomes2[round] + ", " + arbiter.apply(state), 1, Integer::sum);
+    }
+    return outcomes;
+  }
+
+  private Thread actorThread(String name, Function<S, Object> actor, Object[] states, Object[] outcomes, AtomicInteger arrivals,
+    Throwable[] failure) {
+    Thread thread = new Thread(() -> {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+        for (int round = 0; round < rounds; round++) {
+          // Both actors must arrive at this round before either starts it.
+          arrivals.incrementAndGet();
+          while (arrivals.get() < 2 * (round + 1)) {
+            if (System.nanoTime() > deadline) {
+              return;
+            }
+            Thread.yield();
+          }
+          @SuppressWarnings("unchecked")
+          S state = (S) states[round];
+          outcomes[round] = actor.apply(state);
+        }
+      } catch (Throwable t) {
+        synchronized (failure) {
+          failure[0] = t;
+        }
+        // Let the other actor through the remaining rounds instead of waiting for the timeout.
+        arrivals.addAndGet(2 * rounds);
+      }
+    }, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
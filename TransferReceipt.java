@@ -0,0 +1,25 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * The outcome of a transfer and, if it completed, the balances it left on both accounts. The
+ * balances are null for any other status.
+ */
+@Data
+public class TransferReceipt {
+
+  private final TransferStatus status;
+
+  private final BigDecimal fromBalanceAfterTransfer;
+
+  private final BigDecimal toBalanceAfterTransfer;
+
+  public TransferReceipt(TransferStatus status, BigDecimal fromBalanceAfterTransfer, BigDecimal toBalanceAfterTransfer) {
+    this.status = status;
+    this.fromBalanceAfterTransfer = fromBalanceAfterTransfer;
+    this.toBalanceAfterTransfer = toBalanceAfterTransfer;
+  }
+}
@@ -0,0 +1,32 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * One committed transfer as kept in the transfer history. The sequence orders all transfers
+ * and serves as the pagination cursor.
+ */
+@Data
+public class TransferRecord {
+
+  private final long sequence;
+
+  private final String accountFromId;
+
+  private final String accountToId;
+
+  private final BigDecimal transferAmountValue;
+
+  private final Instant committedAt;
+
+  public TransferRecord(long sequence, String accountFromId, String accountToId, BigDecimal transferAmountValue, Instant committedAt) {
+    this.sequence = sequence;
+    this.accountFromId = accountFromId;
+    this.accountToId = accountToId;
+    this.transferAmountValue = transferAmountValue;
+    this.committedAt = committedAt;
+  }
+}
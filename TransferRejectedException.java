@@ -0,0 +1,24 @@
+package com.dws.challenge.exception;
+
+import com.dws.challenge.service.TransferAdmissionControl.Rejection;
+
+public class TransferRejectedException extends RuntimeException {
+
+  private final Rejection rejection;
+
+  private final long retryAfterNanos;
+
+  public TransferRejectedException(Rejection rejection, long retryAfterNanos) {
+    super("Transfer rejected by admission control (" + rejection + ")");
+    this.rejection = rejection;
+    this.retryAfterNanos = retryAfterNanos;
+  }
+
+  public Rejection getRejection() {
+    return rejection;
+  }
+
+  public long getRetryAfterNanos() {
+    return retryAfterNanos;
+  }
+}
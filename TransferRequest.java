@@ -0,0 +1,33 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+@Data
+public class TransferRequest {
+
+  @NotNull
+  @NotEmpty
+  private final String accountFromId;
+
+  @NotNull
+  @NotEmpty
+  private final String accountToId;
+
+  @NotNull
+  private final BigDecimal transferAmountValue;
+
+  @JsonCreator
+  public TransferRequest(@JsonProperty("accountFromId") String accountFromId,
+    @JsonProperty("accountToId") String accountToId,
+    @JsonProperty("transferAmountValue") BigDecimal transferAmountValue) {
+    this.accountFromId = accountFromId;
+    this.accountToId = accountToId;
+    this.transferAmountValue = transferAmountValue;
+  }
+}
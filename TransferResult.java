@@ -0,0 +1,24 @@
+package com.dws.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+@Data
+public class TransferResult {
+
+  private final String accountFromId;
+
+  private final String accountToId;
+
+  private final BigDecimal transferAmountValue;
+
+  private final TransferStatus status;
+
+  public TransferResult(TransferRequest transferRequest, TransferStatus status) {
+    this.accountFromId = transferRequest.getAccountFromId();
+    this.accountToId = transferRequest.getAccountToId();
+    this.transferAmountValue = transferRequest.getTransferAmountValue();
+    this.status = status;
+  }
+}
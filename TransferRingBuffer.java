@@ -0,0 +1,263 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.BalanceAdjustment;
+import com.dws.challenge.domain.TransferStatus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated multi-producer, single-consumer ring of transfer commands, after the LMAX
+ * Disruptor. Producers claim a sequence, fill the slot it maps to and publish it by writing
+ * the sequence into the slot's availability flag; the consumer processes every contiguous
+ * published sequence as one batch and then releases the slots. Slots are reused, so a
+ * transfer costs no allocation beyond the caller's future. A slot holds a transfer, a balance
+ * adjustment of one account or a barrier.
+ */
+final class TransferRingBuffer {
+
+  private static final int SPINS_BEFORE_YIELD = 100;
+
+  private static final long PRODUCER_PARK_NANOS = 1_000;
+
+  /**
+   * Set in the claimed sequence once the ring is closed; claims carrying it are refused.
+   */
+  private static final long CLOSED = 1L << 62;
+
+  /**
+   * Mutable slot. Written only by the producer that claimed it and read only by the consumer
+   * after the availability flag has published it.
+   */
+  static final class TransferCommand {
+
+    String accountFromId;
+
+    String accountToId;
+
+    int fromSlot;
+
+    int toSlot;
+
+    /**
+     * {@link BalanceLedger#getGeneration()} when the slots were resolved.
+     */
+    long generation;
+
+    long minorUnits;
+
+    CompletableFuture<TransferStatus> future;
+
+    TransferStatus status;
+
+    /**
+     * Set instead of a transfer when the command adjusts the balance of
+     * {@link #accountFromId}; its result goes to {@link #adjustmentFuture}.
+     */
+    BalanceAdjustment adjustment;
+
+    CompletableFuture<BalanceAdjustmentTally> adjustmentFuture;
+
+    /**
+     * Set instead of a transfer for a command the consumer runs in place, holding back every
+     * command after it until it returns.
+     */
+    Runnable barrier;
+  }
+
+  private final TransferCommand[] commands;
+
+  private final AtomicLongArray availableSequences;
+
+  private final int mask;
+
+  private final AtomicLong claimedSequence = new AtomicLong(-1);
+
+  private final AtomicLong consumedSequence = new AtomicLong(-1);
+
+  private volatile Thread consumerThread;
+
+  private volatile boolean consumerParked;
+
+  TransferRingBuffer(int requestedCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity));
+    if (capacity < requestedCapacity) {
+      capacity <<= 1;
+    }
+    this.commands = new TransferCommand[capacity];
+    this.availableSequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      commands[i] = new TransferCommand();
+      availableSequences.set(i, -1);
+    }
+    this.mask = capacity - 1;
+  }
+
+  int capacity() {
+    return commands.length;
+  }
+
+  void setConsumerThread(Thread consumerThread) {
+    this.consumerThread = consumerThread;
+  }
+
+  /**
+   * Publishes one command, waiting while the ring is full. Returns false without publishing
+   * once the ring has been closed.
+   */
+  boolean publish(String accountFromId, String accountToId, int fromSlot, int toSlot, long generation, long minorUnits,
+                  CompletableFuture<TransferStatus> future) {
+    long sequence = claim();
+    if (sequence < 0) {
+      return false;
+    }
+    TransferCommand command = commands[(int) sequence & mask];
+    command.accountFromId = accountFromId;
+    command.accountToId = accountToId;
+    command.fromSlot = fromSlot;
+    command.toSlot = toSlot;
+    command.generation = generation;
+    command.minorUnits = minorUnits;
+    command.future = future;
+    command.status = null;
+    command.adjustment = null;
+    command.adjustmentFuture = null;
+    command.barrier = null;
+    makeAvailable(sequence);
+    return true;
+  }
+
+  /**
+   * Publishes a balance adjustment of one account, waiting while the ring is full. Returns
+   * false without publishing once the ring has been closed.
+   */
+  boolean publishAdjustment(String accountId, int slot, long generation, BalanceAdjustment adjustment,
+                            CompletableFuture<BalanceAdjustmentTally> adjustmentFuture) {
+    long sequence = claim();
+    if (sequence < 0) {
+      return false;
+    }
+    TransferCommand command = commands[(int) sequence & mask];
+    command.accountFromId = accountId;
+    command.accountToId = null;
+    command.fromSlot = slot;
+    command.toSlot = -1;
+    command.generation = generation;
+    command.minorUnits = 0;
+    command.future = null;
+    command.status = null;
+    command.adjustment = adjustment;
+    command.adjustmentFuture = adjustmentFuture;
+    command.barrier = null;
+    makeAvailable(sequence);
+    return true;
+  }
+
+  /**
+   * Publishes a barrier the consumer runs once it reaches it, waiting while the ring is full.
+   * Returns false without publishing once the ring has been closed.
+   */
+  boolean publishBarrier(Runnable barrier) {
+    long sequence = claim();
+    if (sequence < 0) {
+      return false;
+    }
+    TransferCommand command = commands[(int) sequence & mask];
+    command.accountFromId = null;
+    command.accountToId = null;
+    command.fromSlot = -1;
+    command.toSlot = -1;
+    command.minorUnits = 0;
+    command.future = null;
+    command.status = null;
+    command.adjustment = null;
+    command.adjustmentFuture = null;
+    command.barrier = barrier;
+    makeAvailable(sequence);
+    return true;
+  }
+
+  /**
+   * Claims the next sequence and waits until its slot is free, or returns -1 once the ring
+   * has been closed.
+   */
+  private long claim() {
+    long sequence = claimedSequence.incrementAndGet();
+    if ((sequence & CLOSED) != 0) {
+      return -1;
+    }
+    int spins = 0;
+    while (sequence - commands.length > consumedSequence.get()) {
+      spins = backOff(spins, PRODUCER_PARK_NANOS);
+    }
+    return sequence;
+  }
+
+  private void makeAvailable(long sequence) {
+    availableSequences.set((int) sequence & mask, sequence);
+    if (consumerParked) {
+      LockSupport.unpark(consumerThread);
+    }
+  }
+
+  /**
+   * Refuses every later claim and returns the last sequence claimed before, which the
+   * consumer must still process: its producer is publishing it or waiting for room.
+   * Consumer only.
+   */
+  long close() {
+    return claimedSequence.getAndAccumulate(CLOSED, (sequence, closed) -> sequence | closed) & ~CLOSED;
+  }
+
+  /**
+   * Highest sequence from {@code nextSequence} on below which every sequence is published, or
+   * {@code nextSequence - 1} when the next one is not published yet. Consumer only.
+   */
+  long highestPublished(long nextSequence) {
+    long sequence = nextSequence;
+    long limit = nextSequence + commands.length;
+    while (sequence < limit && availableSequences.get((int) sequence & mask) == sequence) {
+      sequence++;
+    }
+    return sequence - 1;
+  }
+
+  TransferCommand commandAt(long sequence) {
+    return commands[(int) sequence & mask];
+  }
+
+  /**
+   * Hands every slot up to and including {@code sequence} back to the producers. Consumer only.
+   */
+  void release(long sequence) {
+    consumedSequence.set(sequence);
+  }
+
+  /**
+   * Parks the consumer until a producer publishes {@code nextSequence} or the timeout passes.
+   * Consumer only.
+   */
+  void awaitPublished(long nextSequence, long timeoutNanos) {
+    consumerParked = true;
+    try {
+      if (highestPublished(nextSequence) < nextSequence) {
+        LockSupport.parkNanos(this, timeoutNanos);
+      }
+    } finally {
+      consumerParked = false;
+    }
+  }
+
+  private static int backOff(int spins, long parkNanos) {
+    if (spins < SPINS_BEFORE_YIELD) {
+      Thread.onSpinWait();
+    } else if (spins < 2 * SPINS_BEFORE_YIELD) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(parkNanos);
+    }
+    return spins + 1;
+  }
+}
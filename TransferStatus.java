@@ -0,0 +1,28 @@
+package com.dws.challenge.domain;
+
+public enum TransferStatus {
+
+  COMPLETED,
+
+  INSUFFICIENT_BALANCE,
+
+  BELOW_MINIMUM_AMOUNT,
+
+  INVALID_AMOUNT,
+
+  ACCOUNT_NOT_FOUND,
+
+  MALFORMED_REQUEST,
+
+  REJECTED,
+
+  /**
+   * The transfer was abandoned before any money moved; it may be retried.
+   */
+  ABORTED,
+
+  /**
+   * The transfer may or may not have been applied; its outcome is still being settled.
+   */
+  IN_DOUBT
+}
@@ -0,0 +1,56 @@
+package com.dws.challenge.benchmark;
+
+import java.util.Random;
+
+/**
+ * Zipfian distribution over {@code [0, itemCount)} following Gray et al., "Quickly Generating
+ * Billion-Record Synthetic Databases". Item 0 is the hottest. Instances are immutable and can be
+ * shared between threads; each caller supplies its own random source.
+ */
+public final class ZipfianGenerator {
+
+  public static final double DEFAULT_ZIPFIAN_CONSTANT = 0.99;
+
+  private final int itemCount;
+
+  private final double theta;
+
+  private final double alpha;
+
+  private final double zetan;
+
+  private final double eta;
+
+  public ZipfianGenerator(int itemCount) {
+    this(itemCount, DEFAULT_ZIPFIAN_CONSTANT);
+  }
+
+  public ZipfianGenerator(int itemCount, double theta) {
+    this.itemCount = itemCount;
+    this.theta = theta;
+    this.alpha = 1.0 / (1.0 - theta);
+    this.zetan = zeta(itemCount, theta);
+    double zeta2 = zeta(2, theta);
+    this.eta = (1 - Math.pow(2.0 / itemCount, 1 - theta)) / (1 - zeta2 / zetan);
+  }
+
+  public int nextInt(Random random) {
+    double u = random.nextDouble();
+    double uz = u * zetan;
+    if (uz < 1.0) {
+      return 0;
+    }
+    if (uz < 1.0 + Math.pow(0.5, theta)) {
+      return 1;
+    }
+    return Math.min(itemCount - 1, (int) (itemCount * Math.pow(eta * u - eta + 1, alpha)));
+  }
+
+  private static double zeta(int n, double theta) {
+    double sum = 0;
+    for (int i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+}